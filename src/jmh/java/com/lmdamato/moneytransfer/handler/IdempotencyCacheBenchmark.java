@@ -0,0 +1,56 @@
+package com.lmdamato.moneytransfer.handler;
+
+import io.vavr.control.Either;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of an idempotency key lookup, as paid by retries, and of claiming a new key, as paid by every first attempt
+ * once the cache is full and each claim evicts the oldest key. Run with threads sharing one cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class IdempotencyCacheBenchmark {
+    private static final int KEYS = 100_000;
+    private static final String FINGERPRINT = "POST /transfer/a/b/1.00";
+
+    private final IdempotencyCache cache = new IdempotencyCache(KEYS, 1, TimeUnit.DAYS, System::nanoTime);
+    private final String[] keys = new String[KEYS];
+    private final AtomicLong fresh = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key-" + i;
+            cache.claim(keys[i], FINGERPRINT).get().complete(204);
+        }
+    }
+
+    @Benchmark
+    public Either<IdempotencyCache.Claim, IdempotencyCache.Claim> retry() {
+        return cache.claim(keys[ThreadLocalRandom.current().nextInt(KEYS)], FINGERPRINT);
+    }
+
+    @Benchmark
+    public Either<IdempotencyCache.Claim, IdempotencyCache.Claim> firstAttempt() {
+        return cache.claim("fresh-" + fresh.incrementAndGet(), FINGERPRINT);
+    }
+}
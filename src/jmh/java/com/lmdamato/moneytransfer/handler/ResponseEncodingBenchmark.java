@@ -0,0 +1,64 @@
+package com.lmdamato.moneytransfer.handler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lmdamato.moneytransfer.model.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding a response body, as it used to be done through a pretty-printing ObjectMapper writer
+ * and as JsonResponses does it. Run with "-prof gc" to compare the bytes allocated per response
+ * (gc.alloc.rate.norm); the pooled buffer the balance is written into is stood in for by a reused one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseEncodingBenchmark {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ByteBuffer pooled = ByteBuffer.allocateDirect(JsonResponses.MAX_BALANCE_BYTES);
+    private long minorUnits = 123_456L;
+
+    @Benchmark
+    public ByteBuffer balanceObjectMapper() throws JsonProcessingException {
+        return ByteBuffer.wrap(mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(Money.ofMinorUnits(nextBalance())));
+    }
+
+    @Benchmark
+    public ByteBuffer balanceHandWritten() {
+        pooled.clear();
+        JsonResponses.encodeBalance(pooled, nextBalance());
+        pooled.flip();
+
+        return pooled;
+    }
+
+    @Benchmark
+    public ByteBuffer errorObjectMapper() throws JsonProcessingException {
+        return ByteBuffer.wrap(mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes("User not found"));
+    }
+
+    @Benchmark
+    public ByteBuffer errorCached() {
+        return JsonResponses.USER_NOT_FOUND.duplicate();
+    }
+
+    // Varies the balance so the encoding cannot be folded into a constant
+    private long nextBalance() {
+        return minorUnits = (minorUnits * 31 + 7) & 0xFFFF_FFFFL;
+    }
+}
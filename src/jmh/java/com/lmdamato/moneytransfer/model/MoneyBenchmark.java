@@ -0,0 +1,56 @@
+package com.lmdamato.moneytransfer.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Money arithmetic on minor units, next to the same operations on the BigDecimal amounts Money used to hold.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark {
+    // Not final, so that the JIT cannot fold the operations into constants
+    private Money balance = new Money(new BigDecimal("1234567.89"));
+    private Money amount = new Money(new BigDecimal("12.34"));
+    private BigDecimal balanceDecimal = new BigDecimal("1234567.89");
+    private BigDecimal amountDecimal = new BigDecimal("12.34");
+
+    @Benchmark
+    public Money plus() {
+        return balance.plus(amount);
+    }
+
+    @Benchmark
+    public Money minus() {
+        return balance.minus(amount);
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return balance.compareTo(amount);
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimalPlus() {
+        return balanceDecimal.add(amountDecimal);
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimalMinus() {
+        return balanceDecimal.subtract(amountDecimal);
+    }
+}
@@ -0,0 +1,147 @@
+package com.lmdamato.moneytransfer.server;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.server.binary.BinaryClient;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import io.vavr.control.Option;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers and balance reads sent to an in-process server over HTTP, on a keep-alive connection, and over the
+ * binary protocol, one request at a time and PIPELINED at a time. Both clients run in the benchmark's JVM, so
+ * their cost is measured along with the server's; the difference is what routing, path parsing and JSON add.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtocolBenchmark {
+    private static final int HTTP_PORT = 8091;
+    private static final int BINARY_PORT = 8092;
+    private static final int PIPELINED = 64;
+
+    private static final String FROM = "bench-from";
+    private static final String TO = "bench-to";
+
+    private RestServer server;
+
+    @State(Scope.Thread)
+    public static class Clients {
+        private URL transfer;
+        private URL balance;
+        private BinaryClient binary;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            transfer = new URL("http://localhost:" + HTTP_PORT + "/transfer/" + FROM + "/" + TO + "/0.01");
+            balance = new URL("http://localhost:" + HTTP_PORT + "/balance/" + FROM);
+            binary = BinaryClient.connect("localhost", BINARY_PORT);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            binary.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MoneyTransferDao dao = InMemoryMoneyTransferDao.getInstance();
+
+        dao.createUser(new User(FROM)).get();
+        dao.createUser(new User(TO)).get();
+        dao.deposit(new User(FROM), Money.ofMinorUnits(Long.MAX_VALUE / 2)).get();
+
+        final ServerConfig config = ServerConfig
+            .fromSystemProperties()
+            .toBuilder()
+            .port(HTTP_PORT)
+            .binaryPort(Option.some(BINARY_PORT))
+            .build();
+
+        server = RestServer.start(config, dao);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public int httpTransfer(final Clients clients) throws IOException {
+        return send(clients.transfer, "POST");
+    }
+
+    @Benchmark
+    public int httpBalance(final Clients clients) throws IOException {
+        return send(clients.balance, "GET");
+    }
+
+    @Benchmark
+    public byte binaryTransfer(final Clients clients) throws IOException {
+        clients.binary.transfer(FROM, TO, 1L);
+        return clients.binary.receive().getStatus();
+    }
+
+    @Benchmark
+    public long binaryBalance(final Clients clients) throws IOException {
+        clients.binary.balance(FROM);
+        return clients.binary.receive().getBalance();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public byte binaryTransferPipelined(final Clients clients) throws IOException {
+        for (int i = 0; i < PIPELINED; i++) {
+            clients.binary.transfer(FROM, TO, 1L);
+        }
+
+        byte status = 0;
+        for (int i = 0; i < PIPELINED; i++) {
+            status |= clients.binary.receive().getStatus();
+        }
+
+        return status;
+    }
+
+    // Reads the whole response, so the connection goes back to the keep-alive cache
+    private static int send(final URL url, final String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+
+        final int status = connection.getResponseCode();
+        final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+        if (body != null) {
+            try (final InputStream in = body) {
+                while (in.read() >= 0) {
+                    // Drain
+                }
+            }
+        }
+
+        return status;
+    }
+}
@@ -0,0 +1,173 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Try;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deposits, withdrawals and transfers against each storage engine, from one thread and from several,
+ * with accounts picked uniformly, from a Zipfian distribution where a few hot accounts get most of the traffic,
+ * or as disjoint pairs that no two threads share. Accounts never run out of funds, so every operation succeeds.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class MoneyTransferDaoBenchmark {
+    private static final Money INITIAL_BALANCE = Money.ofMinorUnits(1_000_000_000_000L);
+    private static final Money AMOUNT = Money.ofMinorUnits(1L);
+
+    // Skew of the Zipfian distribution, as in YCSB
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    // Hands each benchmark thread its own pair of accounts
+    private static final AtomicInteger THREAD_INDEXES = new AtomicInteger();
+
+    @Threads(1)
+    public static class SingleThreaded extends MoneyTransferDaoBenchmark {
+    }
+
+    @Threads(4)
+    public static class MultiThreaded extends MoneyTransferDaoBenchmark {
+    }
+
+    public enum Engine { STRIPED, GLOBAL_LOCK, SHARDED, MAPPED }
+
+    public enum Distribution { UNIFORM, ZIPFIAN, DISJOINT }
+
+    @Param({"STRIPED", "GLOBAL_LOCK", "SHARDED", "MAPPED"})
+    public Engine engine;
+
+    @Param({"UNIFORM", "ZIPFIAN", "DISJOINT"})
+    public Distribution distribution;
+
+    @Param({"10000"})
+    public int accounts;
+
+    private MoneyTransferDao dao;
+    private User[] users;
+
+    // Account table of the MAPPED engine, deleted after the trial
+    private Path file;
+
+    // Cumulative probability of picking each account, by decreasing popularity
+    private double[] zipfCdf;
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private SplittableRandom random;
+        private int index;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            index = THREAD_INDEXES.getAndIncrement();
+            random = new SplittableRandom(index);
+        }
+
+        int next(final MoneyTransferDaoBenchmark benchmark) {
+            switch (benchmark.distribution) {
+                case ZIPFIAN:
+                    final int rank = Arrays.binarySearch(benchmark.zipfCdf, random.nextDouble());
+                    return Math.min(rank < 0 ? -rank - 1 : rank, benchmark.accounts - 1);
+                case DISJOINT:
+                    return (2 * index) % (benchmark.accounts & ~1);
+                default:
+                    return random.nextInt(benchmark.accounts);
+            }
+        }
+
+        // Another account than from: the other half of the pair, or a fresh pick
+        int counterparty(final MoneyTransferDaoBenchmark benchmark, final int from) {
+            final int to = benchmark.distribution == Distribution.DISJOINT ? from + 1 : next(benchmark);
+
+            return to == from || to >= benchmark.accounts ? (from + 1) % benchmark.accounts : to;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        switch (engine) {
+            case GLOBAL_LOCK:
+                dao = new InMemoryMoneyTransferDao(1);
+                break;
+            case SHARDED:
+                dao = new ShardedMoneyTransferDao();
+                break;
+            case MAPPED:
+                file = Files.createTempFile("accounts", ".table");
+                dao = MappedMoneyTransferDao.open(file, accounts);
+                break;
+            default:
+                dao = new InMemoryMoneyTransferDao(InMemoryMoneyTransferDao.DEFAULT_LOCK_STRIPES);
+        }
+
+        users = new User[accounts];
+        for (int i = 0; i < accounts; i++) {
+            users[i] = new User("bench-" + i);
+            dao.createUser(users[i]).get();
+            dao.deposit(users[i], INITIAL_BALANCE).get();
+        }
+
+        zipfCdf = new double[accounts];
+        double sum = 0;
+        for (int i = 0; i < accounts; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            zipfCdf[i] = sum;
+        }
+        for (int i = 0; i < accounts; i++) {
+            zipfCdf[i] /= sum;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (dao instanceof AutoCloseable) {
+            ((AutoCloseable) dao).close();
+        }
+
+        if (file != null) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public Try<Void> deposit(final Picker picker) {
+        return dao.deposit(users[picker.next(this)], AMOUNT);
+    }
+
+    @Benchmark
+    public Try<Void> withdraw(final Picker picker) {
+        return dao.withdraw(users[picker.next(this)], AMOUNT);
+    }
+
+    @Benchmark
+    public Try<Void> transfer(final Picker picker) {
+        final int from = picker.next(this);
+
+        return dao.transfer(users[from], users[picker.counterparty(this, from)], AMOUNT);
+    }
+}
@@ -0,0 +1,76 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Durable appends from many concurrent writers, each waiting for its record to be forced to disk:
+ * PER_OP forces every record on its own, GROUP shares one fsync among all records that arrive together.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class GroupCommitBenchmark {
+    @Param({"PER_OP", "GROUP"})
+    public String commit;
+
+    private Path dir;
+    private FileJournal journal;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("journal-bench");
+
+        final boolean group = "GROUP".equals(commit);
+        journal = FileJournal.open(
+            JournalConfig
+                .builder()
+                .dir(dir)
+                .maxBatchSize(group ? JournalConfig.DEFAULT_MAX_BATCH_SIZE : 1)
+                .maxBatchDelayMicros(group ? JournalConfig.DEFAULT_MAX_BATCH_DELAY_MICROS : 0)
+                .build(),
+            record -> { }
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        journal.close();
+
+        try (final Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Long durableTransfer() {
+        final CompletableFuture<Long> durable = new CompletableFuture<>();
+        journal.append(JournalRecordType.TRANSFER, "user-1", "user-2", 123L, durable);
+
+        return durable.join();
+    }
+}
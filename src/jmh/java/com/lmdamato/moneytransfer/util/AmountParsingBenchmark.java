@@ -0,0 +1,68 @@
+package com.lmdamato.moneytransfer.util;
+
+import com.lmdamato.moneytransfer.model.Money;
+import io.undertow.server.HttpServerExchange;
+import io.vavr.control.Option;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an amount path parameter: through BigDecimal and Money's rescaling, as RequestParser.amount used to,
+ * and straight into minor units. Run with "-prof gc" to compare the bytes allocated per parse.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AmountParsingBenchmark {
+    @Param({"7", "12.34", "1234567.89"})
+    public String amount;
+
+    private HttpServerExchange exchange;
+
+    @Setup
+    public void setUp() {
+        exchange = new HttpServerExchange(null);
+        exchange.addQueryParam("amount", amount);
+    }
+
+    @Benchmark
+    public Money bigDecimal() {
+        final BigDecimal value = new BigDecimal(amount);
+
+        return value.compareTo(BigDecimal.ZERO) > 0 ? new Money(value) : null;
+    }
+
+    @Benchmark
+    public long minorUnits() {
+        return RequestParser.parseMinorUnits(amount);
+    }
+
+    // What a handler does with the result
+    @Benchmark
+    public Money minorUnitsToMoney() {
+        final long minorUnits = RequestParser.parseMinorUnits(amount);
+
+        return minorUnits == RequestParser.INVALID_AMOUNT ? null : Money.ofMinorUnits(minorUnits);
+    }
+
+    // The whole lookup a handler goes through, from the exchange's parameters to Money
+    @Benchmark
+    public Option<Money> requestParserAmount() {
+        return RequestParser.amount(exchange);
+    }
+}
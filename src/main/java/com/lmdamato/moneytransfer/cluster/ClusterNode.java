@@ -0,0 +1,45 @@
+package com.lmdamato.moneytransfer.cluster;
+
+import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.server.ServerConfig;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.StorageEngine;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.io.IOException;
+
+/**
+ * A node of a cluster: the endpoints over its own accounts, as served by a lone {@link RestServer},
+ * and the internal ones through which it takes part in transfers with the other nodes.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ClusterNode {
+    public static void main(String[] args) throws IOException {
+        RestServer.loadConfigFile();
+
+        final MoneyTransferDao dao = StorageEngine.fromSystemProperties().create();
+        final RestServer server = start(
+            ServerConfig.fromSystemProperties(),
+            dao,
+            TransferParticipant.fromSystemProperties(dao)
+        );
+
+        RestServer.stopOnShutdown(server, Option.some(dao));
+    }
+
+    public static RestServer start(
+        @NonNull final ServerConfig config,
+        @NonNull final MoneyTransferDao dao,
+        @NonNull final TransferParticipant participant
+    ) {
+        return RestServer.start(
+            config,
+            RestServer.routes(new MoneyTransferHandler(dao)).addAll(participant.routes()),
+            Option.some(dao)
+        );
+    }
+}
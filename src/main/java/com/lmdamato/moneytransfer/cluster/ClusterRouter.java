@@ -0,0 +1,239 @@
+package com.lmdamato.moneytransfer.cluster;
+
+import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.server.ServerConfig;
+import com.lmdamato.moneytransfer.util.RequestParser;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the endpoints of a single account over a cluster of nodes, each owning the accounts whose user id hashes
+ * to it: requests are forwarded to the owner and its reply relayed back as it is. Every router must list the nodes
+ * in the same order, which is what maps user ids to them.
+ *
+ * A transfer between accounts on the same node is forwarded too; one between nodes is driven here as described by
+ * {@link TransferParticipant}. It answers 502 Bad Gateway if a node could not be reached before the outcome was
+ * decided, in which case the reservation, if any, is settled by recovery on the payer's node. An idempotency key is
+ * honoured by the owning node for everything but a transfer between nodes, which is rejected with 501 Not Implemented.
+ * Endpoints spanning several accounts, e.g., /balances, /transfers/batch, /export and /import, are served by the
+ * nodes only. Requests to the internal endpoints of the nodes carry the cluster's secret.
+ */
+public class ClusterRouter {
+    // Comma-separated base URLs of the nodes, e.g., http://10.0.0.1:8080,http://10.0.0.2:8080
+    public static final String NODES_PROPERTY = "moneytransfer.cluster.nodes";
+
+    private static final Logger LOGGER = Logger.getLogger(ClusterRouter.class.getName());
+
+    private final List<NodeClient> nodes;
+
+    // Headers of the requests to the internal endpoints of the nodes
+    private final Map<String, String> internal;
+
+    public ClusterRouter(@NonNull final List<String> nodeUrls, @NonNull final String secret) {
+        if (nodeUrls.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one node");
+        }
+
+        this.nodes = nodeUrls.stream().map(NodeClient::new).collect(Collectors.toList());
+        this.internal = Collections.singletonMap(TransferParticipant.CLUSTER_SECRET.toString(), secret);
+    }
+
+    public static ClusterRouter fromSystemProperties() {
+        final String nodes = System.getProperty(NODES_PROPERTY);
+        if (nodes == null) {
+            throw new IllegalArgumentException(NODES_PROPERTY + " must list the nodes of the cluster");
+        }
+
+        final List<String> nodeUrls = Arrays
+            .stream(nodes.split(","))
+            .map(String::trim)
+            .filter(url -> !url.isEmpty())
+            .collect(Collectors.toList());
+
+        return new ClusterRouter(nodeUrls, TransferParticipant.secretFromSystemProperties());
+    }
+
+    public static void main(String[] args) throws IOException {
+        RestServer.loadConfigFile();
+
+        final RestServer server = RestServer.start(
+            ServerConfig.fromSystemProperties(),
+            fromSystemProperties().routes(),
+            Option.none()
+        );
+
+        RestServer.stopOnShutdown(server, Option.none());
+    }
+
+    public RoutingHandler routes() {
+        return new RoutingHandler()
+            .put("/create/{userId}", forwardTo("userId"))
+            .get("/balance/{userId}", forwardTo("userId"))
+            .post("/deposit/{userId}/{amount}", forwardTo("userId"))
+            .post("/withdraw/{userId}/{amount}", forwardTo("userId"))
+            .post("/transfer/{from}/{to}/{amount}", TransferParticipant.blocking(this::transferHandler))
+            .get("/history/{userId}", forwardTo("userId"))
+            .setFallbackHandler(ResponseCodeHandler.HANDLE_404);
+    }
+
+    // Index of the node owning the user's account, out of nodes
+    static int ownerOf(@NonNull final String userId, final int nodes) {
+        final int h = userId.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), nodes);
+    }
+
+    void transferHandler(@NonNull final HttpServerExchange exchange) {
+        final String from = RequestParser.userId(exchange, "from");
+        final String to = RequestParser.userId(exchange, "to");
+        final String amount = RequestParser.rawPathParam(exchange, "amount");
+
+        if (from == null || to == null || RequestParser.parseMinorUnits(amount) == RequestParser.INVALID_AMOUNT) {
+            end(exchange, StatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        final NodeClient source = ownerOf(from);
+        final NodeClient destination = ownerOf(to);
+
+        if (source == destination) {
+            forward(exchange, source);
+            return;
+        }
+
+        if (exchange.getRequestHeaders().contains(MoneyTransferHandler.IDEMPOTENCY_KEY)) {
+            end(exchange, StatusCodes.NOT_IMPLEMENTED);
+            return;
+        }
+
+        final String transfer = TransferParticipant.PREFIX + UUID.randomUUID();
+
+        try {
+            final NodeClient.Reply reserved = source.send(
+                "POST",
+                transfer + "/reserve/" + NodeClient.segment(from) + "/" + NodeClient.segment(amount)
+                    + "?destination=" + NodeClient.segment(destination.getBaseUrl()),
+                internal
+            );
+
+            if (reserved.getStatus() != StatusCodes.NO_CONTENT) {
+                relay(exchange, reserved);
+                return;
+            }
+
+            final NodeClient.Reply credited = destination.send(
+                "POST",
+                transfer + "/credit/" + NodeClient.segment(to) + "/" + NodeClient.segment(amount),
+                internal
+            );
+
+            if (credited.getStatus() == StatusCodes.NO_CONTENT || isCredited(destination, transfer)) {
+                settle(source, transfer, "/confirm");
+                end(exchange, StatusCodes.NO_CONTENT);
+            } else {
+                // Decided against, e.g., because the payee does not exist, so the reply says why
+                settle(source, transfer, "/release");
+                relay(exchange, credited);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Transfer " + transfer + " left to recovery", e);
+            end(exchange, StatusCodes.BAD_GATEWAY);
+        }
+    }
+
+    // Decides a transfer whose credit failed: false if it is now aborted, true if the payee had been credited after all
+    private boolean isCredited(final NodeClient destination, final String transfer) throws IOException {
+        final NodeClient.Reply aborted = destination.send("POST", transfer + "/abort", internal);
+
+        if (aborted.getStatus() != StatusCodes.NO_CONTENT && aborted.getStatus() != StatusCodes.CONFLICT) {
+            throw new IOException("Abort answered with " + aborted.getStatus());
+        }
+
+        return aborted.getStatus() == StatusCodes.CONFLICT;
+    }
+
+    // Tells the payer's node the outcome; if it does not hear it, recovery there finds it out later
+    private void settle(final NodeClient source, final String transfer, final String outcome) {
+        try {
+            source.send("POST", transfer + outcome, internal);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Transfer " + transfer + " left to recovery", e);
+        }
+    }
+
+    private HttpHandler forwardTo(final String userParam) {
+        return TransferParticipant.blocking(exchange -> {
+            final String userId = RequestParser.userId(exchange, userParam);
+
+            if (userId == null) {
+                end(exchange, StatusCodes.BAD_REQUEST);
+            } else {
+                forward(exchange, ownerOf(userId));
+            }
+        });
+    }
+
+    // Sends the request on as it came, path and query string still encoded, along with its idempotency key
+    private static void forward(final HttpServerExchange exchange, final NodeClient node) {
+        final String query = exchange.getQueryString();
+        final String key = exchange.getRequestHeaders().getFirst(MoneyTransferHandler.IDEMPOTENCY_KEY);
+
+        try {
+            relay(exchange, node.send(
+                exchange.getRequestMethod().toString(),
+                exchange.getRequestURI() + (query.isEmpty() ? "" : "?" + query),
+                key == null
+                    ? Collections.emptyMap()
+                    : Collections.singletonMap(MoneyTransferHandler.IDEMPOTENCY_KEY.toString(), key)
+            ));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Node " + node.getBaseUrl() + " could not be reached", e);
+            end(exchange, StatusCodes.BAD_GATEWAY);
+        }
+    }
+
+    private static void relay(final HttpServerExchange exchange, final NodeClient.Reply reply) {
+        exchange.setStatusCode(reply.getStatus());
+
+        if (reply.isReplayed()) {
+            exchange.getResponseHeaders().put(MoneyTransferHandler.IDEMPOTENT_REPLAYED, "true");
+        }
+
+        if (reply.getBody().length == 0) {
+            exchange.endExchange();
+            return;
+        }
+
+        if (reply.getContentType() != null) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, reply.getContentType());
+        }
+
+        exchange.getResponseSender().send(ByteBuffer.wrap(reply.getBody()));
+    }
+
+    private NodeClient ownerOf(final String userId) {
+        return nodes.get(ownerOf(userId, nodes.size()));
+    }
+
+    private static void end(final HttpServerExchange exchange, final int status) {
+        exchange.setStatusCode(status);
+        exchange.endExchange();
+    }
+}
@@ -0,0 +1,120 @@
+package com.lmdamato.moneytransfer.cluster;
+
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.server.ServerConfig;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * A whole cluster in a single JVM, on loopback: a router on the given port and the nodes on the ports after it,
+ * each over an engine of its own, e.g., to check correctness, or to load it without any other infrastructure.
+ */
+public class LocalCluster implements AutoCloseable {
+    private static final String HOST = "localhost";
+
+    @Getter
+    private final String routerUrl;
+
+    // Base URLs of the nodes, in the order the router maps user ids to them
+    @Getter
+    private final List<String> nodeUrls;
+
+    // Shared by the router and the nodes, to reach the internal endpoints of the nodes
+    @Getter(AccessLevel.PACKAGE)
+    private final String secret;
+
+    private final List<RestServer> servers;
+    private final List<TransferParticipant> participants;
+
+    private LocalCluster(
+        @NonNull final String routerUrl,
+        @NonNull final List<String> nodeUrls,
+        @NonNull final String secret,
+        @NonNull final List<RestServer> servers,
+        @NonNull final List<TransferParticipant> participants
+    ) {
+        this.routerUrl = routerUrl;
+        this.nodeUrls = Collections.unmodifiableList(nodeUrls);
+        this.secret = secret;
+        this.servers = servers;
+        this.participants = participants;
+    }
+
+    public static LocalCluster start(
+        final int nodes,
+        final int routerPort,
+        @NonNull final Supplier<MoneyTransferDao> engines,
+        final long reservationTimeoutMillis
+    ) {
+        if (nodes < 1) {
+            throw new IllegalArgumentException("A cluster needs at least one node");
+        }
+
+        final ServerConfig config = ServerConfig
+            .fromSystemProperties()
+            .toBuilder()
+            .host(HOST)
+            .binaryPort(Option.none())
+            .build();
+
+        final List<String> nodeUrls = new ArrayList<>();
+        final List<RestServer> servers = new ArrayList<>();
+        final List<TransferParticipant> participants = new ArrayList<>();
+        final String secret = UUID.randomUUID().toString();
+        final LocalCluster cluster = new LocalCluster(url(routerPort), nodeUrls, secret, servers, participants);
+
+        try {
+            for (int i = 1; i <= nodes; i++) {
+                final MoneyTransferDao dao = engines.get();
+                final TransferParticipant participant = new TransferParticipant(
+                    TransferParticipant.ledgerOf(dao),
+                    reservationTimeoutMillis,
+                    secret
+                );
+
+                participants.add(participant);
+                servers.add(ClusterNode.start(config.toBuilder().port(routerPort + i).build(), dao, participant));
+                nodeUrls.add(url(routerPort + i));
+            }
+
+            servers.add(RestServer.start(
+                config.toBuilder().port(routerPort).build(),
+                new ClusterRouter(nodeUrls, secret).routes(),
+                Option.none()
+            ));
+        } catch (RuntimeException e) {
+            cluster.close();
+            throw e;
+        }
+
+        return cluster;
+    }
+
+    // Number of cross-node transfers reserved on the node that are not settled yet
+    int pending(final int node) {
+        return participants.get(node).pending();
+    }
+
+    // Stops the router first, so that the nodes have no more requests coming in while they drain
+    @Override
+    public void close() {
+        for (int i = servers.size() - 1; i >= 0; i--) {
+            servers.get(i).stop();
+        }
+
+        participants.forEach(TransferParticipant::close);
+    }
+
+    private static String url(final int port) {
+        return "http://" + HOST + ":" + port;
+    }
+}
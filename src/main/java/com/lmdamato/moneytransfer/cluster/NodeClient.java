@@ -0,0 +1,91 @@
+package com.lmdamato.moneytransfer.cluster;
+
+import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Blocking HTTP client of a single node, safe to share between threads. Connections are kept alive and reused
+ * by the JDK between requests, as long as every response is read to the end, which send does.
+ */
+final class NodeClient {
+    // Bounds how long a request can wait for a node, and so how late a forwarded request can reach it
+    static final int TIMEOUT_MILLIS = 5_000;
+
+    @Value
+    static class Reply {
+        private final int status;
+
+        // Null if there is no body
+        private final String contentType;
+
+        // Whether the node sent back the status of an earlier request with the same idempotency key
+        private final boolean replayed;
+
+        @NonNull
+        private final byte[] body;
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Base URL of the node, e.g., http://localhost:8081
+    @Getter
+    @NonNull
+    private final String baseUrl;
+
+    NodeClient(@NonNull final String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    // Sends the request to path, which must be encoded already, along with the headers given, and reads the reply
+    Reply send(@NonNull final String method, @NonNull final String path, @NonNull final Map<String, String> headers)
+        throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        headers.forEach(connection::setRequestProperty);
+
+        final int status = connection.getResponseCode();
+        final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        if (body != null) {
+            try (final InputStream in = body) {
+                final byte[] chunk = new byte[4096];
+                for (int read = in.read(chunk); read >= 0; read = in.read(chunk)) {
+                    bytes.write(chunk, 0, read);
+                }
+            }
+        }
+
+        return new Reply(
+            status,
+            connection.getContentType(),
+            connection.getHeaderField(MoneyTransferHandler.IDEMPOTENT_REPLAYED.toString()) != null,
+            bytes.toByteArray()
+        );
+    }
+
+    // Encodes a user id or an amount as a path segment
+    static String segment(@NonNull final String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
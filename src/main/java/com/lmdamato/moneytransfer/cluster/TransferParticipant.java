@@ -0,0 +1,378 @@
+package com.lmdamato.moneytransfer.cluster;
+
+import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
+import com.lmdamato.moneytransfer.exception.TransferAlreadyReservedException;
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.TransferLedger;
+import com.lmdamato.moneytransfer.storage.TransferLedger.Outcome;
+import com.lmdamato.moneytransfer.storage.TransferLedger.Reservation;
+import com.lmdamato.moneytransfer.util.RequestParser;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import io.vavr.control.Try;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A node's side of transfers between accounts on different nodes, done as reserve-then-credit:
+ *
+ * 1. reserve, on the node owning the payer, withdraws the amount and holds it against the transfer's id;
+ * 2. credit, on the node owning the payee, deposits it, unless the transfer was aborted there;
+ * 3. confirm, on the payer's node, settles the reservation; release instead deposits the amount back.
+ *
+ * The payee's node is where the outcome is decided: credit and abort both record a decision for the transfer, and
+ * whichever comes first wins, so a credit arriving after an abort is turned away with 409 Conflict, and vice versa.
+ * Whoever drives a transfer, the router or recovery here, settles it by asking for an abort: 204 No Content means
+ * the reservation is to be released, 409 Conflict that the payee was credited and it is to be confirmed. A credit
+ * the engine refuses, e.g., because it would overflow the payee's balance, aborts the transfer.
+ *
+ * Every step is kept by the engine's {@link TransferLedger}, journaled along with the balance it changes, and only
+ * answered once durable, so reservations and decisions survive a restart of either node. The payer's node tells
+ * the payee's once it has settled a transfer, so that the decision can be forgotten, but only a reservation timeout
+ * later, so that a credit still on its way meanwhile finds the transfer decided. Until acknowledged, the payee's node
+ * keeps the decision, and the payer's node the settled reservation.
+ *
+ * The internal endpoints are served on the same listener as the public ones, so every request to them has to carry
+ * the secret shared by the routers and nodes of the cluster in a Cluster-Secret header, and is otherwise refused
+ * with 403 Forbidden.
+ *
+ * Recovery runs in the background: reservations older than the timeout, e.g., left behind by a router that stopped
+ * halfway, are settled with the payee's node, and retried later if it cannot be reached; so are acknowledgements.
+ * Money in flight is missing from the payer's balance until then.
+ */
+public class TransferParticipant implements AutoCloseable {
+    public static final String RESERVATION_TIMEOUT_PROPERTY = "moneytransfer.cluster.reservationTimeoutSeconds";
+    public static final int DEFAULT_RESERVATION_TIMEOUT_SECONDS = 30;
+
+    // Secret shared by every router and node of a cluster
+    public static final String SECRET_PROPERTY = "moneytransfer.cluster.secret";
+
+    public static final HttpString CLUSTER_SECRET = new HttpString("Cluster-Secret");
+
+    static final String PREFIX = "/internal/transfers/";
+
+    private static final Logger LOGGER = Logger.getLogger(TransferParticipant.class.getName());
+
+    @NonNull
+    private final TransferLedger ledger;
+
+    private final long reservationTimeoutMillis;
+
+    @NonNull
+    private final String secret;
+
+    private final ScheduledExecutorService recovery;
+
+    public TransferParticipant(
+        @NonNull final TransferLedger ledger,
+        final long reservationTimeoutMillis,
+        @NonNull final String secret
+    ) {
+        if (reservationTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Reservation timeout must be positive");
+        }
+
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("The cluster secret cannot be empty");
+        }
+
+        this.ledger = ledger;
+        this.reservationTimeoutMillis = reservationTimeoutMillis;
+        this.secret = secret;
+        this.recovery = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "transfer-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long period = Math.max(1, reservationTimeoutMillis / 2);
+        recovery.scheduleWithFixedDelay(this::recover, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static TransferParticipant fromSystemProperties(@NonNull final MoneyTransferDao dao) {
+        final int timeout = Integer.getInteger(RESERVATION_TIMEOUT_PROPERTY, DEFAULT_RESERVATION_TIMEOUT_SECONDS);
+
+        return new TransferParticipant(ledgerOf(dao), TimeUnit.SECONDS.toMillis(timeout), secretFromSystemProperties());
+    }
+
+    public static String secretFromSystemProperties() {
+        final String secret = System.getProperty(SECRET_PROPERTY);
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException(SECRET_PROPERTY + " must give the secret shared by the cluster");
+        }
+
+        return secret;
+    }
+
+    // The ledger of an engine that keeps one, which not every engine does
+    static TransferLedger ledgerOf(@NonNull final MoneyTransferDao dao) {
+        if (!(dao instanceof TransferLedger)) {
+            throw new IllegalArgumentException("The storage engine cannot take part in transfers between nodes");
+        }
+
+        return (TransferLedger) dao;
+    }
+
+    // Internal endpoints, for the router and the other nodes only
+    public RoutingHandler routes() {
+        return new RoutingHandler()
+            .post(PREFIX + "{txId}/reserve/{from}/{amount}", internal(this::reserveHandler))
+            .post(PREFIX + "{txId}/credit/{to}/{amount}", internal(this::creditHandler))
+            .post(PREFIX + "{txId}/abort", internal(this::abortHandler))
+            .post(PREFIX + "{txId}/confirm", internal(this::confirmHandler))
+            .post(PREFIX + "{txId}/release", internal(this::releaseHandler))
+            .post(PREFIX + "{txId}/acknowledge", internal(this::acknowledgeHandler));
+    }
+
+    // 204 No Content once the amount is withdrawn, with the node owning the payee given as ?destination=<base URL>
+    void reserveHandler(@NonNull final HttpServerExchange exchange) {
+        final String txId = transferId(exchange);
+        final String from = RequestParser.userId(exchange, "from");
+        final long amount = RequestParser.amountMinorUnits(exchange);
+        final String destination = RequestParser.rawPathParam(exchange, "destination");
+
+        if (txId == null || from == null || amount == RequestParser.INVALID_AMOUNT || !isUrl(destination)) {
+            end(exchange, StatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        final Try<Void> reserved = ledger.reserve(txId, new User(from), Money.ofMinorUnits(amount), destination);
+
+        end(exchange, reserved.isSuccess() ? StatusCodes.NO_CONTENT : statusOf(reserved.getCause()));
+    }
+
+    // 204 No Content once the amount is deposited, or if it already was; 409 Conflict if the transfer was aborted
+    void creditHandler(@NonNull final HttpServerExchange exchange) {
+        final String txId = transferId(exchange);
+        final String to = RequestParser.userId(exchange, "to");
+        final long amount = RequestParser.amountMinorUnits(exchange);
+
+        if (txId == null || to == null || amount == RequestParser.INVALID_AMOUNT) {
+            end(exchange, StatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        final Try<Outcome> credited = ledger.credit(txId, new User(to), Money.ofMinorUnits(amount));
+
+        end(
+            exchange,
+            credited.isSuccess()
+                ? statusOf(credited.get(), Outcome.CREDITED)
+                : statusOf(credited.getCause())
+        );
+    }
+
+    // 204 No Content if the transfer is, or already was, aborted; 409 Conflict if the payee was credited
+    void abortHandler(@NonNull final HttpServerExchange exchange) {
+        final String txId = transferId(exchange);
+
+        if (txId == null) {
+            end(exchange, StatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        final Try<Outcome> aborted = ledger.abort(txId);
+
+        end(
+            exchange,
+            aborted.isSuccess() ? statusOf(aborted.get(), Outcome.ABORTED) : statusOf(aborted.getCause())
+        );
+    }
+
+    void confirmHandler(@NonNull final HttpServerExchange exchange) {
+        settleHandler(exchange, ledger::confirm);
+    }
+
+    // 204 No Content once the amount is back with the payer, or if it was already given back
+    void releaseHandler(@NonNull final HttpServerExchange exchange) {
+        settleHandler(exchange, ledger::release);
+    }
+
+    // 204 No Content once the payee's node has forgotten its decision, the payer's node having settled the transfer
+    void acknowledgeHandler(@NonNull final HttpServerExchange exchange) {
+        settleHandler(exchange, ledger::acknowledge);
+    }
+
+    // Number of transfers reserved here that are not settled yet
+    int pending() {
+        return (int) ledger.reservations().stream().filter(reservation -> !reservation.isSettled()).count();
+    }
+
+    @Override
+    public void close() {
+        recovery.shutdownNow();
+    }
+
+    void recover() {
+        final long now = System.currentTimeMillis();
+
+        try {
+            for (final Reservation reservation : ledger.reservations()) {
+                if (!reservation.isSettled()) {
+                    if (now - reservation.getReservedAtMillis() >= reservationTimeoutMillis) {
+                        settle(reservation);
+                    }
+                } else if (now - reservation.getSettledAtMillis() >= reservationTimeoutMillis) {
+                    acknowledge(reservation);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task, it would cancel every later run
+            LOGGER.log(Level.WARNING, "Recovery of cross-node transfers failed", e);
+        }
+    }
+
+    private void settle(final Reservation reservation) {
+        final String txId = reservation.getTxId();
+
+        try {
+            final NodeClient.Reply reply = new NodeClient(reservation.getDestination())
+                .send("POST", PREFIX + NodeClient.segment(txId) + "/abort", secretHeader());
+
+            final Try<Void> settled;
+            if (reply.getStatus() == StatusCodes.NO_CONTENT) {
+                settled = ledger.release(txId);
+            } else if (reply.getStatus() == StatusCodes.CONFLICT) {
+                settled = ledger.confirm(txId);
+            } else {
+                LOGGER.warning("Could not settle transfer " + txId + ", got " + reply.getStatus() + "; retrying later");
+                return;
+            }
+
+            if (settled.isFailure()) {
+                LOGGER.log(Level.WARNING, "Could not settle transfer " + txId + "; retrying later", settled.getCause());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not settle transfer " + txId + "; retrying later", e);
+        }
+    }
+
+    private void acknowledge(final Reservation reservation) {
+        final String txId = reservation.getTxId();
+
+        try {
+            final NodeClient.Reply reply = new NodeClient(reservation.getDestination())
+                .send("POST", PREFIX + NodeClient.segment(txId) + "/acknowledge", secretHeader());
+
+            if (reply.getStatus() != StatusCodes.NO_CONTENT) {
+                LOGGER.warning("Could not acknowledge transfer " + txId + ", got " + reply.getStatus());
+                return;
+            }
+
+            final Try<Void> forgotten = ledger.forget(txId);
+            if (forgotten.isFailure()) {
+                LOGGER.log(Level.WARNING, "Could not forget transfer " + txId, forgotten.getCause());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not acknowledge transfer " + txId + "; retrying later", e);
+        }
+    }
+
+    private static void settleHandler(final HttpServerExchange exchange, final Function<String, Try<Void>> step) {
+        final String txId = transferId(exchange);
+
+        if (txId == null) {
+            end(exchange, StatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        end(exchange, step.apply(txId).isSuccess() ? StatusCodes.NO_CONTENT : StatusCodes.INTERNAL_SERVER_ERROR);
+    }
+
+    // The transfer's id, which is journaled with each step, so it is held to the same limit as user ids
+    private static String transferId(final HttpServerExchange exchange) {
+        final String txId = RequestParser.rawPathParam(exchange, "txId");
+
+        return txId != null && User.isValidId(txId) ? txId : null;
+    }
+
+    // Also held to the limit of user ids, as it is journaled with the reservation
+    private static boolean isUrl(final String value) {
+        if (value == null || !User.isValidId(value)) {
+            return false;
+        }
+
+        try {
+            return new URL(value).getProtocol().startsWith("http");
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    // What a credit, or an abort, is told about a transfer decided as it wanted, or the other way
+    private static int statusOf(@NonNull final Outcome decided, @NonNull final Outcome wanted) {
+        return decided == wanted ? StatusCodes.NO_CONTENT : StatusCodes.CONFLICT;
+    }
+
+    private static int statusOf(@NonNull final Throwable e) {
+        if (e instanceof TransferAlreadyReservedException) {
+            return StatusCodes.CONFLICT;
+        } else if (e instanceof UserDoesNotExistException) {
+            return StatusCodes.NOT_FOUND;
+        } else if (e instanceof InsufficientFundsException) {
+            return StatusCodes.FORBIDDEN;
+        } else {
+            return StatusCodes.INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    private static void end(final HttpServerExchange exchange, final int status) {
+        exchange.setStatusCode(status);
+        exchange.endExchange();
+    }
+
+    // The header carrying the cluster's secret, for requests to the internal endpoints of other nodes
+    private Map<String, String> secretHeader() {
+        return Collections.singletonMap(CLUSTER_SECRET.toString(), secret);
+    }
+
+    // Refuses requests without the cluster's secret, compared in constant time, before handing them to handler
+    private HttpHandler internal(final HttpHandler handler) {
+        final HttpHandler dispatched = blocking(handler);
+
+        return exchange -> {
+            final String presented = exchange.getRequestHeaders().getFirst(CLUSTER_SECRET);
+
+            final boolean authorized = presented != null && MessageDigest.isEqual(
+                secret.getBytes(StandardCharsets.UTF_8),
+                presented.getBytes(StandardCharsets.UTF_8)
+            );
+
+            if (!authorized) {
+                end(exchange, StatusCodes.FORBIDDEN);
+            } else {
+                dispatched.handleRequest(exchange);
+            }
+        };
+    }
+
+    // Every step may wait for the journal, or for another node, which must not happen on an IO thread
+    static HttpHandler blocking(@NonNull final HttpHandler handler) {
+        return exchange -> {
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(handler);
+            } else {
+                handler.handleRequest(exchange);
+            }
+        };
+    }
+}
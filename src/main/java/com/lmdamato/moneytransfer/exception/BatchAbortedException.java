@@ -0,0 +1,8 @@
+package com.lmdamato.moneytransfer.exception;
+
+// Reported for the legs of an all-or-nothing batch that were rolled back because another leg failed
+public class BatchAbortedException extends RuntimeException {
+    public BatchAbortedException() {
+        super();
+    }
+}
@@ -0,0 +1,8 @@
+package com.lmdamato.moneytransfer.exception;
+
+// Reported for accounts refused, without being created, because their id is longer than User.MAX_ID_BYTES
+public class InvalidUserIdException extends RuntimeException {
+    public InvalidUserIdException() {
+        super();
+    }
+}
@@ -0,0 +1,8 @@
+package com.lmdamato.moneytransfer.exception;
+
+// Reported for mutations refused, without being applied, because the journal can no longer make them durable
+public class JournalFailedException extends RuntimeException {
+    public JournalFailedException() {
+        super();
+    }
+}
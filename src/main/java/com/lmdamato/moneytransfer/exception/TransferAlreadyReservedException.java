@@ -0,0 +1,8 @@
+package com.lmdamato.moneytransfer.exception;
+
+// Reported when a transfer between nodes is reserved again under the id of one reserved before
+public class TransferAlreadyReservedException extends RuntimeException {
+    public TransferAlreadyReservedException() {
+        super();
+    }
+}
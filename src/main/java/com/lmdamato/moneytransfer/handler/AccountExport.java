@@ -0,0 +1,93 @@
+package com.lmdamato.moneytransfer.handler;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.AccountCursor;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams every account as NDJSON, one {"userId":"abc","balance":1.23} line per account.
+ *
+ * The body goes out with chunked transfer encoding, in chunks of about CHUNK_BYTES. Each chunk is only filled
+ * once the previous one has been written, so a slow client holds the export back rather than making it buffer,
+ * and no more than one chunk is held in memory at a time. Chunks are filled on the IO thread, as reading
+ * the accounts takes no lock.
+ */
+final class AccountExport implements IoCallback {
+    static final String NDJSON = "application/x-ndjson";
+
+    private static final int CHUNK_BYTES = 16 << 10;
+    private static final int ACCOUNTS_PER_STEP = 64;
+    private static final int TYPICAL_LINE_BYTES = 64;
+
+    private static final byte[] USER_ID_PREFIX = JsonResponses.ascii("{\"userId\":\"");
+    private static final byte[] BALANCE_PREFIX = JsonResponses.ascii("\",\"balance\":");
+    private static final int LINE_OVERHEAD = USER_ID_PREFIX.length + BALANCE_PREFIX.length
+        + JsonResponses.MAX_AMOUNT_BYTES + 2;
+
+    private final AccountCursor cursor;
+    private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES + ACCOUNTS_PER_STEP * TYPICAL_LINE_BYTES);
+    private boolean exhausted;
+
+    private AccountExport(final AccountCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    // Sends 200 OK and the accounts, closing the cursor once they have all been sent or the exchange has failed
+    static void start(@NonNull final HttpServerExchange exchange, @NonNull final AccountCursor cursor) {
+        exchange.setStatusCode(StatusCodes.OK);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, NDJSON);
+
+        new AccountExport(cursor).onComplete(exchange, exchange.getResponseSender());
+    }
+
+    // Sends the next chunk, or ends the exchange if there is none
+    @Override
+    public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+        chunk.clear();
+
+        while (!exhausted && chunk.position() < CHUNK_BYTES) {
+            exhausted = !cursor.next(ACCOUNTS_PER_STEP, this::append);
+        }
+
+        if (chunk.position() == 0) {
+            cursor.close();
+            END_EXCHANGE.onComplete(exchange, sender);
+            return;
+        }
+
+        chunk.flip();
+        sender.send(chunk, this);
+    }
+
+    @Override
+    public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+        cursor.close();
+        END_EXCHANGE.onException(exchange, sender, exception);
+    }
+
+    private void append(final User user, final long minorUnits) {
+        final byte[] userId = JsonStringEncoder.getInstance().quoteAsUTF8(user.getId());
+
+        final int needed = userId.length + LINE_OVERHEAD;
+
+        // Only ids far longer than usual outgrow the room a step has past CHUNK_BYTES
+        if (chunk.remaining() < needed) {
+            final ByteBuffer grown = ByteBuffer.allocate(chunk.capacity() + needed);
+            chunk.flip();
+            chunk = grown.put(chunk);
+        }
+
+        chunk.put(USER_ID_PREFIX).put(userId).put(BALANCE_PREFIX);
+        JsonResponses.putAmount(chunk, minorUnits);
+        chunk.put((byte) '}').put((byte) '\n');
+    }
+}
@@ -0,0 +1,201 @@
+package com.lmdamato.moneytransfer.handler;
+
+import io.vavr.control.Either;
+import lombok.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Outcomes of the requests that came with an idempotency key, kept for at most ttl after the key was first seen
+ * and for at most maxKeys keys at a time.
+ *
+ * Lookups are a single read of a concurrent map. Claims in flight are also kept in the order they were claimed, and
+ * completed ones in the order they completed, in insertion-ordered sets, so that claiming a key evicts the expired
+ * ones from the head of each and, past maxKeys, the oldest completed ones from the head of the second, each in
+ * constant time. Claims still in flight are never evicted before they expire, as a retry would then apply
+ * the request again; the cache only grows past maxKeys while more requests than that are in flight.
+ */
+final class IdempotencyCache {
+    static final String MAX_KEYS_PROPERTY = "moneytransfer.idempotency.maxKeys";
+    static final String TTL_SECONDS_PROPERTY = "moneytransfer.idempotency.ttlSeconds";
+
+    static final int DEFAULT_MAX_KEYS = 100_000;
+    static final long DEFAULT_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    // Status of a claim whose request has not completed yet
+    static final int IN_FLIGHT = 0;
+
+    private final int maxKeys;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+
+    private final ConcurrentHashMap<String, Claim> claims = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Both in the order their claims expire in, near enough for completed ones, as requests are short; guarded by this
+    private final LinkedHashSet<Claim> inFlight = new LinkedHashSet<>();
+    private final LinkedHashSet<Claim> completed = new LinkedHashSet<>();
+
+    IdempotencyCache(
+        final int maxKeys,
+        final long ttl,
+        @NonNull final TimeUnit unit,
+        @NonNull final LongSupplier nanoClock
+    ) {
+        if (maxKeys < 1 || ttl < 1) {
+            throw new IllegalArgumentException("Maximum number of keys and time to live must be positive");
+        }
+
+        this.maxKeys = maxKeys;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.nanoClock = nanoClock;
+    }
+
+    static IdempotencyCache fromSystemProperties() {
+        return new IdempotencyCache(
+            Integer.getInteger(MAX_KEYS_PROPERTY, DEFAULT_MAX_KEYS),
+            Long.getLong(TTL_SECONDS_PROPERTY, DEFAULT_TTL_SECONDS),
+            TimeUnit.SECONDS,
+            System::nanoTime
+        );
+    }
+
+    /**
+     * Claims the key for the request identified by fingerprint, e.g., its method and path. Returns the new claim,
+     * which the caller must complete, on the right, or the live claim of an earlier request with the same key
+     * on the left.
+     */
+    Either<Claim, Claim> claim(@NonNull final String key, @NonNull final String fingerprint) {
+        final long now = nanoClock.getAsLong();
+        Claim existing = claims.get(key);
+        Claim claim = null;
+
+        while (true) {
+            if (existing != null) {
+                if (!isExpired(existing, now)) {
+                    return Either.left(existing);
+                }
+
+                // The expired claim is replaced as if it had never been there
+                remove(existing);
+            }
+
+            if (claim == null) {
+                claim = new Claim(key, fingerprint, now);
+            }
+
+            existing = claims.putIfAbsent(key, claim);
+
+            if (existing == null) {
+                size.incrementAndGet();
+
+                synchronized (this) {
+                    inFlight.add(claim);
+                    evict(now);
+                }
+
+                return Either.right(claim);
+            }
+        }
+    }
+
+    /**
+     * Forgets a claim whose request was not answered with a definitive outcome, e.g., because it failed on the way,
+     * so that a retry with the same key is applied instead of being answered with the earlier status.
+     */
+    void release(@NonNull final Claim claim) {
+        remove(claim);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    // Callers must hold the monitor of the cache
+    private void evict(final long now) {
+        evictExpired(inFlight, now);
+        evictExpired(completed, now);
+
+        final Iterator<Claim> oldest = completed.iterator();
+        while (size.get() > maxKeys && oldest.hasNext()) {
+            final Claim claim = oldest.next();
+
+            oldest.remove();
+            forget(claim);
+        }
+    }
+
+    // Callers must hold the monitor of the cache
+    private void evictExpired(final LinkedHashSet<Claim> ordered, final long now) {
+        final Iterator<Claim> oldest = ordered.iterator();
+
+        while (oldest.hasNext()) {
+            final Claim claim = oldest.next();
+            if (!isExpired(claim, now)) {
+                return;
+            }
+
+            oldest.remove();
+            forget(claim);
+        }
+    }
+
+    private void remove(final Claim claim) {
+        forget(claim);
+
+        synchronized (this) {
+            inFlight.remove(claim);
+            completed.remove(claim);
+        }
+    }
+
+    // Removes the claim from the map only, if it is still there
+    private void forget(final Claim claim) {
+        if (claims.remove(claim.key, claim)) {
+            size.decrementAndGet();
+        }
+    }
+
+    // Moves a claim that is still held to the completed ones
+    private synchronized void completed(final Claim claim) {
+        if (inFlight.remove(claim)) {
+            completed.add(claim);
+        }
+    }
+
+    private boolean isExpired(final Claim claim, final long now) {
+        return now - claim.claimedAt >= ttlNanos;
+    }
+
+    final class Claim {
+        private final String key;
+        private final String fingerprint;
+        private final long claimedAt;
+        private volatile int status = IN_FLIGHT;
+
+        private Claim(final String key, final String fingerprint, final long claimedAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.claimedAt = claimedAt;
+        }
+
+        boolean matches(@NonNull final String fingerprint) {
+            return this.fingerprint.equals(fingerprint);
+        }
+
+        // The status the request was answered with, or IN_FLIGHT
+        int status() {
+            return status;
+        }
+
+        void complete(final int status) {
+            this.status = status;
+            completed(this);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.lmdamato.moneytransfer.handler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.lmdamato.moneytransfer.metrics.RequestMetrics;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes JSON response bodies without going through an ObjectMapper.
+ *
+ * Constant bodies are encoded once into direct buffers and served from duplicates of them; balances are written
+ * byte by byte into a buffer borrowed from the connection's pool and returned once sent. Every body goes out
+ * in a single write with its Content-Length, and sending it ends the exchange. The time spent encoding a body is
+ * recorded against the route being served, if it is timed; constant bodies take none.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class JsonResponses {
+    static final ByteBuffer USER_NOT_FOUND = constant("User not found");
+    static final ByteBuffer INSUFFICIENT_FUNDS = constant("Insufficient funds");
+    static final ByteBuffer NOT_SUPPORTED = constant("Not supported by this storage engine");
+    static final ByteBuffer UNKNOWN_ERROR = constant("Unknown error");
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final byte[] AMOUNT_PREFIX = ascii("{\"amount\":");
+    private static final byte[] NULL = ascii("null");
+
+    // Up to 17 integer digits of a long number of cents, the point and two decimals
+    static final int MAX_AMOUNT_BYTES = 17 + 1 + 2;
+
+    // Prefix, up to 17 integer digits of a long number of cents, the point, two decimals, and the closing brace
+    static final int MAX_BALANCE_BYTES = AMOUNT_PREFIX.length + MAX_AMOUNT_BYTES + 1;
+
+    static void send(@NonNull final HttpServerExchange exchange, final int status, @NonNull final ByteBuffer constant) {
+        exchange.setStatusCode(status);
+        send(exchange, constant.duplicate(), IoCallback.END_EXCHANGE);
+    }
+
+    // {"amount":1.23}, the same as Jackson writes for Money
+    static void sendBalance(@NonNull final HttpServerExchange exchange, final long minorUnits) {
+        final PooledByteBuffer pooled = exchange.getConnection().getByteBufferPool().allocate();
+        final ByteBuffer buffer = pooled.getBuffer();
+        final long start = System.nanoTime();
+
+        buffer.clear();
+        encodeBalance(buffer, minorUnits);
+        buffer.flip();
+        serialized(exchange, start);
+
+        exchange.setStatusCode(StatusCodes.OK);
+        send(exchange, buffer, new ReleasingCallback(pooled));
+    }
+
+    // Compact array of HTTP status codes, e.g., [204,403,409]
+    static void sendStatuses(@NonNull final HttpServerExchange exchange, final int status, @NonNull final int[] statuses) {
+        final long start = System.nanoTime();
+        final ByteBuffer buffer = ByteBuffer.allocate(2 + statuses.length * 4);
+
+        buffer.put((byte) '[');
+        for (int i = 0; i < statuses.length; i++) {
+            if (i > 0) {
+                buffer.put((byte) ',');
+            }
+
+            putDigits(buffer, statuses[i]);
+        }
+        buffer.put((byte) ']');
+        buffer.flip();
+        serialized(exchange, start);
+
+        exchange.setStatusCode(status);
+        send(exchange, buffer, IoCallback.END_EXCHANGE);
+    }
+
+    // 200 OK with a compact array of balances, e.g., [1.23,null,0.00], where null stands for NO_BALANCE
+    static void sendBalances(@NonNull final HttpServerExchange exchange, @NonNull final long[] minorUnits) {
+        final long start = System.nanoTime();
+        final ByteBuffer buffer = ByteBuffer.allocate(2 + minorUnits.length * (MAX_AMOUNT_BYTES + 1));
+
+        buffer.put((byte) '[');
+        for (int i = 0; i < minorUnits.length; i++) {
+            if (i > 0) {
+                buffer.put((byte) ',');
+            }
+
+            if (minorUnits[i] == MoneyTransferDao.NO_BALANCE) {
+                buffer.put(NULL);
+            } else {
+                putAmount(buffer, minorUnits[i]);
+            }
+        }
+        buffer.put((byte) ']');
+        buffer.flip();
+        serialized(exchange, start);
+
+        exchange.setStatusCode(StatusCodes.OK);
+        send(exchange, buffer, IoCallback.END_EXCHANGE);
+    }
+
+    // 200 OK with the outcome of an import, e.g., {"created":2,"skipped":1,"rejected":0}
+    static void sendImported(
+        @NonNull final HttpServerExchange exchange,
+        final long created,
+        final long skipped,
+        final long rejected
+    ) {
+        final long start = System.nanoTime();
+        final byte[] body = ascii(
+            "{\"created\":" + created + ",\"skipped\":" + skipped + ",\"rejected\":" + rejected + "}"
+        );
+        serialized(exchange, start);
+
+        exchange.setStatusCode(StatusCodes.OK);
+        send(exchange, ByteBuffer.wrap(body), IoCallback.END_EXCHANGE);
+    }
+
+    /**
+     * 200 OK with a page of history, e.g., {"entries":[{"seq":1,"type":"deposit","amount":1.00,"balance":1.00,
+     * "timestamp":1561939200000}],"next":1}. The other account of transfers and refunds is given as counterparty,
+     * and next, the cursor of the following page, is only present if there are more entries.
+     */
+    static void sendHistory(@NonNull final HttpServerExchange exchange, @NonNull final List<HistoryEntry> entries,
+                            final boolean more) {
+        final long start = System.nanoTime();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(64 + entries.size() * 128);
+
+        try (final JsonGenerator json = JSON.createGenerator(body)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("entries");
+
+            for (final HistoryEntry entry : entries) {
+                json.writeStartObject();
+                json.writeNumberField("seq", entry.getSeq());
+                json.writeStringField("type", entry.getType().name().toLowerCase());
+                json.writeNumberField("amount", entry.getAmount().getAmount());
+                json.writeNumberField("balance", entry.getBalance().getAmount());
+                if (entry.getCounterparty().isDefined()) {
+                    json.writeStringField("counterparty", entry.getCounterparty().get().getId());
+                }
+                json.writeNumberField("timestamp", entry.getTimestamp());
+                json.writeEndObject();
+            }
+
+            json.writeEndArray();
+            if (more && !entries.isEmpty()) {
+                json.writeNumberField("next", entries.get(entries.size() - 1).getSeq());
+            }
+            json.writeEndObject();
+        } catch (final IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        serialized(exchange, start);
+
+        exchange.setStatusCode(StatusCodes.OK);
+        send(exchange, ByteBuffer.wrap(body.toByteArray()), IoCallback.END_EXCHANGE);
+    }
+
+    static void encodeBalance(@NonNull final ByteBuffer buffer, final long minorUnits) {
+        buffer.put(AMOUNT_PREFIX);
+        putAmount(buffer, minorUnits);
+        buffer.put((byte) '}');
+    }
+
+    // Writes a balance as a number with two decimals, e.g., 1.23
+    static void putAmount(@NonNull final ByteBuffer buffer, final long minorUnits) {
+        if (minorUnits < 0) {
+            throw new IllegalArgumentException("Balances cannot be negative");
+        }
+
+        final int cents = (int) (minorUnits % 100);
+
+        putDigits(buffer, minorUnits / 100);
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + cents / 10));
+        buffer.put((byte) ('0' + cents % 10));
+    }
+
+    // Writes a non-negative number in decimal, most significant digit first
+    private static void putDigits(final ByteBuffer buffer, final long value) {
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    // Records the time spent encoding a body since start against the route being served, if it is timed
+    private static void serialized(final HttpServerExchange exchange, final long start) {
+        final RequestMetrics metrics = exchange.getAttachment(RequestMetrics.ATTACHMENT_KEY);
+
+        if (metrics != null) {
+            metrics.getSerialization().record(System.nanoTime() - start);
+        }
+    }
+
+    private static void send(final HttpServerExchange exchange, final ByteBuffer body, final IoCallback callback) {
+        exchange.getResponseHeaders()
+            .put(Headers.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+            .put(Headers.CONTENT_LENGTH, body.remaining());
+
+        exchange.getResponseSender().send(body, callback);
+    }
+
+    // A JSON string, as Jackson would write it
+    private static ByteBuffer constant(final String message) {
+        final byte[] bytes = ascii("\"" + message + "\"");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+
+        buffer.put(bytes).flip();
+
+        return buffer.asReadOnlyBuffer();
+    }
+
+    static byte[] ascii(@NonNull final String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Returns the borrowed buffer to the pool once the body has been written, or has failed to be
+    private static final class ReleasingCallback implements IoCallback {
+        private final PooledByteBuffer pooled;
+
+        ReleasingCallback(final PooledByteBuffer pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            pooled.close();
+            END_EXCHANGE.onComplete(exchange, sender);
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            pooled.close();
+            END_EXCHANGE.onException(exchange, sender, exception);
+        }
+    }
+}
@@ -1,172 +1,511 @@
 package com.lmdamato.moneytransfer.handler;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lmdamato.moneytransfer.exception.BatchAbortedException;
+import com.lmdamato.moneytransfer.exception.InvalidUserIdException;
 import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
 import com.lmdamato.moneytransfer.model.Money;
-import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.model.TransferLeg;
+import com.lmdamato.moneytransfer.util.AccountImportReader;
 import com.lmdamato.moneytransfer.util.RequestParser;
 import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
 import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
 import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.AccountCursor;
 import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
 import io.undertow.util.StatusCodes;
+import io.vavr.control.Either;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
 import lombok.NonNull;
 
-import javax.ws.rs.core.MediaType;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class MoneyTransferHandler {
+    // Largest number of legs accepted by a single batch request
+    public static final String MAX_BATCH_LEGS_PROPERTY = "moneytransfer.batch.maxLegs";
+    public static final int DEFAULT_MAX_BATCH_LEGS = 10_000;
+
+    private static final int MAX_BATCH_LEGS = Integer.getInteger(MAX_BATCH_LEGS_PROPERTY, DEFAULT_MAX_BATCH_LEGS);
+
+    // Largest number of users whose balances can be looked up by a single request
+    public static final String MAX_BALANCES_PROPERTY = "moneytransfer.balances.maxUsers";
+    public static final int DEFAULT_MAX_BALANCES = 10_000;
+
+    private static final int MAX_BALANCES = Integer.getInteger(MAX_BALANCES_PROPERTY, DEFAULT_MAX_BALANCES);
+
+    // Accounts an import hands to the DAO at a time
+    public static final String IMPORT_BATCH_SIZE_PROPERTY = "moneytransfer.import.batchSize";
+    public static final int DEFAULT_IMPORT_BATCH_SIZE = 10_000;
+
+    private static final int IMPORT_BATCH_SIZE = Integer.getInteger(
+        IMPORT_BATCH_SIZE_PROPERTY,
+        DEFAULT_IMPORT_BATCH_SIZE
+    );
+
+    // Entries in a page of history when the request does not say, and the most a request may ask for
+    public static final int DEFAULT_HISTORY_LIMIT = 100;
+    public static final int MAX_HISTORY_LIMIT = 1_000;
+
+    // Retries of a deposit, withdrawal or transfer that carry the key of an earlier request get its status back
+    public static final HttpString IDEMPOTENCY_KEY = new HttpString("Idempotency-Key");
+    public static final HttpString IDEMPOTENT_REPLAYED = new HttpString("Idempotent-Replayed");
+    public static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     @NonNull
-    private static final MoneyTransferDao dao = InMemoryMoneyTransferDao.getInstance();
+    private final MoneyTransferDao dao;
 
     @NonNull
-    private static final ObjectMapper mapper = new ObjectMapper();
+    private final IdempotencyCache idempotency;
 
-    public static void createUserHandler(@NonNull final HttpServerExchange exchange) {
+    public MoneyTransferHandler(@NonNull final MoneyTransferDao dao) {
+        this(dao, IdempotencyCache.fromSystemProperties());
+    }
+
+    MoneyTransferHandler(@NonNull final MoneyTransferDao dao, @NonNull final IdempotencyCache idempotency) {
+        this.dao = dao;
+        this.idempotency = idempotency;
+    }
+
+    public void createUserHandler(@NonNull final HttpServerExchange exchange) {
         final Option<User> user = RequestParser.user(exchange);
 
-        if (user.isDefined()) {
-            dao.createUser(user.get())
-                .map(u -> {
-                    exchange.setStatusCode(StatusCodes.CREATED);
-                    return null;
-                })
-                .getOrElseGet(error -> {
-                    if (error instanceof UserAlreadyExistsException) {
-                        exchange.setStatusCode(StatusCodes.NO_CONTENT);
-                    } else {
-                        exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
-                        sendJson(exchange, "Unknown error");
-                    }
-                    return null;
-                });
-        } else {
+        if (user.isEmpty()) {
             exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
         }
 
-        exchange.endExchange();
+        complete(exchange, dao.createUserAsync(user.get()), created -> {
+            if (created.isSuccess()) {
+                exchange.setStatusCode(StatusCodes.CREATED);
+            } else if (created.getCause() instanceof UserAlreadyExistsException) {
+                exchange.setStatusCode(StatusCodes.NO_CONTENT);
+            } else if (created.getCause() instanceof InvalidUserIdException) {
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            } else {
+                JsonResponses.send(exchange, StatusCodes.INTERNAL_SERVER_ERROR, JsonResponses.UNKNOWN_ERROR);
+                return;
+            }
+
+            exchange.endExchange();
+        });
     }
 
-    public static void getBalanceHandler(@NonNull final HttpServerExchange exchange) {
-        final Option<User> user = RequestParser.user(exchange);
+    public void getBalanceHandler(@NonNull final HttpServerExchange exchange) {
+        final String userId = RequestParser.userId(exchange, "userId");
 
-        if (user.isDefined()) {
-            dao.getBalance(user.get())
-                .map(m -> {
-                    exchange.setStatusCode(StatusCodes.OK);
-                    sendJson(exchange, m);
-                    return null;
-                })
-                .getOrElseGet(error -> {
-                    if (error instanceof UserDoesNotExistException) {
-                        exchange.setStatusCode(StatusCodes.NOT_FOUND);
-                        sendJson(exchange, "User not found");
-                    }
+        if (userId == null) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
+        }
+
+        complete(exchange, dao.getBalanceAsync(new User(userId)), balance -> {
+            if (balance.isSuccess()) {
+                JsonResponses.sendBalance(exchange, balance.get().getMinorUnits());
+            } else if (balance.getCause() instanceof UserDoesNotExistException) {
+                JsonResponses.send(exchange, StatusCodes.NOT_FOUND, JsonResponses.USER_NOT_FOUND);
+            } else {
+                exchange.endExchange();
+            }
+        });
+    }
+
+    // 200 OK with the balances of the users in the body, in the same order; consistent reads them all at once
+    public void getBalancesHandler(@NonNull final HttpServerExchange exchange) {
+        // The body is streamed with blocking reads, which must not run on an IO thread
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::getBalancesHandler);
+            return;
+        }
+
+        exchange.startBlocking();
+
+        final boolean consistent = RequestParser.flag(exchange, "consistent");
+        final Option<List<User>> users = RequestParser.users(exchange.getInputStream(), MAX_BALANCES);
+
+        if (users.isEmpty()) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
+        }
 
-                    return null;
+        complete(exchange, dao.getBalancesAsync(users.get(), consistent), balances -> {
+            if (balances.isSuccess()) {
+                JsonResponses.sendBalances(exchange, balances.get());
+            } else {
+                mapError(balances.getCause(), exchange);
+            }
+        });
+    }
+
+    /**
+     * 200 OK with every account as NDJSON, streamed without blocking writers; consistent reads them all at once.
+     * Opening a cursor never waits for the journal, so it is called directly rather than through the async DAO calls,
+     * but a consistent one waits for the mutations being applied, which is left to a worker thread.
+     */
+    public void exportAccountsHandler(@NonNull final HttpServerExchange exchange) {
+        final boolean consistent = RequestParser.flag(exchange, "consistent");
+
+        if (consistent && exchange.isInIoThread()) {
+            exchange.dispatch(this::exportAccountsHandler);
+            return;
+        }
+
+        final Try<AccountCursor> cursor = dao.accounts(consistent);
+
+        if (cursor.isSuccess()) {
+            AccountExport.start(exchange, cursor.get());
+        } else {
+            mapError(cursor.getCause(), exchange);
+        }
+    }
+
+    /**
+     * Creates the accounts listed in the body, CSV or NDJSON as told by its Content-Type, a batch at a time as the body
+     * is read. 200 OK with how many were created, skipped because they already existed, and rejected as malformed.
+     * The next batch is only read once the previous one is durable, without holding a thread while the journal syncs.
+     */
+    public void importHandler(@NonNull final HttpServerExchange exchange) {
+        // The body is streamed with blocking reads, which must not run on an IO thread
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::importHandler);
+            return;
+        }
+
+        final Option<AccountImportReader.Format> format = AccountImportReader.Format.of(
+            exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE)
+        );
+
+        if (format.isEmpty()) {
+            exchange.setStatusCode(StatusCodes.UNSUPPORTED_MEDIA_TYPE);
+            exchange.endExchange();
+            return;
+        }
+
+        exchange.startBlocking();
+
+        importBatches(exchange, new AccountImport(new AccountImportReader(exchange.getInputStream(), format.get())));
+    }
+
+    // Reads and creates batches for as long as they complete straight away, then carries on once the pending one has
+    private void importBatches(@NonNull final HttpServerExchange exchange, @NonNull final AccountImport progress) {
+        while (true) {
+            try {
+                if (progress.reader.next(progress.users, progress.balances) == 0) {
+                    final long rejected = progress.reader.rejected();
+                    JsonResponses.sendImported(exchange, progress.created, progress.skipped, rejected);
+                    return;
+                }
+            } catch (final IOException e) {
+                // The batches read before the body broke off stay imported
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                exchange.endExchange();
+                return;
+            }
+
+            final CompletableFuture<Try<Integer>> batch = dao.createUsersAsync(progress.users, progress.balances);
+
+            if (!batch.isDone()) {
+                // Completed on a worker thread, as the exchange is blocking, where the body can be read on
+                complete(exchange, batch, outcome -> {
+                    if (progress.add(exchange, outcome)) {
+                        importBatches(exchange, progress);
+                    }
                 });
+                return;
+            }
+
+            if (!progress.add(exchange, batch.join())) {
+                return;
+            }
+        }
+    }
+
+    public void depositHandler(@NonNull final HttpServerExchange exchange) {
+        final String userId = RequestParser.userId(exchange, "userId");
+        final long amount = RequestParser.amountMinorUnits(exchange);
+
+        if (userId != null && amount != RequestParser.INVALID_AMOUNT) {
+            mutate(exchange, () -> dao.depositAsync(new User(userId), Money.ofMinorUnits(amount)));
         } else {
             exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
         }
+    }
 
-        exchange.endExchange();
+    public void withdrawHandler(@NonNull final HttpServerExchange exchange) {
+        final String userId = RequestParser.userId(exchange, "userId");
+        final long amount = RequestParser.amountMinorUnits(exchange);
+
+        if (userId != null && amount != RequestParser.INVALID_AMOUNT) {
+            mutate(exchange, () -> dao.withdrawAsync(new User(userId), Money.ofMinorUnits(amount)));
+        }  else {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+        }
     }
 
-    public static void depositHandler(@NonNull final HttpServerExchange exchange) {
-        final Option<User> user = RequestParser.user(exchange);
-        final Option<Money> amount = RequestParser.amount(exchange);
-
-        if (user.isDefined() && amount.isDefined()) {
-            dao.deposit(user.get(), amount.get())
-                .map(ignore -> {
-                    exchange.setStatusCode(StatusCodes.NO_CONTENT);
-                    return null;
-                })
-                .getOrElseGet(error -> {
-                    if (error instanceof UserDoesNotExistException) {
-                        exchange.setStatusCode(StatusCodes.NOT_FOUND);
-                        sendJson(exchange, "User not found");
-                    } else {
-                        exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
-                        sendJson(exchange, "Unknown error");
-                    }
+    public void transferHandler(@NonNull final HttpServerExchange exchange) {
+        final String from = RequestParser.userId(exchange, "from");
+        final String to = RequestParser.userId(exchange, "to");
 
-                    return null;
-                });
+        final long amount = RequestParser.amountMinorUnits(exchange);
+
+        if (from != null && to != null && amount != RequestParser.INVALID_AMOUNT) {
+            mutate(exchange, () -> dao.transferAsync(new User(from), new User(to), Money.ofMinorUnits(amount)));
         } else {
             exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+        }
+    }
+
+    public void historyHandler(@NonNull final HttpServerExchange exchange) {
+        final String userId = RequestParser.userId(exchange, "userId");
+        final long after = RequestParser.count(exchange, "after", 0L);
+        final long limit = RequestParser.count(exchange, "limit", DEFAULT_HISTORY_LIMIT);
+
+        if (userId == null || after == RequestParser.INVALID_COUNT || limit < 1) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
         }
 
-        exchange.endExchange();
+        // One entry more than the page holds tells whether there is a next page
+        final int pageSize = (int) Math.min(limit, MAX_HISTORY_LIMIT);
+
+        complete(exchange, dao.historyAsync(new User(userId), after, pageSize + 1), page -> {
+            if (page.isFailure()) {
+                mapError(page.getCause(), exchange);
+                return;
+            }
+
+            final List<HistoryEntry> entries = page.get();
+            final boolean more = entries.size() > pageSize;
+
+            JsonResponses.sendHistory(exchange, more ? entries.subList(0, pageSize) : entries, more);
+        });
     }
 
-    public static void withdrawHandler(@NonNull final HttpServerExchange exchange) {
-        final Option<User> user = RequestParser.user(exchange);
-        final Option<Money> amount = RequestParser.amount(exchange);
-
-        if (user.isDefined() && amount.isDefined()) {
-            dao.withdraw(user.get(), amount.get())
-                .map(ignore -> {
-                    exchange.setStatusCode(StatusCodes.NO_CONTENT);
-                    return null;
-                })
-                .getOrElseGet(error -> {
-                    mapError(error, exchange);
-                    return null;
-                });
-        }  else {
+    public void transferBatchHandler(@NonNull final HttpServerExchange exchange) {
+        // The body is streamed with blocking reads, which must not run on an IO thread
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::transferBatchHandler);
+            return;
+        }
+
+        exchange.startBlocking();
+
+        final boolean atomic = RequestParser.flag(exchange, "atomic");
+        final Option<List<TransferLeg>> legs = RequestParser.transferLegs(exchange.getInputStream(), MAX_BATCH_LEGS);
+
+        if (legs.isEmpty()) {
             exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
         }
 
-        exchange.endExchange();
+        complete(
+            exchange,
+            dao.transferBatchAsync(legs.get(), atomic),
+            outcome -> respondBatch(exchange, atomic, outcome)
+        );
     }
 
-    public static void transferHandler(@NonNull final HttpServerExchange exchange) {
-        final Option<User> from = RequestParser.pathParam(exchange, "from").map(User::new);
-        final Option<User> to = RequestParser.pathParam(exchange, "to").map(User::new);
+    /**
+     * Applies the mutation, unless the request carries the idempotency key of an earlier one for the same route,
+     * in which case that request's status is sent back without touching the DAO: 409 Conflict while it is still
+     * being applied, 422 Unprocessable Entity if the key was used for another route. Only definitive outcomes are
+     * remembered: a request that failed with a server error, or threw, gives up its key, so that a retry is applied.
+     */
+    private void mutate(
+        @NonNull final HttpServerExchange exchange,
+        @NonNull final Supplier<CompletableFuture<Try<Void>>> mutation
+    ) {
+        final String key = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY);
 
-        final Option<Money> amount = RequestParser.amount(exchange);
+        if (key == null) {
+            complete(exchange, mutation.get(), outcome -> respond(exchange, outcome, Option.none()));
+            return;
+        }
 
-        if (from.isDefined() && to.isDefined() && amount.isDefined()) {
-            dao.transfer(from.get(), to.get(), amount.get())
-                .map(ignore -> {
-                    exchange.setStatusCode(StatusCodes.NO_CONTENT);
-                    return null;
-                })
-                .getOrElseGet(error -> {
-                    mapError(error, exchange);
-                    return null;
-                });
-        } else {
+        if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
             exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
         }
 
-        exchange.endExchange();
+        final String fingerprint = exchange.getRequestMethod() + " " + exchange.getRequestURI();
+        final Either<IdempotencyCache.Claim, IdempotencyCache.Claim> claim = idempotency.claim(key, fingerprint);
+
+        if (claim.isRight()) {
+            final CompletableFuture<Try<Void>> result;
+            try {
+                result = mutation.get();
+            } catch (RuntimeException e) {
+                idempotency.release(claim.get());
+                throw e;
+            }
+
+            complete(exchange, result, outcome -> respond(exchange, outcome, claim.toOption()));
+            return;
+        }
+
+        final IdempotencyCache.Claim earlier = claim.getLeft();
+
+        if (!earlier.matches(fingerprint)) {
+            exchange.setStatusCode(StatusCodes.UNPROCESSABLE_ENTITY);
+            exchange.endExchange();
+        } else if (earlier.status() == IdempotencyCache.IN_FLIGHT) {
+            exchange.setStatusCode(StatusCodes.CONFLICT);
+            exchange.endExchange();
+        } else {
+            exchange.getResponseHeaders().put(IDEMPOTENT_REPLAYED, "true");
+            sendStatus(exchange, earlier.status());
+        }
     }
 
-    private static Try<Void> sendJson(@NonNull final HttpServerExchange exchange, @NonNull final Object obj) {
-        return Try.run(() -> {
-            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-            exchange.getResponseSender().send(
-                ByteBuffer.wrap(mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(obj))
-            );
-        });
+    /**
+     * Hands the outcome to respond, which must end the exchange, once the DAO has it, without holding a thread while
+     * the DAO works: the exchange is dispatched and left alone until the future completes. A response written with
+     * blocking calls, i.e., after the body was read that way, is completed on a worker thread, any other on
+     * the connection's IO thread.
+     */
+    private static <T> void complete(
+        @NonNull final HttpServerExchange exchange,
+        @NonNull final CompletableFuture<Try<T>> result,
+        @NonNull final Consumer<Try<T>> respond
+    ) {
+        if (result.isDone()) {
+            respond.accept(result.join());
+            return;
+        }
+
+        final Executor executor = exchange.isBlocking() ? exchange.getConnection().getWorker() : exchange.getIoThread();
+
+        exchange.dispatch(
+            SameThreadExecutor.INSTANCE,
+            () -> result.whenCompleteAsync(
+                (outcome, error) -> respond.accept(outcome != null ? outcome : Try.failure(error)),
+                executor
+            )
+        );
     }
 
-    private static void mapError(@NonNull final Throwable e, @NonNull final HttpServerExchange exchange) {
+    // An import under way: the body being read, the batch being created, and the counts so far
+    private static final class AccountImport {
+        private final AccountImportReader reader;
+        private final List<User> users = new ArrayList<>(IMPORT_BATCH_SIZE);
+        private final long[] balances = new long[IMPORT_BATCH_SIZE];
+        private long created;
+        private long skipped;
+
+        private AccountImport(final AccountImportReader reader) {
+            this.reader = reader;
+        }
+
+        // Counts the batch's accounts; false if it failed, in which case the error has been sent
+        private boolean add(final HttpServerExchange exchange, final Try<Integer> batch) {
+            if (batch.isFailure()) {
+                mapError(batch.getCause(), exchange);
+                return false;
+            }
+
+            created += batch.get();
+            skipped += users.size() - batch.get();
+            return true;
+        }
+    }
+
+    private void respond(
+        @NonNull final HttpServerExchange exchange,
+        @NonNull final Try<Void> outcome,
+        @NonNull final Option<IdempotencyCache.Claim> claim
+    ) {
+        final int status = outcome.isSuccess() ? StatusCodes.NO_CONTENT : statusOf(outcome.getCause());
+
+        // A server error is no outcome of the request itself, e.g., the journal failed, so a retry is applied anew
+        if (status >= StatusCodes.INTERNAL_SERVER_ERROR) {
+            claim.forEach(idempotency::release);
+        } else {
+            claim.forEach(c -> c.complete(status));
+        }
+        sendStatus(exchange, status);
+    }
+
+    // 200 OK, or 409 Conflict if an atomic batch was rolled back, with the status of every leg, e.g., [204,403,409]
+    private static void respondBatch(
+        @NonNull final HttpServerExchange exchange,
+        final boolean atomic,
+        @NonNull final Try<List<Try<Void>>> outcome
+    ) {
+        if (outcome.isFailure()) {
+            mapError(outcome.getCause(), exchange);
+            return;
+        }
+
+        final List<Try<Void>> results = outcome.get();
+        final int[] statuses = new int[results.size()];
+        boolean applied = true;
+
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = results.get(i).isSuccess() ? StatusCodes.NO_CONTENT : statusOf(results.get(i).getCause());
+            applied &= results.get(i).isSuccess();
+        }
+
+        JsonResponses.sendStatuses(exchange, atomic && !applied ? StatusCodes.CONFLICT : StatusCodes.OK, statuses);
+    }
+
+    private static int statusOf(@NonNull final Throwable e) {
         if (e instanceof UserDoesNotExistException) {
-            exchange.setStatusCode(StatusCodes.NOT_FOUND);
-            sendJson(exchange, "User not found");
+            return StatusCodes.NOT_FOUND;
         } else if (e instanceof InsufficientFundsException) {
-            exchange.setStatusCode(StatusCodes.FORBIDDEN);
-            sendJson(exchange, "Insufficient funds");
+            return StatusCodes.FORBIDDEN;
+        } else if (e instanceof BatchAbortedException) {
+            return StatusCodes.CONFLICT;
+        } else if (e instanceof InvalidUserIdException) {
+            return StatusCodes.BAD_REQUEST;
+        } else if (e instanceof UnsupportedOperationException) {
+            return StatusCodes.NOT_IMPLEMENTED;
         } else {
-            exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
-            sendJson(exchange, "Unknown error");
+            return StatusCodes.INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    // Sends the error's body, which ends the exchange
+    private static void mapError(@NonNull final Throwable e, @NonNull final HttpServerExchange exchange) {
+        sendStatus(exchange, statusOf(e));
+    }
+
+    // Sends the status, along with the body of an error status, which ends the exchange
+    private static void sendStatus(@NonNull final HttpServerExchange exchange, final int status) {
+        switch (status) {
+            case StatusCodes.NOT_FOUND:
+                JsonResponses.send(exchange, status, JsonResponses.USER_NOT_FOUND);
+                break;
+            case StatusCodes.FORBIDDEN:
+                JsonResponses.send(exchange, status, JsonResponses.INSUFFICIENT_FUNDS);
+                break;
+            case StatusCodes.NOT_IMPLEMENTED:
+                JsonResponses.send(exchange, status, JsonResponses.NOT_SUPPORTED);
+                break;
+            case StatusCodes.INTERNAL_SERVER_ERROR:
+                JsonResponses.send(exchange, status, JsonResponses.UNKNOWN_ERROR);
+                break;
+            default:
+                exchange.setStatusCode(status);
+                exchange.endExchange();
         }
     }
 }
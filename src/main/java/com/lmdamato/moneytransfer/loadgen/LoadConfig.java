@@ -0,0 +1,104 @@
+package com.lmdamato.moneytransfer.loadgen;
+
+import io.vavr.control.Option;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+@Value
+@Builder
+public class LoadConfig {
+    public static final String RATE_PROPERTY = "moneytransfer.loadgen.rate";
+    public static final String DURATION_PROPERTY = "moneytransfer.loadgen.durationSeconds";
+    public static final String WARMUP_PROPERTY = "moneytransfer.loadgen.warmupSeconds";
+    public static final String ACCOUNTS_PROPERTY = "moneytransfer.loadgen.accounts";
+    public static final String CONNECTIONS_PROPERTY = "moneytransfer.loadgen.connections";
+    public static final String MIX_PROPERTY = "moneytransfer.loadgen.mix";
+    public static final String TARGET_PROPERTY = "moneytransfer.loadgen.target";
+    public static final String PORT_PROPERTY = "moneytransfer.loadgen.port";
+
+    public static final int DEFAULT_RATE = 1000;
+    public static final int DEFAULT_DURATION_SECONDS = 30;
+    public static final int DEFAULT_WARMUP_SECONDS = 5;
+    public static final int DEFAULT_ACCOUNTS = 10_000;
+    public static final int DEFAULT_CONNECTIONS = 64;
+    public static final String DEFAULT_MIX = "create=1,balance=40,deposit=20,withdraw=19,transfer=20";
+    public static final int DEFAULT_PORT = 8090;
+
+    // Requests started per second, whether or not earlier ones have completed
+    @Builder.Default
+    private final int rate = DEFAULT_RATE;
+
+    // Length of the measured part of the run
+    @Builder.Default
+    private final int durationSeconds = DEFAULT_DURATION_SECONDS;
+
+    // Requests scheduled during the warmup are sent as usual, but left out of the report
+    @Builder.Default
+    private final int warmupSeconds = DEFAULT_WARMUP_SECONDS;
+
+    // Number of funded accounts that requests pick from
+    @Builder.Default
+    private final int accounts = DEFAULT_ACCOUNTS;
+
+    // Requests in flight at once; later ones wait, and the wait counts towards their latency
+    @Builder.Default
+    private final int connections = DEFAULT_CONNECTIONS;
+
+    // Relative weight of each operation in the mix
+    @NonNull
+    @Builder.Default
+    private final Map<Operation, Integer> mix = parseMix(DEFAULT_MIX);
+
+    // Base URL of the server under test, e.g., http://host:8080; if empty, a server is started in-process
+    @NonNull
+    @Builder.Default
+    private final Option<String> target = Option.none();
+
+    // Port of the in-process server
+    @Builder.Default
+    private final int port = DEFAULT_PORT;
+
+    public static LoadConfig fromSystemProperties() {
+        return LoadConfig
+            .builder()
+            .rate(Integer.getInteger(RATE_PROPERTY, DEFAULT_RATE))
+            .durationSeconds(Integer.getInteger(DURATION_PROPERTY, DEFAULT_DURATION_SECONDS))
+            .warmupSeconds(Integer.getInteger(WARMUP_PROPERTY, DEFAULT_WARMUP_SECONDS))
+            .accounts(Integer.getInteger(ACCOUNTS_PROPERTY, DEFAULT_ACCOUNTS))
+            .connections(Integer.getInteger(CONNECTIONS_PROPERTY, DEFAULT_CONNECTIONS))
+            .mix(parseMix(System.getProperty(MIX_PROPERTY, DEFAULT_MIX)))
+            .target(Option.of(System.getProperty(TARGET_PROPERTY)))
+            .port(Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT))
+            .build();
+    }
+
+    // Parses weights such as "balance=3,transfer=1"; operations that are not listed are never sent
+    public static Map<Operation, Integer> parseMix(@NonNull final String mix) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+
+        for (final String entry : mix.split(",")) {
+            final String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Malformed mix entry: " + entry);
+            }
+
+            final int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights must be non-negative: " + entry);
+            }
+
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+        }
+
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("At least one operation must have a positive weight");
+        }
+
+        return Collections.unmodifiableMap(weights);
+    }
+}
@@ -0,0 +1,246 @@
+package com.lmdamato.moneytransfer.loadgen;
+
+import com.lmdamato.moneytransfer.metrics.LatencyHistogram;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.storage.StorageEngine;
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop HTTP load generator: requests are started at a fixed rate, on schedule, however long earlier ones take.
+ *
+ * Latency is measured from the time each request was scheduled to be sent rather than from the time it actually was,
+ * which corrects for coordinated omission: when the server stalls, the requests that would have been sent meanwhile
+ * count the stall towards their latency instead of quietly waiting for it to end.
+ * Service times, measured from the actual send as a closed-loop client would, are reported alongside for comparison.
+ */
+public class LoadGenerator {
+    static final String ACCOUNT_PREFIX = "load-";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final String INITIAL_DEPOSIT = "1000000000.00";
+
+    private final LoadConfig config;
+    private final String baseUrl;
+    private final Map<Operation, RouteStats> stats = new EnumMap<>(Operation.class);
+
+    // Tells apart the accounts created by different runs against the same server
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    // Operations in the mix, with the cumulative weight up to and including each one
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    public LoadGenerator(@NonNull final LoadConfig config, @NonNull final String baseUrl) {
+        if (config.getRate() < 1 || config.getConnections() < 1 || config.getAccounts() < 1) {
+            throw new IllegalArgumentException("Rate, connections and accounts must be positive");
+        }
+
+        this.config = config;
+        this.baseUrl = baseUrl;
+
+        final List<Operation> mixed = new ArrayList<>();
+        final List<Integer> weights = new ArrayList<>();
+        int sum = 0;
+        for (final Map.Entry<Operation, Integer> entry : config.getMix().entrySet()) {
+            if (entry.getValue() > 0) {
+                sum += entry.getValue();
+                mixed.add(entry.getKey());
+                weights.add(sum);
+                stats.put(entry.getKey(), new RouteStats());
+            }
+        }
+
+        operations = mixed.toArray(new Operation[0]);
+        cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+
+        // The JDK keeps only this many idle connections per server alive, and by default far fewer than we use
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(config.getConnections()));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final LoadConfig config = LoadConfig.fromSystemProperties();
+        final Option<RestServer> server = config.getTarget().isEmpty()
+            ? Option.some(RestServer.start(config.getPort(), StorageEngine.fromSystemProperties().create()))
+            : Option.none();
+
+        try {
+            final LoadGenerator generator = new LoadGenerator(
+                config,
+                config.getTarget().getOrElse("http://localhost:" + config.getPort())
+            );
+
+            generator.print(System.out, generator.run());
+        } finally {
+            server.forEach(RestServer::stop);
+        }
+    }
+
+    /**
+     * Funds the accounts, then sends requests for the warmup and the measured duration, and waits for all of them
+     * to complete. Returns the statistics of the requests scheduled after the warmup, by operation.
+     */
+    public Map<Operation, RouteStats> run() throws InterruptedException {
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService connections = Executors.newFixedThreadPool(config.getConnections(), r -> {
+            final Thread thread = new Thread(r, "load-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            fundAccounts(connections);
+            sendAtFixedRate(connections);
+        } finally {
+            connections.shutdown();
+        }
+
+        if (!connections.awaitTermination(config.getDurationSeconds() + 60L, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Requests still outstanding a minute after the end of the run");
+        }
+
+        return Collections.unmodifiableMap(stats);
+    }
+
+    public void print(@NonNull final PrintStream out, @NonNull final Map<Operation, RouteStats> results) {
+        long requests = 0;
+
+        out.printf("Target rate %d req/s for %d s over %d connections%n",
+            config.getRate(), config.getDurationSeconds(), config.getConnections());
+        out.printf("%-9s %9s %7s %10s %10s %10s %10s %14s%n",
+            "operation", "requests", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "service p99 ms");
+
+        for (final Map.Entry<Operation, RouteStats> entry : results.entrySet()) {
+            final LatencyHistogram latencies = entry.getValue().getResponseTimes();
+            requests += latencies.count();
+
+            out.printf("%-9s %9d %7d %10.3f %10.3f %10.3f %10.3f %14.3f%n",
+                entry.getKey().name().toLowerCase(),
+                latencies.count(),
+                entry.getValue().getErrors().sum(),
+                millis(latencies.percentile(50)),
+                millis(latencies.percentile(99)),
+                millis(latencies.percentile(99.9)),
+                millis(latencies.max()),
+                millis(entry.getValue().getServiceTimes().percentile(99))
+            );
+        }
+
+        out.printf("Achieved %.0f req/s%n", (double) requests / config.getDurationSeconds());
+    }
+
+    private void fundAccounts(final ExecutorService connections) {
+        final List<CompletableFuture<Void>> funded = new ArrayList<>();
+
+        for (int i = 0; i < config.getAccounts(); i++) {
+            final String account = Operation.account(i);
+
+            funded.add(CompletableFuture.runAsync(() -> {
+                // The account may exist from an earlier run against the same server
+                final int created = send("PUT", "/create/" + account);
+                if ((created != 201 && created != 204) || send("POST", "/deposit/" + account + "/" + INITIAL_DEPOSIT) != 204) {
+                    throw new IllegalStateException("Could not set up account " + account);
+                }
+            }, connections));
+        }
+
+        CompletableFuture.allOf(funded.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void sendAtFixedRate(final ExecutorService connections) {
+        final Random random = new Random();
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+
+        for (long i = 0; ; i++) {
+            final long scheduled = start + (long) (i * NANOS_PER_SECOND / config.getRate());
+            if (scheduled >= end) {
+                return;
+            }
+
+            // When the generator falls behind, late requests go out at once rather than being skipped
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            final Operation operation = pick(random);
+            final long sequence = i;
+            final boolean measured = scheduled >= measureFrom;
+
+            connections.execute(() -> {
+                final String path = operation.path(
+                    ThreadLocalRandom.current(),
+                    config.getAccounts(),
+                    ACCOUNT_PREFIX + runId + "-" + sequence
+                );
+                final long sent = System.nanoTime();
+                final int status = send(operation.method, path);
+                final long completed = System.nanoTime();
+
+                if (measured) {
+                    stats.get(operation).record(status == operation.expectedStatus, completed - scheduled, completed - sent);
+                }
+            });
+        }
+    }
+
+    private Operation pick(final Random random) {
+        final int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+        int i = 0;
+        while (cumulativeWeights[i] <= draw) {
+            i++;
+        }
+
+        return operations[i];
+    }
+
+    // Returns the response status, or -1 if the request failed; the body is read and discarded to reuse the connection
+    private int send(final String method, final String path) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+
+            final int status = connection.getResponseCode();
+            try (final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    final byte[] buffer = new byte[256];
+                    while (body.read(buffer) != -1) {
+                        // Discard
+                    }
+                }
+            }
+
+            return status;
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,61 @@
+package com.lmdamato.moneytransfer.loadgen;
+
+import java.util.Random;
+
+/**
+ * The requests the load generator sends, each against accounts picked uniformly among those it set up.
+ * Accounts are funded well beyond what a run can withdraw, so that every request is expected to succeed.
+ */
+public enum Operation {
+    // A new account every time, so that creation does the actual work
+    CREATE("PUT", 201) {
+        @Override
+        String path(final Random random, final int accounts, final String newAccount) {
+            return "/create/" + newAccount;
+        }
+    },
+    BALANCE("GET", 200) {
+        @Override
+        String path(final Random random, final int accounts, final String newAccount) {
+            return "/balance/" + account(random.nextInt(accounts));
+        }
+    },
+    DEPOSIT("POST", 204) {
+        @Override
+        String path(final Random random, final int accounts, final String newAccount) {
+            return "/deposit/" + account(random.nextInt(accounts)) + "/1.00";
+        }
+    },
+    WITHDRAW("POST", 204) {
+        @Override
+        String path(final Random random, final int accounts, final String newAccount) {
+            return "/withdraw/" + account(random.nextInt(accounts)) + "/0.50";
+        }
+    },
+    TRANSFER("POST", 204) {
+        @Override
+        String path(final Random random, final int accounts, final String newAccount) {
+            final int from = random.nextInt(accounts);
+            final int to = accounts == 1 ? from : (from + 1 + random.nextInt(accounts - 1)) % accounts;
+
+            return "/transfer/" + account(from) + "/" + account(to) + "/0.25";
+        }
+    };
+
+    final String method;
+
+    // Status of a successful response
+    final int expectedStatus;
+
+    Operation(final String method, final int expectedStatus) {
+        this.method = method;
+        this.expectedStatus = expectedStatus;
+    }
+
+    // newAccount is an id no account has, for CREATE
+    abstract String path(Random random, int accounts, String newAccount);
+
+    static String account(final int index) {
+        return LoadGenerator.ACCOUNT_PREFIX + index;
+    }
+}
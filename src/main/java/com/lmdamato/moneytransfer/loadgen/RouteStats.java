@@ -0,0 +1,28 @@
+package com.lmdamato.moneytransfer.loadgen;
+
+import com.lmdamato.moneytransfer.metrics.LatencyHistogram;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// What the load generator measured for one operation
+@Getter
+public class RouteStats {
+    // From the time the request was scheduled to be sent until its response was read, in nanoseconds
+    private final LatencyHistogram responseTimes = new LatencyHistogram();
+
+    // From the time the request was actually sent, as a closed-loop client would measure it
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+
+    // Requests that failed or got an unexpected status
+    private final LongAdder errors = new LongAdder();
+
+    void record(final boolean succeeded, final long responseNanos, final long serviceNanos) {
+        responseTimes.record(responseNanos);
+        serviceTimes.record(serviceNanos);
+
+        if (!succeeded) {
+            errors.increment();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.lmdamato.moneytransfer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non-negative values, e.g., latencies in nanoseconds, in the style of HdrHistogram:
+ * values are counted in log-linear buckets, so that any value is reported within 1/64 (about 1.6%) of its
+ * actual size, whatever its magnitude, in a fixed 29 KB of counters. Recording never allocates or blocks.
+ */
+public class LatencyHistogram {
+    // Each power of two is split into this many linear sub-buckets
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values below twice the number of sub-buckets are counted exactly, one bucket each
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value must be non-negative");
+        }
+
+        counts.incrementAndGet(bucketOf(value));
+        total.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    // The exact largest value recorded, or 0 if none was
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * The smallest value that at least the given percentage of the recorded values do not exceed,
+     * rounded up to the top of its bucket; percentile(100) is the exact maximum, and 0 is returned if nothing was recorded.
+     * Concurrent recording may or may not be reflected.
+     */
+    public long percentile(final double percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        final long count = total.get();
+        if (count == 0) {
+            return 0L;
+        }
+        if (percent == 100) {
+            return max.get();
+        }
+
+        // Rounded to the nearest rank, as HdrHistogram does, so that, e.g., 99.9% of 1000 is 999 despite floating-point error
+        final long rank = Math.max(1L, Math.round(percent / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(bucket), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0L);
+        }
+        total.set(0L);
+        max.set(0L);
+    }
+
+    // Above LINEAR_LIMIT, a bucket covers 1/SUB_BUCKETS of the power of two that contains its values
+    static int bucketOf(final long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestValueIn(final int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+
+        // For the last bucket, the shift overflows to Long.MIN_VALUE, and subtracting 1 wraps around to Long.MAX_VALUE
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.lmdamato.moneytransfer.metrics;
+
+import lombok.NonNull;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Metrics of the whole process, exported in the Prometheus text format.
+ *
+ * When latency spikes, comparing the timers tells contention (LOCK_WAIT), time spent applying operations
+ * while holding account locks (LOCK_HOLD), disk IO (JOURNAL_FLUSH) and encoding responses (each route's
+ * serialization timer) apart.
+ */
+public final class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Time spent waiting to acquire account locks; acquisitions that did not wait count as 0
+    public static final Timer LOCK_WAIT = new Timer();
+
+    // Time account locks are held, applying an operation and handing it to the journal
+    public static final Timer LOCK_HOLD = new Timer();
+
+    // Time the journal spends writing each group of records and forcing it to disk
+    public static final Timer JOURNAL_FLUSH = new Timer();
+
+    private static final ConcurrentMap<String, RequestMetrics> ROUTES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    // The metrics of a route, registered the first time it is asked for
+    public static RequestMetrics route(@NonNull final String method, @NonNull final String route) {
+        return ROUTES.computeIfAbsent(method + " " + route, key -> new RequestMetrics(method, route));
+    }
+
+    public static String scrape() {
+        final StringBuilder out = new StringBuilder(16 * 1024);
+
+        header(out, "moneytransfer_requests_total", "counter", "Requests completed, by route and response status.");
+        for (final RequestMetrics route : ROUTES.values()) {
+            route.writeStatuses(out, "moneytransfer_requests_total");
+        }
+
+        header(out, "moneytransfer_request_duration_seconds", "histogram",
+            "Time from reading a request to completing its response, by route.");
+        for (final RequestMetrics route : ROUTES.values()) {
+            route.writeDurations(out, "moneytransfer_request_duration_seconds");
+        }
+
+        header(out, "moneytransfer_response_serialization_seconds", "histogram",
+            "Time spent encoding JSON response bodies, by route.");
+        for (final RequestMetrics route : ROUTES.values()) {
+            route.writeSerialization(out, "moneytransfer_response_serialization_seconds");
+        }
+
+        header(out, "moneytransfer_lock_wait_seconds", "histogram", "Time spent waiting to acquire account locks.");
+        LOCK_WAIT.writePrometheus(out, "moneytransfer_lock_wait_seconds", "");
+
+        header(out, "moneytransfer_lock_hold_seconds", "histogram", "Time account locks are held to apply an operation.");
+        LOCK_HOLD.writePrometheus(out, "moneytransfer_lock_hold_seconds", "");
+
+        header(out, "moneytransfer_journal_flush_seconds", "histogram",
+            "Time spent writing a group of journal records and forcing it to disk.");
+        JOURNAL_FLUSH.writePrometheus(out, "moneytransfer_journal_flush_seconds", "");
+
+        return out.toString();
+    }
+
+    private static void header(final StringBuilder out, final String name, final String type, final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,83 @@
+package com.lmdamato.moneytransfer.metrics;
+
+import io.undertow.util.AttachmentKey;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts and durations of the requests to one route
+public class RequestMetrics {
+    // The metrics of the route an exchange is being served by, for the code writing its response to record into
+    public static final AttachmentKey<RequestMetrics> ATTACHMENT_KEY = AttachmentKey.create(RequestMetrics.class);
+
+    private static final int MAX_STATUS = 599;
+
+    @Getter
+    private final String method;
+
+    @Getter
+    private final String route;
+
+    private final String labels;
+
+    // Requests by response status, with counters created the first time a status is seen
+    private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS + 1);
+
+    @Getter
+    private final Timer durations = new Timer();
+
+    // Time spent encoding response bodies, which is part of the durations
+    @Getter
+    private final Timer serialization = new Timer();
+
+    RequestMetrics(@NonNull final String method, @NonNull final String route) {
+        this.method = method;
+        this.route = route;
+        this.labels = "method=\"" + method + "\",route=\"" + route + "\"";
+    }
+
+    // A negative duration means it is not known; the request is still counted
+    public void record(final int status, final long nanos) {
+        final int index = status < 0 || status > MAX_STATUS ? 0 : status;
+
+        LongAdder count = statuses.get(index);
+        if (count == null) {
+            statuses.compareAndSet(index, null, new LongAdder());
+            count = statuses.get(index);
+        }
+        count.increment();
+
+        if (nanos >= 0) {
+            durations.record(nanos);
+        }
+    }
+
+    public long count(final int status) {
+        final LongAdder count = statuses.get(status);
+
+        return count == null ? 0L : count.sum();
+    }
+
+    void writeStatuses(final StringBuilder out, final String name) {
+        for (int status = 0; status <= MAX_STATUS; status++) {
+            final LongAdder count = statuses.get(status);
+            if (count != null) {
+                out.append(name).append('{').append(labels).append(",status=\"").append(status).append("\"} ")
+                    .append(count.sum()).append('\n');
+            }
+        }
+    }
+
+    void writeDurations(final StringBuilder out, final String name) {
+        durations.writePrometheus(out, name, labels);
+    }
+
+    // Only routes that encoded a response body are written
+    void writeSerialization(final StringBuilder out, final String name) {
+        if (serialization.count() > 0) {
+            serialization.writePrometheus(out, name, labels);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.lmdamato.moneytransfer.metrics;
+
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations over fixed buckets, exported as a Prometheus histogram in seconds.
+ * Counters are striped LongAdders, so that recording from many threads at once neither contends nor allocates.
+ */
+public class Timer {
+    // Upper bounds of the buckets, in nanoseconds, from 1 microsecond to 10 seconds
+    private static final long[] BOUNDS = {
+        1_000L, 5_000L, 10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+        1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+        100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Values of the le label of each bucket, e.g., "0.000001"
+    private static final String[] LE = new String[BOUNDS.length + 1];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            LE[i] = BigDecimal.valueOf(BOUNDS[i], 9).stripTrailingZeros().toPlainString();
+        }
+        LE[BOUNDS.length] = "+Inf";
+    }
+
+    // One counter per bucket, plus one for durations above the largest bound
+    private final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Timer() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long nanos) {
+        final int bucket = Arrays.binarySearch(BOUNDS, nanos);
+
+        counts[bucket < 0 ? -bucket - 1 : bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (final LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+
+        return count;
+    }
+
+    // Appends the cumulative buckets, sum and count; labels, if not empty, are rendered as in name{labels,le="..."}
+    public void writePrometheus(@NonNull final StringBuilder out, @NonNull final String name, @NonNull final String labels) {
+        final String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        final String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i].sum();
+
+            out.append(name).append("_bucket").append(prefix)
+                .append("le=\"").append(LE[i]).append("\"} ").append(cumulative).append('\n');
+        }
+
+        out.append(name).append("_sum").append(suffix).append(' ').append(sumNanos.sum() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+    }
+}
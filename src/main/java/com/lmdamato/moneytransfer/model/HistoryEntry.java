@@ -0,0 +1,36 @@
+package com.lmdamato.moneytransfer.model;
+
+import io.vavr.control.Option;
+import lombok.NonNull;
+import lombok.Value;
+
+// A change to an account's balance, as recorded in its history
+@Value
+public class HistoryEntry {
+    public enum Type {
+        DEPOSIT, WITHDRAW, TRANSFER_OUT, TRANSFER_IN,
+
+        // The amount of an outgoing transfer given back because it could not be credited
+        REFUND
+    }
+
+    // Position in the account's history, starting from 1; pages are requested after the last one seen
+    private final long seq;
+
+    @NonNull
+    private final Type type;
+
+    @NonNull
+    private final Money amount;
+
+    // Balance of the account right after the change
+    @NonNull
+    private final Money balance;
+
+    // The other account of a transfer or refund
+    @NonNull
+    private final Option<User> counterparty;
+
+    // Milliseconds since the epoch
+    private final long timestamp;
+}
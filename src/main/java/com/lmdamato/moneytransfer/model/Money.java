@@ -1,5 +1,6 @@
 package com.lmdamato.moneytransfer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
@@ -11,30 +12,58 @@ import java.math.RoundingMode;
 @EqualsAndHashCode
 @ToString
 public class Money implements Comparable<Money> {
-    public static final Money ZERO = new Money(BigDecimal.ZERO);
+    // Amounts are fixed-point numbers with this many decimal digits, stored as a count of minor units (cents)
+    public static final int SCALE = 2;
 
-    @JsonProperty("amount")
-    @NonNull
-    private final BigDecimal amount;
+    public static final Money ZERO = new Money(0L);
+
+    private final long minorUnits;
 
     public Money(@NonNull final BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) < 0) {
+        this(toMinorUnits(amount));
+    }
+
+    private Money(final long minorUnits) {
+        if (minorUnits < 0) {
             throw new IllegalArgumentException("Amount must be non-negative");
         }
 
-        this.amount = amount.setScale(2, RoundingMode.HALF_UP);
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinorUnits(final long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    @JsonIgnore
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    @JsonProperty("amount")
+    public BigDecimal getAmount() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
     }
 
     public Money plus(@NonNull final Money other) {
-        return new Money(this.amount.add(other.amount));
+        return new Money(Math.addExact(this.minorUnits, other.minorUnits));
     }
 
     public Money minus(@NonNull final Money other) {
-        return new Money(this.amount.subtract(other.amount));
+        return ofMinorUnits(Math.subtractExact(this.minorUnits, other.minorUnits));
     }
 
     @Override
     public int compareTo(@NonNull final Money o) {
-        return this.amount.compareTo(o.amount);
+        return Long.compare(this.minorUnits, o.minorUnits);
+    }
+
+    private static long toMinorUnits(final BigDecimal amount) {
+        if (amount.signum() < 0) {
+            throw new IllegalArgumentException("Amount must be non-negative");
+        }
+
+        // Throws ArithmeticException if the amount does not fit in a long
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
     }
 }
@@ -0,0 +1,16 @@
+package com.lmdamato.moneytransfer.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+@Value
+public class TransferLeg {
+    @NonNull
+    private final User from;
+
+    @NonNull
+    private final User to;
+
+    @NonNull
+    private final Money amount;
+}
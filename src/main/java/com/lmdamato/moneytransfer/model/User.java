@@ -2,15 +2,43 @@ package com.lmdamato.moneytransfer.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
 @RequiredArgsConstructor
 @EqualsAndHashCode
+@Getter
 @ToString
 public class User {
+    // Longest id accepted, in UTF-8 bytes; a journal record naming two accounts must fit in 64KB
+    public static final int MAX_ID_BYTES = 1 << 14;
+
     @JsonProperty("userId")
     @NonNull
     private final String id;
+
+    // True if id is at most MAX_ID_BYTES long in UTF-8; only long ids are encoded to tell
+    public static boolean isValidId(@NonNull final String id) {
+        final int length = id.length();
+
+        if (length > MAX_ID_BYTES) {
+            return false;
+        }
+
+        if (length * 3 <= MAX_ID_BYTES) {
+            return true;
+        }
+
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = id.charAt(i);
+
+            // Each half of a surrogate pair counts for half of its 4 bytes
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+
+        return bytes <= MAX_ID_BYTES;
+    }
 }
@@ -0,0 +1,359 @@
+package com.lmdamato.moneytransfer.replication;
+
+import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.server.ServerConfig;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecord;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecordType;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves balance reads from a copy of a leader's accounts, kept up to date by streaming its log as described by
+ * {@link ReplicationProtocol}. Writes, history and every other endpoint are served by the leader only.
+ *
+ * A read carrying the Replication-Seq token of an earlier response from the leader waits, for up to maxWaitMillis,
+ * until the follower has applied that much, so that it sees the client's own writes. A read without one is served
+ * as long as the follower was caught up with the leader at most maxStalenessMillis ago. Either is otherwise turned
+ * away with 503 Service Unavailable, for the client to retry, or to read from the leader instead.
+ */
+public class ReplicationFollower implements AutoCloseable {
+    // Base URL of the leader, e.g., http://10.0.0.1:8080
+    public static final String LEADER_PROPERTY = "moneytransfer.replication.leader";
+
+    public static final String MAX_STALENESS_MILLIS_PROPERTY = "moneytransfer.replication.maxStalenessMillis";
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 2_000;
+
+    public static final String MAX_WAIT_MILLIS_PROPERTY = "moneytransfer.replication.maxWaitMillis";
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 1_000;
+
+    private static final Logger LOGGER = Logger.getLogger(ReplicationFollower.class.getName());
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+
+    // A leader sends a frame at least every heartbeat, so a stream silent for longer than this is dead
+    private static final int READ_TIMEOUT_MILLIS = (int) (20 * ReplicationLeader.HEARTBEAT_MILLIS);
+
+    private static final long RETRY_MILLIS = 500;
+    private static final int BUFFER_BYTES = 64 << 10;
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @NonNull
+    private final String leaderUrl;
+
+    @NonNull
+    private final InMemoryMoneyTransferDao dao;
+
+    private final long maxStalenessMillis;
+    private final long maxWaitMillis;
+
+    @NonNull
+    private final Thread puller;
+
+    // Sequence number of the last record applied; every one up to it is reflected in the accounts
+    private volatile long appliedSeq;
+
+    // When the follower last had every record the leader had logged, or 0 if it never had
+    private volatile long caughtUpAtMillis;
+
+    // Reads waiting for a record; the puller only wakes them up when there are any
+    private final Object progress = new Object();
+    private volatile int waiters;
+
+    private volatile HttpURLConnection connection;
+    private volatile boolean closed;
+
+    /**
+     * Follows the leader at leaderUrl into dao, which must be an engine of its own that nothing else writes to,
+     * starting from the accounts it already has, if any.
+     */
+    public ReplicationFollower(
+        @NonNull final String leaderUrl,
+        @NonNull final InMemoryMoneyTransferDao dao,
+        final long maxStalenessMillis,
+        final long maxWaitMillis
+    ) {
+        this.leaderUrl = leaderUrl.endsWith("/") ? leaderUrl.substring(0, leaderUrl.length() - 1) : leaderUrl;
+        this.dao = dao;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.maxWaitMillis = maxWaitMillis;
+
+        this.puller = new Thread(this::pull, "replication-follower");
+        this.puller.setDaemon(true);
+        this.puller.start();
+    }
+
+    public static ReplicationFollower fromSystemProperties(@NonNull final InMemoryMoneyTransferDao dao) {
+        final String leader = System.getProperty(LEADER_PROPERTY);
+        if (leader == null) {
+            throw new IllegalArgumentException(LEADER_PROPERTY + " must give the base URL of the leader");
+        }
+
+        return new ReplicationFollower(
+            leader,
+            dao,
+            Long.getLong(MAX_STALENESS_MILLIS_PROPERTY, DEFAULT_MAX_STALENESS_MILLIS),
+            Long.getLong(MAX_WAIT_MILLIS_PROPERTY, DEFAULT_MAX_WAIT_MILLIS)
+        );
+    }
+
+    public static void main(String[] args) throws IOException {
+        RestServer.loadConfigFile();
+
+        final ReplicationFollower follower = fromSystemProperties(new InMemoryMoneyTransferDao(Integer.getInteger(
+            InMemoryMoneyTransferDao.LOCK_STRIPES_PROPERTY,
+            InMemoryMoneyTransferDao.DEFAULT_LOCK_STRIPES
+        )));
+        final RestServer server = RestServer.start(
+            ServerConfig.fromSystemProperties(),
+            follower.routes(),
+            Option.none()
+        );
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            follower.close();
+        }, "shutdown"));
+    }
+
+    public RoutingHandler routes() {
+        final MoneyTransferHandler handler = new MoneyTransferHandler(dao);
+
+        return new RoutingHandler()
+            .get("/balance/{userId}", exchange -> gate(exchange, handler::getBalanceHandler))
+            .post("/balances", exchange -> gate(exchange, handler::getBalancesHandler))
+            .setFallbackHandler(ResponseCodeHandler.HANDLE_404);
+    }
+
+    // Sequence number of the last record applied
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        puller.interrupt();
+
+        final HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    // Hands the read to handler if the follower is recent enough for it, as told by its token, if any
+    void gate(@NonNull final HttpServerExchange exchange, @NonNull final HttpHandler handler) throws Exception {
+        final String header = exchange.getRequestHeaders().getFirst(ReplicationProtocol.REPLICATION_SEQ);
+        final long token = header == null ? -1L : parseSeq(header);
+
+        if (header != null && token < 0) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
+        }
+
+        final boolean recentEnough = header != null
+            ? appliedSeq >= token
+            : System.currentTimeMillis() - caughtUpAtMillis <= maxStalenessMillis;
+
+        if (recentEnough) {
+            serve(exchange, handler);
+            return;
+        }
+
+        if (header == null) {
+            unavailable(exchange);
+            return;
+        }
+
+        // Waiting for the token blocks, which must not happen on an IO thread
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(dispatched -> gate(dispatched, handler));
+            return;
+        }
+
+        if (awaitApplied(token)) {
+            serve(exchange, handler);
+        } else {
+            unavailable(exchange);
+        }
+    }
+
+    private void serve(final HttpServerExchange exchange, final HttpHandler handler) throws Exception {
+        exchange.getResponseHeaders().put(ReplicationProtocol.REPLICATION_SEQ, Long.toString(appliedSeq));
+        handler.handleRequest(exchange);
+    }
+
+    private static void unavailable(final HttpServerExchange exchange) {
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        exchange.endExchange();
+    }
+
+    // Waits up to maxWaitMillis for every record up to seq to be applied; false if they were not by then
+    private boolean awaitApplied(final long seq) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        synchronized (progress) {
+            waiters++;
+            try {
+                while (appliedSeq < seq) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+                }
+
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    // Streams the leader's log for as long as the follower is open, reconnecting whenever the stream ends
+    private void pull() {
+        while (!closed) {
+            try {
+                stream();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.log(Level.FINE, "Lost the stream from " + leaderUrl + ", reconnecting", e);
+                }
+            }
+
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void stream() throws IOException {
+        final HttpURLConnection current = (HttpURLConnection) new URL(
+            leaderUrl + ReplicationProtocol.STREAM_PATH + "?after=" + appliedSeq
+        ).openConnection();
+        current.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        current.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection = current;
+
+        try {
+            final int status = current.getResponseCode();
+
+            if (status != StatusCodes.OK) {
+                // E.g., 409 Conflict from a leader that lost records this follower applied, which needs an operator
+                LOGGER.warning("The leader at " + leaderUrl + " answered " + status + " to a follower at "
+                    + appliedSeq);
+
+                final InputStream error = current.getErrorStream();
+                if (error != null) {
+                    error.close();
+                }
+                return;
+            }
+
+            try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(current.getInputStream(), BUFFER_BYTES)
+            )) {
+                apply(in);
+            }
+        } finally {
+            current.disconnect();
+        }
+    }
+
+    private void apply(final DataInputStream in) throws IOException {
+        // Legs of an atomic batch, applied together once they have all arrived
+        final List<JournalRecord> batch = new ArrayList<>();
+        int legs = 0;
+
+        while (!closed) {
+            final int kind = in.read();
+
+            switch (kind) {
+                case -1:
+                    return;
+                case ReplicationProtocol.ACCOUNT:
+                    dao.applyCopy(ReplicationProtocol.readAccountId(in), in.readLong(), in.readLong());
+                    break;
+                case ReplicationProtocol.RESUME:
+                    applied(in.readLong());
+                    break;
+                case ReplicationProtocol.RECORD:
+                    final JournalRecord record = ReplicationProtocol.readRecord(in);
+
+                    if (record.getType() == JournalRecordType.BATCH) {
+                        legs = (int) record.getAmount();
+                        if (legs == 0) {
+                            applied(record.getSeq());
+                        }
+                    } else if (legs > 0) {
+                        batch.add(record);
+
+                        if (batch.size() == legs) {
+                            dao.applyRecords(batch);
+                            applied(record.getSeq());
+                            batch.clear();
+                            legs = 0;
+                        }
+                    } else {
+                        dao.applyRecords(Collections.singletonList(record));
+                        applied(record.getSeq());
+                    }
+                    break;
+                case ReplicationProtocol.CAUGHT_UP:
+                    in.readLong();
+                    caughtUpAtMillis = System.currentTimeMillis();
+                    break;
+                default:
+                    throw new IOException("Unknown replication frame " + kind);
+            }
+        }
+    }
+
+    private void applied(final long seq) {
+        appliedSeq = seq;
+
+        if (waiters > 0) {
+            synchronized (progress) {
+                progress.notifyAll();
+            }
+        }
+    }
+
+    // The token as a non-negative sequence number, or -1 if it is not one
+    private static long parseSeq(final String value) {
+        try {
+            final long seq = Long.parseLong(value.trim());
+            return seq >= 0 ? seq : -1L;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.lmdamato.moneytransfer.replication;
+
+import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.server.ServerConfig;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.journal.JournalConfig;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecord;
+import com.lmdamato.moneytransfer.storage.journal.ReplicationLog;
+import com.lmdamato.moneytransfer.util.RequestParser;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves the endpoints over an engine that keeps a replication log, tagging every response with the sequence number
+ * of the last mutation logged, and streams the log to followers, as described by {@link ReplicationProtocol}.
+ *
+ * Each follower holds a worker thread for as long as it is connected. A follower asking to resume from a record
+ * the log no longer holds, e.g., a new one, first gets a copy of every account, taken without stopping writers,
+ * then the records logged since the copy started. Records and copies are only streamed once the journal holds
+ * them durably, so that followers never get ahead of what a restarted leader recovers. One that falls further
+ * behind than the log holds while streaming is disconnected, and starts over the same way when it reconnects.
+ */
+public class ReplicationLeader implements AutoCloseable {
+    // Mutations held in memory for followers to stream; a power of two
+    public static final String LOG_CAPACITY_PROPERTY = "moneytransfer.replication.logCapacity";
+    public static final int DEFAULT_LOG_CAPACITY = 1 << 18;
+
+    // How long a stream waits for a new record before telling the follower it is caught up
+    static final long HEARTBEAT_MILLIS = 250;
+
+    private static final int MAX_RECORDS_PER_WRITE = 1024;
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    @NonNull
+    private final InMemoryMoneyTransferDao dao;
+
+    @NonNull
+    private final ReplicationLog log;
+
+    private volatile boolean closed;
+
+    public ReplicationLeader(@NonNull final InMemoryMoneyTransferDao dao) {
+        this.dao = dao;
+        this.log = dao
+            .replicationLog()
+            .getOrElseThrow(() -> new IllegalArgumentException("The engine does not keep a replication log"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        RestServer.loadConfigFile();
+
+        final int lockStripes = Integer.getInteger(
+            InMemoryMoneyTransferDao.LOCK_STRIPES_PROPERTY,
+            InMemoryMoneyTransferDao.DEFAULT_LOCK_STRIPES
+        );
+        final InMemoryMoneyTransferDao dao = InMemoryMoneyTransferDao.leader(
+            lockStripes,
+            JournalConfig.fromSystemProperties(),
+            Integer.getInteger(LOG_CAPACITY_PROPERTY, DEFAULT_LOG_CAPACITY)
+        );
+        final ReplicationLeader leader = new ReplicationLeader(dao);
+        final RestServer server = RestServer.start(
+            ServerConfig.fromSystemProperties(),
+            leader.routes(),
+            Option.some(dao)
+        );
+
+        // Streams only end once told to, so they are ended before the server waits for requests in flight
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            leader.close();
+            server.stop();
+        }, "shutdown"));
+    }
+
+    public HttpHandler routes() {
+        final RoutingHandler routes = RestServer
+            .routes(new MoneyTransferHandler(dao))
+            .get(ReplicationProtocol.STREAM_PATH, this::streamHandler);
+
+        // Read as the response is committed, i.e., after the mutation it is for, if any, was logged
+        return exchange -> {
+            exchange.addResponseCommitListener(committed -> committed
+                .getResponseHeaders()
+                .put(ReplicationProtocol.REPLICATION_SEQ, Long.toString(log.lastSeq())));
+
+            routes.handleRequest(exchange);
+        };
+    }
+
+    // Ends every stream within a heartbeat; followers reconnect to whichever leader is there next
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // 200 OK with the stream of records after ?after=, for as long as the follower stays connected
+    void streamHandler(@NonNull final HttpServerExchange exchange) {
+        // The stream is written with blocking calls, and never ends while there are records to send
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::streamHandler);
+            return;
+        }
+
+        final long after = RequestParser.count(exchange, "after", 0L);
+
+        if (after == RequestParser.INVALID_COUNT) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
+        }
+
+        // The follower applied records this log never held, e.g., before the leader restarted without a journal
+        if (after > log.lastSeq()) {
+            exchange.setStatusCode(StatusCodes.CONFLICT);
+            exchange.endExchange();
+            return;
+        }
+
+        exchange.startBlocking();
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+
+        try (final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(exchange.getOutputStream(), BUFFER_BYTES)
+        )) {
+            stream(out, after);
+        } catch (IOException e) {
+            // The follower went away; it reconnects if it wants more
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(final DataOutputStream out, final long after) throws IOException, InterruptedException {
+        long seq = after;
+
+        if (!log.covers(after)) {
+            seq = log.lastSeq();
+            dao.copyAccounts((userId, balance, accountSeq) -> {
+                log.awaitDurable(accountSeq);
+                ReplicationProtocol.writeAccount(out, userId, balance, accountSeq);
+            });
+        }
+
+        ReplicationProtocol.writeSeq(out, ReplicationProtocol.RESUME, seq);
+        out.flush();
+
+        final List<JournalRecord> records = new ArrayList<>(MAX_RECORDS_PER_WRITE);
+
+        while (!closed) {
+            records.clear();
+
+            if (!log.read(seq, records, MAX_RECORDS_PER_WRITE, HEARTBEAT_MILLIS)) {
+                return;
+            }
+
+            for (final JournalRecord record : records) {
+                ReplicationProtocol.writeRecord(out, record);
+            }
+
+            if (!records.isEmpty()) {
+                seq = records.get(records.size() - 1).getSeq();
+            }
+
+            if (seq >= log.lastSeq()) {
+                ReplicationProtocol.writeSeq(out, ReplicationProtocol.CAUGHT_UP, seq);
+            }
+
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.lmdamato.moneytransfer.replication;
+
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecord;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecordType;
+import io.undertow.util.HttpString;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stream of a leader's log, as sent to a follower in the body of GET /replication/stream?after=seq: a sequence
+ * of frames, each starting with a byte telling its kind.
+ *
+ * ACCOUNT    user id, balance, sequence number: a copy of an account, sent first if the log no longer holds every
+ *            record after the one the follower asked for;
+ * RESUME     sequence number: the records after it follow, and every one up to it is covered by what came before;
+ * RECORD     sequence number, journal record type, user id, counterparty id, if any, amount: a mutation, in log order;
+ * CAUGHT_UP  sequence number: the last record the leader had logged, all of which were sent before.
+ *
+ * Ids are written as their length in UTF-8 bytes, an int, then the bytes, as the journal writes them, with no limit
+ * but the one on user ids; a missing id as the length -1. Numbers are big-endian.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ReplicationProtocol {
+    /**
+     * Sent by the leader on every response: the sequence number of the last mutation it has logged, which covers
+     * the one a write asked for. Sent back to a follower along with a read, it makes the follower wait until it has
+     * applied that much, so that clients read their own writes. Followers send it with the sequence number they are at.
+     */
+    public static final HttpString REPLICATION_SEQ = new HttpString("Replication-Seq");
+
+    static final String STREAM_PATH = "/replication/stream";
+
+    static final byte ACCOUNT = 'A';
+    static final byte RESUME = 'S';
+    static final byte RECORD = 'R';
+    static final byte CAUGHT_UP = 'C';
+
+    static void writeAccount(
+        @NonNull final DataOutputStream out,
+        @NonNull final String userId,
+        final long balance,
+        final long seq
+    ) throws IOException {
+        out.writeByte(ACCOUNT);
+        writeId(out, userId);
+        out.writeLong(balance);
+        out.writeLong(seq);
+    }
+
+    static void writeSeq(@NonNull final DataOutputStream out, final byte kind, final long seq) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(seq);
+    }
+
+    static void writeRecord(@NonNull final DataOutputStream out, @NonNull final JournalRecord record)
+        throws IOException {
+        out.writeByte(RECORD);
+        out.writeLong(record.getSeq());
+        out.writeByte(record.getType().ordinal());
+        writeId(out, record.getUserId());
+        writeId(out, record.getCounterpartyId());
+        out.writeLong(record.getAmount());
+    }
+
+    // Reads the rest of a RECORD frame, whose kind has been read already
+    static JournalRecord readRecord(@NonNull final DataInputStream in) throws IOException {
+        final long seq = in.readLong();
+        final JournalRecordType type = JournalRecordType.fromCode(in.readUnsignedByte());
+        final String userId = readId(in);
+        final String counterpartyId = readId(in);
+        final long amount = in.readLong();
+
+        if (userId == null) {
+            throw new IOException("Replication record " + seq + " has no user id");
+        }
+
+        return new JournalRecord(seq, type, userId, counterpartyId, amount);
+    }
+
+    // Reads the user id of an ACCOUNT frame, whose kind has been read already; its balance and seq follow
+    static String readAccountId(@NonNull final DataInputStream in) throws IOException {
+        final String userId = readId(in);
+        if (userId == null) {
+            throw new IOException("Replicated account has no user id");
+        }
+
+        return userId;
+    }
+
+    private static void writeId(final DataOutputStream out, final String id) throws IOException {
+        if (id == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Returns null for a missing id
+    private static String readId(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+
+        if (length < 0 || length > User.MAX_ID_BYTES) {
+            throw new IOException("Replicated id of " + length + " bytes");
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,89 @@
+package com.lmdamato.moneytransfer.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves request handling off the IO threads onto the executor of the configured {@link ExecutionMode},
+ * so a handler waiting for a contended lock never stalls accepting and reading other connections.
+ * Once maxPendingRequests requests are queued, running on the executor or waiting for the engine, further ones are
+ * rejected straight away with 503 Service Unavailable instead of queueing without bound. A request stays pending
+ * until its exchange completes, not until its handler returns, as an asynchronous handler returns long before.
+ */
+public class DispatchingHandler implements HttpHandler {
+    public static final String WORKER_THREADS_PROPERTY = "moneytransfer.server.workerThreads";
+    public static final String MAX_PENDING_REQUESTS_PROPERTY = "moneytransfer.server.maxPendingRequests";
+
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 8;
+    public static final int DEFAULT_MAX_PENDING_REQUESTS = 1024;
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @NonNull
+    private final HttpHandler next;
+
+    @NonNull
+    private final Option<? extends Executor> executor;
+
+    private final int maxPendingRequests;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public DispatchingHandler(
+        @NonNull final HttpHandler next,
+        @NonNull final Option<? extends Executor> executor,
+        final int maxPendingRequests
+    ) {
+        if (maxPendingRequests < 1) {
+            throw new IllegalArgumentException("Maximum number of pending requests must be positive");
+        }
+
+        this.next = next;
+        this.executor = executor;
+        this.maxPendingRequests = maxPendingRequests;
+    }
+
+    public static DispatchingHandler fromSystemProperties(@NonNull final HttpHandler next) {
+        return new DispatchingHandler(
+            next,
+            ExecutionMode.fromSystemProperties().createExecutor(
+                Integer.getInteger(WORKER_THREADS_PROPERTY, DEFAULT_WORKER_THREADS)
+            ),
+            Integer.getInteger(MAX_PENDING_REQUESTS_PROPERTY, DEFAULT_MAX_PENDING_REQUESTS)
+        );
+    }
+
+    @Override
+    public void handleRequest(@NonNull final HttpServerExchange exchange) throws Exception {
+        if (executor.isEmpty() || !exchange.isInIoThread()) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        if (pending.incrementAndGet() > maxPendingRequests) {
+            pending.decrementAndGet();
+
+            exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            exchange.endExchange();
+            return;
+        }
+
+        exchange.addExchangeCompleteListener((completed, nextListener) -> {
+            pending.decrementAndGet();
+            nextListener.proceed();
+        });
+        exchange.dispatch(executor.get(), next);
+    }
+
+    // Requests dispatched to the executor whose exchange has not completed yet
+    public int pendingRequests() {
+        return pending.get();
+    }
+}
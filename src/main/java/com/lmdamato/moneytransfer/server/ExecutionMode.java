@@ -0,0 +1,60 @@
+package com.lmdamato.moneytransfer.server;
+
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public enum ExecutionMode {
+    // Handlers run on the IO thread that read the request
+    INLINE {
+        @Override
+        public Option<ExecutorService> createExecutor(final int workerThreads) {
+            return Option.none();
+        }
+    },
+
+    // Handlers run on a fixed pool of platform threads
+    WORKER_POOL {
+        @Override
+        public Option<ExecutorService> createExecutor(final int workerThreads) {
+            final AtomicInteger count = new AtomicInteger();
+
+            return Option.some(Executors.newFixedThreadPool(workerThreads, r -> {
+                final Thread thread = new Thread(r, "request-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+    },
+
+    // Every request runs on its own virtual thread; needs JDK 21 or later
+    VIRTUAL_THREADS {
+        @Override
+        public Option<ExecutorService> createExecutor(final int workerThreads) {
+            try {
+                return Option.some(
+                    (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+                );
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Virtual threads require JDK 21 or later", e);
+            }
+        }
+    };
+
+    public static final String PROPERTY = "moneytransfer.server.execution";
+
+    // Executor handlers are dispatched to, none if they run on the IO thread
+    public abstract Option<ExecutorService> createExecutor(int workerThreads);
+
+    public static ExecutionMode fromSystemProperties() {
+        return fromName(System.getProperty(PROPERTY, WORKER_POOL.name()));
+    }
+
+    public static ExecutionMode fromName(@NonNull final String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,51 @@
+package com.lmdamato.moneytransfer.server;
+
+import com.lmdamato.moneytransfer.metrics.Metrics;
+import com.lmdamato.moneytransfer.metrics.RequestMetrics;
+import io.undertow.UndertowOptions;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import lombok.NonNull;
+
+/**
+ * Counts the requests to one route by response status once they complete, and times them from the moment
+ * Undertow started reading them, so that time queued for a worker thread is included. Durations are only
+ * recorded when the server runs with {@link UndertowOptions#RECORD_REQUEST_START_TIME}, as RestServer does.
+ * The handler is its own completion listener, so recording allocates nothing per request but the attachment that
+ * lets the response writers time their encoding against the route.
+ */
+public class MetricsHandler implements HttpHandler, ExchangeCompletionListener {
+    @NonNull
+    private final HttpHandler next;
+
+    @NonNull
+    private final RequestMetrics metrics;
+
+    public MetricsHandler(@NonNull final String method, @NonNull final String route, @NonNull final HttpHandler next) {
+        this.next = next;
+        this.metrics = Metrics.route(method, route);
+    }
+
+    // GET /metrics, in the Prometheus text format
+    public static void scrape(@NonNull final HttpServerExchange exchange) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, Metrics.CONTENT_TYPE);
+        exchange.getResponseSender().send(Metrics.scrape());
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        exchange.addExchangeCompleteListener(this);
+        exchange.putAttachment(RequestMetrics.ATTACHMENT_KEY, metrics);
+        next.handleRequest(exchange);
+    }
+
+    @Override
+    public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+        final long start = exchange.getRequestStartTime();
+
+        metrics.record(exchange.getStatusCode(), start == -1 ? -1 : System.nanoTime() - start);
+        nextListener.proceed();
+    }
+}
@@ -1,26 +1,208 @@
 package com.lmdamato.moneytransfer.server;
 
 import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import com.lmdamato.moneytransfer.server.binary.BinaryServer;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.StorageEngine;
+import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.RoutingHandler;
+import io.undertow.server.handlers.GracefulShutdownHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
+import io.vavr.control.Option;
+import lombok.NonNull;
+import org.xnio.Options;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class RestServer {
-    private static final HttpHandler ROOT = new RoutingHandler()
-        .put("/create/{userId}", MoneyTransferHandler::createUserHandler)
-        .get("/balance/{userId}", MoneyTransferHandler::getBalanceHandler)
-        .post("/deposit/{userId}/{amount}", MoneyTransferHandler::depositHandler)
-        .post("/withdraw/{userId}/{amount}", MoneyTransferHandler::withdrawHandler)
-        .post("/transfer/{from}/{to}/{amount}", MoneyTransferHandler::transferHandler)
-        .setFallbackHandler(ResponseCodeHandler.HANDLE_404);
-
-    public static void main(String[] args) {
-        final Undertow ut = Undertow
+    // Properties file read at startup, whose entries apply unless the same system property is set
+    public static final String CONFIG_FILE_PROPERTY = "moneytransfer.config";
+
+    private static final Logger LOGGER = Logger.getLogger(RestServer.class.getName());
+
+    @NonNull
+    private final Undertow undertow;
+
+    @NonNull
+    private final GracefulShutdownHandler shutdown;
+
+    @NonNull
+    private final Option<BinaryServer> binary;
+
+    private final long shutdownTimeoutSeconds;
+
+    private RestServer(
+        @NonNull final Undertow undertow,
+        @NonNull final GracefulShutdownHandler shutdown,
+        @NonNull final Option<BinaryServer> binary,
+        final long shutdownTimeoutSeconds
+    ) {
+        this.undertow = undertow;
+        this.shutdown = shutdown;
+        this.binary = binary;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    public static RoutingHandler routes(@NonNull final MoneyTransferHandler handler) {
+        final RoutingHandler routes = new RoutingHandler()
+            .get("/metrics", MetricsHandler::scrape)
+            .setFallbackHandler(ResponseCodeHandler.HANDLE_404);
+
+        timed(routes, "PUT", "/create/{userId}", handler::createUserHandler);
+        timed(routes, "GET", "/balance/{userId}", handler::getBalanceHandler);
+        timed(routes, "POST", "/balances", handler::getBalancesHandler);
+        timed(routes, "POST", "/deposit/{userId}/{amount}", handler::depositHandler);
+        timed(routes, "POST", "/withdraw/{userId}/{amount}", handler::withdrawHandler);
+        timed(routes, "POST", "/transfer/{from}/{to}/{amount}", handler::transferHandler);
+        timed(routes, "POST", "/transfers/batch", handler::transferBatchHandler);
+        timed(routes, "GET", "/history/{userId}", handler::historyHandler);
+        timed(routes, "GET", "/export/accounts", handler::exportAccountsHandler);
+        timed(routes, "POST", "/import", handler::importHandler);
+
+        return routes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        loadConfigFile();
+
+        final MoneyTransferDao dao = StorageEngine.fromSystemProperties().create();
+        final RestServer server = start(ServerConfig.fromSystemProperties(), dao);
+
+        stopOnShutdown(server, Option.some(dao));
+    }
+
+    // Stops the server when the JVM is asked to exit, then closes the storage engine, if it needs closing
+    public static void stopOnShutdown(@NonNull final RestServer server, @NonNull final Option<MoneyTransferDao> dao) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+
+            dao.filter(AutoCloseable.class::isInstance).forEach(engine -> {
+                try {
+                    ((AutoCloseable) engine).close();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to close the storage engine", e);
+                }
+            });
+        }, "shutdown"));
+    }
+
+    // Serves the endpoints over dao on the port, configured otherwise by system properties
+    public static RestServer start(final int port, @NonNull final MoneyTransferDao dao) {
+        return start(ServerConfig.fromSystemProperties().toBuilder().port(port).build(), dao);
+    }
+
+    // Serves the endpoints over dao, dispatching requests as configured by system properties
+    public static RestServer start(@NonNull final ServerConfig config, @NonNull final MoneyTransferDao dao) {
+        return start(config, routes(new MoneyTransferHandler(dao)), Option.some(dao));
+    }
+
+    /**
+     * Serves routes other than the endpoints alone, e.g., those of a cluster router, or of a node that also takes part
+     * in cross-node transfers. The binary listener, if configured, is only started if there is a dao for it to serve.
+     */
+    public static RestServer start(
+        @NonNull final ServerConfig config,
+        @NonNull final HttpHandler routes,
+        @NonNull final Option<MoneyTransferDao> dao
+    ) {
+        final GracefulShutdownHandler shutdown = Handlers.gracefulShutdown(
+            DispatchingHandler.fromSystemProperties(routes)
+        );
+
+        final Undertow undertow = Undertow
             .builder()
-            .addHttpListener(8080, "0.0.0.0", ROOT)
+            .addHttpListener(config.getPort(), config.getHost(), shutdown)
+            .setIoThreads(config.getIoThreads())
+            .setWorkerThreads(config.getBlockingThreads())
+            .setBufferSize(config.getBufferSize())
+            .setDirectBuffers(config.isDirectBuffers())
+            .setSocketOption(Options.BACKLOG, config.getBacklog())
+            .setServerOption(UndertowOptions.ENABLE_HTTP2, config.isHttp2())
+            .setServerOption(UndertowOptions.BUFFER_PIPELINED_DATA, config.isPipelining())
+            .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
             .build();
 
-        ut.start();
+        undertow.start();
+
+        Option<BinaryServer> binary = Option.none();
+        if (config.getBinaryPort().isDefined() && dao.isDefined()) {
+            try {
+                binary = Option.some(BinaryServer.start(
+                    config.getHost(),
+                    config.getBinaryPort().get(),
+                    config.getIoThreads(),
+                    dao.get()
+                ));
+            } catch (IOException e) {
+                undertow.stop();
+                throw new UncheckedIOException("Failed to start the binary listener", e);
+            }
+        }
+
+        return new RestServer(undertow, shutdown, binary, config.getShutdownTimeoutSeconds());
+    }
+
+    /**
+     * Turns new requests away with 503 Service Unavailable, waits for the ones being handled to complete,
+     * e.g., transfers waiting for the journal, for at most the shutdown timeout, then stops the server.
+     * The binary listener, if any, stops reading requests and is drained alongside.
+     */
+    public void stop() {
+        final long timeoutMillis = TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds);
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        shutdown.shutdown();
+
+        try {
+            final boolean binaryDrained = binary.isEmpty() || binary.get().stop(timeoutMillis);
+            final boolean httpDrained = shutdown.awaitShutdown(Math.max(1, deadline - System.currentTimeMillis()));
+
+            if (!binaryDrained || !httpDrained) {
+                LOGGER.warning("Requests still in flight after " + shutdownTimeoutSeconds + " s, stopping anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        undertow.stop();
+    }
+
+    // Applies the entries of the file named by CONFIG_FILE_PROPERTY, if any, that are not set as system properties
+    public static void loadConfigFile() throws IOException {
+        final String file = System.getProperty(CONFIG_FILE_PROPERTY);
+        if (file == null) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(Paths.get(file))) {
+            properties.load(in);
+        }
+
+        properties.stringPropertyNames().forEach(name -> {
+            if (System.getProperty(name) == null) {
+                System.setProperty(name, properties.getProperty(name));
+            }
+        });
+    }
+
+    private static void timed(
+        final RoutingHandler routes,
+        final String method,
+        final String template,
+        final HttpHandler handler
+    ) {
+        routes.add(method, template, new MetricsHandler(method, template, handler));
     }
 }
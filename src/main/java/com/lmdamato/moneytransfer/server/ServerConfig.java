@@ -0,0 +1,92 @@
+package com.lmdamato.moneytransfer.server;
+
+import io.vavr.control.Option;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+// Listener and threading of the HTTP server; the defaults are Undertow's own, except for HTTP/2 and pipelining
+@Value
+@Builder(toBuilder = true)
+public class ServerConfig {
+    public static final String HOST_PROPERTY = "moneytransfer.server.host";
+    public static final String PORT_PROPERTY = "moneytransfer.server.port";
+    public static final String IO_THREADS_PROPERTY = "moneytransfer.server.ioThreads";
+    public static final String BLOCKING_THREADS_PROPERTY = "moneytransfer.server.blockingThreads";
+    public static final String BUFFER_SIZE_PROPERTY = "moneytransfer.server.bufferSize";
+    public static final String DIRECT_BUFFERS_PROPERTY = "moneytransfer.server.directBuffers";
+    public static final String BACKLOG_PROPERTY = "moneytransfer.server.backlog";
+    public static final String HTTP2_PROPERTY = "moneytransfer.server.http2";
+    public static final String PIPELINING_PROPERTY = "moneytransfer.server.pipelining";
+    public static final String SHUTDOWN_TIMEOUT_PROPERTY = "moneytransfer.server.shutdownTimeoutSeconds";
+    public static final String BINARY_PORT_PROPERTY = "moneytransfer.server.binaryPort";
+
+    public static final String DEFAULT_HOST = "0.0.0.0";
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_IO_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    public static final int DEFAULT_BUFFER_SIZE = (16 << 10) - 20;
+    public static final int DEFAULT_BACKLOG = 1000;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    @NonNull
+    @Builder.Default
+    private final String host = DEFAULT_HOST;
+
+    @Builder.Default
+    private final int port = DEFAULT_PORT;
+
+    // Threads that accept connections and read and write them, and run handlers unless they are dispatched
+    @Builder.Default
+    private final int ioThreads = DEFAULT_IO_THREADS;
+
+    // Undertow's own worker pool, which runs the handlers that dispatch themselves to read bodies with blocking calls
+    @Builder.Default
+    private final int blockingThreads = DEFAULT_IO_THREADS * 8;
+
+    // Size of the pooled buffers connections are read into and responses written from, less some overhead
+    @Builder.Default
+    private final int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    @Builder.Default
+    private final boolean directBuffers = true;
+
+    // Connections the kernel queues before they are accepted
+    @Builder.Default
+    private final int backlog = DEFAULT_BACKLOG;
+
+    // HTTP/2 over cleartext connections, by upgrade or with prior knowledge
+    @Builder.Default
+    private final boolean http2 = true;
+
+    // Responses to pipelined HTTP/1.1 requests are buffered and written together rather than one by one
+    @Builder.Default
+    private final boolean pipelining = true;
+
+    // How long stopping waits for the requests being handled to complete, new ones being turned away meanwhile
+    @Builder.Default
+    private final long shutdownTimeoutSeconds = DEFAULT_SHUTDOWN_TIMEOUT_SECONDS;
+
+    // Port of the binary protocol listener, served next to HTTP on the same host and as many IO threads, if any
+    @NonNull
+    @Builder.Default
+    private final Option<Integer> binaryPort = Option.none();
+
+    public static ServerConfig fromSystemProperties() {
+        final int ioThreads = Integer.getInteger(IO_THREADS_PROPERTY, DEFAULT_IO_THREADS);
+
+        return ServerConfig
+            .builder()
+            .host(System.getProperty(HOST_PROPERTY, DEFAULT_HOST))
+            .port(Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT))
+            .ioThreads(ioThreads)
+            .blockingThreads(Integer.getInteger(BLOCKING_THREADS_PROPERTY, ioThreads * 8))
+            .bufferSize(Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE))
+            .directBuffers(Boolean.parseBoolean(System.getProperty(DIRECT_BUFFERS_PROPERTY, "true")))
+            .backlog(Integer.getInteger(BACKLOG_PROPERTY, DEFAULT_BACKLOG))
+            .http2(Boolean.parseBoolean(System.getProperty(HTTP2_PROPERTY, "true")))
+            .pipelining(Boolean.parseBoolean(System.getProperty(PIPELINING_PROPERTY, "true")))
+            .shutdownTimeoutSeconds(Long.getLong(SHUTDOWN_TIMEOUT_PROPERTY, DEFAULT_SHUTDOWN_TIMEOUT_SECONDS))
+            .binaryPort(Option.of(Integer.getInteger(BINARY_PORT_PROPERTY)))
+            .build();
+    }
+}
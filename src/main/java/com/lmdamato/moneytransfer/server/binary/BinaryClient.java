@@ -0,0 +1,141 @@
+package com.lmdamato.moneytransfer.server.binary;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking client of the {@link BinaryProtocol}, for a single thread. Requests are queued until flush, or until
+ * the buffer fills up, so that many can be pipelined in one write; receive then reads their responses one at a time,
+ * in the order the server sends them. Each request method returns the correlation id its response will carry.
+ */
+public class BinaryClient implements Closeable {
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    @Value
+    public static class Response {
+        private final long correlationId;
+        private final byte status;
+
+        // Balance in minor units, for a BALANCE request that succeeded
+        private final long balance;
+    }
+
+    @NonNull
+    private final SocketChannel channel;
+
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+    private long nextCorrelationId;
+
+    private BinaryClient(@NonNull final SocketChannel channel) {
+        this.channel = channel;
+        this.in.flip();
+    }
+
+    public static BinaryClient connect(@NonNull final String host, final int port) throws IOException {
+        final SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        return new BinaryClient(channel);
+    }
+
+    public long create(@NonNull final String userId) throws IOException {
+        return send(BinaryProtocol.CREATE, userId, null, 0L);
+    }
+
+    public long balance(@NonNull final String userId) throws IOException {
+        return send(BinaryProtocol.BALANCE, userId, null, 0L);
+    }
+
+    public long deposit(@NonNull final String userId, final long minorUnits) throws IOException {
+        return send(BinaryProtocol.DEPOSIT, userId, null, minorUnits);
+    }
+
+    public long withdraw(@NonNull final String userId, final long minorUnits) throws IOException {
+        return send(BinaryProtocol.WITHDRAW, userId, null, minorUnits);
+    }
+
+    public long transfer(@NonNull final String from, @NonNull final String to, final long minorUnits)
+        throws IOException {
+        return send(BinaryProtocol.TRANSFER, from, to, minorUnits);
+    }
+
+    // Sends the requests queued so far
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    // Sends the requests queued so far, then waits for the next response
+    public Response receive() throws IOException {
+        flush();
+
+        fill(BinaryProtocol.LENGTH_BYTES);
+        final int length = in.getInt(in.position());
+
+        if (length != BinaryProtocol.RESPONSE_BYTES - BinaryProtocol.LENGTH_BYTES
+            && length != BinaryProtocol.BALANCE_RESPONSE_BYTES - BinaryProtocol.LENGTH_BYTES) {
+            throw new IOException("Invalid response length " + length);
+        }
+
+        fill(BinaryProtocol.LENGTH_BYTES + length);
+        in.getInt();
+
+        final long correlationId = in.getLong();
+        final byte status = in.get();
+        final long balance = length == BinaryProtocol.BALANCE_RESPONSE_BYTES - BinaryProtocol.LENGTH_BYTES
+            ? in.getLong()
+            : 0L;
+
+        return new Response(correlationId, status, balance);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long send(final byte opcode, final String userId, final String counterpartyId, final long amount)
+        throws IOException {
+        final byte[] user = BinaryProtocol.idBytes(userId);
+        final byte[] counterparty = counterpartyId == null ? null : BinaryProtocol.idBytes(counterpartyId);
+
+        if (out.remaining() < BinaryProtocol.requestSize(user, counterparty, true)) {
+            flush();
+        }
+
+        final long correlationId = nextCorrelationId++;
+        BinaryProtocol.encodeRequest(out, correlationId, opcode, user, counterparty, amount);
+
+        return correlationId;
+    }
+
+    // Reads until at least bytes are buffered
+    private void fill(final int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+
+        in.compact();
+        try {
+            while (in.position() < bytes) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+            }
+        } finally {
+            in.flip();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.lmdamato.moneytransfer.server.binary;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary protocol, big-endian, each starting with the length (int) of the rest of the frame.
+ *
+ * Request: length, correlation id (long), opcode (byte), then by opcode: CREATE and BALANCE, a user id;
+ * DEPOSIT and WITHDRAW, a user id and an amount; TRANSFER, the ids of both users and an amount.
+ * A user id is its length (unsigned short) and UTF-8 bytes, an amount a positive count of minor units (long).
+ *
+ * Response: length, the request's correlation id (long), status (byte), then for a BALANCE that succeeded,
+ * the balance in minor units (long).
+ *
+ * Clients may pipeline requests. Responses come back as operations complete, which may not be the order they
+ * were sent in, so clients match them to requests by correlation id.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class BinaryProtocol {
+    public static final byte CREATE = 1;
+    public static final byte BALANCE = 2;
+    public static final byte DEPOSIT = 3;
+    public static final byte WITHDRAW = 4;
+    public static final byte TRANSFER = 5;
+
+    public static final byte OK = 0;
+    public static final byte USER_NOT_FOUND = 1;
+    public static final byte INSUFFICIENT_FUNDS = 2;
+    public static final byte USER_ALREADY_EXISTS = 3;
+    public static final byte BAD_REQUEST = 4;
+    public static final byte NOT_SUPPORTED = 5;
+    public static final byte ERROR = 6;
+
+    public static final int LENGTH_BYTES = 4;
+
+    // Longest frame a server reads, length included; a connection sending a longer one is closed
+    public static final int MAX_FRAME_BYTES = 1 << 12;
+
+    public static final int MIN_REQUEST_BYTES = LENGTH_BYTES + 8 + 1;
+    public static final int RESPONSE_BYTES = LENGTH_BYTES + 8 + 1;
+    public static final int BALANCE_RESPONSE_BYTES = RESPONSE_BYTES + 8;
+
+    public static int requestSize(@NonNull final byte[] userId, final byte[] counterpartyId, final boolean amount) {
+        return MIN_REQUEST_BYTES
+            + 2 + userId.length
+            + (counterpartyId == null ? 0 : 2 + counterpartyId.length)
+            + (amount ? 8 : 0);
+    }
+
+    public static byte[] idBytes(@NonNull final String id) {
+        return id.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a request at the buffer's position, with counterpartyId only for TRANSFER and amount only for
+     * DEPOSIT, WITHDRAW and TRANSFER; the caller must check that requestSize bytes remain.
+     */
+    public static void encodeRequest(
+        @NonNull final ByteBuffer buffer,
+        final long correlationId,
+        final byte opcode,
+        @NonNull final byte[] userId,
+        final byte[] counterpartyId,
+        final long amount
+    ) {
+        final boolean hasAmount = opcode == DEPOSIT || opcode == WITHDRAW || opcode == TRANSFER;
+        final int size = requestSize(userId, counterpartyId, hasAmount);
+
+        if (size > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("Request too large");
+        }
+
+        buffer.putInt(size - LENGTH_BYTES);
+        buffer.putLong(correlationId);
+        buffer.put(opcode);
+        putId(buffer, userId);
+
+        if (counterpartyId != null) {
+            putId(buffer, counterpartyId);
+        }
+
+        if (hasAmount) {
+            buffer.putLong(amount);
+        }
+    }
+
+    public static void encodeResponse(@NonNull final ByteBuffer buffer, final long correlationId, final byte status) {
+        buffer.putInt(RESPONSE_BYTES - LENGTH_BYTES);
+        buffer.putLong(correlationId);
+        buffer.put(status);
+    }
+
+    public static void encodeBalance(@NonNull final ByteBuffer buffer, final long correlationId, final long balance) {
+        buffer.putInt(BALANCE_RESPONSE_BYTES - LENGTH_BYTES);
+        buffer.putLong(correlationId);
+        buffer.put(OK);
+        buffer.putLong(balance);
+    }
+
+    // Reads a user id at the buffer's position, or returns null if it would run past end or is empty
+    public static String readId(@NonNull final ByteBuffer buffer, final int end) {
+        if (end - buffer.position() < 2) {
+            return null;
+        }
+
+        final int length = buffer.getShort() & 0xFFFF;
+        if (length == 0 || end - buffer.position() < length) {
+            return null;
+        }
+
+        final String id;
+        if (buffer.hasArray()) {
+            id = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            id = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        buffer.position(buffer.position() + length);
+
+        return id;
+    }
+
+    private static void putId(final ByteBuffer buffer, final byte[] id) {
+        if (id.length == 0 || id.length > 0xFFFF) {
+            throw new IllegalArgumentException("User id must be 1 to 65535 bytes long");
+        }
+
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+    }
+}
@@ -0,0 +1,542 @@
+package com.lmdamato.moneytransfer.server.binary;
+
+import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
+import com.lmdamato.moneytransfer.exception.InvalidUserIdException;
+import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import io.vavr.control.Try;
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the {@link BinaryProtocol} over NIO, for clients that cannot afford URL routing, path parsing
+ * and JSON on every call.
+ *
+ * One thread accepts connections and hands them round-robin to the IO threads, each running its own selector.
+ * An IO thread runs every request a read brings in against the DAO straight away: balances are read without locks,
+ * and every mutation through the async operations, which hold account locks only briefly and do not wait for
+ * the journal while holding the thread. Responses are gathered in the connection's output buffer and written
+ * together once the read has been handled, or as soon as the IO thread is woken up when the operation completed
+ * on another thread.
+ *
+ * A connection is not read while MAX_IN_FLIGHT of its requests are incomplete or MAX_PENDING_OUTPUT bytes of
+ * responses are waiting to be written, so a client that pipelines without reading cannot grow memory without bound.
+ */
+public class BinaryServer {
+    private static final Logger LOGGER = Logger.getLogger(BinaryServer.class.getName());
+
+    static final int READ_BUFFER_BYTES = 64 << 10;
+    static final int MAX_IN_FLIGHT = 4096;
+    static final int MAX_PENDING_OUTPUT = 1 << 20;
+
+    @NonNull
+    private final MoneyTransferDao dao;
+
+    @NonNull
+    private final ServerSocketChannel acceptor;
+
+    @NonNull
+    private final IoThread[] ioThreads;
+
+    @NonNull
+    private final Thread acceptThread;
+
+    // Set when stopping: connections are no longer read, and close once their requests have been answered
+    private volatile boolean draining;
+
+    private BinaryServer(
+        @NonNull final MoneyTransferDao dao,
+        @NonNull final ServerSocketChannel acceptor,
+        final int ioThreads
+    ) throws IOException {
+        this.dao = dao;
+        this.acceptor = acceptor;
+        this.ioThreads = new IoThread[ioThreads];
+
+        for (int i = 0; i < ioThreads; i++) {
+            this.ioThreads[i] = new IoThread("binary-io-" + i);
+        }
+
+        this.acceptThread = new Thread(this::accept, "binary-accept");
+    }
+
+    /**
+     * Listens on the host and port, port 0 picking any free one, serving requests over dao on ioThreads threads.
+     */
+    public static BinaryServer start(
+        @NonNull final String host,
+        final int port,
+        final int ioThreads,
+        @NonNull final MoneyTransferDao dao
+    ) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("Number of IO threads must be positive");
+        }
+
+        final ServerSocketChannel acceptor = ServerSocketChannel.open();
+
+        try {
+            acceptor.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            acceptor.bind(new InetSocketAddress(host, port));
+
+            final BinaryServer server = new BinaryServer(dao, acceptor, ioThreads);
+
+            for (final IoThread thread : server.ioThreads) {
+                thread.start();
+            }
+            server.acceptThread.start();
+
+            return server;
+        } catch (IOException | RuntimeException e) {
+            acceptor.close();
+            throw e;
+        }
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Stops accepting connections and reading requests, waits at most timeoutMillis for the requests being handled
+     * to be answered, then closes every connection. Requests read but not started yet are dropped along with their
+     * connection. Returns whether every request was answered in time.
+     */
+    public boolean stop(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        try {
+            acceptor.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close the binary listener", e);
+        }
+        acceptThread.join();
+
+        draining = true;
+        for (final IoThread thread : ioThreads) {
+            thread.selector.wakeup();
+        }
+
+        boolean drained = true;
+        for (final IoThread thread : ioThreads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            drained &= !thread.isAlive();
+        }
+
+        for (final IoThread thread : ioThreads) {
+            thread.forced = true;
+            thread.selector.wakeup();
+            thread.join();
+        }
+
+        return drained;
+    }
+
+    private void accept() {
+        int next = 0;
+
+        try {
+            while (true) {
+                final SocketChannel channel = acceptor.accept();
+
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    channel.close();
+                    continue;
+                }
+
+                ioThreads[next].register(channel);
+                next = (next + 1) % ioThreads.length;
+            }
+        } catch (ClosedChannelException e) {
+            // Stopping
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Binary listener failed", e);
+        }
+    }
+
+    // Runs every complete request in the connection's input, unless it has too much outstanding already
+    private void decode(final Connection connection) throws IOException {
+        final ByteBuffer in = connection.in;
+
+        in.flip();
+
+        try {
+            while (connection.accepting() && in.remaining() >= BinaryProtocol.LENGTH_BYTES) {
+                final int length = in.getInt(in.position());
+
+                if (length < BinaryProtocol.MIN_REQUEST_BYTES - BinaryProtocol.LENGTH_BYTES
+                    || length > BinaryProtocol.MAX_FRAME_BYTES - BinaryProtocol.LENGTH_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                if (in.remaining() < BinaryProtocol.LENGTH_BYTES + length) {
+                    break;
+                }
+
+                final int end = in.position() + BinaryProtocol.LENGTH_BYTES + length;
+                in.position(in.position() + BinaryProtocol.LENGTH_BYTES);
+
+                final long correlationId = in.getLong();
+                final byte opcode = in.get();
+
+                try {
+                    handle(connection, correlationId, opcode, end);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Binary request failed", e);
+                    connection.respond(correlationId, BinaryProtocol.ERROR);
+                }
+
+                in.position(end);
+            }
+        } finally {
+            in.compact();
+        }
+    }
+
+    private void handle(final Connection connection, final long correlationId, final byte opcode, final int end) {
+        final ByteBuffer in = connection.in;
+
+        switch (opcode) {
+            case BinaryProtocol.BALANCE: {
+                final String userId = BinaryProtocol.readId(in, end);
+
+                if (userId == null || in.position() != end) {
+                    connection.respond(correlationId, BinaryProtocol.BAD_REQUEST);
+                    return;
+                }
+
+                final Try<Money> balance = dao.getBalance(new User(userId));
+
+                if (balance.isSuccess()) {
+                    connection.respondBalance(correlationId, balance.get().getMinorUnits());
+                } else {
+                    connection.respond(correlationId, statusOf(balance.getCause()));
+                }
+                return;
+            }
+            case BinaryProtocol.CREATE: {
+                final String userId = BinaryProtocol.readId(in, end);
+
+                if (userId == null || in.position() != end) {
+                    connection.respond(correlationId, BinaryProtocol.BAD_REQUEST);
+                    return;
+                }
+
+                complete(connection, correlationId, dao
+                    .createUserAsync(new User(userId))
+                    .thenApply(created -> created.map(ignore -> (Void) null)));
+                return;
+            }
+            case BinaryProtocol.DEPOSIT:
+            case BinaryProtocol.WITHDRAW: {
+                final String userId = BinaryProtocol.readId(in, end);
+                final long amount = readAmount(in, end);
+
+                if (userId == null || amount <= 0) {
+                    connection.respond(correlationId, BinaryProtocol.BAD_REQUEST);
+                    return;
+                }
+
+                final User user = new User(userId);
+                complete(connection, correlationId, opcode == BinaryProtocol.DEPOSIT
+                    ? dao.depositAsync(user, Money.ofMinorUnits(amount))
+                    : dao.withdrawAsync(user, Money.ofMinorUnits(amount)));
+                return;
+            }
+            case BinaryProtocol.TRANSFER: {
+                final String from = BinaryProtocol.readId(in, end);
+                final String to = from == null ? null : BinaryProtocol.readId(in, end);
+                final long amount = readAmount(in, end);
+
+                if (to == null || amount <= 0) {
+                    connection.respond(correlationId, BinaryProtocol.BAD_REQUEST);
+                    return;
+                }
+
+                complete(connection, correlationId, dao.transferAsync(
+                    new User(from),
+                    new User(to),
+                    Money.ofMinorUnits(amount)
+                ));
+                return;
+            }
+            default:
+                connection.respond(correlationId, BinaryProtocol.BAD_REQUEST);
+        }
+    }
+
+    // The amount that ends the request, or 0 if the request does not end with exactly one
+    private static long readAmount(final ByteBuffer in, final int end) {
+        return end - in.position() == 8 ? in.getLong() : 0L;
+    }
+
+    private static void complete(
+        final Connection connection,
+        final long correlationId,
+        final CompletableFuture<Try<Void>> result
+    ) {
+        if (result.isDone()) {
+            connection.respond(correlationId, statusOf(result.join()));
+            return;
+        }
+
+        connection.inFlight.incrementAndGet();
+
+        result.whenComplete((outcome, error) -> {
+            connection.respond(correlationId, outcome != null ? statusOf(outcome) : statusOf(error));
+            connection.inFlight.decrementAndGet();
+            connection.thread.wake(connection);
+        });
+    }
+
+    private static byte statusOf(final Try<Void> outcome) {
+        return outcome.isSuccess() ? BinaryProtocol.OK : statusOf(outcome.getCause());
+    }
+
+    private static byte statusOf(final Throwable e) {
+        if (e instanceof UserDoesNotExistException) {
+            return BinaryProtocol.USER_NOT_FOUND;
+        } else if (e instanceof InsufficientFundsException) {
+            return BinaryProtocol.INSUFFICIENT_FUNDS;
+        } else if (e instanceof UserAlreadyExistsException) {
+            return BinaryProtocol.USER_ALREADY_EXISTS;
+        } else if (e instanceof UnsupportedOperationException) {
+            return BinaryProtocol.NOT_SUPPORTED;
+        } else if (e instanceof InvalidUserIdException) {
+            return BinaryProtocol.BAD_REQUEST;
+        } else {
+            return BinaryProtocol.ERROR;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final IoThread thread;
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicBoolean flushQueued = new AtomicBoolean();
+
+        SelectionKey key;
+
+        // Set once the client has shut its side down; the connection closes once it has been answered
+        boolean eof;
+
+        // Responses waiting to be written, appended to by whichever thread completed the request
+        private ByteBuffer out = ByteBuffer.allocate(READ_BUFFER_BYTES);
+
+        Connection(final SocketChannel channel, final IoThread thread) {
+            this.channel = channel;
+            this.thread = thread;
+        }
+
+        synchronized void respond(final long correlationId, final byte status) {
+            reserve(BinaryProtocol.RESPONSE_BYTES);
+            BinaryProtocol.encodeResponse(out, correlationId, status);
+        }
+
+        synchronized void respondBalance(final long correlationId, final long balance) {
+            reserve(BinaryProtocol.BALANCE_RESPONSE_BYTES);
+            BinaryProtocol.encodeBalance(out, correlationId, balance);
+        }
+
+        synchronized boolean accepting() {
+            return inFlight.get() < MAX_IN_FLIGHT && out.position() < MAX_PENDING_OUTPUT;
+        }
+
+        // Writes as much of the pending responses as the socket takes, and returns how many bytes are left
+        synchronized int write() throws IOException {
+            if (out.position() > 0) {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            }
+
+            return out.position();
+        }
+
+        private void reserve(final int bytes) {
+            if (out.remaining() < bytes) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+        }
+    }
+
+    private final class IoThread extends Thread {
+        final Selector selector;
+        final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        final Queue<Connection> flushes = new ConcurrentLinkedQueue<>();
+
+        // Set when stopping has waited long enough: the thread closes every connection and ends
+        volatile boolean forced;
+
+        private int connections;
+        private boolean drainStarted;
+
+        IoThread(final String name) throws IOException {
+            super(name);
+            this.selector = Selector.open();
+        }
+
+        void register(final SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        // Called by the thread that completed a request, so that its response gets written
+        void wake(final Connection connection) {
+            if (connection.flushQueued.compareAndSet(false, true)) {
+                flushes.add(connection);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!forced) {
+                    selector.select();
+
+                    registerAccepted();
+
+                    Connection flushed;
+                    while ((flushed = flushes.poll()) != null) {
+                        flushed.flushQueued.set(false);
+                        service(flushed);
+                    }
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (key.isValid()) {
+                            read((Connection) key.attachment(), key.isReadable());
+                        }
+                    }
+
+                    if (draining) {
+                        if (!drainStarted) {
+                            drainStarted = true;
+
+                            for (final SelectionKey key : new ArrayList<>(selector.keys())) {
+                                if (key.isValid()) {
+                                    service((Connection) key.attachment());
+                                }
+                            }
+                        }
+
+                        if (connections == 0) {
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Binary IO thread failed", e);
+            } finally {
+                for (final SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    final Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections++;
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void read(final Connection connection, final boolean readable) {
+            try {
+                if (readable && connection.channel.read(connection.in) < 0) {
+                    connection.eof = true;
+                }
+            } catch (IOException e) {
+                close(connection);
+                return;
+            }
+
+            service(connection);
+        }
+
+        // Runs what has been read, writes what has been answered, and decides what to wait for next
+        private void service(final Connection connection) {
+            if (!connection.key.isValid()) {
+                return;
+            }
+
+            try {
+                if (!draining) {
+                    decode(connection);
+                }
+
+                final int pending = connection.write();
+
+                if ((connection.eof || draining) && pending == 0 && connection.inFlight.get() == 0) {
+                    close(connection);
+                    return;
+                }
+
+                final boolean read = !connection.eof && !draining
+                    && connection.in.hasRemaining() && connection.accepting();
+
+                connection.key.interestOps(
+                    (read ? SelectionKey.OP_READ : 0) | (pending > 0 ? SelectionKey.OP_WRITE : 0)
+                );
+            } catch (IOException | RuntimeException e) {
+                close(connection);
+            }
+        }
+
+        private void close(final Connection connection) {
+            connection.key.cancel();
+            closeQuietly(connection.channel);
+            connections--;
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.User;
+
+import java.util.function.ObjLongConsumer;
+
+// Walks every account and its balance, a few at a time, without holding them all in memory; close it once done
+public interface AccountCursor extends AutoCloseable {
+    /**
+     * Passes up to max more accounts to visitor, along with their balances in minor units.
+     * Returns false once every account has been passed.
+     */
+    boolean next(int max, ObjLongConsumer<User> visitor);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,240 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.User;
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Maps user ids to dense int slots, handed out in creation order and never reused.
+ *
+ * Each id is stored once, as UTF-8 bytes appended to large byte chunks. The index is a segmented open-addressing
+ * table of longs, each packing an id's hash with its slot, so a lookup reads a few longs and compares the id's bytes
+ * without touching any other object. Lookups take no lock; an insert locks its segment only.
+ */
+final class AccountIndex {
+    static final int MISSING = -1;
+
+    // Longest id, in UTF-8 bytes
+    static final int MAX_ID_BYTES = User.MAX_ID_BYTES;
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1 << 8;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    private final IdArena arena = new IdArena();
+
+    // Slot to the location of its id in the arena, plus one; 0 until the slot has been published
+    private final LongSlab ids = new LongSlab();
+
+    private int nextSlot;
+
+    AccountIndex() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    int find(@NonNull final String id) {
+        final int h = hash(id);
+        return segmentOf(h).find(id, h);
+    }
+
+    /**
+     * Assigns the next slot to id and returns it, or returns MISSING if id already has one.
+     * prepare is called with the new slot before any lookup can find it, and before idOf returns its id.
+     */
+    int insert(@NonNull final String id, @NonNull final IntConsumer prepare) {
+        final int h = hash(id);
+        return segmentOf(h).insert(id, h, prepare);
+    }
+
+    // Number of slots handed out so far; the latest ones may not be published yet
+    synchronized int size() {
+        return nextSlot;
+    }
+
+    // Returns null if the slot has not been published yet
+    String idOf(final int slot) {
+        final long ref = ids.get(slot);
+        return ref == 0 ? null : arena.read(ref - 1);
+    }
+
+    // Readers walk every slot below size(), so the slot's chunk of ids exists before the slot is counted
+    private synchronized int allocateSlot() {
+        if (nextSlot == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many accounts");
+        }
+
+        final int slot = nextSlot;
+        ids.ensureCapacity(slot);
+        nextSlot = slot + 1;
+
+        return slot;
+    }
+
+    private Segment segmentOf(final int h) {
+        return segments[h >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    private static int hash(final String id) {
+        final int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private final class Segment {
+        private volatile AtomicLongArray table = new AtomicLongArray(INITIAL_SEGMENT_CAPACITY);
+
+        // Guarded by this
+        private int size;
+
+        int find(final String id, final int h) {
+            final AtomicLongArray t = table;
+            final int mask = t.length() - 1;
+
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                final long entry = t.get(i);
+                if (entry == 0) {
+                    return MISSING;
+                }
+
+                if ((int) (entry >>> 32) == h) {
+                    final int slot = (int) entry - 1;
+                    if (arena.matches(ids.get(slot) - 1, id)) {
+                        return slot;
+                    }
+                }
+            }
+        }
+
+        synchronized int insert(final String id, final int h, final IntConsumer prepare) {
+            if (find(id, h) != MISSING) {
+                return MISSING;
+            }
+
+            final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_ID_BYTES) {
+                throw new IllegalArgumentException("User id longer than " + MAX_ID_BYTES + " bytes");
+            }
+
+            // Keep the table at most two thirds full, so probe sequences stay short
+            if ((size + 1) * 3 > table.length() * 2) {
+                resize();
+            }
+
+            final int slot = allocateSlot();
+
+            // Prepared before its id is published, so that whoever reads the id of a slot finds the slot prepared
+            prepare.accept(slot);
+            ids.set(slot, arena.append(bytes) + 1);
+
+            // Publishing the entry last makes everything above visible to whoever finds it
+            put(table, ((long) h << 32) | (slot + 1));
+            size++;
+
+            return slot;
+        }
+
+        private void resize() {
+            final AtomicLongArray old = table;
+            final AtomicLongArray grown = new AtomicLongArray(old.length() * 2);
+
+            for (int i = 0; i < old.length(); i++) {
+                final long entry = old.get(i);
+                if (entry != 0) {
+                    put(grown, entry);
+                }
+            }
+
+            table = grown;
+        }
+
+        private void put(final AtomicLongArray t, final long entry) {
+            final int mask = t.length() - 1;
+
+            int i = (int) (entry >>> 32) & mask;
+            while (t.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+
+            t.set(i, entry);
+        }
+    }
+
+    /**
+     * Append-only storage of id bytes. A location packs the chunk, the offset in it, and the length,
+     * and stays valid forever; bytes are written before their location is published.
+     */
+    private static final class IdArena {
+        private static final int CHUNK_BITS = 20;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int LENGTH_MASK = (1 << 16) - 1;
+
+        private volatile byte[][] chunks = new byte[0][];
+
+        // Guarded by this
+        private int position = CHUNK_SIZE;
+
+        synchronized long append(final byte[] bytes) {
+            if (bytes.length > CHUNK_SIZE - position) {
+                final byte[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[chunks.length] = new byte[CHUNK_SIZE];
+                chunks = grown;
+                position = 0;
+            }
+
+            final int chunk = chunks.length - 1;
+            final int offset = position;
+
+            System.arraycopy(bytes, 0, chunks[chunk], offset, bytes.length);
+            position += bytes.length;
+
+            return ((long) chunk << 36) | ((long) offset << 16) | bytes.length;
+        }
+
+        String read(final long location) {
+            return new String(chunkOf(location), offsetOf(location), lengthOf(location), StandardCharsets.UTF_8);
+        }
+
+        // Compares without allocating as long as id is ASCII
+        boolean matches(final long location, final String id) {
+            final byte[] chunk = chunkOf(location);
+            final int offset = offsetOf(location);
+            final int length = lengthOf(location);
+
+            if (length < id.length()) {
+                return false;
+            }
+
+            for (int i = 0; i < id.length(); i++) {
+                final char c = id.charAt(i);
+
+                if (c >= 0x80) {
+                    final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                    return bytes.length == length && Arrays.equals(bytes, Arrays.copyOfRange(chunk, offset, offset + length));
+                }
+
+                if (chunk[offset + i] != c) {
+                    return false;
+                }
+            }
+
+            return length == id.length();
+        }
+
+        private byte[] chunkOf(final long location) {
+            return chunks[(int) (location >>> 36)];
+        }
+
+        private static int offsetOf(final long location) {
+            return (int) (location >>> 16) & (CHUNK_SIZE - 1);
+        }
+
+        private static int lengthOf(final long location) {
+            return (int) location & LENGTH_MASK;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.lmdamato.moneytransfer.storage;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Where a LongBalanceStore keeps its accounts: each user id is mapped to a dense slot, handed out in creation order
+ * and never reused, holding the account's balance in minor units and the sequence number of the last journal record
+ * applied to it. Lookups and balance reads take no lock; balances and sequence numbers have a single writer at a
+ * time, the holder of the account's lock.
+ */
+interface AccountTable {
+    /**
+     * Sequence number of a slot whose balance and sequence number are being written together, or of a slot just
+     * inserted in a table that outlives the process, until its owner stamps it: a slot left so by a process that died
+     * holds a balance that no journal record accounts for.
+     */
+    long WRITING = -1L;
+
+    /**
+     * Assigns the next slot to id and returns it, or returns AccountIndex.MISSING if id already has one.
+     * prepare is called with the new slot before any lookup can find it, and before idOf returns its id.
+     */
+    int insert(String id, IntConsumer prepare);
+
+    // Returns AccountIndex.MISSING if id has no slot
+    int find(String id);
+
+    // Number of slots handed out so far; the latest ones may not be published yet
+    int size();
+
+    // Returns null if the slot has not been published yet
+    String idOf(int slot);
+
+    long getBalance(int slot);
+
+    void setBalance(int slot, long balance);
+
+    long getSeq(int slot);
+
+    void setSeq(int slot, long seq);
+
+    // Sets the balance and the sequence number of the journal record that changed it, marking the slot in between
+    void set(int slot, long balance, long seq);
+}
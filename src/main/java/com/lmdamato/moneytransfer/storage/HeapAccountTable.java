@@ -0,0 +1,63 @@
+package com.lmdamato.moneytransfer.storage;
+
+import lombok.NonNull;
+
+import java.util.function.IntConsumer;
+
+// Accounts on the heap: ids in an AccountIndex, balances and sequence numbers in slabs of longs
+final class HeapAccountTable implements AccountTable {
+    private final AccountIndex index = new AccountIndex();
+    private final LongSlab balances = new LongSlab();
+    private final LongSlab seqs = new LongSlab();
+
+    @Override
+    public int insert(@NonNull final String id, @NonNull final IntConsumer prepare) {
+        return index.insert(id, slot -> {
+            balances.ensureCapacity(slot);
+            seqs.ensureCapacity(slot);
+            prepare.accept(slot);
+        });
+    }
+
+    @Override
+    public int find(@NonNull final String id) {
+        return index.find(id);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public String idOf(final int slot) {
+        return index.idOf(slot);
+    }
+
+    @Override
+    public long getBalance(final int slot) {
+        return balances.get(slot);
+    }
+
+    @Override
+    public void setBalance(final int slot, final long balance) {
+        balances.set(slot, balance);
+    }
+
+    @Override
+    public long getSeq(final int slot) {
+        return seqs.get(slot);
+    }
+
+    @Override
+    public void setSeq(final int slot, final long seq) {
+        seqs.set(slot, seq);
+    }
+
+    // Nothing outlives the process, so there is no need to mark the slot
+    @Override
+    public void set(final int slot, final long balance, final long seq) {
+        balances.set(slot, balance);
+        seqs.set(slot, seq);
+    }
+}
@@ -0,0 +1,287 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.HistoryEntry;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.LongFunction;
+
+/**
+ * Append-only history of every account, kept off-heap as fixed-width entries.
+ *
+ * Each account's entries live in chunks that double in size from 2 up to 4096 entries, so an account with little
+ * history takes little memory: its first entry takes 88 bytes, a chunk of two entries and a directory of two chunks.
+ * The chunk and offset of any entry follow from its position alone. The addresses of an account's chunks are kept
+ * in the directory, itself off-heap, so a page of history is read without walking the entries or chunks before it.
+ * Chunks and directories are carved out of direct buffers that double in size up to a bound, 64 MB by default.
+ *
+ * Appends run under account locks, so they should not wait for allocateDirect, which zeroes the whole buffer: once
+ * the current arena is half full, the next one is allocated by a background thread. Nothing is ever freed, so the
+ * ledger takes 32 bytes per entry, plus the unused tail of each account's last chunk, the directories it outgrew,
+ * and at most one arena allocated ahead of need; -XX:MaxDirectMemorySize bounds the total.
+ *
+ * Each account must have a single writer at a time, e.g., the holder of its lock; readers need no coordination,
+ * as an entry is written before the account's entry count is published.
+ */
+final class HistoryLedger {
+    // Counterparty of an entry that has none
+    static final long NO_COUNTERPARTY = -1L;
+
+    // Type and timestamp, amount, balance after the change, counterparty
+    private static final int ENTRY_BYTES = 32;
+    private static final int TIMESTAMP_BITS = 56;
+    private static final long TIMESTAMP_MASK = (1L << TIMESTAMP_BITS) - 1;
+
+    private static final int FIRST_CHUNK_ENTRIES = 2;
+    private static final int LAST_GROWING_CHUNK = 11;
+    private static final int MAX_CHUNK_ENTRIES = FIRST_CHUNK_ENTRIES << LAST_GROWING_CHUNK;
+
+    // Entries held by the chunks that grow, before they reach MAX_CHUNK_ENTRIES
+    private static final long GROWING_ENTRIES = (long) FIRST_CHUNK_ENTRIES * ((1 << LAST_GROWING_CHUNK) - 1);
+
+    private static final int INITIAL_DIRECTORY_CHUNKS = 2;
+
+    // Largest size arenas grow to; raised to the size of the largest chunk if lower
+    static final String MAX_ARENA_BYTES_PROPERTY = "moneytransfer.history.maxArenaBytes";
+    static final int DEFAULT_MAX_ARENA_BYTES = 64 << 20;
+
+    // Arenas double in size from the first to the last, so that a ledger with little history takes little memory
+    private static final int FIRST_ARENA_BYTES = 64 << 10;
+
+    private static final HistoryEntry.Type[] TYPES = HistoryEntry.Type.values();
+
+    // Allocates the next arena of every ledger ahead of need
+    private static final Executor PREPARER = Executors.newSingleThreadExecutor(task -> {
+        final Thread thread = new Thread(task, "history-arenas");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Number of entries of each account
+    private final LongSlab counts = new LongSlab();
+
+    // Address of each account's directory, whose first long is its capacity, followed by the address of each chunk
+    private final LongSlab directories = new LongSlab();
+
+    // Address of where each account's next entry goes, if its last chunk has room; only the writer reads it, which
+    // spares appends a read of the directory, an off-heap block that is rarely in cache
+    private final LongSlab tails = new LongSlab();
+
+    private final int maxArenaBytes;
+
+    private volatile ByteBuffer[] arenas = new ByteBuffer[0];
+
+    // Guarded by this
+    private int arenaOffset;
+
+    // The next arena, once allocated ahead of need, and whether that is under way; guarded by this
+    private ByteBuffer spare;
+    private boolean preparing;
+
+    HistoryLedger() {
+        this(Integer.getInteger(MAX_ARENA_BYTES_PROPERTY, DEFAULT_MAX_ARENA_BYTES));
+    }
+
+    HistoryLedger(final int maxArenaBytes) {
+        this.maxArenaBytes = Math.max(maxArenaBytes, MAX_CHUNK_ENTRIES * ENTRY_BYTES);
+    }
+
+    // Must be called before slot is handed to any reader or writer
+    void ensureCapacity(final int slot) {
+        counts.ensureCapacity(slot);
+        directories.ensureCapacity(slot);
+        tails.ensureCapacity(slot);
+    }
+
+    long size(final int slot) {
+        return counts.get(slot);
+    }
+
+    void append(
+        final int slot,
+        final HistoryEntry.Type type,
+        final long amount,
+        final long balance,
+        final long counterparty,
+        final long timestamp
+    ) {
+        final long index = counts.get(slot);
+        final int chunk = chunkOf(index);
+
+        final long entry = index == firstIndexOf(chunk) ? addChunk(slot, chunk) : tails.get(slot);
+        tails.lazySet(slot, entry + ENTRY_BYTES);
+
+        final ByteBuffer arena = arenaOf(entry);
+        final int position = offsetOf(entry);
+
+        arena.putLong(position, ((long) type.ordinal() << TIMESTAMP_BITS) | (timestamp & TIMESTAMP_MASK));
+        arena.putLong(position + 8, amount);
+        arena.putLong(position + 16, balance);
+        arena.putLong(position + 24, counterparty);
+
+        // Publishes the entry, along with any new chunk or directory; readers load the count before anything it covers
+        counts.lazySet(slot, index + 1);
+    }
+
+    /**
+     * Up to limit entries that come after the first entries of the account, oldest first.
+     * counterparties resolves the counterparty references entries were appended with.
+     */
+    List<HistoryEntry> read(
+        final int slot,
+        final long after,
+        final int limit,
+        final LongFunction<Option<User>> counterparties
+    ) {
+        final long count = counts.get(slot);
+        if (after >= count || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        final long directory = directories.get(slot);
+        final long end = Math.min(count, after + limit);
+        final List<HistoryEntry> entries = new ArrayList<>((int) (end - after));
+
+        for (long index = after; index < end; index++) {
+            final int chunk = chunkOf(index);
+            final long entry = chunkAddress(directory, chunk) + (index - firstIndexOf(chunk)) * ENTRY_BYTES;
+            final ByteBuffer arena = arenaOf(entry);
+            final int position = offsetOf(entry);
+
+            final long typeAndTimestamp = arena.getLong(position);
+            final long counterparty = arena.getLong(position + 24);
+
+            entries.add(new HistoryEntry(
+                index + 1,
+                TYPES[(int) (typeAndTimestamp >>> TIMESTAMP_BITS)],
+                Money.ofMinorUnits(arena.getLong(position + 8)),
+                Money.ofMinorUnits(arena.getLong(position + 16)),
+                counterparty == NO_COUNTERPARTY ? Option.none() : counterparties.apply(counterparty),
+                typeAndTimestamp & TIMESTAMP_MASK
+            ));
+        }
+
+        return entries;
+    }
+
+    static int chunkOf(final long index) {
+        if (index < GROWING_ENTRIES) {
+            return 63 - Long.numberOfLeadingZeros(index / FIRST_CHUNK_ENTRIES + 1);
+        }
+
+        return LAST_GROWING_CHUNK + (int) ((index - GROWING_ENTRIES) / MAX_CHUNK_ENTRIES);
+    }
+
+    static long firstIndexOf(final int chunk) {
+        if (chunk <= LAST_GROWING_CHUNK) {
+            return (long) FIRST_CHUNK_ENTRIES * ((1L << chunk) - 1);
+        }
+
+        return GROWING_ENTRIES + (long) (chunk - LAST_GROWING_CHUNK) * MAX_CHUNK_ENTRIES;
+    }
+
+    static int entriesIn(final int chunk) {
+        return chunk < LAST_GROWING_CHUNK ? FIRST_CHUNK_ENTRIES << chunk : MAX_CHUNK_ENTRIES;
+    }
+
+    /**
+     * Allocates the chunk and records it in the directory, moving the directory to a larger block if it is full.
+     * Returns the address of the chunk.
+     */
+    private long addChunk(final int slot, final int chunk) {
+        final long directory = directories.get(slot);
+        long current = directory;
+        final long capacity = directory == 0 ? 0 : arenaOf(directory).getLong(offsetOf(directory));
+
+        if (chunk >= capacity) {
+            final long grown = Math.max(INITIAL_DIRECTORY_CHUNKS, capacity * 2);
+            current = allocate((int) (grown + 1) * 8);
+
+            final ByteBuffer arena = arenaOf(current);
+            arena.putLong(offsetOf(current), grown);
+            for (int i = 0; i < capacity; i++) {
+                arena.putLong(offsetOf(current) + 8 * (i + 1), chunkAddress(directory, i));
+            }
+
+            // Readers only look up chunks below the published count, which the old directory holds as well
+            directories.set(slot, current);
+        }
+
+        final long address = allocate(entriesIn(chunk) * ENTRY_BYTES);
+        arenaOf(current).putLong(offsetOf(current) + 8 * (chunk + 1), address);
+
+        return address;
+    }
+
+    private long chunkAddress(final long directory, final int chunk) {
+        return arenaOf(directory).getLong(offsetOf(directory) + 8 * (chunk + 1));
+    }
+
+    // Addresses hold the arena's index plus one in their upper half, so that no address is 0
+    private synchronized long allocate(final int bytes) {
+        if (arenas.length == 0 || arenaOffset + bytes > arenas[arenas.length - 1].capacity()) {
+            // Allocated here only if the background thread has not got to it yet, or for the very first arena
+            final ByteBuffer next = spare != null && spare.capacity() >= bytes
+                ? spare
+                : newArena(Math.max(bytes, nextArenaBytes()));
+
+            final ByteBuffer[] grown = Arrays.copyOf(arenas, arenas.length + 1);
+            grown[arenas.length] = next;
+
+            arenas = grown;
+            arenaOffset = 0;
+            spare = next == spare ? null : spare;
+        }
+
+        final long address = ((long) arenas.length << 32) | arenaOffset;
+        arenaOffset += bytes;
+
+        if (spare == null && !preparing && arenaOffset > arenas[arenas.length - 1].capacity() / 2) {
+            prepareSpare(nextArenaBytes());
+        }
+
+        return address;
+    }
+
+    // Callers must hold the lock of the ledger
+    private void prepareSpare(final int size) {
+        preparing = true;
+
+        PREPARER.execute(() -> {
+            final ByteBuffer arena = newArena(size);
+
+            synchronized (this) {
+                if (spare == null) {
+                    spare = arena;
+                }
+                preparing = false;
+            }
+        });
+    }
+
+    // Callers must hold the lock of the ledger
+    private int nextArenaBytes() {
+        return (int) Math.min((long) FIRST_ARENA_BYTES << Math.min(arenas.length, 16), maxArenaBytes);
+    }
+
+    private static ByteBuffer newArena(final int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer arenaOf(final long address) {
+        return arenas[(int) (address >>> 32) - 1];
+    }
+
+    private static int offsetOf(final long address) {
+        return (int) address;
+    }
+}
@@ -1,20 +1,73 @@
 package com.lmdamato.moneytransfer.storage;
 
+import com.lmdamato.moneytransfer.exception.BatchAbortedException;
 import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
+import com.lmdamato.moneytransfer.exception.InvalidUserIdException;
+import com.lmdamato.moneytransfer.exception.JournalFailedException;
+import com.lmdamato.moneytransfer.exception.TransferAlreadyReservedException;
 import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
 import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
 import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
 import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.journal.FileJournal;
+import com.lmdamato.moneytransfer.storage.journal.Journal;
+import com.lmdamato.moneytransfer.storage.journal.JournalConfig;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecord;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecordType;
+import com.lmdamato.moneytransfer.storage.journal.ReplicationLog;
+import com.lmdamato.moneytransfer.storage.journal.SnapshotFile;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
 import lombok.NonNull;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class InMemoryMoneyTransferDao implements MoneyTransferDao, TransferLedger {
+    // Number of account lock stripes; 1 serializes all mutations on a single lock
+    public static final String LOCK_STRIPES_PROPERTY = "moneytransfer.dao.lockStripes";
+    public static final int DEFAULT_LOCK_STRIPES = 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(InMemoryMoneyTransferDao.class.getName());
+
+    private static final Try<Void> SUCCESS = Try.success(null);
+    private static final CompletableFuture<Try<Void>> COMPLETED = CompletableFuture.completedFuture(SUCCESS);
+
+    @FunctionalInterface
+    public interface AccountVisitor {
+        void accept(String userId, long balance, long seq) throws IOException;
+    }
+
+    @NonNull
+    private final LongBalanceStore balances;
+
+    @NonNull
+    private final StripedLocks locks;
+
+    @NonNull
+    private final ReadViews views;
 
-public class InMemoryMoneyTransferDao implements MoneyTransferDao {
     @NonNull
-    private final ConcurrentMap<User, Money> moneyMap;
+    private final Journal journal;
+
+    @NonNull
+    private final Option<JournalConfig> journalConfig;
+
+    // Steps of transfers between nodes are journaled under its monitor, which is taken after any account's lock
+    private final TransferLedgerState ledger = new TransferLedgerState();
 
     private static final MoneyTransferDao ourInstance = new InMemoryMoneyTransferDao();
 
@@ -23,60 +76,1246 @@ public class InMemoryMoneyTransferDao implements MoneyTransferDao {
     }
 
     private InMemoryMoneyTransferDao() {
-        moneyMap = new ConcurrentHashMap<>();
+        this(Integer.getInteger(LOCK_STRIPES_PROPERTY, DEFAULT_LOCK_STRIPES), JournalConfig.fromSystemProperties());
+    }
+
+    // An engine of its own, without a journal, e.g., for each node of a cluster run in a single JVM
+    public InMemoryMoneyTransferDao(final int lockStripes) {
+        this(lockStripes, Option.none());
+    }
+
+    /**
+     * Rebuilds the balances from the latest snapshot and the journal records written after it,
+     * if a journal is configured, before accepting any operation.
+     */
+    InMemoryMoneyTransferDao(final int lockStripes, @NonNull final Option<JournalConfig> journalConfig) {
+        this(new LongBalanceStore(), lockStripes, journalConfig);
+    }
+
+    /**
+     * Like the above, over accounts the store may already hold, e.g., when reopened from a file: snapshots
+     * and journal records are only applied to an account if they are newer than its sequence number.
+     */
+    InMemoryMoneyTransferDao(
+        @NonNull final LongBalanceStore balances,
+        final int lockStripes,
+        @NonNull final Option<JournalConfig> journalConfig
+    ) {
+        this(balances, lockStripes, journalConfig, 0);
+    }
+
+    // Like the above, also keeping the latest mutations in a replication log of that many records, if not 0
+    private InMemoryMoneyTransferDao(
+        @NonNull final LongBalanceStore balances,
+        final int lockStripes,
+        @NonNull final Option<JournalConfig> journalConfig,
+        final int replicationLogCapacity
+    ) {
+        this.balances = balances;
+        this.locks = new StripedLocks(lockStripes);
+        this.views = new ReadViews(balances);
+        this.journalConfig = journalConfig;
+
+        final Journal recovered = journalConfig
+            .map(config -> Try.of(() -> recover(config)).get())
+            .getOrElse(Journal.DISABLED);
+
+        this.journal = replicationLogCapacity > 0 ? new ReplicationLog(recovered, replicationLogCapacity) : recovered;
+
+        journalConfig
+            .filter(config -> config.getSnapshotIntervalSeconds() > 0)
+            .forEach(config -> {
+                final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "snapshotter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+                snapshotter.scheduleWithFixedDelay(
+                    this::snapshotQuietly,
+                    config.getSnapshotIntervalSeconds(),
+                    config.getSnapshotIntervalSeconds(),
+                    TimeUnit.SECONDS
+                );
+            });
+    }
+
+    /**
+     * An engine of its own whose latest logCapacity mutations are also kept in a replication log, besides the journal,
+     * if one is configured, for followers to stream.
+     */
+    public static InMemoryMoneyTransferDao leader(
+        final int lockStripes,
+        @NonNull final Option<JournalConfig> journalConfig,
+        final int logCapacity
+    ) {
+        return new InMemoryMoneyTransferDao(new LongBalanceStore(), lockStripes, journalConfig, logCapacity);
+    }
+
+    // The replication log, if the engine keeps one
+    public Option<ReplicationLog> replicationLog() {
+        return journal instanceof ReplicationLog ? Option.some((ReplicationLog) journal) : Option.none();
+    }
+
+    /**
+     * Writes a snapshot of every account without stopping writers, then drops the journal segments it makes obsolete.
+     *
+     * Each account is copied under its own lock, together with the sequence number of the last record applied to it.
+     * Every record up to the snapshot's start sequence is therefore included; later ones may be included for some
+     * accounts only, which replay sorts out by comparing sequence numbers. The snapshot is only committed once
+     * the journal is durable up to the newest record it includes. The ledger of transfers between nodes is copied
+     * as of the start sequence exactly, and its later steps replayed on top.
+     */
+    synchronized void snapshot() throws IOException {
+        if (journalConfig.isEmpty()) {
+            return;
+        }
+
+        final JournalConfig config = journalConfig.get();
+        final long startSeq;
+        final List<JournalRecord> steps;
+
+        // Holds every transfer step up to startSeq and no later one, as steps are journaled under the ledger's monitor
+        synchronized (ledger) {
+            startSeq = journal.lastSeq();
+            steps = ledger.records();
+        }
+
+        try (final SnapshotFile snapshot = SnapshotFile.create(config.getDir(), startSeq)) {
+            final long maxSeq = copyAccounts(snapshot::add);
+
+            for (final JournalRecord step : steps) {
+                snapshot.addRecord(step);
+            }
+
+            journal.awaitDurable(Math.max(startSeq, maxSeq));
+            snapshot.commit();
+        }
+
+        journal.truncateUpTo(startSeq);
+        SnapshotFile.deleteOlderThan(config.getDir(), startSeq);
+    }
+
+    /**
+     * Hands every account to visitor, copied under its own lock together with the sequence number of the last record
+     * applied to it, without stopping writers, and returns the highest of those. Copies taken after reading lastSeq
+     * of the journal include every record up to it, and possibly later ones for some accounts, as snapshots do.
+     */
+    public long copyAccounts(@NonNull final AccountVisitor visitor) throws IOException {
+        final int size = balances.size();
+        long maxSeq = 0L;
+
+        for (int slot = 0; slot < size; slot++) {
+            // An account still being created is journaled after the copy started, so it is replayed instead
+            final User user = balances.userOf(slot);
+            if (user == null) {
+                continue;
+            }
+
+            final int stripe = locks.stripeOf(user);
+            final long balance;
+            final long seq;
+
+            locks.lock(stripe);
+            try {
+                balance = balances.get(slot);
+                seq = balances.getSeq(slot);
+            } finally {
+                locks.unlock(stripe);
+            }
+
+            visitor.accept(user.getId(), balance, seq);
+            maxSeq = Math.max(maxSeq, seq);
+        }
+
+        return maxSeq;
+    }
+
+    /**
+     * Applies an account copied by another engine, e.g., a leader, or read back from a snapshot, unless the account
+     * already holds a record that is not older.
+     */
+    public void applyCopy(@NonNull final String userId, final long balance, final long seq) {
+        final User user = new User(userId);
+        final int stripe = locks.stripeOf(user);
+
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            int slot = balances.create(user, epoch);
+
+            if (slot == LongBalanceStore.MISSING) {
+                slot = balances.slotOf(user);
+
+                if (balances.getSeq(slot) >= seq) {
+                    return;
+                }
+            }
+
+            setBalance(slot, balance, seq, epoch);
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+    }
+
+    /**
+     * Applies records journaled by another engine, e.g., streamed from a leader, or read back from the journal:
+     * a single one, or the records of an atomic batch without their header, which readers then never see half applied.
+     * Records must be applied in journal order, by one thread at a time, so each of them is applied to the same state
+     * it was first applied to. A record is skipped for an account that already holds it, e.g., from a snapshot,
+     * i.e., whose sequence number is not older.
+     *
+     * Neither this nor applyCopy writes history: records carry no timestamp, and snapshots no history, so replay
+     * could only rebuild the changes made since the latest snapshot. History therefore starts empty after a restart,
+     * and on followers, which do not serve it.
+     */
+    public void applyRecords(@NonNull final List<JournalRecord> records) {
+        final List<User> users = new ArrayList<>(records.size() * 2);
+        for (final JournalRecord record : records) {
+            users.add(new User(record.getUserId()));
+
+            if (record.getCounterpartyId() != null) {
+                users.add(new User(record.getCounterpartyId()));
+            }
+        }
+
+        final int[] stripes = locks.stripesOf(users);
+
+        locks.lockAll(stripes);
+        final long epoch = views.enter(stripes[0]);
+        try {
+            for (final JournalRecord record : records) {
+                apply(record, epoch);
+            }
+        } finally {
+            views.exit(stripes[0], epoch);
+            locks.unlockAll(stripes);
+        }
     }
 
     @Override
     public Try<User> createUser(@NonNull final User user) {
-        return Try
-            .of(() -> {
-                if (moneyMap.putIfAbsent(user, Money.ZERO) == null) {
-                    return user;
-                } else {
-                    throw new UserAlreadyExistsException();
+        return createUserAsync(user).join();
+    }
+
+    // Completes once the creation is durable, without holding the caller's thread while the journal syncs
+    @Override
+    public CompletableFuture<Try<User>> createUserAsync(@NonNull final User user) {
+        // An account whose id the journal could not hold would never have any of its records made durable
+        if (!User.isValidId(user.getId())) {
+            return CompletableFuture.completedFuture(Try.failure(new InvalidUserIdException()));
+        }
+
+        final int stripe = locks.stripeOf(user);
+        final CompletableFuture<Long> durable;
+
+        // Creation is journaled under the account's lock, so it always precedes the account's other records
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            if (journal.isFailed()) {
+                return journalFailed();
+            }
+
+            final int slot;
+            try {
+                slot = balances.create(user, epoch);
+            } catch (IllegalArgumentException e) {
+                // The id fits in the journal, but not in the account table, e.g., a mapped one with fixed-size slots
+                return CompletableFuture.completedFuture(Try.failure(new InvalidUserIdException()));
+            }
+
+            if (slot == LongBalanceStore.MISSING) {
+                return CompletableFuture.completedFuture(Try.failure(new UserAlreadyExistsException()));
+            }
+
+            durable = durableFuture();
+            balances.setSeq(slot, log(JournalRecordType.CREATE, user, null, 0L, durable));
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+
+        return whenDurable(durable).thenApply(outcome -> outcome.map(ignore -> user));
+    }
+
+    @Override
+    public Try<Integer> createUsers(@NonNull final List<User> users, @NonNull final long[] openingBalances) {
+        return createUsersAsync(users, openingBalances).join();
+    }
+
+    /**
+     * Creates the accounts of each lock stripe in turn, taking the stripe's lock once for all of them rather than
+     * once per account, and never holding more than one stripe. Records are journaled as if by createUser and
+     * deposit, and the batch completes once the last of them is durable.
+     */
+    @Override
+    public CompletableFuture<Try<Integer>> createUsersAsync(
+        @NonNull final List<User> users,
+        @NonNull final long[] openingBalances
+    ) {
+        final int size = users.size();
+
+        if (openingBalances.length < size) {
+            return CompletableFuture.completedFuture(
+                Try.failure(new IllegalArgumentException("Every user needs an opening balance"))
+            );
+        }
+
+        // The stripe of each account in the upper half, its position in the batch in the lower half
+        final long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            if (openingBalances[i] < 0) {
+                return CompletableFuture.completedFuture(
+                    Try.failure(new IllegalArgumentException("Opening balances cannot be negative"))
+                );
+            }
+
+            if (!User.isValidId(users.get(i).getId())) {
+                return CompletableFuture.completedFuture(Try.failure(new InvalidUserIdException()));
+            }
+
+            order[i] = ((long) locks.stripeOf(users.get(i)) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        final long timestamp = System.currentTimeMillis();
+        int created = 0;
+        CompletableFuture<Long> last = null;
+
+        int start = 0;
+
+        while (start < size) {
+            final int stripe = (int) (order[start] >>> 32);
+
+            int end = start + 1;
+            while (end < size && (int) (order[end] >>> 32) == stripe) {
+                end++;
+            }
+
+            locks.lock(stripe);
+            final long epoch = views.enter(stripe);
+            try {
+                if (journal.isFailed()) {
+                    return journalFailed();
                 }
-            });
+
+                for (int k = start; k < end; k++) {
+                    final int i = (int) order[k];
+                    final User user = users.get(i);
+
+                    final int slot = balances.create(user, epoch);
+                    if (slot == LongBalanceStore.MISSING) {
+                        continue;
+                    }
+
+                    created++;
+                    last = durableFuture();
+                    balances.setSeq(slot, log(JournalRecordType.CREATE, user, null, 0L, last));
+
+                    if (openingBalances[i] > 0) {
+                        last = durableFuture();
+                        final long seq = log(JournalRecordType.DEPOSIT, user, null, openingBalances[i], last);
+
+                        setBalance(slot, openingBalances[i], seq, epoch);
+                        balances.appendHistory(
+                            slot,
+                            HistoryEntry.Type.DEPOSIT,
+                            openingBalances[i],
+                            LongBalanceStore.NO_COUNTERPARTY,
+                            timestamp
+                        );
+                    }
+                }
+            } finally {
+                views.exit(stripe, epoch);
+                locks.unlock(stripe);
+            }
+
+            start = end;
+        }
+
+        final int count = created;
+
+        // Records become durable in order, so the last one covers the whole batch
+        return whenDurable(last).thenApply(outcome -> outcome.map(ignore -> count));
     }
 
     @Override
     public Try<Money> getBalance(@NonNull final User user) {
-        return Option
-            .of(moneyMap.get(user))
-            .toTry(UserDoesNotExistException::new);
+        final int slot = balances.slotOf(user);
+
+        return slot == LongBalanceStore.MISSING
+            ? Try.failure(new UserDoesNotExistException())
+            : Try.success(Money.ofMinorUnits(balances.get(slot)));
     }
 
+    // Looks every user up in a single pass over the index, without a Try per user
     @Override
-    public synchronized Try<Void> deposit(@NonNull final User user, @NonNull final Money amount) {
-        // Only if user exists proceed to add funds
-        return getBalance(user)
-            .map(ignore -> moneyMap.merge(user, amount, Money::plus))
-            .map(ignore -> null);
+    public Try<long[]> getBalances(@NonNull final List<User> users, final boolean consistent) {
+        if (consistent) {
+            try (final ReadView view = views.open()) {
+                return Try.success(view.getBalances(users));
+            }
+        }
+
+        final long[] minorUnits = new long[users.size()];
+
+        for (int i = 0; i < minorUnits.length; i++) {
+            final int slot = balances.slotOf(users.get(i));
+            minorUnits[i] = slot == LongBalanceStore.MISSING ? NO_BALANCE : balances.get(slot);
+        }
+
+        return Try.success(minorUnits);
     }
 
+    /**
+     * A consistent cursor reads through a read view, open until the cursor is closed, as it goes. The view only keeps
+     * the old balances of accounts changed ahead of the cursor, and lets go of each as the cursor passes it, so a slow
+     * caller, e.g., a client taking its time over an export, costs at most the accounts it has yet to reach that
+     * change meanwhile, rather than a copy of every balance upfront.
+     */
     @Override
-    public synchronized Try<Void> withdraw(@NonNull final User user, @NonNull final Money amountToWithdraw) {
-        // Only if user exists and balance is enough proceed to withdraw funds
-        return getBalance(user)
-            .filter(
-                fromAmount -> fromAmount.compareTo(amountToWithdraw) >= 0,
-                InsufficientFundsException::new
-            )
-            .map(ignore -> moneyMap.merge(user, amountToWithdraw, Money::minus))
-            .map(ignore -> null);
+    public Try<AccountCursor> accounts(final boolean consistent) {
+        final LongBalanceStore[] stores = {balances};
+
+        if (consistent) {
+            final ReadViews.View view = views.open();
+
+            return Try.success(new SlotCursor(stores, (store, slot) -> view.pass(slot), view::close));
+        }
+
+        return Try.success(new SlotCursor(stores, LongBalanceStore::get, () -> { }));
+    }
+
+    /**
+     * Opening a view waits for the mutations being applied at that moment, if any, but never blocks a writer.
+     * Closing it is up to the caller.
+     */
+    @Override
+    public Try<ReadView> openReadView() {
+        return Try.success(views.open());
+    }
+
+    @Override
+    public Try<List<HistoryEntry>> history(@NonNull final User user, final long after, final int limit) {
+        final int slot = balances.slotOf(user);
+
+        return slot == LongBalanceStore.MISSING
+            ? Try.failure(new UserDoesNotExistException())
+            : Try.success(balances.history(slot, after, limit, this::counterparty));
+    }
+
+    // Counterparties of history entries are recorded by slot
+    private Option<User> counterparty(final long slot) {
+        return Option.of(balances.userOf((int) slot));
     }
 
     @Override
-    public synchronized Try<Void> transfer(
+    public Try<Void> deposit(@NonNull final User user, @NonNull final Money amount) {
+        return depositAsync(user, amount).join();
+    }
+
+    @Override
+    public Try<Void> withdraw(@NonNull final User user, @NonNull final Money amountToWithdraw) {
+        return withdrawAsync(user, amountToWithdraw).join();
+    }
+
+    @Override
+    public Try<Void> transfer(
         @NonNull final User from,
         @NonNull final User to,
         @NonNull final Money amountToTransfer
     ) {
-        return getBalance(from)                     // Sending user exists
-            .filter(                                // Sending user has enough funds
-                fromAmount -> fromAmount.compareTo(amountToTransfer) >= 0,
-                InsufficientFundsException::new
-            )
-            .flatMap(ignore -> getBalance(to))      // Receiving user exists
-            .flatMap(ignore -> withdraw(from, amountToTransfer).flatMap(ignore2 -> deposit(to, amountToTransfer)));
+        return transferAsync(from, to, amountToTransfer).join();
+    }
+
+    @Override
+    public CompletableFuture<Try<Void>> depositAsync(@NonNull final User user, @NonNull final Money amount) {
+        final int stripe = locks.stripeOf(user);
+        final CompletableFuture<Long> durable;
+
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            if (journal.isFailed()) {
+                return journalFailed();
+            }
+
+            // Only if user exists proceed to add funds
+            final int slot = balances.slotOf(user);
+            if (slot == LongBalanceStore.MISSING) {
+                return CompletableFuture.completedFuture(Try.failure(new UserDoesNotExistException()));
+            }
+
+            final Try<Void> outcome = canCredit(slot, amount.getMinorUnits());
+            if (outcome.isFailure()) {
+                return CompletableFuture.completedFuture(outcome);
+            }
+
+            durable = durableFuture();
+            final long seq = log(JournalRecordType.DEPOSIT, user, null, amount.getMinorUnits(), durable);
+            credit(slot, amount.getMinorUnits(), seq, epoch);
+
+            balances.appendHistory(
+                slot,
+                HistoryEntry.Type.DEPOSIT,
+                amount.getMinorUnits(),
+                LongBalanceStore.NO_COUNTERPARTY,
+                System.currentTimeMillis()
+            );
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+
+        return whenDurable(durable);
+    }
+
+    @Override
+    public CompletableFuture<Try<Void>> withdrawAsync(
+        @NonNull final User user,
+        @NonNull final Money amountToWithdraw
+    ) {
+        final int stripe = locks.stripeOf(user);
+        final CompletableFuture<Long> durable;
+
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            if (journal.isFailed()) {
+                return journalFailed();
+            }
+
+            // Only if user exists and balance is enough proceed to withdraw funds
+            final int slot = balances.slotOf(user);
+            if (slot == LongBalanceStore.MISSING) {
+                return CompletableFuture.completedFuture(Try.failure(new UserDoesNotExistException()));
+            }
+
+            final long amount = amountToWithdraw.getMinorUnits();
+
+            final Try<Void> outcome = canDebit(slot, amount);
+            if (outcome.isFailure()) {
+                return CompletableFuture.completedFuture(outcome);
+            }
+
+            durable = durableFuture();
+            final long seq = log(JournalRecordType.WITHDRAW, user, null, amount, durable);
+            debit(slot, amount, seq, epoch);
+
+            balances.appendHistory(
+                slot,
+                HistoryEntry.Type.WITHDRAW,
+                amount,
+                LongBalanceStore.NO_COUNTERPARTY,
+                System.currentTimeMillis()
+            );
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+
+        return whenDurable(durable);
+    }
+
+    @Override
+    public CompletableFuture<Try<Void>> transferAsync(
+        @NonNull final User from,
+        @NonNull final User to,
+        @NonNull final Money amountToTransfer
+    ) {
+        final int fromStripe = locks.stripeOf(from);
+        final int toStripe = locks.stripeOf(to);
+        final long amount = amountToTransfer.getMinorUnits();
+        final CompletableFuture<Long> durable;
+
+        locks.lockPair(fromStripe, toStripe);
+        final long epoch = views.enter(fromStripe);
+        try {
+            if (journal.isFailed()) {
+                return journalFailed();
+            }
+
+            final int fromSlot = balances.slotOf(from);
+            final int toSlot = balances.slotOf(to);
+
+            final Try<Void> outcome = canTransfer(fromSlot, toSlot, amount);
+            if (outcome.isFailure()) {
+                return CompletableFuture.completedFuture(outcome);
+            }
+
+            durable = durableFuture();
+            final long seq = log(JournalRecordType.TRANSFER, from, to, amount, durable);
+            moveFunds(fromSlot, toSlot, amount, seq, epoch);
+
+            appendTransferHistory(fromSlot, toSlot, amount, System.currentTimeMillis());
+        } finally {
+            views.exit(fromStripe, epoch);
+            locks.unlockPair(fromStripe, toStripe);
+        }
+
+        return whenDurable(durable);
+    }
+
+    /**
+     * Takes the lock stripe of every account involved once for the whole batch, in ascending order,
+     * instead of once per leg.
+     */
+    @Override
+    public CompletableFuture<Try<List<Try<Void>>>> transferBatchAsync(
+        @NonNull final List<TransferLeg> legs,
+        final boolean atomic
+    ) {
+        if (legs.isEmpty()) {
+            return CompletableFuture.completedFuture(Try.success(Collections.emptyList()));
+        }
+
+        final List<User> users = new ArrayList<>(legs.size() * 2);
+        for (final TransferLeg leg : legs) {
+            users.add(leg.getFrom());
+            users.add(leg.getTo());
+        }
+
+        final int[] stripes = locks.stripesOf(users);
+        final List<Try<Void>> results;
+        final CompletableFuture<Long> durable;
+
+        locks.lockAll(stripes);
+        final long epoch = views.enter(stripes[0]);
+        try {
+            if (journal.isFailed()) {
+                return journalFailed();
+            }
+
+            if (atomic) {
+                final Option<List<Try<Void>>> rejected = stageBatch(legs);
+                if (rejected.isDefined()) {
+                    return CompletableFuture.completedFuture(Try.success(rejected.get()));
+                }
+
+                // Like any mutation, journaled before being applied, so a batch the journal refuses changes nothing
+                final CompletableFuture<Long> logged = durableFuture();
+                final Try<Long> header = Try.of(() -> journal.appendTransfers(legs, logged));
+                if (header.isFailure()) {
+                    return CompletableFuture.completedFuture(Try.failure(header.getCause()));
+                }
+
+                results = Collections.nCopies(legs.size(), SUCCESS);
+                durable = logged;
+                applyBatch(legs, header.get(), epoch);
+            } else {
+                results = new ArrayList<>(legs.size());
+                CompletableFuture<Long> last = null;
+                final long timestamp = System.currentTimeMillis();
+
+                for (final TransferLeg leg : legs) {
+                    final int fromSlot = balances.slotOf(leg.getFrom());
+                    final int toSlot = balances.slotOf(leg.getTo());
+                    final long amount = leg.getAmount().getMinorUnits();
+
+                    final Try<Void> outcome = canTransfer(fromSlot, toSlot, amount);
+                    if (outcome.isSuccess()) {
+                        last = durableFuture();
+                        final long seq = log(JournalRecordType.TRANSFER, leg.getFrom(), leg.getTo(), amount, last);
+
+                        moveFunds(fromSlot, toSlot, amount, seq, epoch);
+                        appendTransferHistory(fromSlot, toSlot, amount, timestamp);
+                    }
+
+                    results.add(outcome);
+                }
+
+                // Records become durable in order, so the last one covers the whole batch
+                durable = last;
+            }
+        } finally {
+            views.exit(stripes[0], epoch);
+            locks.unlockAll(stripes);
+        }
+
+        return whenDurable(durable).thenApply(outcome -> outcome.map(ignore -> results));
+    }
+
+    @Override
+    public Try<Void> reserve(
+        @NonNull final String txId,
+        @NonNull final User from,
+        @NonNull final Money amount,
+        @NonNull final String destination
+    ) {
+        final int stripe = locks.stripeOf(from);
+        final long seq;
+
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            synchronized (ledger) {
+                if (journal.isFailed()) {
+                    return Try.failure(new JournalFailedException());
+                }
+
+                if (ledger.reservation(txId) != null) {
+                    return Try.failure(new TransferAlreadyReservedException());
+                }
+
+                final int slot = balances.slotOf(from);
+                if (slot == LongBalanceStore.MISSING) {
+                    return Try.failure(new UserDoesNotExistException());
+                }
+
+                final Try<Void> outcome = canDebit(slot, amount.getMinorUnits());
+                if (outcome.isFailure()) {
+                    return outcome;
+                }
+
+                step(JournalRecordType.ROUTE, txId, destination, 0L);
+                seq = step(JournalRecordType.RESERVE, from.getId(), txId, amount.getMinorUnits());
+                debit(slot, amount.getMinorUnits(), seq, epoch);
+
+                balances.appendHistory(
+                    slot,
+                    HistoryEntry.Type.WITHDRAW,
+                    amount.getMinorUnits(),
+                    LongBalanceStore.NO_COUNTERPARTY,
+                    System.currentTimeMillis()
+                );
+            }
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+
+        return awaitDurable(seq);
+    }
+
+    @Override
+    public Try<Void> confirm(@NonNull final String txId) {
+        final long seq;
+
+        synchronized (ledger) {
+            final Reservation reservation = ledger.reservation(txId);
+            if (reservation == null || reservation.isSettled()) {
+                return SUCCESS;
+            }
+
+            if (journal.isFailed()) {
+                return Try.failure(new JournalFailedException());
+            }
+
+            seq = step(JournalRecordType.CONFIRM, txId, null, 0L);
+        }
+
+        return awaitDurable(seq);
+    }
+
+    @Override
+    public Try<Void> release(@NonNull final String txId) {
+        final Reservation known = ledger.reservation(txId);
+        if (known == null || known.isSettled()) {
+            return SUCCESS;
+        }
+
+        final int stripe = locks.stripeOf(known.getFrom());
+        final long seq;
+
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            synchronized (ledger) {
+                // Settled meanwhile, or not, in which case it is the same reservation, as each is only made once
+                final Reservation reservation = ledger.reservation(txId);
+                if (reservation == null || reservation.isSettled()) {
+                    return SUCCESS;
+                }
+
+                if (journal.isFailed()) {
+                    return Try.failure(new JournalFailedException());
+                }
+
+                // Accounts are never removed, so the payer's is still there
+                final int slot = balances.slotOf(reservation.getFrom());
+                final Try<Void> outcome = canCredit(slot, reservation.getAmount());
+                if (outcome.isFailure()) {
+                    return outcome;
+                }
+
+                seq = step(JournalRecordType.RELEASE, reservation.getFrom().getId(), txId, reservation.getAmount());
+                credit(slot, reservation.getAmount(), seq, epoch);
+
+                balances.appendHistory(
+                    slot,
+                    HistoryEntry.Type.DEPOSIT,
+                    reservation.getAmount(),
+                    LongBalanceStore.NO_COUNTERPARTY,
+                    System.currentTimeMillis()
+                );
+            }
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+
+        return awaitDurable(seq);
+    }
+
+    @Override
+    public Try<Void> forget(@NonNull final String txId) {
+        final long seq;
+
+        synchronized (ledger) {
+            final Reservation reservation = ledger.reservation(txId);
+            if (reservation == null) {
+                return SUCCESS;
+            }
+
+            if (!reservation.isSettled()) {
+                return Try.failure(new IllegalStateException("Transfer " + txId + " is not settled yet"));
+            }
+
+            if (journal.isFailed()) {
+                return Try.failure(new JournalFailedException());
+            }
+
+            seq = step(JournalRecordType.FORGET, txId, null, 0L);
+        }
+
+        return awaitDurable(seq);
+    }
+
+    @Override
+    public List<Reservation> reservations() {
+        return ledger.reservations();
+    }
+
+    @Override
+    public Try<Outcome> credit(@NonNull final String txId, @NonNull final User to, @NonNull final Money amount) {
+        final int stripe = locks.stripeOf(to);
+        final Try<Outcome> outcome;
+        final long seq;
+
+        locks.lock(stripe);
+        final long epoch = views.enter(stripe);
+        try {
+            synchronized (ledger) {
+                final TransferLedgerState.Decision earlier = ledger.decision(txId);
+
+                if (earlier != null) {
+                    outcome = Try.success(earlier.getOutcome());
+                    seq = earlier.getSeq();
+                } else if (journal.isFailed()) {
+                    return Try.failure(new JournalFailedException());
+                } else {
+                    final int slot = balances.slotOf(to);
+                    final Try<Void> deposited = slot == LongBalanceStore.MISSING
+                        ? Try.failure(new UserDoesNotExistException())
+                        : canCredit(slot, amount.getMinorUnits());
+
+                    if (deposited.isSuccess()) {
+                        seq = step(JournalRecordType.CREDIT, to.getId(), txId, amount.getMinorUnits());
+                        credit(slot, amount.getMinorUnits(), seq, epoch);
+
+                        balances.appendHistory(
+                            slot,
+                            HistoryEntry.Type.DEPOSIT,
+                            amount.getMinorUnits(),
+                            LongBalanceStore.NO_COUNTERPARTY,
+                            System.currentTimeMillis()
+                        );
+
+                        outcome = Try.success(Outcome.CREDITED);
+                    } else {
+                        // Nothing was deposited, so the transfer can only be aborted
+                        outcome = Try.failure(deposited.getCause());
+                        seq = step(JournalRecordType.ABORT, txId, null, 0L);
+                    }
+                }
+            }
+        } finally {
+            views.exit(stripe, epoch);
+            locks.unlock(stripe);
+        }
+
+        final Try<Void> durable = awaitDurable(seq);
+
+        return durable.isFailure() ? Try.failure(durable.getCause()) : outcome;
+    }
+
+    @Override
+    public Try<Outcome> abort(@NonNull final String txId) {
+        final Outcome outcome;
+        final long seq;
+
+        synchronized (ledger) {
+            final TransferLedgerState.Decision earlier = ledger.decision(txId);
+
+            if (earlier != null) {
+                outcome = earlier.getOutcome();
+                seq = earlier.getSeq();
+            } else if (journal.isFailed()) {
+                return Try.failure(new JournalFailedException());
+            } else {
+                outcome = Outcome.ABORTED;
+                seq = step(JournalRecordType.ABORT, txId, null, 0L);
+            }
+        }
+
+        return awaitDurable(seq).map(ignore -> outcome);
+    }
+
+    @Override
+    public Try<Void> acknowledge(@NonNull final String txId) {
+        final long seq;
+
+        synchronized (ledger) {
+            if (ledger.decision(txId) == null) {
+                return SUCCESS;
+            }
+
+            if (journal.isFailed()) {
+                return Try.failure(new JournalFailedException());
+            }
+
+            seq = step(JournalRecordType.ACKNOWLEDGE, txId, null, 0L);
+        }
+
+        return awaitDurable(seq);
+    }
+
+    /**
+     * Checks that every leg of an atomic batch can be applied in order, without changing any balance.
+     * Returns nothing if all of them can, otherwise the outcome of every leg.
+     * Callers must hold the lock stripes of every account involved.
+     */
+    private Option<List<Try<Void>>> stageBatch(@NonNull final List<TransferLeg> legs) {
+        final Map<Integer, Long> staged = new HashMap<>();
+
+        for (int i = 0; i < legs.size(); i++) {
+            final TransferLeg leg = legs.get(i);
+            final int fromSlot = balances.slotOf(leg.getFrom());
+            final int toSlot = balances.slotOf(leg.getTo());
+            final long amount = leg.getAmount().getMinorUnits();
+
+            final Try<Void> outcome = stageTransfer(staged, fromSlot, toSlot, amount);
+            if (outcome.isFailure()) {
+                final List<Try<Void>> results = new ArrayList<>(
+                    Collections.nCopies(legs.size(), Try.failure(new BatchAbortedException()))
+                );
+                results.set(i, outcome);
+
+                return Option.some(results);
+            }
+        }
+
+        return Option.none();
+    }
+
+    // Same checks as canTransfer, against the balances the previous legs of the batch would leave
+    private Try<Void> stageTransfer(
+        final Map<Integer, Long> staged,
+        final int fromSlot,
+        final int toSlot,
+        final long amount
+    ) {
+        if (fromSlot == LongBalanceStore.MISSING) {
+            return Try.failure(new UserDoesNotExistException());
+        }
+
+        final long fromBalance = staged.getOrDefault(fromSlot, balances.get(fromSlot));
+        if (fromBalance < amount) {
+            return Try.failure(new InsufficientFundsException());
+        }
+
+        if (toSlot == LongBalanceStore.MISSING) {
+            return Try.failure(new UserDoesNotExistException());
+        }
+
+        if (fromSlot == toSlot) {
+            return SUCCESS;
+        }
+
+        final long toBalance = staged.getOrDefault(toSlot, balances.get(toSlot));
+        if (toBalance > Long.MAX_VALUE - amount) {
+            return Try.failure(new ArithmeticException("long overflow"));
+        }
+
+        staged.put(fromSlot, fromBalance - amount);
+        staged.put(toSlot, toBalance + amount);
+
+        return SUCCESS;
+    }
+
+    /**
+     * Applies a batch journaled behind header, each leg stamped with the sequence number of its own record, or 0
+     * if the journal is disabled. Callers must hold the lock stripes of every account involved, and have staged
+     * the batch successfully.
+     */
+    private void applyBatch(@NonNull final List<TransferLeg> legs, final long header, final long epoch) {
+        final long timestamp = System.currentTimeMillis();
+
+        for (int i = 0; i < legs.size(); i++) {
+            final TransferLeg leg = legs.get(i);
+            final int fromSlot = balances.slotOf(leg.getFrom());
+            final int toSlot = balances.slotOf(leg.getTo());
+            final long amount = leg.getAmount().getMinorUnits();
+
+            moveFunds(fromSlot, toSlot, amount, header == 0L ? 0L : header + 1 + i, epoch);
+            appendTransferHistory(fromSlot, toSlot, amount, timestamp);
+        }
+    }
+
+    // Callers must hold the lock stripes of both accounts; a transfer to oneself changes nothing and is not recorded
+    private void appendTransferHistory(final int fromSlot, final int toSlot, final long amount, final long timestamp) {
+        if (fromSlot != toSlot) {
+            balances.appendHistory(fromSlot, HistoryEntry.Type.TRANSFER_OUT, amount, toSlot, timestamp);
+            balances.appendHistory(toSlot, HistoryEntry.Type.TRANSFER_IN, amount, fromSlot, timestamp);
+        }
+    }
+
+    // Callers must hold the lock stripes of both accounts
+    private Try<Void> canTransfer(final int fromSlot, final int toSlot, final long amount) {
+        if (fromSlot == LongBalanceStore.MISSING) {                 // Sending user exists
+            return Try.failure(new UserDoesNotExistException());
+        }
+
+        if (balances.get(fromSlot) < amount) {                      // Sending user has enough funds
+            return Try.failure(new InsufficientFundsException());
+        }
+
+        if (toSlot == LongBalanceStore.MISSING) {                   // Receiving user exists
+            return Try.failure(new UserDoesNotExistException());
+        }
+
+        if (fromSlot == toSlot) {
+            return SUCCESS;
+        }
+
+        if (balances.get(toSlot) > Long.MAX_VALUE - amount) {       // Receiving balance does not overflow
+            return Try.failure(new ArithmeticException("long overflow"));
+        }
+
+        return SUCCESS;
+    }
+
+    // Callers must hold the lock stripe of the account
+    private Try<Void> canCredit(final int slot, final long amount) {
+        if (balances.get(slot) > Long.MAX_VALUE - amount) {
+            return Try.failure(new ArithmeticException("long overflow"));
+        }
+
+        return SUCCESS;
+    }
+
+    // Callers must hold the lock stripe of the account
+    private Try<Void> canDebit(final int slot, final long amount) {
+        if (balances.get(slot) < amount) {
+            return Try.failure(new InsufficientFundsException());
+        }
+
+        return SUCCESS;
+    }
+
+    // Callers must hold the lock stripes of both accounts, and have checked the transfer with canTransfer
+    private void moveFunds(final int fromSlot, final int toSlot, final long amount, final long seq, final long epoch) {
+        if (fromSlot == toSlot) {
+            balances.setSeq(fromSlot, seq);
+            return;
+        }
+
+        debit(fromSlot, amount, seq, epoch);
+        credit(toSlot, amount, seq, epoch);
+    }
+
+    // Callers must hold the lock stripe of the account, and have checked the deposit with canCredit
+    private void credit(final int slot, final long amount, final long seq, final long epoch) {
+        setBalance(slot, balances.get(slot) + amount, seq, epoch);
+    }
+
+    // Callers must hold the lock stripe of the account, and have checked the withdrawal with canDebit
+    private void debit(final int slot, final long amount, final long seq, final long epoch) {
+        setBalance(slot, balances.get(slot) - amount, seq, epoch);
+    }
+
+    /**
+     * Writes the balance along with the sequence number of the journal record that changed it, which must already
+     * be appended, so that a balance is never ahead of the journal. Callers must hold the lock stripe of the account
+     * and have entered epoch; open read views keep the old balance.
+     */
+    private void setBalance(final int slot, final long balance, final long seq, final long epoch) {
+        views.beforeWrite(slot, epoch);
+        balances.set(slot, balance, seq);
+    }
+
+    /**
+     * Journals a mutation about to be applied, and returns the sequence number to stamp the accounts it changes with,
+     * 0 if the journal is disabled. Callers must hold the lock stripes of every account involved.
+     */
+    private long log(
+        @NonNull final JournalRecordType type,
+        @NonNull final User user,
+        final User counterparty,
+        final long amount,
+        final CompletableFuture<Long> durable
+    ) {
+        return journal.append(type, user.getId(), counterparty == null ? null : counterparty.getId(), amount, durable);
+    }
+
+    // Completed by the journal once a record is durable; null if the journal is disabled, as nothing needs waiting for
+    private CompletableFuture<Long> durableFuture() {
+        return journal.isEnabled() ? new CompletableFuture<>() : null;
+    }
+
+    /**
+     * Journals a step of a transfer between nodes, and applies it to the ledger, returning its sequence number,
+     * or 0 if the journal is disabled. Callers must hold the ledger's monitor, and the lock stripe of the account
+     * the step changes, if any, whose balance they then change.
+     */
+    private long step(
+        @NonNull final JournalRecordType type,
+        @NonNull final String userId,
+        final String counterpartyId,
+        final long amount
+    ) {
+        final long seq = journal.isEnabled() ? journal.append(type, userId, counterpartyId, amount, null) : 0L;
+
+        ledger.apply(new JournalRecord(seq, type, userId, counterpartyId, amount));
+
+        return seq;
+    }
+
+    // Refused before anything is applied, so that no mutation the journal cannot make durable becomes visible
+    private static <T> CompletableFuture<Try<T>> journalFailed() {
+        return CompletableFuture.completedFuture(Try.failure(new JournalFailedException()));
+    }
+
+    private Try<Void> awaitDurable(final long seq) {
+        return Try.run(() -> journal.awaitDurable(seq));
+    }
+
+    private static CompletableFuture<Try<Void>> whenDurable(final CompletableFuture<Long> durable) {
+        return durable == null
+            ? COMPLETED
+            : durable.handle((seq, error) -> error == null ? SUCCESS : Try.failure(error));
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journal after it. Accounts kept in a file may hold changes the journal
+     * lost: a process that died halfway through writing a slot leaves it marked, and one whose last records never
+     * became durable leaves slots stamped past the journal's end. Those slots are emptied and rebuilt, as if the file
+     * never held them: marked ones before replay, which would stamp them, and the others by loading and replaying once
+     * more. An account whose creation was lost too is kept, and its creation journaled again, so that the journal
+     * covers every account the file holds.
+     */
+    private Journal recover(@NonNull final JournalConfig config) throws IOException {
+        final List<Integer> damaged = new ArrayList<>();
+        for (int slot = 0; slot < balances.size(); slot++) {
+            if (balances.getSeq(slot) == LongBalanceStore.WRITING) {
+                balances.set(slot, 0L, 0L);
+                damaged.add(slot);
+            }
+        }
+
+        Journal recovered = replay(config);
+
+        final List<Integer> ahead = new ArrayList<>();
+        for (int slot = 0; slot < balances.size(); slot++) {
+            if (balances.getSeq(slot) > recovered.lastSeq()) {
+                balances.set(slot, 0L, 0L);
+                ahead.add(slot);
+            }
+        }
+
+        if (!ahead.isEmpty()) {
+            recovered.close();
+            ledger.clear();
+            recovered = replay(config);
+            damaged.addAll(ahead);
+        }
+
+        if (!damaged.isEmpty()) {
+            LOGGER.warning("Rebuilt " + damaged.size() + " accounts holding changes the journal lost");
+        }
+
+        for (final int slot : damaged) {
+            if (balances.getSeq(slot) == 0L) {
+                final String userId = balances.userOf(slot).getId();
+                balances.setSeq(slot, recovered.append(JournalRecordType.CREATE, userId, null, 0L, null));
+            }
+        }
+
+        return recovered;
+    }
+
+    private Journal replay(@NonNull final JournalConfig config) throws IOException {
+        final long snapshotSeq = SnapshotFile.loadLatest(config.getDir(), this::applyCopy, ledger::apply).getOrElse(0L);
+
+        return FileJournal.open(config, snapshotSeq, record -> applyRecords(Collections.singletonList(record)));
+    }
+
+    // Callers must hold the lock stripes of every account involved and have entered epoch
+    private void apply(@NonNull final JournalRecord record, final long epoch) {
+        final long seq = record.getSeq();
+        final User user = new User(record.getUserId());
+
+        if (record.getType() == JournalRecordType.CREATE) {
+            final int slot = balances.create(user, epoch);
+            if (slot != LongBalanceStore.MISSING) {
+                balances.setSeq(slot, seq);
+            }
+
+            return;
+        }
+
+        // Steps of transfers between nodes that change no balance name the transfer rather than an account
+        if (TransferLedgerState.isStep(record.getType()) && !TransferLedgerState.changesBalance(record.getType())) {
+            ledger.apply(record);
+            return;
+        }
+
+        final int slot = balances.slotOf(user);
+
+        switch (record.getType()) {
+            case DEPOSIT:
+                applyAdjustment(slot, seq, record.getAmount(), epoch);
+                break;
+            case WITHDRAW:
+                applyAdjustment(slot, seq, -record.getAmount(), epoch);
+                break;
+            case TRANSFER:
+                final int counterpartySlot = balances.slotOf(new User(record.getCounterpartyId()));
+
+                // A transfer to oneself changes nothing
+                if (counterpartySlot != slot) {
+                    applyAdjustment(slot, seq, -record.getAmount(), epoch);
+                    applyAdjustment(counterpartySlot, seq, record.getAmount(), epoch);
+                }
+                break;
+            case RESERVE:
+                applyAdjustment(slot, seq, -record.getAmount(), epoch);
+                ledger.apply(record);
+                break;
+            case RELEASE:
+            case CREDIT:
+                applyAdjustment(slot, seq, record.getAmount(), epoch);
+                ledger.apply(record);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + record.getType());
+        }
+    }
+
+    private void applyAdjustment(final int slot, final long seq, final long delta, final long epoch) {
+        if (balances.getSeq(slot) < seq) {
+            setBalance(slot, balances.get(slot) + delta, seq, epoch);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Snapshot failed, keeping the journal", e);
+        }
     }
 }
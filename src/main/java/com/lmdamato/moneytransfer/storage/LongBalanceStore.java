@@ -0,0 +1,140 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.HistoryEntry;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Account balances kept as primitive longs of minor units, indexed by a dense slot that each user id is mapped to once,
+ * when the account is created. The accounts themselves live in an AccountTable, on the heap unless told otherwise.
+ *
+ * On the heap, an account costs its id's UTF-8 bytes plus about 88 bytes: the balance, the sequence number, the epoch
+ * stamp, the location of the id, its entry in the index, and the size, location and tail of its history.
+ * Updating a balance never allocates. History entries take 32 bytes each, off-heap, in arenas of up to
+ * moneytransfer.history.maxArenaBytes.
+ */
+public class LongBalanceStore {
+    // Slot of an account that does not exist
+    public static final int MISSING = AccountIndex.MISSING;
+
+    // Counterparty of a history entry that has none
+    public static final long NO_COUNTERPARTY = HistoryLedger.NO_COUNTERPARTY;
+
+    // Sequence number of an account whose balance and sequence number were not written together; see AccountTable
+    public static final long WRITING = AccountTable.WRITING;
+
+    private final AccountTable accounts;
+
+    // Epoch of the last change to each account's balance, which read views compare their own epoch with
+    private final LongSlab stamps = new LongSlab();
+
+    private final HistoryLedger history = new HistoryLedger();
+
+    public LongBalanceStore() {
+        this(new HeapAccountTable());
+    }
+
+    // Accounts the table already holds, e.g., when reopening a file, start with no history
+    LongBalanceStore(@NonNull final AccountTable accounts) {
+        this.accounts = accounts;
+
+        if (accounts.size() > 0) {
+            stamps.ensureCapacity(accounts.size() - 1);
+            history.ensureCapacity(accounts.size() - 1);
+        }
+    }
+
+    // Returns the new account's slot, or MISSING if the user already exists
+    public int create(@NonNull final User user) {
+        return create(user, 0L);
+    }
+
+    // Like create, stamping the new account with the epoch it was created in before any reader can find it
+    public int create(@NonNull final User user, final long stamp) {
+        return accounts.insert(user.getId(), slot -> {
+            stamps.ensureCapacity(slot);
+            stamps.set(slot, stamp);
+            history.ensureCapacity(slot);
+        });
+    }
+
+    // Returns MISSING if the user does not exist
+    public int slotOf(@NonNull final User user) {
+        return accounts.find(user.getId());
+    }
+
+    // Number of slots handed out so far, some of which may belong to accounts still being created
+    public int size() {
+        return accounts.size();
+    }
+
+    // Returns null if the account in this slot is still being created
+    public User userOf(final int slot) {
+        final String id = accounts.idOf(slot);
+        return id == null ? null : new User(id);
+    }
+
+    public long get(final int slot) {
+        return accounts.getBalance(slot);
+    }
+
+    // Writers must be serialized externally, e.g., by holding the account's lock
+    public void set(final int slot, final long balance) {
+        accounts.setBalance(slot, balance);
+    }
+
+    // Like writers, readers of the sequence number must hold the account's lock
+    public long getSeq(final int slot) {
+        return accounts.getSeq(slot);
+    }
+
+    public void setSeq(final int slot, final long seq) {
+        accounts.setSeq(slot, seq);
+    }
+
+    // Like set, also stamping the account with the sequence number of the journal record that changed it
+    public void set(final int slot, final long balance, final long seq) {
+        accounts.set(slot, balance, seq);
+    }
+
+    public long getStamp(final int slot) {
+        return stamps.get(slot);
+    }
+
+    // Like the balance, the stamp must only be changed by the holder of the account's lock
+    public void setStamp(final int slot, final long stamp) {
+        stamps.set(slot, stamp);
+    }
+
+    /**
+     * Records a change just made to the account's balance, along with the balance it left.
+     * Like writers of the balance, callers must hold the account's lock.
+     */
+    public void appendHistory(
+        final int slot,
+        @NonNull final HistoryEntry.Type type,
+        final long amount,
+        final long counterparty,
+        final long timestamp
+    ) {
+        history.append(slot, type, amount, accounts.getBalance(slot), counterparty, timestamp);
+    }
+
+    public long historySize(final int slot) {
+        return history.size(slot);
+    }
+
+    // Entries after the first after ones, at most limit of them; counterparties resolves what appendHistory was given
+    public List<HistoryEntry> history(
+        final int slot,
+        final long after,
+        final int limit,
+        @NonNull final LongFunction<Option<User>> counterparties
+    ) {
+        return history.read(slot, after, limit, counterparties);
+    }
+}
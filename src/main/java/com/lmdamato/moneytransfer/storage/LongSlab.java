@@ -0,0 +1,44 @@
+package com.lmdamato.moneytransfer.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Growable array of longs indexed by account slot, allocated in fixed-size chunks
+ * so growing it never copies the values already stored. Reads and writes are volatile, except for lazySet.
+ */
+final class LongSlab {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+    long get(final int index) {
+        return chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+    void set(final int index, final long value) {
+        chunks[index >>> CHUNK_BITS].set(index & CHUNK_MASK, value);
+    }
+
+    // Release store: cheaper than set, and enough to publish what was written before it to readers that get it
+    void lazySet(final int index, final long value) {
+        chunks[index >>> CHUNK_BITS].lazySet(index & CHUNK_MASK, value);
+    }
+
+    // Must be called before index is handed to any reader
+    synchronized void ensureCapacity(final int index) {
+        final int needed = (index >>> CHUNK_BITS) + 1;
+        if (needed <= chunks.length) {
+            return;
+        }
+
+        final AtomicLongArray[] grown = Arrays.copyOf(chunks, Math.max(needed, chunks.length * 2));
+        for (int i = chunks.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(CHUNK_SIZE);
+        }
+
+        chunks = grown;
+    }
+}
@@ -0,0 +1,321 @@
+package com.lmdamato.moneytransfer.storage;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Accounts kept in a memory-mapped file rather than on the heap, so the garbage collector never sees them, and the
+ * OS page cache keeps them across restarts of the process: reopening the file finds every account as it was left.
+ *
+ * After a header, the file holds the index, then capacity fixed-size slots handed out in creation order. A slot holds
+ * the balance, the sequence number of the last journal record applied to the account, which versions it, the hash of
+ * its id and the id's UTF-8 bytes. The index is an open-addressing table twice as large as the slots, of longs each
+ * packing an id's hash with its slot, as AccountIndex does on the heap; being in the file too, it is never rebuilt.
+ * The capacity is fixed when the file is created.
+ *
+ * Lookups take no lock: a slot is only found once the count of slots in use, a volatile field, covers it, and the slot
+ * is written before the count. Inserts are serialized on the table. Balances and sequence numbers are read and written
+ * with plain, aligned 8-byte accesses to the mapping. A new slot is marked as being written until its owner stamps it
+ * with the sequence number of its creation, so that a process dying first leaves it marked.
+ *
+ * The mapping is forced to disk on close only, so on its own the file survives the process but not the machine;
+ * the journal is what makes changes durable.
+ */
+final class MappedAccountTable implements AccountTable, AutoCloseable {
+    // Size of a slot, and the longest id it holds, in UTF-8 bytes
+    static final int SLOT_BYTES = 128;
+    static final int MAX_ID_BYTES = SLOT_BYTES - 22;
+
+    static final int MAX_CAPACITY = 1 << 28;
+
+    private static final long MAGIC = 0x4D54_4143_4354_0001L;
+
+    // Magic, slot size, capacity, slots in use; padded to a page so the index starts on one
+    private static final int HEADER_BYTES = 4096;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+
+    // Balance, sequence number, hash, id length, id bytes
+    private static final int SEQ_OFFSET = 8;
+    private static final int HASH_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 20;
+    private static final int ID_OFFSET = 22;
+
+    // The file is mapped in chunks this large; slots and index entries are aligned so that none straddles two
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int capacity;
+    private final int indexMask;
+    private final long slotsOffset;
+
+    private volatile int size;
+
+    // Written between the writes of a slot that must reach the mapping in order
+    private volatile long fence;
+
+    private MappedAccountTable(@NonNull final FileChannel channel, final int capacity, final boolean created)
+        throws IOException {
+        final int indexEntries = Integer.highestOneBit(Math.max(capacity, 8) * 4 - 1);
+        final long length = HEADER_BYTES + (long) indexEntries * Long.BYTES + (long) capacity * SLOT_BYTES;
+
+        this.channel = channel;
+        this.capacity = capacity;
+        this.indexMask = indexEntries - 1;
+        this.slotsOffset = HEADER_BYTES + (long) indexEntries * Long.BYTES;
+        this.chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+
+        for (int i = 0; i < chunks.length; i++) {
+            final long start = (long) i << CHUNK_BITS;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(1L << CHUNK_BITS, length - start));
+        }
+
+        if (created) {
+            chunks[0].putLong(0, MAGIC);
+            chunks[0].putInt(8, SLOT_BYTES);
+            chunks[0].putInt(CAPACITY_OFFSET, capacity);
+            chunks[0].putInt(COUNT_OFFSET, 0);
+        }
+
+        this.size = chunks[0].getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * Opens the table in file, creating it with room for capacity accounts if it is empty or does not exist.
+     * An existing table keeps the capacity it was created with.
+     */
+    static MappedAccountTable open(@NonNull final Path file, final int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+        }
+
+        final FileChannel channel = FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+
+        try {
+            if (channel.size() == 0) {
+                return new MappedAccountTable(channel, capacity, true);
+            }
+
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getLong(0) != MAGIC || header.getInt(8) != SLOT_BYTES) {
+                throw new IOException("Not an account table: " + file);
+            }
+
+            return new MappedAccountTable(channel, header.getInt(CAPACITY_OFFSET), false);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized int insert(@NonNull final String id, @NonNull final IntConsumer prepare) {
+        final int h = hash(id);
+        if (find(id, h) != AccountIndex.MISSING) {
+            return AccountIndex.MISSING;
+        }
+
+        final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("User id longer than " + MAX_ID_BYTES + " bytes");
+        }
+
+        final int slot = size;
+        if (slot == capacity) {
+            throw new IllegalStateException("Account table is full, at " + capacity + " accounts");
+        }
+
+        final long base = slotOffset(slot);
+        putLong(base, 0L);
+        putLong(base + SEQ_OFFSET, AccountTable.WRITING);
+        chunkOf(base).putInt(offsetOf(base + HASH_OFFSET), h);
+        chunkOf(base).putShort(offsetOf(base + LENGTH_OFFSET), (short) bytes.length);
+
+        final MappedByteBuffer chunk = chunkOf(base);
+        for (int i = 0; i < bytes.length; i++) {
+            chunk.put(offsetOf(base + ID_OFFSET + i), bytes[i]);
+        }
+
+        prepare.accept(slot);
+
+        int i = h & indexMask;
+        while (getLong(indexOffset(i)) != 0) {
+            i = (i + 1) & indexMask;
+        }
+        putLong(indexOffset(i), ((long) h << 32) | (slot + 1));
+
+        // Publishing the count last makes the slot visible to whoever reads it
+        chunks[0].putInt(COUNT_OFFSET, slot + 1);
+        size = slot + 1;
+
+        return slot;
+    }
+
+    @Override
+    public int find(@NonNull final String id) {
+        return find(id, hash(id));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String idOf(final int slot) {
+        if (slot >= size) {
+            return null;
+        }
+
+        final long base = slotOffset(slot);
+        final MappedByteBuffer chunk = chunkOf(base);
+        final byte[] bytes = new byte[chunk.getShort(offsetOf(base + LENGTH_OFFSET))];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk.get(offsetOf(base + ID_OFFSET + i));
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getBalance(final int slot) {
+        return getLong(slotOffset(slot));
+    }
+
+    @Override
+    public void setBalance(final int slot, final long balance) {
+        putLong(slotOffset(slot), balance);
+    }
+
+    @Override
+    public long getSeq(final int slot) {
+        return getLong(slotOffset(slot) + SEQ_OFFSET);
+    }
+
+    @Override
+    public void setSeq(final int slot, final long seq) {
+        putLong(slotOffset(slot) + SEQ_OFFSET, seq);
+    }
+
+    /**
+     * Marks the slot before writing the balance, and stamps it after: a process dying in between leaves the slot
+     * marked, rather than holding a balance that does not match its sequence number.
+     */
+    @Override
+    public void set(final int slot, final long balance, final long seq) {
+        final long base = slotOffset(slot);
+
+        putLong(base + SEQ_OFFSET, AccountTable.WRITING);
+        fence = seq;
+        putLong(base, balance);
+        fence = seq;
+        putLong(base + SEQ_OFFSET, seq);
+    }
+
+    // Writes every change back to the file; the mapping itself is released once it is garbage collected
+    @Override
+    public void close() throws IOException {
+        for (final MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+
+        channel.close();
+    }
+
+    private int find(final String id, final int h) {
+        final int published = size;
+
+        for (int i = h & indexMask; ; i = (i + 1) & indexMask) {
+            final long entry = getLong(indexOffset(i));
+            if (entry == 0) {
+                return AccountIndex.MISSING;
+            }
+
+            final int slot = (int) entry - 1;
+            if ((int) (entry >>> 32) == h && slot < published && matches(slot, id)) {
+                return slot;
+            }
+        }
+    }
+
+    // Compares without allocating as long as id is ASCII
+    private boolean matches(final int slot, final String id) {
+        final long base = slotOffset(slot);
+        final MappedByteBuffer chunk = chunkOf(base);
+        final int offset = offsetOf(base + ID_OFFSET);
+        final int length = chunk.getShort(offsetOf(base + LENGTH_OFFSET));
+
+        if (length < id.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < id.length(); i++) {
+            final char c = id.charAt(i);
+
+            if (c >= 0x80) {
+                final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length != length) {
+                    return false;
+                }
+
+                for (int j = 0; j < length; j++) {
+                    if (chunk.get(offset + j) != bytes[j]) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+            if (chunk.get(offset + i) != c) {
+                return false;
+            }
+        }
+
+        return length == id.length();
+    }
+
+    private long indexOffset(final int entry) {
+        return HEADER_BYTES + (long) entry * Long.BYTES;
+    }
+
+    private long slotOffset(final int slot) {
+        return slotsOffset + (long) slot * SLOT_BYTES;
+    }
+
+    private long getLong(final long offset) {
+        return chunkOf(offset).getLong(offsetOf(offset));
+    }
+
+    private void putLong(final long offset, final long value) {
+        chunkOf(offset).putLong(offsetOf(offset), value);
+    }
+
+    private MappedByteBuffer chunkOf(final long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)];
+    }
+
+    private static int offsetOf(final long offset) {
+        return (int) (offset & CHUNK_MASK);
+    }
+
+    private static int hash(final String id) {
+        final int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
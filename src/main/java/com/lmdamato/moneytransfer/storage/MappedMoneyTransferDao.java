@@ -0,0 +1,78 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.storage.journal.JournalConfig;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The in-memory engine, with its accounts in a {@link MappedAccountTable} rather than on the heap: balances live in
+ * a memory-mapped file, so garbage collection does not slow down as accounts are added, and a restarted process finds
+ * them in the page cache instead of rebuilding them. Locking, journaling, read views and histories are the same.
+ *
+ * With a journal configured, the table is brought up to date on startup by replaying only the records newer than
+ * each account's sequence number, which the file keeps. Histories cover the changes applied since the process started.
+ */
+public class MappedMoneyTransferDao extends InMemoryMoneyTransferDao implements AutoCloseable {
+    // File holding the account table, created if it does not exist
+    public static final String FILE_PROPERTY = "moneytransfer.dao.mapped.file";
+    public static final String DEFAULT_FILE = "accounts.table";
+
+    // Number of accounts a new file has room for; an existing file keeps its own
+    public static final String CAPACITY_PROPERTY = "moneytransfer.dao.mapped.capacity";
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    @NonNull
+    private final MappedAccountTable table;
+
+    private MappedMoneyTransferDao(
+        @NonNull final MappedAccountTable table,
+        final int lockStripes,
+        @NonNull final Option<JournalConfig> journalConfig
+    ) {
+        super(new LongBalanceStore(table), lockStripes, journalConfig);
+        this.table = table;
+    }
+
+    public static MappedMoneyTransferDao fromSystemProperties() {
+        return Try
+            .of(() -> open(
+                Paths.get(System.getProperty(FILE_PROPERTY, DEFAULT_FILE)),
+                Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY),
+                Integer.getInteger(LOCK_STRIPES_PROPERTY, DEFAULT_LOCK_STRIPES),
+                JournalConfig.fromSystemProperties()
+            ))
+            .get();
+    }
+
+    // Opens the table in file, or creates it with room for capacity accounts, without a journal
+    public static MappedMoneyTransferDao open(@NonNull final Path file, final int capacity) throws IOException {
+        return open(file, capacity, DEFAULT_LOCK_STRIPES, Option.none());
+    }
+
+    static MappedMoneyTransferDao open(
+        @NonNull final Path file,
+        final int capacity,
+        final int lockStripes,
+        @NonNull final Option<JournalConfig> journalConfig
+    ) throws IOException {
+        final MappedAccountTable table = MappedAccountTable.open(file, capacity);
+
+        try {
+            return new MappedMoneyTransferDao(table, lockStripes, journalConfig);
+        } catch (RuntimeException e) {
+            table.close();
+            throw e;
+        }
+    }
+
+    // Writes the table back to its file; the engine must not be used afterwards
+    @Override
+    public void close() throws IOException {
+        table.close();
+    }
+}
@@ -1,13 +1,181 @@
 package com.lmdamato.moneytransfer.storage;
 
+import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
 import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
 import com.lmdamato.moneytransfer.model.User;
 import io.vavr.control.Try;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface MoneyTransferDao {
+    // Balance getBalances reports for a user that does not exist
+    long NO_BALANCE = Long.MIN_VALUE;
+
     Try<User> createUser(User user);
     Try<Money> getBalance(User user);
     Try<Void> deposit(User user, Money amount);
     Try<Void> withdraw(User user, Money amount);
     Try<Void> transfer(User from, User to, Money amount);
+
+    /**
+     * Creates the accounts of the users that do not exist yet, each with its opening balance in minor units,
+     * openingBalances[i] being that of users.get(i), and returns how many were created. Users that already exist
+     * are left as they are. An account is created along with its balance, but the batch is not atomic.
+     */
+    default Try<Integer> createUsers(final List<User> users, final long[] openingBalances) {
+        int created = 0;
+
+        for (int i = 0; i < users.size(); i++) {
+            final Try<User> user = createUser(users.get(i));
+
+            if (user.isFailure()) {
+                if (user.getCause() instanceof UserAlreadyExistsException) {
+                    continue;
+                }
+
+                return Try.failure(user.getCause());
+            }
+
+            created++;
+
+            if (openingBalances[i] > 0) {
+                final Try<Void> deposited = deposit(users.get(i), Money.ofMinorUnits(openingBalances[i]));
+                if (deposited.isFailure()) {
+                    return Try.failure(deposited.getCause());
+                }
+            }
+        }
+
+        return Try.success(created);
+    }
+
+    /**
+     * Balances of the users in minor units, in the same order, with NO_BALANCE for the users that do not exist.
+     * If consistent, they are all read as of the same moment, through a read view.
+     */
+    default Try<long[]> getBalances(final List<User> users, final boolean consistent) {
+        if (consistent) {
+            return openReadView().map(view -> {
+                try (final ReadView open = view) {
+                    return open.getBalances(users);
+                }
+            });
+        }
+
+        final long[] minorUnits = new long[users.size()];
+
+        for (int i = 0; i < minorUnits.length; i++) {
+            final Try<Money> balance = getBalance(users.get(i));
+
+            if (balance.isSuccess()) {
+                minorUnits[i] = balance.get().getMinorUnits();
+            } else if (balance.getCause() instanceof UserDoesNotExistException) {
+                minorUnits[i] = NO_BALANCE;
+            } else {
+                return Try.failure(balance.getCause());
+            }
+        }
+
+        return Try.success(minorUnits);
+    }
+
+    /**
+     * Asynchronous variants, which return as soon as the work is handed over and complete the future once the outcome
+     * is known, e.g., when an engine that applies mutations on its own threads, or waits for its journal, is done,
+     * so that callers need not hold a thread meanwhile. Failures are reported through the Try, as by the synchronous
+     * methods, which the defaults run, returning their outcome already completed.
+     */
+    default CompletableFuture<Try<User>> createUserAsync(final User user) {
+        return CompletableFuture.completedFuture(createUser(user));
+    }
+
+    default CompletableFuture<Try<Money>> getBalanceAsync(final User user) {
+        return CompletableFuture.completedFuture(getBalance(user));
+    }
+
+    default CompletableFuture<Try<long[]>> getBalancesAsync(final List<User> users, final boolean consistent) {
+        return CompletableFuture.completedFuture(getBalances(users, consistent));
+    }
+
+    default CompletableFuture<Try<Integer>> createUsersAsync(final List<User> users, final long[] openingBalances) {
+        return CompletableFuture.completedFuture(createUsers(users, openingBalances));
+    }
+
+    default CompletableFuture<Try<List<HistoryEntry>>> historyAsync(
+        final User user,
+        final long after,
+        final int limit
+    ) {
+        return CompletableFuture.completedFuture(history(user, after, limit));
+    }
+
+    default CompletableFuture<Try<Void>> depositAsync(final User user, final Money amount) {
+        return CompletableFuture.completedFuture(deposit(user, amount));
+    }
+
+    default CompletableFuture<Try<Void>> withdrawAsync(final User user, final Money amount) {
+        return CompletableFuture.completedFuture(withdraw(user, amount));
+    }
+
+    default CompletableFuture<Try<Void>> transferAsync(final User from, final User to, final Money amount) {
+        return CompletableFuture.completedFuture(transfer(from, to, amount));
+    }
+
+    default Try<List<Try<Void>>> transferBatch(final List<TransferLeg> legs, final boolean atomic) {
+        return transferBatchAsync(legs, atomic).join();
+    }
+
+    /**
+     * Applies the legs in order and returns one outcome per leg. If atomic, either every leg is applied or none is:
+     * the first leg that cannot be applied reports why, and every other leg fails with BatchAbortedException.
+     * Otherwise each leg is applied on its own, as if by transfer.
+     */
+    default CompletableFuture<Try<List<Try<Void>>>> transferBatchAsync(
+        final List<TransferLeg> legs,
+        final boolean atomic
+    ) {
+        if (atomic) {
+            return CompletableFuture.completedFuture(
+                Try.failure(new UnsupportedOperationException("Atomic batches are not supported by this engine"))
+            );
+        }
+
+        final List<Try<Void>> results = new ArrayList<>(legs.size());
+        CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+
+        // Each leg waits for the previous one, so a leg can spend what an earlier one credited
+        for (final TransferLeg leg : legs) {
+            previous = previous
+                .thenCompose(ignore -> transferAsync(leg.getFrom(), leg.getTo(), leg.getAmount()))
+                .thenAccept(results::add);
+        }
+
+        return previous.thenApply(ignore -> Try.success(results));
+    }
+
+    /**
+     * Up to limit changes to the user's balance, oldest first, starting right after the change numbered after
+     * (0 for the first page). Histories cover the changes applied since the process started.
+     */
+    default Try<List<HistoryEntry>> history(final User user, final long after, final int limit) {
+        return Try.failure(new UnsupportedOperationException("History is not kept by this engine"));
+    }
+
+    /**
+     * Opens a cursor over every account, which reads the live balances, or if consistent, every balance
+     * as of the same moment, through a read view.
+     */
+    default Try<AccountCursor> accounts(final boolean consistent) {
+        return Try.failure(new UnsupportedOperationException("Listing accounts is not supported by this engine"));
+    }
+
+    // Opens a consistent view of every balance as it stands now, which the caller must close once done
+    default Try<ReadView> openReadView() {
+        return Try.failure(new UnsupportedOperationException("Read views are not supported by this engine"));
+    }
 }
@@ -0,0 +1,25 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Try;
+
+import java.util.List;
+
+/**
+ * Every balance as it stood at the moment the view was opened, consistent across accounts: a transfer is either
+ * seen in full or not at all. Reading a view takes no lock, and writers go on changing the live balances meanwhile.
+ *
+ * Until a view is closed, the first change to each account after it was opened keeps the old balance for the view,
+ * so views are meant to be short-lived.
+ */
+public interface ReadView extends AutoCloseable {
+    // Fails with UserDoesNotExistException if the user did not exist yet when the view was opened
+    Try<Money> getBalance(User user);
+
+    // Like MoneyTransferDao.getBalances, in minor units and with NO_BALANCE for users that did not exist yet
+    long[] getBalances(List<User> users);
+
+    @Override
+    void close();
+}
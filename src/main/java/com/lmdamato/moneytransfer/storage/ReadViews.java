@@ -0,0 +1,184 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Try;
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Point-in-time read views over a LongBalanceStore, kept with epochs rather than locks.
+ *
+ * Writers apply each mutation within the current epoch, entered once they hold the locks of the accounts involved,
+ * and stamp every account they change with it. Opening a view ends the current epoch and waits for the mutations
+ * still applying in it, but for no other writer: from then on, the view sees every change made in its epoch or
+ * before, and none made after. The first change of a later epoch to an account keeps the balance it overwrites
+ * for every open view that could still see it, so a view reads the live balance of an account stamped no later
+ * than itself, and the kept one otherwise. A view read slot by slot, as exports do, lets go of each balance kept
+ * for it as its reader moves past the slot, and has none kept for slots it has passed.
+ */
+final class ReadViews {
+    // Counters of writers in the current and previous epochs, one per lock stripe modulo CELLS
+    private static final int CELLS = 64;
+
+    // Counters are spread 128 bytes apart, so that writers on different cells do not share a cache line
+    private static final int PADDING = 16;
+
+    private final LongBalanceStore balances;
+    private final AtomicLongArray writers = new AtomicLongArray(2 * CELLS * PADDING);
+
+    // Only opening a view moves the epoch forward, while holding this object's monitor
+    private volatile long epoch = 1;
+    private volatile View[] open = new View[0];
+
+    ReadViews(@NonNull final LongBalanceStore balances) {
+        this.balances = balances;
+    }
+
+    /**
+     * Enters the current epoch on behalf of a writer, which must hold the lock of every account it is about to
+     * change, stripe being any one of them, and must exit the epoch before releasing them.
+     */
+    long enter(final int stripe) {
+        while (true) {
+            final long current = epoch;
+            final int cell = cellOf(current, stripe);
+
+            writers.incrementAndGet(cell);
+            if (epoch == current) {
+                return current;
+            }
+
+            // A view ended the epoch in the meantime, without waiting for this writer
+            writers.decrementAndGet(cell);
+        }
+    }
+
+    void exit(final int stripe, final long epoch) {
+        writers.decrementAndGet(cellOf(epoch, stripe));
+    }
+
+    // Must be called before every change to the account's balance, by a writer that entered epoch
+    void beforeWrite(final int slot, final long epoch) {
+        final long stamp = balances.getStamp(slot);
+        if (stamp == epoch) {
+            return;
+        }
+
+        // The balance is the one every view opened since stamp sees, up to the views of this epoch, which see later
+        for (final View view : open) {
+            if (view.epoch >= stamp && view.epoch < epoch && slot >= view.keepFrom) {
+                view.keep(slot, balances.get(slot));
+            }
+        }
+
+        balances.setStamp(slot, epoch);
+    }
+
+    synchronized View open() {
+        final View view = new View(epoch);
+
+        // Registered first, so that any writer of a later epoch keeps balances for the view
+        final View[] registered = Arrays.copyOf(open, open.length + 1);
+        registered[open.length] = view;
+        open = registered;
+
+        epoch = view.epoch + 1;
+
+        // Writers still in the view's epoch hold their accounts' locks, so they are done within a single mutation
+        for (int stripe = 0; stripe < CELLS; stripe++) {
+            while (writers.get(cellOf(view.epoch, stripe)) != 0) {
+                Thread.yield();
+            }
+        }
+
+        return view;
+    }
+
+    private synchronized void close(final View view) {
+        open = Arrays.stream(open).filter(other -> other != view).toArray(View[]::new);
+    }
+
+    private static int cellOf(final long epoch, final int stripe) {
+        return ((int) (epoch & 1) * CELLS + (stripe & (CELLS - 1))) * PADDING;
+    }
+
+    final class View implements ReadView {
+        private final long epoch;
+
+        // Balances overwritten since the view was opened, as they were when it was
+        private final ConcurrentHashMap<Integer, Long> kept = new ConcurrentHashMap<>();
+
+        // First slot a reader walking the slots in order has not passed yet; balances are only kept from there on
+        private volatile int keepFrom;
+
+        private View(final long epoch) {
+            this.epoch = epoch;
+        }
+
+        @Override
+        public Try<Money> getBalance(@NonNull final User user) {
+            final int slot = balances.slotOf(user);
+            final long balance = slot == LongBalanceStore.MISSING ? MoneyTransferDao.NO_BALANCE : balanceOf(slot);
+
+            return balance == MoneyTransferDao.NO_BALANCE
+                ? Try.failure(new UserDoesNotExistException())
+                : Try.success(Money.ofMinorUnits(balance));
+        }
+
+        @Override
+        public long[] getBalances(@NonNull final List<User> users) {
+            final long[] minorUnits = new long[users.size()];
+
+            for (int i = 0; i < minorUnits.length; i++) {
+                final int slot = balances.slotOf(users.get(i));
+                minorUnits[i] = slot == LongBalanceStore.MISSING ? MoneyTransferDao.NO_BALANCE : balanceOf(slot);
+            }
+
+            return minorUnits;
+        }
+
+        /**
+         * The balance is read before the stamp, and a writer stamps the account before changing the balance,
+         * so a balance is never read from after the view unless the stamp read says so.
+         * Returns MoneyTransferDao.NO_BALANCE if the account did not exist yet when the view was opened.
+         */
+        long balanceOf(final int slot) {
+            final long balance = balances.get(slot);
+            if (balances.getStamp(slot) <= epoch) {
+                return balance;
+            }
+
+            // Nothing was kept if the account was created after the view was opened
+            return kept.getOrDefault(slot, MoneyTransferDao.NO_BALANCE);
+        }
+
+        /**
+         * Like balanceOf, for a reader walking the slots in order that will not read this slot or any earlier one
+         * again: their balances are no longer kept for the view. A writer that checked keepFrom just before it moved
+         * may still keep one, which stays until the view is closed.
+         */
+        long pass(final int slot) {
+            final long balance = balanceOf(slot);
+
+            keepFrom = slot + 1;
+            kept.remove(slot);
+
+            return balance;
+        }
+
+        private void keep(final int slot, final long balance) {
+            kept.putIfAbsent(slot, balance);
+        }
+
+        @Override
+        public void close() {
+            ReadViews.this.close(this);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.lmdamato.moneytransfer.storage;
+
+import lombok.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Bounded multi-producer, single-consumer ring of preallocated entries.
+ * Producers claim a sequence with {@link #next()}, fill the entry in place and {@link #publish(long)} it;
+ * the consumer reads entries in sequence order and {@link #release(long)}s them for reuse.
+ */
+public class RingBuffer<E> {
+    private final Object[] entries;
+    private final int mask;
+
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLongArray published;
+    private volatile long released = -1;
+
+    public RingBuffer(final int capacity, @NonNull final Supplier<E> factory) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+
+        this.entries = new Object[capacity];
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = factory.get();
+            published.set(i, -1);
+        }
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    // Last sequence handed out to a producer, -1 if none
+    public long claimed() {
+        return claimed.get();
+    }
+
+    // Blocks while the ring is full, so a claimed command is never dropped
+    public long next() {
+        return next(1);
+    }
+
+    // Claims n consecutive sequences and returns the first of them
+    public long next(final int n) {
+        if (n < 1 || n > entries.length) {
+            throw new IllegalArgumentException("Cannot claim " + n + " entries");
+        }
+
+        final long last = claimed.addAndGet(n);
+
+        int idle = 0;
+        while (last - entries.length > released) {
+            idle = backoff(idle);
+        }
+
+        return last - n + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(final long seq) {
+        return (E) entries[(int) seq & mask];
+    }
+
+    public void publish(final long seq) {
+        published.set((int) seq & mask, seq);
+    }
+
+    public boolean isPublished(final long seq) {
+        return published.get((int) seq & mask) == seq;
+    }
+
+    // Called by the consumer only, once the entry at seq and all before it have been processed
+    public void release(final long seq) {
+        released = seq;
+    }
+
+    // Spin, then yield, then park; returns the updated idle counter
+    public static int backoff(final int idle) {
+        if (idle >= 200) {
+            LockSupport.parkNanos(50_000L);
+        } else if (idle >= 100) {
+            Thread.yield();
+        }
+
+        return idle + 1;
+    }
+}
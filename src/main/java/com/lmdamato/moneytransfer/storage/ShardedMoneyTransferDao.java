@@ -0,0 +1,552 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
+import com.lmdamato.moneytransfer.exception.InvalidUserIdException;
+import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-writer engine: accounts are partitioned across shards, and each shard applies every mutation
+ * of its accounts on its own thread, in the order commands were published to its ring buffer, without locks.
+ *
+ * A transfer between accounts of different shards is debited by the sending shard, which then hands
+ * the credit to the receiving shard through an unbounded hand-off queue. Shards never block on each other,
+ * so the credit can neither be dropped nor deadlock; the caller's future completes once the credit is applied.
+ *
+ * Closing stops the shards, then fails every command still waiting in a ring without applying it, and applies every
+ * credit still waiting in a hand-off queue, so that no future is left incomplete and no debited amount is lost.
+ * Commands published once the engine is closed fail straight away.
+ */
+public class ShardedMoneyTransferDao implements MoneyTransferDao, AutoCloseable {
+    public static final String SHARDS_PROPERTY = "moneytransfer.dao.shards";
+    public static final String RING_CAPACITY_PROPERTY = "moneytransfer.dao.ringCapacity";
+    public static final int DEFAULT_RING_CAPACITY = 1 << 14;
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedMoneyTransferDao.class.getName());
+
+    private static final Try<Void> SUCCESS = Try.success(null);
+
+    private final Shard[] shards;
+
+    // Set once the shards have stopped; commands are failed from then on instead of applied
+    private volatile boolean closed;
+
+    public ShardedMoneyTransferDao() {
+        this(
+            Integer.getInteger(SHARDS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger(RING_CAPACITY_PROPERTY, DEFAULT_RING_CAPACITY)
+        );
+    }
+
+    public ShardedMoneyTransferDao(final int shardCount, final int ringCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Number of shards must be positive");
+        }
+
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, ringCapacity);
+        }
+
+        for (final Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @Override
+    public Try<User> createUser(@NonNull final User user) {
+        return createUserAsync(user).join();
+    }
+
+    @Override
+    public CompletableFuture<Try<User>> createUserAsync(@NonNull final User user) {
+        if (!User.isValidId(user.getId())) {
+            return CompletableFuture.completedFuture(Try.failure(new InvalidUserIdException()));
+        }
+
+        final CompletableFuture<Try<User>> result = new CompletableFuture<>();
+        shardOf(user).publish(CommandType.CREATE, user, null, 0L, result);
+
+        return result;
+    }
+
+    @Override
+    public Try<Money> getBalance(@NonNull final User user) {
+        // Balances are volatile cells written only by the owning shard, so reads need no coordination
+        final LongBalanceStore balances = shardOf(user).balances;
+        final int slot = balances.slotOf(user);
+
+        return slot == LongBalanceStore.MISSING
+            ? Try.failure(new UserDoesNotExistException())
+            : Try.success(Money.ofMinorUnits(balances.get(slot)));
+    }
+
+    // Read views are not supported, so only inconsistent lookups are made in a single pass
+    @Override
+    public Try<long[]> getBalances(@NonNull final List<User> users, final boolean consistent) {
+        if (consistent) {
+            return MoneyTransferDao.super.getBalances(users, true);
+        }
+
+        final long[] minorUnits = new long[users.size()];
+
+        for (int i = 0; i < minorUnits.length; i++) {
+            final LongBalanceStore balances = shardOf(users.get(i)).balances;
+            final int slot = balances.slotOf(users.get(i));
+
+            minorUnits[i] = slot == LongBalanceStore.MISSING ? NO_BALANCE : balances.get(slot);
+        }
+
+        return Try.success(minorUnits);
+    }
+
+    // Shards are walked one after the other; like getBalances, only the live balances can be read
+    @Override
+    public Try<AccountCursor> accounts(final boolean consistent) {
+        if (consistent) {
+            return MoneyTransferDao.super.accounts(true);
+        }
+
+        final LongBalanceStore[] stores = new LongBalanceStore[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            stores[i] = shards[i].balances;
+        }
+
+        return Try.success(new SlotCursor(stores, LongBalanceStore::get, () -> { }));
+    }
+
+    @Override
+    public Try<Void> deposit(@NonNull final User user, @NonNull final Money amount) {
+        return depositAsync(user, amount).join();
+    }
+
+    @Override
+    public Try<Void> withdraw(@NonNull final User user, @NonNull final Money amount) {
+        return withdrawAsync(user, amount).join();
+    }
+
+    @Override
+    public Try<Void> transfer(@NonNull final User from, @NonNull final User to, @NonNull final Money amount) {
+        return transferAsync(from, to, amount).join();
+    }
+
+    @Override
+    public CompletableFuture<Try<Void>> depositAsync(@NonNull final User user, @NonNull final Money amount) {
+        final CompletableFuture<Try<Void>> result = new CompletableFuture<>();
+        shardOf(user).publish(CommandType.DEPOSIT, user, null, amount.getMinorUnits(), result);
+
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Try<Void>> withdrawAsync(@NonNull final User user, @NonNull final Money amount) {
+        final CompletableFuture<Try<Void>> result = new CompletableFuture<>();
+        shardOf(user).publish(CommandType.WITHDRAW, user, null, amount.getMinorUnits(), result);
+
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Try<Void>> transferAsync(
+        @NonNull final User from,
+        @NonNull final User to,
+        @NonNull final Money amount
+    ) {
+        final CompletableFuture<Try<Void>> result = new CompletableFuture<>();
+        shardOf(from).publish(CommandType.TRANSFER, from, to, amount.getMinorUnits(), result);
+
+        return result;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (final Shard shard : shards) {
+            shard.running = false;
+        }
+
+        for (final Shard shard : shards) {
+            shard.thread.join();
+        }
+
+        // Publishers check this after publishing, so each command left is either failed below or by its publisher
+        closed = true;
+
+        for (final Shard shard : shards) {
+            shard.failPending();
+        }
+
+        // No command runs any more, so only the refunds of failed credits can add more credits
+        boolean worked = true;
+        while (worked) {
+            worked = false;
+
+            for (final Shard shard : shards) {
+                worked |= shard.applyCredits();
+            }
+        }
+    }
+
+    @Override
+    public Try<List<HistoryEntry>> history(@NonNull final User user, final long after, final int limit) {
+        // Like balances, histories are only appended to by the owning shard, and can be read from any thread
+        final LongBalanceStore balances = shardOf(user).balances;
+        final int slot = balances.slotOf(user);
+
+        return slot == LongBalanceStore.MISSING
+            ? Try.failure(new UserDoesNotExistException())
+            : Try.success(balances.history(slot, after, limit, this::counterparty));
+    }
+
+    private Option<User> counterparty(final long reference) {
+        return Option.of(shards[(int) (reference >>> 32)].balances.userOf((int) reference));
+    }
+
+    private Shard shardOf(@NonNull final User user) {
+        final int h = user.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    private enum CommandType {
+        CREATE, DEPOSIT, WITHDRAW, TRANSFER
+    }
+
+    // Preallocated ring entry, overwritten in place by producers
+    private static final class Command {
+        CommandType type;
+        User user;
+        User counterparty;
+        long amount;
+        CompletableFuture<?> result;
+
+        void clear() {
+            user = null;
+            counterparty = null;
+            result = null;
+        }
+    }
+
+    // Second half of a cross-shard transfer, or the refund of its first half if the credit cannot be applied
+    @RequiredArgsConstructor
+    private static final class Credit {
+        final User user;
+        final long amount;
+
+        // The sender of a transfer, or the account a refunded transfer could not be credited to
+        final User counterparty;
+        final boolean refund;
+        final CompletableFuture<Try<Void>> result;
+    }
+
+    private final class Shard implements Runnable {
+        private final RingBuffer<Command> ring;
+        private final Queue<Credit> credits = new ConcurrentLinkedQueue<>();
+        private final LongBalanceStore balances = new LongBalanceStore();
+        private final Thread thread;
+        private final int index;
+        private volatile boolean running = true;
+
+        // Sequence of the next command to apply; read by close once the thread has stopped
+        private long next;
+
+        Shard(final int index, final int ringCapacity) {
+            this.index = index;
+            ring = new RingBuffer<>(ringCapacity, Command::new);
+            thread = new Thread(this, "dao-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void publish(
+            final CommandType type,
+            final User user,
+            final User counterparty,
+            final long amount,
+            final CompletableFuture<?> result
+        ) {
+            if (closed) {
+                fail(result);
+                return;
+            }
+
+            final long seq = ring.next();
+            final Command command = ring.get(seq);
+
+            command.type = type;
+            command.user = user;
+            command.counterparty = counterparty;
+            command.amount = amount;
+            command.result = result;
+
+            ring.publish(seq);
+
+            // Closed in the meantime, after close had failed the commands it could see: nobody else fails this one
+            if (closed) {
+                fail(result);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+
+            while (running) {
+                final boolean worked = applyCredits() | applyCommands();
+                idle = worked ? 0 : RingBuffer.backoff(idle);
+            }
+        }
+
+        // Applies the credits handed over so far; false if there were none
+        boolean applyCredits() {
+            boolean worked = false;
+
+            Credit credit;
+            while ((credit = credits.poll()) != null) {
+                try {
+                    applyCredit(credit);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Credit of " + credit.amount + " to " + credit.user + " failed", e);
+
+                    if (credit.result != null) {
+                        credit.result.complete(Try.failure(e));
+                    }
+                }
+                worked = true;
+            }
+
+            return worked;
+        }
+
+        // Applies the commands published so far, each failing on its own if it throws; false if there were none
+        private boolean applyCommands() {
+            boolean worked = false;
+
+            while (ring.isPublished(next)) {
+                final Command command = ring.get(next);
+                try {
+                    apply(command);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Command " + command.type + " for " + command.user + " failed", e);
+                    fail(command.result, e);
+                }
+                command.clear();
+                ring.release(next++);
+                worked = true;
+            }
+
+            return worked;
+        }
+
+        // Called by close once the thread has stopped: fails every command claimed so far, waiting for its publisher
+        void failPending() {
+            int idle = 0;
+
+            while (next <= ring.claimed()) {
+                if (!ring.isPublished(next)) {
+                    idle = RingBuffer.backoff(idle);
+                    continue;
+                }
+
+                final Command command = ring.get(next);
+                fail(command.result);
+                command.clear();
+                ring.release(next++);
+                idle = 0;
+            }
+        }
+
+        private void fail(final CompletableFuture<?> result) {
+            fail(result, new IllegalStateException("The engine is closed"));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void fail(final CompletableFuture<?> result, final Throwable e) {
+            ((CompletableFuture<Try<?>>) result).complete(Try.failure(e));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void apply(final Command command) {
+            switch (command.type) {
+                case CREATE:
+                    ((CompletableFuture<Try<User>>) command.result).complete(
+                        balances.create(command.user) != LongBalanceStore.MISSING
+                            ? Try.success(command.user)
+                            : Try.failure(new UserAlreadyExistsException())
+                    );
+                    break;
+                case DEPOSIT:
+                    complete(command, deposit(command.user, command.amount, HistoryEntry.Type.DEPOSIT, null));
+                    break;
+                case WITHDRAW:
+                    complete(command, withdraw(command.user, command.amount));
+                    break;
+                case TRANSFER:
+                    transfer(command);
+                    break;
+                default:
+                    complete(command, Try.failure(new IllegalStateException("Unknown command " + command.type)));
+            }
+        }
+
+        // Credits the account, recording the change as the given type with the given counterparty, if any
+        private Try<Void> deposit(
+            final User user,
+            final long amount,
+            final HistoryEntry.Type type,
+            final User counterparty
+        ) {
+            final int slot = balances.slotOf(user);
+            if (slot == LongBalanceStore.MISSING) {
+                return Try.failure(new UserDoesNotExistException());
+            }
+
+            if (balances.get(slot) > Long.MAX_VALUE - amount) {
+                return Try.failure(new ArithmeticException("long overflow"));
+            }
+
+            balances.set(slot, balances.get(slot) + amount);
+            balances.appendHistory(
+                slot,
+                type,
+                amount,
+                counterparty == null ? LongBalanceStore.NO_COUNTERPARTY : referenceOf(counterparty),
+                System.currentTimeMillis()
+            );
+
+            return SUCCESS;
+        }
+
+        private Try<Void> withdraw(final User user, final long amount) {
+            final int slot = balances.slotOf(user);
+            if (slot == LongBalanceStore.MISSING) {
+                return Try.failure(new UserDoesNotExistException());
+            }
+
+            if (balances.get(slot) < amount) {
+                return Try.failure(new InsufficientFundsException());
+            }
+
+            balances.set(slot, balances.get(slot) - amount);
+            balances.appendHistory(
+                slot,
+                HistoryEntry.Type.WITHDRAW,
+                amount,
+                LongBalanceStore.NO_COUNTERPARTY,
+                System.currentTimeMillis()
+            );
+
+            return SUCCESS;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void transfer(final Command command) {
+            final CompletableFuture<Try<Void>> result = (CompletableFuture<Try<Void>>) command.result;
+            final int fromSlot = balances.slotOf(command.user);
+
+            if (fromSlot == LongBalanceStore.MISSING) {                         // Sending user exists
+                result.complete(Try.failure(new UserDoesNotExistException()));
+            } else if (balances.get(fromSlot) < command.amount) {               // Sending user has enough funds
+                result.complete(Try.failure(new InsufficientFundsException()));
+            } else {
+                final Shard target = shardOf(command.counterparty);
+
+                if (target == this) {
+                    // Both legs are applied in the same step
+                    final int toSlot = balances.slotOf(command.counterparty);
+
+                    if (toSlot == LongBalanceStore.MISSING) {
+                        result.complete(Try.failure(new UserDoesNotExistException()));
+                    } else if (toSlot != fromSlot && balances.get(toSlot) > Long.MAX_VALUE - command.amount) {
+                        result.complete(Try.failure(new ArithmeticException("long overflow")));
+                    } else {
+                        balances.set(fromSlot, balances.get(fromSlot) - command.amount);
+                        balances.set(toSlot, balances.get(toSlot) + command.amount);
+
+                        // A transfer to oneself changes nothing and is not recorded
+                        if (toSlot != fromSlot) {
+                            final long timestamp = System.currentTimeMillis();
+                            final long amount = command.amount;
+
+                            balances.appendHistory(
+                                fromSlot, HistoryEntry.Type.TRANSFER_OUT, amount, reference(this, toSlot), timestamp
+                            );
+                            balances.appendHistory(
+                                toSlot, HistoryEntry.Type.TRANSFER_IN, amount, reference(this, fromSlot), timestamp
+                            );
+                        }
+
+                        result.complete(SUCCESS);
+                    }
+                } else {
+                    final int toSlot = target.balances.slotOf(command.counterparty);
+
+                    if (toSlot == LongBalanceStore.MISSING) {                   // Receiving user exists
+                        // Accounts are never removed, so an account seen here is still there when the credit arrives
+                        result.complete(Try.failure(new UserDoesNotExistException()));
+                    } else {
+                        balances.set(fromSlot, balances.get(fromSlot) - command.amount);
+                        balances.appendHistory(
+                            fromSlot,
+                            HistoryEntry.Type.TRANSFER_OUT,
+                            command.amount,
+                            reference(target, toSlot),
+                            System.currentTimeMillis()
+                        );
+                        target.credits.add(
+                            new Credit(command.counterparty, command.amount, command.user, false, result)
+                        );
+                    }
+                }
+            }
+        }
+
+        private void applyCredit(final Credit credit) {
+            final Try<Void> outcome = deposit(
+                credit.user,
+                credit.amount,
+                credit.refund ? HistoryEntry.Type.REFUND : HistoryEntry.Type.TRANSFER_IN,
+                credit.counterparty
+            );
+
+            if (outcome.isFailure() && !credit.refund) {
+                // Give the debited amount back to the sender before reporting the failed credit
+                shardOf(credit.counterparty).credits.add(
+                    new Credit(credit.counterparty, credit.amount, credit.user, true, null)
+                );
+            }
+
+            if (credit.result != null) {
+                credit.result.complete(outcome);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(final Command command, final Try<Void> outcome) {
+            ((CompletableFuture<Try<Void>>) command.result).complete(outcome);
+        }
+
+        // Counterparties of history entries are recorded as their shard's index and their slot in it
+        private long reference(final Shard shard, final int slot) {
+            return ((long) shard.index << 32) | slot;
+        }
+
+        // The account must exist; accounts are never removed
+        private long referenceOf(final User user) {
+            final Shard shard = shardOf(user);
+
+            return reference(shard, shard.balances.slotOf(user));
+        }
+    }
+}
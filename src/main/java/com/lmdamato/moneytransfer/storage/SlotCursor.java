@@ -0,0 +1,65 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.User;
+import lombok.NonNull;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Walks the slots of one or more stores in order, reading balances through reader without taking any lock.
+ * Accounts still being created, and those the reader has no balance for, are skipped.
+ */
+final class SlotCursor implements AccountCursor {
+    interface BalanceReader {
+        // Returns MoneyTransferDao.NO_BALANCE for an account to skip
+        long balanceOf(LongBalanceStore store, int slot);
+    }
+
+    private final LongBalanceStore[] stores;
+    private final BalanceReader reader;
+    private final Runnable onClose;
+
+    private int store;
+    private int slot;
+
+    SlotCursor(
+        @NonNull final LongBalanceStore[] stores,
+        @NonNull final BalanceReader reader,
+        @NonNull final Runnable onClose
+    ) {
+        this.stores = stores;
+        this.reader = reader;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean next(final int max, @NonNull final ObjLongConsumer<User> visitor) {
+        int passed = 0;
+
+        for (; store < stores.length; store++, slot = 0) {
+            final LongBalanceStore current = stores[store];
+
+            // Accounts created meanwhile are passed too, if the reader has a balance for them
+            for (; slot < current.size(); slot++) {
+                if (passed == max) {
+                    return true;
+                }
+
+                final User user = current.userOf(slot);
+                final long balance = user == null ? MoneyTransferDao.NO_BALANCE : reader.balanceOf(current, slot);
+
+                if (balance != MoneyTransferDao.NO_BALANCE) {
+                    visitor.accept(user, balance);
+                    passed++;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public void close() {
+        onClose.run();
+    }
+}
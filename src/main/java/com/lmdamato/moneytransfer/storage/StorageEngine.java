@@ -0,0 +1,41 @@
+package com.lmdamato.moneytransfer.storage;
+
+import lombok.NonNull;
+
+public enum StorageEngine {
+    // Shared account map with striped locks
+    IN_MEMORY {
+        @Override
+        public MoneyTransferDao create() {
+            return InMemoryMoneyTransferDao.getInstance();
+        }
+    },
+
+    // Single-writer shards fed through ring buffers
+    SHARDED {
+        @Override
+        public MoneyTransferDao create() {
+            return new ShardedMoneyTransferDao();
+        }
+    },
+
+    // Shared account table in a memory-mapped file, with striped locks
+    MAPPED {
+        @Override
+        public MoneyTransferDao create() {
+            return MappedMoneyTransferDao.fromSystemProperties();
+        }
+    };
+
+    public static final String PROPERTY = "moneytransfer.dao.engine";
+
+    public abstract MoneyTransferDao create();
+
+    public static StorageEngine fromSystemProperties() {
+        return fromName(System.getProperty(PROPERTY, IN_MEMORY.name()));
+    }
+
+    public static StorageEngine fromName(@NonNull final String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
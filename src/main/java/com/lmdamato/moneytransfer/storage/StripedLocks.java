@@ -0,0 +1,135 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.metrics.Metrics;
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks, each guarding the accounts whose key hashes to it.
+ * Several stripes are always acquired in ascending index order, so two transfers
+ * running in opposite directions cannot deadlock.
+ *
+ * Time spent waiting for locks and holding them is recorded in {@link Metrics#LOCK_WAIT} and {@link Metrics#LOCK_HOLD};
+ * an acquisition that does not have to wait reads no clock.
+ */
+public class StripedLocks {
+    // Acquisition times are spaced a cache line apart, so that threads holding neighbouring stripes do not share one
+    private static final int PADDING_SHIFT = 3;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    // When the lowest stripe of each group acquired together was last acquired, written and read by its holder only
+    private final long[] acquiredAt;
+
+    public StripedLocks(final int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        this.acquiredAt = new long[size << PADDING_SHIFT];
+
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public int size() {
+        return locks.length;
+    }
+
+    public int stripeOf(@NonNull final Object key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void lock(final int stripe) {
+        acquire(stripe);
+        acquired(stripe);
+    }
+
+    public void unlock(final int stripe) {
+        releasing(stripe);
+        locks[stripe].unlock();
+    }
+
+    public void lockPair(final int s1, final int s2) {
+        if (s1 == s2) {
+            acquire(s1);
+        } else if (s1 < s2) {
+            acquire(s1);
+            acquire(s2);
+        } else {
+            acquire(s2);
+            acquire(s1);
+        }
+
+        acquired(Math.min(s1, s2));
+    }
+
+    public void unlockPair(final int s1, final int s2) {
+        releasing(Math.min(s1, s2));
+        locks[s1].unlock();
+
+        if (s1 != s2) {
+            locks[s2].unlock();
+        }
+    }
+
+    // Distinct stripes of the keys, in the order lockAll acquires them
+    public int[] stripesOf(@NonNull final Collection<?> keys) {
+        return keys.stream().mapToInt(this::stripeOf).sorted().distinct().toArray();
+    }
+
+    // Stripes must be distinct and sorted in ascending order, as returned by stripesOf
+    public void lockAll(@NonNull final int[] stripes) {
+        for (final int stripe : stripes) {
+            acquire(stripe);
+        }
+
+        if (stripes.length > 0) {
+            acquired(stripes[0]);
+        }
+    }
+
+    public void unlockAll(@NonNull final int[] stripes) {
+        if (stripes.length > 0) {
+            releasing(stripes[0]);
+        }
+
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    // Only a thread that finds the lock taken reads the clock to time its wait
+    private void acquire(final int stripe) {
+        final ReentrantLock lock = locks[stripe];
+
+        if (lock.tryLock()) {
+            Metrics.LOCK_WAIT.record(0L);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        lock.lock();
+        Metrics.LOCK_WAIT.record(System.nanoTime() - start);
+    }
+
+    private void acquired(final int firstStripe) {
+        acquiredAt[firstStripe << PADDING_SHIFT] = System.nanoTime();
+    }
+
+    private void releasing(final int firstStripe) {
+        Metrics.LOCK_HOLD.record(System.nanoTime() - acquiredAt[firstStripe << PADDING_SHIFT]);
+    }
+}
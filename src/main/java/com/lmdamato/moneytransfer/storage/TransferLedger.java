@@ -0,0 +1,83 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The steps a node takes in transfers between accounts on different nodes, kept by the engine together with
+ * the balances they change, and journaled along with them, so that they survive a restart of the node.
+ *
+ * On the payer's node, a reservation holds the amount withdrawn for a transfer until the transfer is settled,
+ * by confirming or releasing it, and then until the payee's node has been told so, when it is forgotten.
+ * On the payee's node, a decision records whether the transfer was credited or aborted, whichever came first,
+ * until the payer's node acknowledges that it settled the transfer accordingly.
+ *
+ * Each step returns once it is durable, and so does every decision reported: a step that cannot be made durable
+ * fails, and whether it took effect is only known once the node has restarted and replayed its journal.
+ */
+public interface TransferLedger {
+    enum Outcome {
+        CREDITED,
+        ABORTED
+    }
+
+    @Value
+    class Reservation {
+        @NonNull
+        private final String txId;
+
+        @NonNull
+        private final User from;
+
+        private final long amount;
+
+        // Base URL of the node owning the payee, which decides whether the transfer went through
+        @NonNull
+        private final String destination;
+
+        private final long reservedAtMillis;
+
+        // When the reservation was confirmed or released, 0 until then
+        private final long settledAtMillis;
+
+        public boolean isSettled() {
+            return settledAtMillis > 0;
+        }
+    }
+
+    /**
+     * Withdraws the amount from the payer and holds it for the transfer; fails with TransferAlreadyReservedException
+     * if the transfer was reserved before, even if it has been settled since.
+     */
+    Try<Void> reserve(String txId, User from, Money amount, String destination);
+
+    // Settles the reservation, the payee having been credited; does nothing if it is already settled, or unknown
+    Try<Void> confirm(String txId);
+
+    // Settles the reservation by depositing the amount back; does nothing if it is already settled, or unknown
+    Try<Void> release(String txId);
+
+    // Drops a settled reservation, once the payee's node has acknowledged its settlement
+    Try<Void> forget(String txId);
+
+    // Every reservation held, settled or not
+    List<Reservation> reservations();
+
+    /**
+     * Deposits the amount and decides that the transfer went through, unless it was decided before, and reports
+     * the decision. If the deposit is refused, e.g., because the payee does not exist, the transfer is aborted,
+     * and the failure reported.
+     */
+    Try<Outcome> credit(String txId, User to, Money amount);
+
+    // Decides that the transfer did not go through, unless it was decided before, and reports the decision
+    Try<Outcome> abort(String txId);
+
+    // Forgets the decision, the payer's node having settled the transfer accordingly
+    Try<Void> acknowledge(String txId);
+}
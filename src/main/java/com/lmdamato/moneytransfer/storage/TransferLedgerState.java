@@ -0,0 +1,156 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.TransferLedger.Outcome;
+import com.lmdamato.moneytransfer.storage.TransferLedger.Reservation;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecord;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecordType;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reservations and decisions of a {@link TransferLedger}, as the journal records of its steps leave them: the engine
+ * applies each step's record once it has journaled it, and replay does the same, so both take the same path.
+ * Balances are left to the engine. Snapshots hold the ledger as the records that rebuild it.
+ *
+ * Each method is atomic; callers that need several of them to be, synchronize on the instance.
+ */
+final class TransferLedgerState {
+    @Value
+    static class Decision {
+        @NonNull
+        private final Outcome outcome;
+
+        // Sequence number of the record that made the decision, which must be durable before it is reported
+        private final long seq;
+    }
+
+    private final Map<String, Reservation> reservations = new HashMap<>();
+    private final Map<String, Decision> decisions = new HashMap<>();
+
+    // The ROUTE record of the reservation whose RESERVE record comes next, if any
+    private JournalRecord route;
+
+    static boolean isStep(@NonNull final JournalRecordType type) {
+        return type.compareTo(JournalRecordType.ROUTE) >= 0;
+    }
+
+    // Whether a step changes the balance of the account it names as userId, its counterpartyId naming the transfer
+    static boolean changesBalance(@NonNull final JournalRecordType type) {
+        return type == JournalRecordType.RESERVE
+            || type == JournalRecordType.RELEASE
+            || type == JournalRecordType.CREDIT;
+    }
+
+    // The transfer a step belongs to
+    static String txIdOf(@NonNull final JournalRecord record) {
+        return changesBalance(record.getType()) ? record.getCounterpartyId() : record.getUserId();
+    }
+
+    synchronized Reservation reservation(@NonNull final String txId) {
+        return reservations.get(txId);
+    }
+
+    synchronized List<Reservation> reservations() {
+        return new ArrayList<>(reservations.values());
+    }
+
+    synchronized Decision decision(@NonNull final String txId) {
+        return decisions.get(txId);
+    }
+
+    // Forgets every reservation and decision, e.g., before rebuilding the ledger from scratch
+    synchronized void clear() {
+        reservations.clear();
+        decisions.clear();
+        route = null;
+    }
+
+    synchronized void apply(@NonNull final JournalRecord record) {
+        final String txId = txIdOf(record);
+        final long now = System.currentTimeMillis();
+
+        switch (record.getType()) {
+            case ROUTE:
+                route = record;
+                return;
+            case RESERVE:
+                // A follower may start streaming in between, and never settles transfers anyway
+                if (route != null && route.getUserId().equals(txId)) {
+                    reservations.put(txId, new Reservation(
+                        txId,
+                        new User(record.getUserId()),
+                        record.getAmount(),
+                        route.getCounterpartyId(),
+                        now,
+                        0L
+                    ));
+                }
+                break;
+            case CONFIRM:
+            case RELEASE:
+                reservations.computeIfPresent(txId, (id, reservation) -> reservation.isSettled()
+                    ? reservation
+                    : new Reservation(
+                        id,
+                        reservation.getFrom(),
+                        reservation.getAmount(),
+                        reservation.getDestination(),
+                        reservation.getReservedAtMillis(),
+                        now
+                    ));
+                break;
+            case FORGET:
+                reservations.remove(txId);
+                break;
+            case CREDIT:
+                decisions.put(txId, new Decision(Outcome.CREDITED, record.getSeq()));
+                break;
+            case ABORT:
+                decisions.putIfAbsent(txId, new Decision(Outcome.ABORTED, record.getSeq()));
+                break;
+            case ACKNOWLEDGE:
+                decisions.remove(txId);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a transfer step: " + record.getType());
+        }
+
+        route = null;
+    }
+
+    /**
+     * Records that rebuild the ledger as it stands, when applied in order to an empty one, with no regard
+     * for balances: their user ids and amounts are only meaningful to the ledger.
+     */
+    synchronized List<JournalRecord> records() {
+        final List<JournalRecord> records = new ArrayList<>(reservations.size() * 2 + decisions.size());
+
+        reservations.forEach((txId, reservation) -> {
+            records.add(new JournalRecord(0L, JournalRecordType.ROUTE, txId, reservation.getDestination(), 0L));
+            records.add(new JournalRecord(
+                0L,
+                JournalRecordType.RESERVE,
+                reservation.getFrom().getId(),
+                txId,
+                reservation.getAmount()
+            ));
+
+            if (reservation.isSettled()) {
+                records.add(new JournalRecord(0L, JournalRecordType.CONFIRM, txId, null, 0L));
+            }
+        });
+
+        decisions.forEach((txId, decision) -> records.add(decision.getOutcome() == Outcome.CREDITED
+            ? new JournalRecord(decision.getSeq(), JournalRecordType.CREDIT, "", txId, 0L)
+            : new JournalRecord(decision.getSeq(), JournalRecordType.ABORT, txId, null, 0L)
+        ));
+
+        return records;
+    }
+}
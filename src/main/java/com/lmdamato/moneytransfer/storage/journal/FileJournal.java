@@ -0,0 +1,495 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import com.lmdamato.moneytransfer.metrics.Metrics;
+import com.lmdamato.moneytransfer.model.TransferLeg;
+import com.lmdamato.moneytransfer.storage.RingBuffer;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal with group commit, split into segment files named after their first sequence number.
+ *
+ * Appenders claim a slot in a ring buffer, which fixes the record's sequence number, and return immediately.
+ * A single committer thread writes every record published since the previous fsync with one write
+ * and one {@link FileChannel#force(boolean)}, waiting at most maxBatchDelayMicros for more records to join
+ * the batch, and only then completes the records' futures.
+ */
+public class FileJournal implements Journal {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Path dir;
+    private final RingBuffer<Entry> ring;
+    private final long firstSeq;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final long segmentBytes;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final Thread committer;
+
+    // First sequence numbers of the segments on disk, oldest first; the last one is being appended to
+    private final List<Long> segments;
+    private FileChannel channel;
+
+    // Records of the current all-or-nothing batch not written yet; a segment never ends in the middle of a batch
+    private long batchRemaining;
+
+    private volatile long durableSeq;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    private FileJournal(
+        @NonNull final JournalConfig config,
+        @NonNull final List<Long> segments,
+        @NonNull final FileChannel channel,
+        final long lastSeq
+    ) {
+        this.dir = config.getDir();
+        this.segments = segments;
+        this.channel = channel;
+        this.ring = new RingBuffer<>(config.getRingCapacity(), Entry::new);
+        this.firstSeq = lastSeq + 1;
+        this.durableSeq = lastSeq;
+        this.maxBatchSize = Math.max(1, Math.min(config.getMaxBatchSize(), config.getRingCapacity()));
+        this.maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.getMaxBatchDelayMicros());
+        this.segmentBytes = config.getSegmentBytes();
+        this.committer = new Thread(this::commitLoop, "journal-committer");
+        this.committer.setDaemon(true);
+    }
+
+    public static FileJournal open(
+        @NonNull final JournalConfig config,
+        @NonNull final Consumer<JournalRecord> replay
+    ) throws IOException {
+        return open(config, 0L, replay);
+    }
+
+    /**
+     * Replays every intact record after afterSeq, e.g., the start of the snapshot the state was loaded from,
+     * truncates a torn tail left by a crash, and opens the journal for appending after the last record.
+     * Segments holding only records up to afterSeq are not read at all.
+     */
+    public static FileJournal open(
+        @NonNull final JournalConfig config,
+        final long afterSeq,
+        @NonNull final Consumer<JournalRecord> replay
+    ) throws IOException {
+        final Path dir = config.getDir();
+        Files.createDirectories(dir);
+
+        final List<Long> segments = listSegments(dir);
+        if (segments.isEmpty()) {
+            segments.add(afterSeq + 1);
+        }
+
+        long lastSeq = Math.max(afterSeq, segments.get(segments.size() - 1) - 1);
+        FileChannel channel = null;
+
+        for (int i = 0; i < segments.size(); i++) {
+            final boolean last = i == segments.size() - 1;
+
+            if (!last && segments.get(i + 1) <= afterSeq + 1) {
+                continue;
+            }
+
+            channel = FileChannel.open(
+                segmentPath(dir, segments.get(i)),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            );
+
+            final long valid = replay(channel, afterSeq, replay);
+            lastSeq = Math.max(lastSeq, valid < 0 ? lastSeq : valid);
+
+            if (last) {
+                // Drop whatever follows the last intact record
+                channel.truncate(channel.position());
+            } else {
+                final boolean intact = channel.position() == channel.size();
+                channel.close();
+
+                if (!intact) {
+                    throw new IOException("Corrupt journal segment " + segmentPath(dir, segments.get(i)));
+                }
+            }
+        }
+
+        final FileJournal journal = new FileJournal(config, segments, channel, lastSeq);
+        journal.committer.start();
+
+        return journal;
+    }
+
+    // Path of the segment whose first record has sequence number firstSeq
+    static Path segmentPath(@NonNull final Path dir, final long firstSeq) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    @Override
+    public long append(
+        @NonNull final JournalRecordType type,
+        @NonNull final String userId,
+        final String counterpartyId,
+        final long amount,
+        final CompletableFuture<Long> onDurable
+    ) {
+        final long seq = ring.next();
+
+        fill(seq, type, userId, counterpartyId, amount, onDurable);
+        ring.publish(seq);
+
+        return firstSeq + seq;
+    }
+
+    // Throws IllegalArgumentException if the batch does not fit in the ring
+    @Override
+    public long appendTransfers(@NonNull final List<TransferLeg> legs, final CompletableFuture<Long> onDurable) {
+        if (legs.isEmpty()) {
+            throw new IllegalArgumentException("Empty batch");
+        }
+
+        final long header = ring.next(legs.size() + 1);
+
+        fill(header, JournalRecordType.BATCH, "", null, legs.size(), null);
+
+        for (int i = 0; i < legs.size(); i++) {
+            final TransferLeg leg = legs.get(i);
+
+            fill(
+                header + 1 + i,
+                JournalRecordType.TRANSFER,
+                leg.getFrom().getId(),
+                leg.getTo().getId(),
+                leg.getAmount().getMinorUnits(),
+                i == legs.size() - 1 ? onDurable : null
+            );
+        }
+
+        for (long seq = header; seq <= header + legs.size(); seq++) {
+            ring.publish(seq);
+        }
+
+        return firstSeq + header;
+    }
+
+    @Override
+    public long lastSeq() {
+        return firstSeq + ring.claimed();
+    }
+
+    @Override
+    public long durableSeq() {
+        return durableSeq;
+    }
+
+    @Override
+    public void awaitDurable(final long seq) throws IOException {
+        while (durableSeq < seq) {
+            if (failure != null) {
+                throw failure;
+            }
+
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    // Deletes every segment whose records all precede seq, never the one being appended to
+    @Override
+    public void truncateUpTo(final long seq) throws IOException {
+        synchronized (segments) {
+            while (segments.size() > 1 && segments.get(1) <= seq + 1) {
+                Files.deleteIfExists(segmentPath(dir, segments.remove(0)));
+            }
+        }
+    }
+
+    // Stops accepting records after those already appended have been committed
+    @Override
+    public void close() {
+        running = false;
+
+        try {
+            committer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Every appended record has already been forced or failed
+        }
+    }
+
+    private static List<Long> listSegments(final Path dir) throws IOException {
+        try (final Stream<Path> files = Files.list(dir)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                .map(name -> name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))
+                .map(Long::parseLong)
+                .sorted()
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private void fill(
+        final long seq,
+        final JournalRecordType type,
+        final String userId,
+        final String counterpartyId,
+        final long amount,
+        final CompletableFuture<Long> onDurable
+    ) {
+        final Entry entry = ring.get(seq);
+
+        entry.type = type;
+        entry.userId = userId;
+        entry.counterpartyId = counterpartyId;
+        entry.amount = amount;
+        entry.onDurable = onDurable;
+    }
+
+    /**
+     * Returns the sequence number of the segment's last record, -1 if it has none, leaving the channel after it.
+     * The records of a batch are only replayed once all of them have been read; a batch cut short by a crash
+     * counts as part of the torn tail.
+     */
+    private static long replay(
+        final FileChannel channel,
+        final long afterSeq,
+        final Consumer<JournalRecord> replay
+    ) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(JournalCodec.MAX_BODY_BYTES * 16);
+        long valid = 0;
+        long lastSeq = -1;
+        List<JournalRecord> batch = null;
+        long batchRemaining = 0;
+
+        channel.position(0);
+
+        reading:
+        while (true) {
+            final int read = channel.read(buffer);
+            buffer.flip();
+
+            try {
+                JournalRecord record;
+                while ((record = JournalCodec.decode(buffer)) != null) {
+                    if (record.getType() == JournalRecordType.BATCH) {
+                        batch = new ArrayList<>();
+                        batchRemaining = record.getAmount();
+                        continue;
+                    }
+
+                    if (batch != null) {
+                        batch.add(record);
+
+                        if (--batchRemaining > 0) {
+                            continue;
+                        }
+                    } else {
+                        batch = Collections.singletonList(record);
+                    }
+
+                    for (final JournalRecord r : batch) {
+                        if (r.getSeq() > afterSeq) {
+                            replay.accept(r);
+                        }
+                    }
+
+                    batch = null;
+                    lastSeq = record.getSeq();
+                    valid = channel.position() - buffer.remaining();
+                }
+            } catch (IllegalArgumentException e) {
+                break reading;
+            }
+
+            buffer.compact();
+
+            if (read < 0) {
+                break;
+            }
+        }
+
+        channel.position(valid);
+
+        return lastSeq;
+    }
+
+    private void commitLoop() {
+        long next = 0;
+        int idle = 0;
+
+        while (running || ring.isPublished(next)) {
+            if (!ring.isPublished(next)) {
+                idle = RingBuffer.backoff(idle);
+                continue;
+            }
+
+            idle = 0;
+
+            final long batchStart = next;
+            final long deadline = System.nanoTime() + maxBatchDelayNanos;
+
+            IOException error = failure;
+
+            while (next - batchStart < maxBatchSize) {
+                if (ring.isPublished(next)) {
+                    if (error == null) {
+                        try {
+                            write(next, ring.get(next));
+                        } catch (IOException e) {
+                            error = e;
+                        } catch (RuntimeException e) {
+                            // E.g., a record too large to encode; the committer must fail the journal, not die
+                            error = new IOException("Could not journal record " + (firstSeq + next), e);
+                        }
+                    }
+
+                    next++;
+                } else if (System.nanoTime() - deadline >= 0) {
+                    break;
+                } else {
+                    Thread.yield();
+                }
+            }
+
+            if (error == null) {
+                final long flushStart = System.nanoTime();
+                try {
+                    flush();
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                }
+                Metrics.JOURNAL_FLUSH.record(System.nanoTime() - flushStart);
+            }
+
+            if (error == null) {
+                durableSeq = firstSeq + next - 1;
+            } else {
+                // A failed write leaves the file in an unknown state; fail this and every later record
+                failure = error;
+            }
+
+            complete(batchStart, next, error);
+            ring.release(next - 1);
+
+            if (error == null) {
+                try {
+                    rollIfFull(firstSeq + next);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    // Called by the committer only, between batches
+    private void rollIfFull(final long nextSeq) throws IOException {
+        if (channel.position() < segmentBytes || batchRemaining > 0) {
+            return;
+        }
+
+        final FileChannel next = FileChannel.open(
+            segmentPath(dir, nextSeq),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+
+        // Make the new segment's directory entry durable before any record depends on it
+        channel.force(true);
+        channel.close();
+        channel = next;
+
+        synchronized (segments) {
+            segments.add(nextSeq);
+        }
+    }
+
+    private void write(final long seq, final Entry entry) throws IOException {
+        if (entry.type == JournalRecordType.BATCH) {
+            batchRemaining = entry.amount;
+        } else if (batchRemaining > 0) {
+            batchRemaining--;
+        }
+
+        final byte[] userId = JournalCodec.idBytes(entry.userId);
+        final byte[] counterpartyId = JournalCodec.idBytes(entry.counterpartyId);
+        final int size = JournalCodec.encodedSize(userId, counterpartyId);
+
+        if (size > writeBuffer.remaining()) {
+            flush();
+        }
+
+        JournalCodec.encode(writeBuffer, firstSeq + seq, entry.type, userId, counterpartyId, entry.amount);
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+
+        writeBuffer.clear();
+    }
+
+    private void complete(final long from, final long to, final IOException error) {
+        for (long seq = from; seq < to; seq++) {
+            final Entry entry = ring.get(seq);
+            final CompletableFuture<Long> onDurable = entry.onDurable;
+
+            entry.clear();
+
+            if (onDurable != null) {
+                if (error == null) {
+                    onDurable.complete(firstSeq + seq);
+                } else {
+                    onDurable.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        JournalRecordType type;
+        String userId;
+        String counterpartyId;
+        long amount;
+        CompletableFuture<Long> onDurable;
+
+        void clear() {
+            userId = null;
+            counterpartyId = null;
+            onDurable = null;
+        }
+    }
+}
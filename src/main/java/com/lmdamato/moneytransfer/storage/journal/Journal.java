@@ -0,0 +1,114 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import com.lmdamato.moneytransfer.model.TransferLeg;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface Journal extends AutoCloseable {
+    // Journal that records nothing, for engines running without durability
+    Journal DISABLED = new Journal() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isFailed() {
+            return false;
+        }
+
+        @Override
+        public long append(
+            final JournalRecordType type,
+            final String userId,
+            final String counterpartyId,
+            final long amount,
+            final CompletableFuture<Long> onDurable
+        ) {
+            if (onDurable != null) {
+                onDurable.complete(0L);
+            }
+
+            return 0L;
+        }
+
+        @Override
+        public long appendTransfers(final List<TransferLeg> legs, final CompletableFuture<Long> onDurable) {
+            if (onDurable != null) {
+                onDurable.complete(0L);
+            }
+
+            return 0L;
+        }
+
+        @Override
+        public long lastSeq() {
+            return 0L;
+        }
+
+        @Override
+        public long durableSeq() {
+            return 0L;
+        }
+
+        @Override
+        public void awaitDurable(final long seq) {
+        }
+
+        @Override
+        public void truncateUpTo(final long seq) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    boolean isEnabled();
+
+    /**
+     * Whether writing to stable storage has failed, after which no record can become durable any more.
+     * Engines check it before applying a mutation, and refuse every one from then on: the records appended
+     * before the failure was noticed fail, and whether they reached stable storage is unknown until recovery.
+     */
+    boolean isFailed();
+
+    /**
+     * Appends a mutation about to be applied and returns its sequence number, which the accounts it changes are
+     * stamped with. Callers must hold the locks of every account involved, so that each account's records are journaled
+     * in the order they are applied. onDurable, if not null, completes with the sequence number
+     * once the record has been forced to stable storage.
+     */
+    long append(
+        JournalRecordType type,
+        String userId,
+        String counterpartyId,
+        long amount,
+        CompletableFuture<Long> onDurable
+    );
+
+    /**
+     * Appends the TRANSFER records of an all-or-nothing batch behind a BATCH header, with consecutive sequence
+     * numbers, and returns the sequence number of the header. Recovery applies either all of them or none.
+     * Callers must hold the locks of every account involved; onDurable, if not null, completes with the
+     * sequence number of the last record once the whole batch has been forced to stable storage.
+     */
+    long appendTransfers(List<TransferLeg> legs, CompletableFuture<Long> onDurable);
+
+    // Sequence number of the last record appended so far
+    long lastSeq();
+
+    // Sequence number of the last record forced to stable storage, along with every one before it
+    long durableSeq();
+
+    // Blocks until every record up to seq has been forced to stable storage
+    void awaitDurable(long seq) throws IOException;
+
+    // Discards records up to seq, which are no longer needed for recovery; some of them may be kept
+    void truncateUpTo(long seq) throws IOException;
+
+    @Override
+    void close();
+}
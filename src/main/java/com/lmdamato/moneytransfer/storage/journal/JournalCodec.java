@@ -0,0 +1,130 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of a journal record:
+ * body length (int), CRC32 of the body (int), then the body itself:
+ * type (byte), sequence number (long), amount in minor units (long),
+ * user id length (int) and UTF-8 bytes, counterparty id length (int, -1 if absent) and UTF-8 bytes.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class JournalCodec {
+    public static final int HEADER_BYTES = 8;
+    public static final int MAX_BODY_BYTES = 1 << 16;
+
+    private static final int FIXED_BODY_BYTES = 1 + 8 + 8 + 4 + 4;
+
+    public static int encodedSize(@NonNull final byte[] userId, final byte[] counterpartyId) {
+        return HEADER_BYTES + FIXED_BODY_BYTES + userId.length + (counterpartyId == null ? 0 : counterpartyId.length);
+    }
+
+    public static byte[] idBytes(final String id) {
+        return id == null ? null : id.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Writes the record at the buffer's position; the caller must check that encodedSize bytes remain
+    public static void encode(
+        @NonNull final ByteBuffer buffer,
+        final long seq,
+        @NonNull final JournalRecordType type,
+        @NonNull final byte[] userId,
+        final byte[] counterpartyId,
+        final long amount
+    ) {
+        final int start = buffer.position();
+        final int bodyLength = encodedSize(userId, counterpartyId) - HEADER_BYTES;
+
+        if (bodyLength > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("Journal record too large");
+        }
+
+        buffer.putInt(bodyLength);
+        buffer.putInt(0);
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(seq);
+        buffer.putLong(amount);
+        buffer.putInt(userId.length);
+        buffer.put(userId);
+
+        if (counterpartyId == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(counterpartyId.length);
+            buffer.put(counterpartyId);
+        }
+
+        buffer.putInt(start + 4, crc(buffer, start + HEADER_BYTES, bodyLength));
+    }
+
+    /**
+     * Reads the record at the buffer's position and advances past it.
+     * Returns null, leaving the position untouched, if the buffer does not hold the whole record yet.
+     * Throws IllegalArgumentException if the bytes cannot be a valid record, e.g., after a torn write.
+     */
+    public static JournalRecord decode(@NonNull final ByteBuffer buffer) {
+        final int start = buffer.position();
+
+        if (buffer.remaining() < HEADER_BYTES) {
+            return null;
+        }
+
+        final int bodyLength = buffer.getInt(start);
+        if (bodyLength < FIXED_BODY_BYTES || bodyLength > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("Corrupt journal record length " + bodyLength);
+        }
+
+        if (buffer.remaining() < HEADER_BYTES + bodyLength) {
+            return null;
+        }
+
+        if (buffer.getInt(start + 4) != crc(buffer, start + HEADER_BYTES, bodyLength)) {
+            throw new IllegalArgumentException("Corrupt journal record checksum");
+        }
+
+        buffer.position(start + HEADER_BYTES);
+
+        final JournalRecordType type = JournalRecordType.fromCode(buffer.get());
+        final long seq = buffer.getLong();
+        final long amount = buffer.getLong();
+        final String userId = readId(buffer, buffer.getInt());
+        final String counterpartyId = readId(buffer, buffer.getInt());
+
+        if (userId == null || buffer.position() != start + HEADER_BYTES + bodyLength) {
+            throw new IllegalArgumentException("Corrupt journal record body");
+        }
+
+        return new JournalRecord(seq, type, userId, counterpartyId, amount);
+    }
+
+    private static String readId(final ByteBuffer buffer, final int length) {
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt journal record id length " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(final ByteBuffer buffer, final int offset, final int length) {
+        final ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length).position(offset);
+
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,64 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import io.vavr.control.Option;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Value
+@Builder
+public class JournalConfig {
+    public static final String DIR_PROPERTY = "moneytransfer.journal.dir";
+    public static final String MAX_BATCH_DELAY_PROPERTY = "moneytransfer.journal.maxBatchDelayMicros";
+    public static final String MAX_BATCH_SIZE_PROPERTY = "moneytransfer.journal.maxBatchSize";
+    public static final String RING_CAPACITY_PROPERTY = "moneytransfer.journal.ringCapacity";
+    public static final String SEGMENT_BYTES_PROPERTY = "moneytransfer.journal.segmentBytes";
+    public static final String SNAPSHOT_INTERVAL_PROPERTY = "moneytransfer.snapshot.intervalSeconds";
+
+    public static final long DEFAULT_MAX_BATCH_DELAY_MICROS = 100;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+    public static final int DEFAULT_RING_CAPACITY = 1 << 16;
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+
+    @NonNull
+    private final Path dir;
+
+    // How long the committer waits for more records to join a batch before forcing it to disk
+    @Builder.Default
+    private final long maxBatchDelayMicros = DEFAULT_MAX_BATCH_DELAY_MICROS;
+
+    // Records per fsync; 1 forces every record on its own
+    @Builder.Default
+    private final int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    @Builder.Default
+    private final int ringCapacity = DEFAULT_RING_CAPACITY;
+
+    // The journal moves on to a new segment file once the current one grows past this size
+    @Builder.Default
+    private final long segmentBytes = DEFAULT_SEGMENT_BYTES;
+
+    // Period of background snapshots, after which older journal segments are deleted; 0 disables them
+    @Builder.Default
+    private final long snapshotIntervalSeconds = DEFAULT_SNAPSHOT_INTERVAL_SECONDS;
+
+    // The journal is enabled only when a directory is configured
+    public static Option<JournalConfig> fromSystemProperties() {
+        return Option
+            .of(System.getProperty(DIR_PROPERTY))
+            .map(dir -> JournalConfig
+                .builder()
+                .dir(Paths.get(dir))
+                .maxBatchDelayMicros(Long.getLong(MAX_BATCH_DELAY_PROPERTY, DEFAULT_MAX_BATCH_DELAY_MICROS))
+                .maxBatchSize(Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE))
+                .ringCapacity(Integer.getInteger(RING_CAPACITY_PROPERTY, DEFAULT_RING_CAPACITY))
+                .segmentBytes(Long.getLong(SEGMENT_BYTES_PROPERTY, DEFAULT_SEGMENT_BYTES))
+                .snapshotIntervalSeconds(Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL_SECONDS))
+                .build()
+            );
+    }
+}
@@ -0,0 +1,20 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import lombok.NonNull;
+import lombok.Value;
+
+// A decoded journal entry; counterpartyId is only set for transfers, and the steps of transfers between nodes
+@Value
+public class JournalRecord {
+    private final long seq;
+
+    @NonNull
+    private final JournalRecordType type;
+
+    @NonNull
+    private final String userId;
+
+    private final String counterpartyId;
+
+    private final long amount;
+}
@@ -0,0 +1,22 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+public enum JournalRecordType {
+    CREATE, DEPOSIT, WITHDRAW, TRANSFER,
+
+    // Header of the records of an all-or-nothing batch, which immediately follow it; amount holds their number
+    BATCH,
+
+    // Steps of transfers between accounts on different nodes, which name the transfer's id as counterpartyId,
+    // or as userId if they change no balance; ROUTE, naming the payee's node, comes right before its RESERVE
+    ROUTE, RESERVE, CONFIRM, RELEASE, FORGET, CREDIT, ABORT, ACKNOWLEDGE;
+
+    private static final JournalRecordType[] VALUES = values();
+
+    public static JournalRecordType fromCode(final int code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown journal record type " + code);
+        }
+
+        return VALUES[code];
+    }
+}
@@ -0,0 +1,234 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import com.lmdamato.moneytransfer.model.TransferLeg;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the latest records appended to a journal in memory, so that followers can stream them. Records get their
+ * sequence numbers from the journal it wraps, which makes them durable as usual, or from a counter of its own if that
+ * journal is disabled, in which case they count as durable straight away.
+ *
+ * Records are held in a ring of capacity entries, each written by the thread that appended it, without a lock:
+ * readers find a record by its sequence number, and tell from the one they find in its place whether it is not
+ * written yet or was overwritten since. Readers only get records once they are durable: a leader restarted from
+ * its journal then never hands out again a sequence number a follower already applied a lost record under. A reader
+ * that falls more than capacity records behind has to start over from a copy of the accounts, which is what
+ * followers do.
+ */
+public final class ReplicationLog implements Journal {
+    @NonNull
+    private final Journal journal;
+
+    private final int mask;
+    private final AtomicReferenceArray<JournalRecord> ring;
+
+    // First sequence number held by the log; records before it were appended before it was created
+    private final long firstSeq;
+
+    private final AtomicLong counter;
+    private final AtomicLong lastSeq;
+
+    // Readers waiting for a record; appenders only wake them up when there are any
+    private final Object monitor = new Object();
+    private volatile int waiters;
+
+    public ReplicationLog(@NonNull final Journal journal, final int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+
+        this.journal = journal;
+        this.mask = capacity - 1;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.firstSeq = journal.lastSeq() + 1;
+        this.counter = new AtomicLong(journal.lastSeq());
+        this.lastSeq = new AtomicLong(journal.lastSeq());
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean isFailed() {
+        return journal.isFailed();
+    }
+
+    @Override
+    public long append(
+        @NonNull final JournalRecordType type,
+        @NonNull final String userId,
+        final String counterpartyId,
+        final long amount,
+        final CompletableFuture<Long> onDurable
+    ) {
+        final long seq;
+
+        if (journal.isEnabled()) {
+            seq = journal.append(type, userId, counterpartyId, amount, onDurable);
+        } else {
+            seq = counter.incrementAndGet();
+            if (onDurable != null) {
+                onDurable.complete(seq);
+            }
+        }
+
+        publish(new JournalRecord(seq, type, userId, counterpartyId, amount));
+        appended(seq);
+
+        return seq;
+    }
+
+    @Override
+    public long appendTransfers(@NonNull final List<TransferLeg> legs, final CompletableFuture<Long> onDurable) {
+        final long header;
+
+        if (journal.isEnabled()) {
+            header = journal.appendTransfers(legs, onDurable);
+        } else {
+            header = counter.getAndAdd(legs.size() + 1) + 1;
+            if (onDurable != null) {
+                onDurable.complete(header + legs.size());
+            }
+        }
+
+        publish(new JournalRecord(header, JournalRecordType.BATCH, "", null, legs.size()));
+        for (int i = 0; i < legs.size(); i++) {
+            final TransferLeg leg = legs.get(i);
+
+            publish(new JournalRecord(
+                header + 1 + i,
+                JournalRecordType.TRANSFER,
+                leg.getFrom().getId(),
+                leg.getTo().getId(),
+                leg.getAmount().getMinorUnits()
+            ));
+        }
+        appended(header + legs.size());
+
+        return header;
+    }
+
+    @Override
+    public long lastSeq() {
+        return lastSeq.get();
+    }
+
+    @Override
+    public long durableSeq() {
+        return journal.isEnabled() ? journal.durableSeq() : lastSeq.get();
+    }
+
+    @Override
+    public void awaitDurable(final long seq) throws IOException {
+        journal.awaitDurable(seq);
+    }
+
+    @Override
+    public void truncateUpTo(final long seq) throws IOException {
+        journal.truncateUpTo(seq);
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    // Whether every record after seq is still held, so that a reader can carry on from there
+    public boolean covers(final long seq) {
+        final long last = lastSeq.get();
+        return seq >= firstSeq - 1 && seq >= last - mask && seq <= last;
+    }
+
+    /**
+     * Adds the durable records after seq to records, in order, up to max of them, waiting up to waitMillis for the
+     * first one if there is none yet, and then for it to become durable. Returns false if the next record is no longer
+     * held, i.e., the reader fell too far behind; throws if the journal failed before it became durable.
+     */
+    public boolean read(
+        final long after,
+        @NonNull final List<JournalRecord> records,
+        final int max,
+        final long waitMillis
+    ) throws InterruptedException, IOException {
+        if (after < firstSeq - 1) {
+            return false;
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        long seq = after + 1;
+
+        while (records.size() < max) {
+            final JournalRecord record = ring.get(index(seq));
+
+            if (record != null && record.getSeq() == seq) {
+                if (seq > durableSeq()) {
+                    if (!records.isEmpty()) {
+                        break;
+                    }
+
+                    journal.awaitDurable(seq);
+                }
+
+                records.add(record);
+                seq++;
+            } else if (record != null && record.getSeq() > seq) {
+                return false;
+            } else if (!records.isEmpty() || !await(seq, deadline)) {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    // Waits until the record at seq has been written, or overwritten; false if the deadline passed first
+    private boolean await(final long seq, final long deadline) throws InterruptedException {
+        synchronized (monitor) {
+            waiters++;
+            try {
+                while (true) {
+                    final JournalRecord record = ring.get(index(seq));
+                    if (record != null && record.getSeq() >= seq) {
+                        return true;
+                    }
+
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                }
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    private void publish(final JournalRecord record) {
+        ring.set(index(record.getSeq()), record);
+    }
+
+    private void appended(final long seq) {
+        lastSeq.accumulateAndGet(seq, Math::max);
+
+        if (waiters > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    private int index(final long seq) {
+        return (int) (seq & mask);
+    }
+}
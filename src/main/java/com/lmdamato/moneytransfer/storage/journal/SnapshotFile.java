@@ -0,0 +1,311 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import io.vavr.control.Option;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of every account, named after the journal sequence number it was started at, followed by
+ * records of any other state kept along with the accounts, e.g., the steps of transfers between nodes.
+ *
+ * Layout: magic (long), start sequence (long), account count (long), CRC32 of the rest of the file (long),
+ * record count (long), then for each account: sequence number of its last journal record (long), balance in minor
+ * units (long), id length (int) and UTF-8 id bytes, and then each record as in the journal. Snapshots written before
+ * records were kept have no record count, and a magic of their own. The file is read back through memory-mapped
+ * windows.
+ */
+public class SnapshotFile implements AutoCloseable {
+    private static final long MAGIC = 0x4D54534E41503032L;                   // "MTSNAP02"
+    private static final long ACCOUNTS_ONLY_MAGIC = 0x4D54534E41503031L;     // "MTSNAP01"
+    private static final int HEADER_BYTES = 40;
+    private static final int ACCOUNTS_ONLY_HEADER_BYTES = 32;
+    private static final int WRITE_BUFFER_BYTES = 4 << 20;
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+    private static final int MAX_RECORD_BYTES = 20 + JournalCodec.MAX_BODY_BYTES;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    @FunctionalInterface
+    public interface AccountVisitor {
+        void accept(String userId, long balance, long seq);
+    }
+
+    private final Path dir;
+    private final long startSeq;
+    private final Path tmp;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final CRC32 crc = new CRC32();
+    private long count;
+    private long records;
+
+    private SnapshotFile(@NonNull final Path dir, final long startSeq) throws IOException {
+        this.dir = dir;
+        this.startSeq = startSeq;
+        this.tmp = dir.resolve(name(startSeq) + ".tmp");
+        this.channel = FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+        );
+
+        buffer.position(HEADER_BYTES);
+    }
+
+    // Starts writing a snapshot that holds every journal record up to startSeq
+    public static SnapshotFile create(@NonNull final Path dir, final long startSeq) throws IOException {
+        return new SnapshotFile(dir, startSeq);
+    }
+
+    // Adds an account; every account must be added before any record
+    public void add(@NonNull final String userId, final long balance, final long seq) throws IOException {
+        if (records > 0) {
+            throw new IllegalStateException("Accounts go before records");
+        }
+
+        final byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+
+        if (buffer.remaining() < 20 + id.length) {
+            flush();
+        }
+
+        final int start = buffer.position();
+        buffer.putLong(seq).putLong(balance).putInt(id.length).put(id);
+        updateCrc(start);
+        count++;
+    }
+
+    public void addRecord(@NonNull final JournalRecord record) throws IOException {
+        final byte[] userId = JournalCodec.idBytes(record.getUserId());
+        final byte[] counterpartyId = JournalCodec.idBytes(record.getCounterpartyId());
+
+        if (buffer.remaining() < JournalCodec.encodedSize(userId, counterpartyId)) {
+            flush();
+        }
+
+        final int start = buffer.position();
+        JournalCodec.encode(buffer, record.getSeq(), record.getType(), userId, counterpartyId, record.getAmount());
+        updateCrc(start);
+        records++;
+    }
+
+    // Makes the snapshot durable and visible under its final name
+    public void commit() throws IOException {
+        flush();
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putLong(MAGIC).putLong(startSeq).putLong(count).putLong(crc.getValue()).putLong(records).flip();
+        channel.write(header, 0);
+        channel.force(true);
+        channel.close();
+
+        Files.move(tmp, dir.resolve(name(startSeq)), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Discards an uncommitted snapshot
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Feeds every account of the newest intact snapshot in dir to the visitor and returns its start sequence
+    public static Option<Long> loadLatest(
+        @NonNull final Path dir,
+        @NonNull final AccountVisitor visitor
+    ) throws IOException {
+        return loadLatest(dir, visitor, record -> { });
+    }
+
+    // Like the above, also feeding each of its records, in order, to recordVisitor once every account has been fed
+    public static Option<Long> loadLatest(
+        @NonNull final Path dir,
+        @NonNull final AccountVisitor visitor,
+        @NonNull final Consumer<JournalRecord> recordVisitor
+    ) throws IOException {
+        for (final Path snapshot : list(dir)) {
+            try (final FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+                if (channel.read(header, 0) < ACCOUNTS_ONLY_HEADER_BYTES) {
+                    continue;
+                }
+
+                header.flip();
+
+                final long magic = header.getLong();
+                final long startSeq = header.getLong();
+                final long count = header.getLong();
+                final long crc = header.getLong();
+                final int headerBytes = magic == ACCOUNTS_ONLY_MAGIC ? ACCOUNTS_ONLY_HEADER_BYTES : HEADER_BYTES;
+
+                if ((magic != MAGIC && magic != ACCOUNTS_ONLY_MAGIC) || header.limit() < headerBytes) {
+                    continue;
+                }
+
+                final long records = magic == MAGIC ? header.getLong() : 0L;
+                final List<JournalRecord> read = new ArrayList<>();
+
+                // Validate the whole file first, so that a damaged snapshot never feeds the visitors
+                if (crc == crcOf(channel, headerBytes) && read(channel, headerBytes, count, visitor, records, read)) {
+                    read.forEach(recordVisitor);
+                    return Option.of(startSeq);
+                }
+            }
+        }
+
+        return Option.none();
+    }
+
+    // Deletes all snapshots older than the one started at startSeq, and any leftovers of interrupted ones
+    public static void deleteOlderThan(@NonNull final Path dir, final long startSeq) throws IOException {
+        for (final Path snapshot : list(dir)) {
+            if (startSeqOf(snapshot) < startSeq) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+
+        try (final Stream<Path> files = Files.list(dir)) {
+            for (final Path path : files.collect(Collectors.toList())) {
+                final String name = path.getFileName().toString();
+
+                if (name.startsWith(PREFIX) && name.endsWith(".tmp")) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static long crcOf(final FileChannel channel, final int headerBytes) throws IOException {
+        final CRC32 crc = new CRC32();
+        final long size = channel.size();
+
+        for (long base = headerBytes; base < size; base += MAP_WINDOW_BYTES) {
+            crc.update(map(channel, base));
+        }
+
+        return crc.getValue();
+    }
+
+    // Accounts go to the visitor as they are read, records to the list, which the caller hands over once all are read
+    private static boolean read(
+        final FileChannel channel,
+        final int headerBytes,
+        final long count,
+        final AccountVisitor visitor,
+        final long records,
+        final List<JournalRecord> read
+    ) throws IOException {
+        final long size = channel.size();
+        long base = headerBytes;
+        MappedByteBuffer window = map(channel, base);
+
+        for (long i = 0; i < count + records; i++) {
+            // Slide the window once it may not hold the whole next account, or record
+            if (window.remaining() < MAX_RECORD_BYTES && base + window.limit() < size) {
+                base += window.position();
+                window = map(channel, base);
+            }
+
+            if (i >= count) {
+                final JournalRecord record;
+                try {
+                    record = JournalCodec.decode(window);
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+
+                if (record == null) {
+                    return false;
+                }
+
+                read.add(record);
+                continue;
+            }
+
+            if (window.remaining() < 20) {
+                return false;
+            }
+
+            final long seq = window.getLong();
+            final long balance = window.getLong();
+            final int length = window.getInt();
+
+            if (length < 0 || length > window.remaining()) {
+                return false;
+            }
+
+            final byte[] id = new byte[length];
+            window.get(id);
+
+            visitor.accept(new String(id, StandardCharsets.UTF_8), balance, seq);
+        }
+
+        return true;
+    }
+
+    private static MappedByteBuffer map(final FileChannel channel, final long base) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(MAP_WINDOW_BYTES, channel.size() - base));
+    }
+
+    // Committed snapshots, newest first
+    private static List<Path> list(final Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+
+        try (final Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(path -> {
+                    final String name = path.getFileName().toString();
+                    return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                })
+                .sorted((a, b) -> Long.compare(startSeqOf(b), startSeqOf(a)))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static long startSeqOf(final Path snapshot) {
+        final String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static String name(final long startSeq) {
+        return String.format("%s%020d%s", PREFIX, startSeq, SUFFIX);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    private void updateCrc(final int start) {
+        final ByteBuffer record = buffer.duplicate();
+        record.limit(buffer.position()).position(start);
+        crc.update(record);
+    }
+}
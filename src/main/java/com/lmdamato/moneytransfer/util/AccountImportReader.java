@@ -0,0 +1,179 @@
+package com.lmdamato.moneytransfer.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.NonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Reads the accounts of an import, one per line, either as CSV, e.g., abc,1.23, after an optional
+ * userId,openingBalance header, or as NDJSON, e.g., {"userId":"abc","balance":1.23}, as exported by
+ * GET /export/accounts.
+ *
+ * Lines are read one at a time, so the body is never held in memory as a whole. Blank lines are ignored; lines
+ * without a user id and a non-negative balance with at most two decimals are counted as rejected and skipped.
+ */
+public class AccountImportReader {
+    public enum Format {
+        CSV, NDJSON;
+
+        // The format of a Content-Type, e.g., text/csv; charset=utf-8
+        public static Option<Format> of(final String contentType) {
+            if (contentType == null) {
+                return Option.none();
+            }
+
+            final String mediaType = contentType.split(";", 2)[0].trim().toLowerCase();
+
+            switch (mediaType) {
+                case "text/csv":
+                    return Option.some(CSV);
+                case "application/x-ndjson":
+                case "application/jsonl":
+                    return Option.some(NDJSON);
+                default:
+                    return Option.none();
+            }
+        }
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final BufferedReader lines;
+    private final Format format;
+    private boolean first = true;
+    private long rejected;
+
+    public AccountImportReader(@NonNull final InputStream body, @NonNull final Format format) {
+        this.lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        this.format = format;
+    }
+
+    /**
+     * Reads up to balances.length more accounts, replacing the contents of users with them and filling balances
+     * with their opening balances in minor units. Returns how many were read, 0 once the body is over.
+     */
+    public int next(@NonNull final List<User> users, @NonNull final long[] balances) throws IOException {
+        users.clear();
+
+        String line;
+        while (users.size() < balances.length && (line = lines.readLine()) != null) {
+            final boolean header = first && format == Format.CSV && isHeader(line);
+            first = false;
+
+            if (header || line.trim().isEmpty()) {
+                continue;
+            }
+
+            final int read = users.size();
+            final boolean valid = format == Format.CSV
+                ? readCsv(line, users, balances, read)
+                : readNdjson(line, users, balances, read);
+
+            if (!valid) {
+                rejected++;
+            }
+        }
+
+        return users.size();
+    }
+
+    // Lines that could not be read so far
+    public long rejected() {
+        return rejected;
+    }
+
+    private static boolean isHeader(final String line) {
+        return line.equalsIgnoreCase("userId,openingBalance") || line.equalsIgnoreCase("userId,balance");
+    }
+
+    // The balance is what follows the last comma, so ids may hold commas; an id may be quoted, with "" for a quote
+    private static boolean readCsv(final String line, final List<User> users, final long[] balances, final int at) {
+        final int comma = line.lastIndexOf(',');
+        if (comma < 0) {
+            return false;
+        }
+
+        String userId = line.substring(0, comma);
+        if (userId.length() >= 2 && userId.charAt(0) == '"' && userId.charAt(userId.length() - 1) == '"') {
+            userId = userId.substring(1, userId.length() - 1).replace("\"\"", "\"");
+        }
+
+        return add(userId, RequestParser.parseBalance(line.substring(comma + 1)), users, balances, at);
+    }
+
+    private static boolean readNdjson(final String line, final List<User> users, final long[] balances, final int at) {
+        return Try
+            .of(() -> {
+                try (final JsonParser parser = JSON.createParser(line)) {
+                    return readObject(parser, users, balances, at);
+                }
+            })
+            .getOrElse(false);
+    }
+
+    private static boolean readObject(
+        final JsonParser parser,
+        final List<User> users,
+        final long[] balances,
+        final int at
+    ) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+
+        String userId = null;
+        long balance = RequestParser.INVALID_AMOUNT;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "userId":
+                    userId = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "balance":
+                case "openingBalance":
+                    // Numbers and strings alike, held to the same rules as amounts in paths, except that 0 is valid
+                    balance = value == JsonToken.VALUE_STRING || value.isNumeric()
+                        ? RequestParser.parseBalance(parser.getText())
+                        : RequestParser.INVALID_AMOUNT;
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return parser.currentToken() == JsonToken.END_OBJECT
+            && parser.nextToken() == null
+            && add(userId, balance, users, balances, at);
+    }
+
+    private static boolean add(
+        final String userId,
+        final long balance,
+        final List<User> users,
+        final long[] balances,
+        final int at
+    ) {
+        if (userId == null || userId.isEmpty() || !User.isValidId(userId) || balance == RequestParser.INVALID_AMOUNT) {
+            return false;
+        }
+
+        users.add(new User(userId));
+        balances[at] = balance;
+
+        return true;
+    }
+}
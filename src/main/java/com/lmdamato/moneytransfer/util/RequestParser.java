@@ -1,36 +1,300 @@
 package com.lmdamato.moneytransfer.util;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
 import com.lmdamato.moneytransfer.model.User;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.PathTemplateMatch;
 import io.vavr.control.Option;
+import io.vavr.control.Try;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class RequestParser {
+    // Returned by amountMinorUnits and parseMinorUnits for anything but a valid positive amount, and by parseBalance
+    public static final long INVALID_AMOUNT = -1L;
+
+    // Returned by count for anything but a valid non-negative whole number
+    public static final long INVALID_COUNT = -1L;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
     public static Option<User> user(@NonNull final HttpServerExchange exchange) {
-        return pathParam(exchange, "userId")
+        return Option.of(userId(exchange, "userId"))
             .map(User::new);
     }
 
+    // The parameter as a user id, or null if it is absent or longer than User.MAX_ID_BYTES
+    public static String userId(@NonNull final HttpServerExchange exchange, @NonNull final String name) {
+        final String id = rawPathParam(exchange, name);
+
+        return id != null && User.isValidId(id) ? id : null;
+    }
+
     public static Option<Money> amount(@NonNull final HttpServerExchange exchange) {
-        return pathParam(exchange, "amount")
-            .map(BigDecimal::new)
-            .filter(a -> a.compareTo(BigDecimal.ZERO) > 0)
-            .map(Money::new);
+        final long minorUnits = amountMinorUnits(exchange);
+
+        return minorUnits == INVALID_AMOUNT ? Option.none() : Option.some(Money.ofMinorUnits(minorUnits));
+    }
+
+    // The amount path parameter in minor units, or INVALID_AMOUNT; see parseMinorUnits
+    public static long amountMinorUnits(@NonNull final HttpServerExchange exchange) {
+        return parseMinorUnits(rawPathParam(exchange, "amount"));
     }
 
     public static Option<String> pathParam(
         @NonNull final HttpServerExchange exchange,
         @NonNull final String name
     ) {
-        return Option
-            .of(exchange.getQueryParameters().get(name))
-            .map(Deque::getFirst);
+        return Option.of(rawPathParam(exchange, name));
+    }
+
+    // Returns null if the parameter is absent
+    public static String rawPathParam(@NonNull final HttpServerExchange exchange, @NonNull final String name) {
+        // The routing handler keeps the parameters it matched here, besides copying them into the query parameters
+        final PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        if (match != null) {
+            final String value = match.getParameters().get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        final Deque<String> values = exchange.getQueryParameters().get(name);
+
+        return values == null ? null : values.peekFirst();
+    }
+
+    /**
+     * Reads a plain decimal string, e.g., "12", "12.3" or "12.34", straight into minor units without allocating.
+     * Returns INVALID_AMOUNT for null, signs, exponents, more than two decimal places, amounts that are not positive,
+     * and amounts whose minor units overflow a long.
+     */
+    public static long parseMinorUnits(final String amount) {
+        return parse(amount, 1L);
+    }
+
+    // Like parseMinorUnits, except that a balance can be zero
+    public static long parseBalance(final String amount) {
+        return parse(amount, 0L);
+    }
+
+    private static long parse(final String amount, final long minimum) {
+        if (amount == null) {
+            return INVALID_AMOUNT;
+        }
+
+        final int length = amount.length();
+        long units = 0;
+        int i = 0;
+
+        for (; i < length && amount.charAt(i) != '.'; i++) {
+            final int digit = amount.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || units > (Long.MAX_VALUE - digit) / 10) {
+                return INVALID_AMOUNT;
+            }
+
+            units = units * 10 + digit;
+        }
+
+        if (i == 0) {
+            return INVALID_AMOUNT;
+        }
+
+        long cents = 0;
+
+        if (i < length) {
+            final int decimals = length - i - 1;
+            if (decimals < 1 || decimals > Money.SCALE) {
+                return INVALID_AMOUNT;
+            }
+
+            for (i++; i < length; i++) {
+                final int digit = amount.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return INVALID_AMOUNT;
+                }
+
+                cents = cents * 10 + digit;
+            }
+
+            if (decimals == 1) {
+                cents *= 10;
+            }
+        }
+
+        if (units > (Long.MAX_VALUE - cents) / 100) {
+            return INVALID_AMOUNT;
+        }
+
+        final long minorUnits = units * 100 + cents;
+
+        return minorUnits >= minimum ? minorUnits : INVALID_AMOUNT;
+    }
+
+    // The parameter as a non-negative whole number, defaultValue if it is absent, or INVALID_COUNT if it is not one
+    public static long count(
+        @NonNull final HttpServerExchange exchange,
+        @NonNull final String name,
+        final long defaultValue
+    ) {
+        final String value = rawPathParam(exchange, name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        if (value.isEmpty()) {
+            return INVALID_COUNT;
+        }
+
+        long count = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || count > (Long.MAX_VALUE - digit) / 10) {
+                return INVALID_COUNT;
+            }
+
+            count = count * 10 + digit;
+        }
+
+        return count;
+    }
+
+    // True if the query parameter is present without a value or with value "true"
+    public static boolean flag(@NonNull final HttpServerExchange exchange, @NonNull final String name) {
+        return pathParam(exchange, name)
+            .map(value -> value.isEmpty() || Boolean.parseBoolean(value))
+            .getOrElse(false);
+    }
+
+    /**
+     * Reads a JSON array of legs, e.g., [{"from":"a","to":"b","amount":1.23}], one token at a time,
+     * so the body is never held in memory as a whole. Returns nothing if the array is malformed,
+     * a leg is incomplete or has an invalid amount, or there are more than maxLegs legs.
+     */
+    public static Option<List<TransferLeg>> transferLegs(@NonNull final InputStream body, final int maxLegs) {
+        return Try
+            .of(() -> {
+                try (final JsonParser parser = JSON.createParser(body)) {
+                    return readLegs(parser, maxLegs);
+                }
+            })
+            .toOption();
+    }
+
+    /**
+     * Reads a JSON array of user ids, e.g., ["alice","bob"], one token at a time. Returns nothing if the array is
+     * malformed, holds anything but valid user ids, or holds more than maxUsers ids.
+     */
+    public static Option<List<User>> users(@NonNull final InputStream body, final int maxUsers) {
+        return Try
+            .of(() -> {
+                try (final JsonParser parser = JSON.createParser(body)) {
+                    return readUsers(parser, maxUsers);
+                }
+            })
+            .toOption();
+    }
+
+    private static List<User> readUsers(final JsonParser parser, final int maxUsers) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Expected an array of user ids");
+        }
+
+        final List<User> users = new ArrayList<>();
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (users.size() == maxUsers) {
+                throw new IllegalArgumentException("Too many user ids");
+            }
+
+            if (parser.currentToken() != JsonToken.VALUE_STRING || !User.isValidId(parser.getText())) {
+                throw new IllegalArgumentException("Expected a user id");
+            }
+
+            users.add(new User(parser.getText()));
+        }
+
+        if (parser.nextToken() != null) {
+            throw new IllegalArgumentException("Unexpected content after the array of user ids");
+        }
+
+        return users;
+    }
+
+    private static List<TransferLeg> readLegs(final JsonParser parser, final int maxLegs) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Expected an array of legs");
+        }
+
+        final List<TransferLeg> legs = new ArrayList<>();
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (legs.size() == maxLegs) {
+                throw new IllegalArgumentException("Too many legs");
+            }
+
+            legs.add(readLeg(parser));
+        }
+
+        if (parser.nextToken() != null) {
+            throw new IllegalArgumentException("Unexpected content after the array of legs");
+        }
+
+        return legs;
+    }
+
+    private static TransferLeg readLeg(final JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a leg");
+        }
+
+        String from = null;
+        String to = null;
+        long amount = INVALID_AMOUNT;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "from":
+                    from = parser.getValueAsString();
+                    break;
+                case "to":
+                    to = parser.getValueAsString();
+                    break;
+                case "amount":
+                    // Numbers and strings alike, held to the same rules as amounts in paths
+                    amount = value == JsonToken.VALUE_STRING || value.isNumeric()
+                        ? parseMinorUnits(parser.getText())
+                        : INVALID_AMOUNT;
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (from == null || to == null || amount == INVALID_AMOUNT) {
+            throw new IllegalArgumentException("Incomplete leg");
+        }
+
+        if (!User.isValidId(from) || !User.isValidId(to)) {
+            throw new IllegalArgumentException("User id too long");
+        }
+
+        return new TransferLeg(new User(from), new User(to), Money.ofMinorUnits(amount));
     }
 }
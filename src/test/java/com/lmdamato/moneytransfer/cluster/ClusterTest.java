@@ -0,0 +1,241 @@
+package com.lmdamato.moneytransfer.cluster;
+
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.util.RequestParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterTest {
+    private static final int NODES = 3;
+    private static final int ROUTER_PORT = 8110;
+    private static final long RESERVATION_TIMEOUT_MILLIS = 1_000;
+
+    private LocalCluster cluster;
+    private NodeClient router;
+    private List<NodeClient> nodes;
+
+    @Before
+    public void setup() {
+        cluster = LocalCluster.start(
+            NODES,
+            ROUTER_PORT,
+            () -> new InMemoryMoneyTransferDao(64),
+            RESERVATION_TIMEOUT_MILLIS
+        );
+        router = new NodeClient(cluster.getRouterUrl());
+        nodes = new ArrayList<>();
+        cluster.getNodeUrls().forEach(url -> nodes.add(new NodeClient(url)));
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+
+    @Test
+    public void testAccountsLiveOnTheNodeOwningThem() throws IOException {
+        final String user = "user " + UUID.randomUUID();
+        final int owner = ClusterRouter.ownerOf(user, NODES);
+
+        assertEquals(201, send(router, "PUT", "/create/" + NodeClient.segment(user)));
+        assertEquals(204, send(router, "POST", "/deposit/" + NodeClient.segment(user) + "/12.50"));
+        assertEquals(1250, balance(router, user));
+
+        // Only the owner has ever heard of the account
+        for (int i = 0; i < NODES; i++) {
+            assertEquals(i == owner ? 200 : 404, send(nodes.get(i), "GET", "/balance/" + NodeClient.segment(user)));
+        }
+    }
+
+    @Test
+    public void testConcurrentTransfersAcrossNodesKeepTheTotal() throws Exception {
+        final List<String> users = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            users.add(createUser(i % NODES, "100.00"));
+        }
+
+        final Set<Integer> statuses = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                for (int i = 0; i < 100; i++) {
+                    final String from = users.get(random.nextInt(users.size()));
+                    final String to = users.get(random.nextInt(users.size()));
+                    final String amount = random.nextInt(1, 31) + "." + random.nextInt(10) + "0";
+
+                    statuses.add(send(router, "POST", "/transfer/" + from + "/" + to + "/" + amount));
+                }
+
+                return null;
+            }));
+        }
+
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (final String user : users) {
+            total += balance(router, user);
+        }
+
+        assertEquals(users.size() * 10_000L, total);
+        assertTrue(statuses.toString(), statuses.stream().allMatch(status -> status == 204 || status == 403));
+
+        for (int i = 0; i < NODES; i++) {
+            assertEquals(0, cluster.pending(i));
+        }
+    }
+
+    @Test
+    public void testFailedTransfersAcrossNodesGiveTheAmountBack() throws IOException {
+        final String payer = createUser(0, "10.00");
+        final String payee = createUser(1, "0");
+        final String missing = userOn(2);
+
+        assertEquals(404, send(router, "POST", "/transfer/" + payer + "/" + missing + "/5.00"));
+        assertEquals(403, send(router, "POST", "/transfer/" + payer + "/" + payee + "/10.01"));
+        assertEquals(404, send(router, "POST", "/transfer/" + missing + "/" + payee + "/1.00"));
+        assertEquals(501, send(router, "POST", "/transfer/" + payer + "/" + payee + "/1.00", "key-" + payer));
+
+        assertEquals(1000, balance(router, payer));
+        assertEquals(0, balance(router, payee));
+        assertEquals(0, cluster.pending(0));
+
+        assertEquals(204, send(router, "POST", "/transfer/" + payer + "/" + payee + "/10.00"));
+        assertEquals(0, balance(router, payer));
+        assertEquals(1000, balance(router, payee));
+    }
+
+    @Test
+    public void testACreditThatWouldOverflowIsAbortedAndGivenBack() throws IOException {
+        final String payer = createUser(0, "10.00");
+        final String payee = createUser(1, "92233720368547758.07");
+
+        assertEquals(500, send(router, "POST", "/transfer/" + payer + "/" + payee + "/1.00"));
+
+        assertEquals(1000, balance(router, payer));
+        assertEquals(Long.MAX_VALUE, balance(router, payee));
+        assertEquals(0, cluster.pending(0));
+    }
+
+    @Test
+    public void testRecoverySettlesTransfersLeftHalfway() throws Exception {
+        final String payer = createUser(0, "10.00");
+        final String payee = createUser(1, "0");
+        final String destination = "?destination=" + NodeClient.segment(cluster.getNodeUrls().get(1));
+
+        // A router that stopped after reserving: the amount goes back to the payer
+        final String abandoned = TransferParticipant.PREFIX + UUID.randomUUID();
+        assertEquals(204, internal(nodes.get(0), abandoned + "/reserve/" + payer + "/3.00" + destination));
+
+        // One that stopped after crediting: the payee keeps the amount
+        final String credited = TransferParticipant.PREFIX + UUID.randomUUID();
+        assertEquals(204, internal(nodes.get(0), credited + "/reserve/" + payer + "/4.00" + destination));
+        assertEquals(204, internal(nodes.get(1), credited + "/credit/" + payee + "/4.00"));
+
+        // Neither step is ever applied twice for the same transfer
+        assertEquals(409, internal(nodes.get(0), credited + "/reserve/" + payer + "/4.00" + destination));
+        assertEquals(204, internal(nodes.get(1), credited + "/credit/" + payee + "/4.00"));
+
+        assertEquals(300, balance(router, payer));
+        assertEquals(2, cluster.pending(0));
+
+        final long deadline = System.currentTimeMillis() + 10 * RESERVATION_TIMEOUT_MILLIS;
+        while (cluster.pending(0) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(0, cluster.pending(0));
+        assertEquals(600, balance(router, payer));
+        assertEquals(400, balance(router, payee));
+
+        // The abandoned transfer was aborted, so it can no longer be credited
+        assertEquals(409, internal(nodes.get(1), abandoned + "/credit/" + payee + "/3.00"));
+        assertEquals(400, balance(router, payee));
+    }
+
+    @Test
+    public void testInternalEndpointsNeedTheClusterSecret() throws IOException {
+        final String payer = createUser(0, "10.00");
+        final String reserve = TransferParticipant.PREFIX + UUID.randomUUID() + "/reserve/" + payer + "/3.00"
+            + "?destination=" + NodeClient.segment(cluster.getNodeUrls().get(1));
+
+        assertEquals(403, send(nodes.get(0), "POST", reserve));
+        assertEquals(403, nodes.get(0).send(
+            "POST",
+            reserve,
+            Collections.singletonMap(TransferParticipant.CLUSTER_SECRET.toString(), "not-" + cluster.getSecret())
+        ).getStatus());
+
+        assertEquals(1000, balance(router, payer));
+        assertEquals(0, cluster.pending(0));
+    }
+
+    // Creates a funded account on the node
+    private String createUser(final int node, final String amount) throws IOException {
+        final String user = userOn(node);
+
+        assertEquals(201, send(router, "PUT", "/create/" + user));
+        if (RequestParser.parseMinorUnits(amount) != RequestParser.INVALID_AMOUNT) {
+            assertEquals(204, send(router, "POST", "/deposit/" + user + "/" + amount));
+        }
+
+        return user;
+    }
+
+    private static String userOn(final int node) {
+        while (true) {
+            final String user = UUID.randomUUID().toString();
+            if (ClusterRouter.ownerOf(user, NODES) == node) {
+                return user;
+            }
+        }
+    }
+
+    private static long balance(final NodeClient client, final String user) throws IOException {
+        final String path = "/balance/" + NodeClient.segment(user);
+        final NodeClient.Reply reply = client.send("GET", path, Collections.emptyMap());
+        assertEquals(200, reply.getStatus());
+
+        final String body = reply.text();
+        return RequestParser.parseBalance(body.substring(body.indexOf(':') + 1, body.length() - 1));
+    }
+
+    private static int send(final NodeClient client, final String method, final String path) throws IOException {
+        return client.send(method, path, Collections.emptyMap()).getStatus();
+    }
+
+    // Sends a request to an internal endpoint of a node, as the router does
+    private int internal(final NodeClient node, final String path) throws IOException {
+        final String header = TransferParticipant.CLUSTER_SECRET.toString();
+
+        return node.send("POST", path, Collections.singletonMap(header, cluster.getSecret())).getStatus();
+    }
+
+    private static int send(final NodeClient client, final String method, final String path, final String key)
+        throws IOException {
+        return client.send(method, path, Collections.singletonMap("Idempotency-Key", key)).getStatus();
+    }
+}
@@ -0,0 +1,90 @@
+package com.lmdamato.moneytransfer.handler;
+
+import io.vavr.control.Either;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotencyCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final IdempotencyCache cache = new IdempotencyCache(3, 10, TimeUnit.NANOSECONDS, now::get);
+
+    @Test
+    public void testRetriesSeeTheFirstClaimUntilItExpires() {
+        final Either<IdempotencyCache.Claim, IdempotencyCache.Claim> first = cache.claim("k", "POST /a");
+        assertTrue(first.isRight());
+        assertEquals(IdempotencyCache.IN_FLIGHT, first.get().status());
+
+        first.get().complete(204);
+        now.set(9);
+
+        final Either<IdempotencyCache.Claim, IdempotencyCache.Claim> retry = cache.claim("k", "POST /a");
+        assertTrue(retry.isLeft());
+        assertSame(first.get(), retry.getLeft());
+        assertEquals(204, retry.getLeft().status());
+        assertFalse(cache.claim("k", "POST /b").getLeft().matches("POST /b"));
+
+        now.set(10);
+
+        assertTrue(cache.claim("k", "POST /b").isRight());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testOldestKeysAreEvictedPastTheLimit() {
+        for (int i = 0; i < 5; i++) {
+            now.set(i);
+            final Either<IdempotencyCache.Claim, IdempotencyCache.Claim> claim = cache.claim("k" + i, "POST /a");
+            assertTrue(claim.isRight());
+            claim.get().complete(204);
+        }
+
+        assertEquals(3, cache.size());
+        assertTrue(cache.claim("k0", "POST /a").isRight());
+        assertTrue(cache.claim("k4", "POST /a").isLeft());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testKeysInFlightAreNotEvictedPastTheLimit() {
+        final IdempotencyCache.Claim inFlight = cache.claim("k0", "POST /a").get();
+        for (int i = 1; i < 4; i++) {
+            now.set(i);
+            cache.claim("k" + i, "POST /a").get().complete(204);
+        }
+
+        assertEquals(3, cache.size());
+        assertSame(inFlight, cache.claim("k0", "POST /a").getLeft());
+        assertTrue(cache.claim("k1", "POST /a").isRight());
+    }
+
+    @Test
+    public void testKeysAreEvictedInTheOrderTheyCompleted() {
+        final IdempotencyCache.Claim first = cache.claim("k0", "POST /a").get();
+        cache.claim("k1", "POST /a").get().complete(204);
+        first.complete(204);
+        cache.claim("k2", "POST /a").get().complete(204);
+
+        cache.claim("k3", "POST /a");
+
+        assertEquals(3, cache.size());
+        assertSame(first, cache.claim("k0", "POST /a").getLeft());
+        assertTrue(cache.claim("k1", "POST /a").isRight());
+    }
+
+    @Test
+    public void testReleasedKeysCanBeClaimedAgain() {
+        final IdempotencyCache.Claim first = cache.claim("k", "POST /a").get();
+        cache.release(first);
+
+        assertEquals(0, cache.size());
+        assertTrue(cache.claim("k", "POST /a").isRight());
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,39 @@
+package com.lmdamato.moneytransfer.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lmdamato.moneytransfer.model.Money;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonResponsesTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testEncodedBalanceMatchesJackson() throws IOException {
+        final long[] values = {0L, 1L, 9L, 10L, 99L, 100L, 101L, 123456L, 1000000000L, Long.MAX_VALUE};
+
+        for (final long minorUnits : values) {
+            final ByteBuffer buffer = ByteBuffer.allocate(JsonResponses.MAX_BALANCE_BYTES);
+            JsonResponses.encodeBalance(buffer, minorUnits);
+            buffer.flip();
+
+            assertEquals(
+                mapper.writeValueAsString(Money.ofMinorUnits(minorUnits)),
+                StandardCharsets.US_ASCII.decode(buffer).toString()
+            );
+        }
+    }
+
+    @Test
+    public void testConstantBodiesAreJsonStrings() throws IOException {
+        assertEquals(
+            mapper.writeValueAsString("User not found"),
+            StandardCharsets.US_ASCII.decode(JsonResponses.USER_NOT_FOUND.duplicate()).toString()
+        );
+    }
+}
@@ -0,0 +1,163 @@
+package com.lmdamato.moneytransfer.handler;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.server.DispatchingHandler;
+import com.lmdamato.moneytransfer.server.ExecutionMode;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class MoneyTransferHandlerTest {
+    private static final int PORT = 8084;
+    private static final String ENDPOINT = "http://localhost:" + PORT;
+    private static final int REQUESTS = 4;
+
+    // Balance reads the engine has been asked for, which the test completes
+    private final BlockingQueue<CompletableFuture<Try<Money>>> pending = new LinkedBlockingQueue<>();
+
+    // Completes imported batches a little later, as a journal would once they are durable
+    private final ExecutorService journal = Executors.newSingleThreadExecutor();
+
+    private final InMemoryMoneyTransferDao dao = new InMemoryMoneyTransferDao(64) {
+        @Override
+        public CompletableFuture<Try<Money>> getBalanceAsync(final User user) {
+            final CompletableFuture<Try<Money>> result = new CompletableFuture<>();
+            pending.add(result);
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<Try<Integer>> createUsersAsync(final List<User> users, final long[] balances) {
+            final Try<Integer> created = super.createUsersAsync(users, balances).join();
+
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return created;
+            }, journal);
+        }
+    };
+
+    // A single thread, which would be held by the first request if handlers waited for the engine
+    private final ExecutorService executor = ExecutionMode.WORKER_POOL.createExecutor(1).get();
+
+    private final Undertow server = Undertow
+        .builder()
+        .addHttpListener(PORT, "localhost", new DispatchingHandler(
+            RestServer.routes(new MoneyTransferHandler(dao)),
+            Option.of(executor),
+            REQUESTS
+        ))
+        .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
+        .build();
+
+    // Sends the requests, each blocked until its response comes back
+    private final ExecutorService clients = Executors.newFixedThreadPool(REQUESTS);
+
+    @After
+    public void dispose() {
+        server.stop();
+        executor.shutdownNow();
+        clients.shutdownNow();
+        journal.shutdownNow();
+    }
+
+    @Test
+    public void testRequestsWaitingForTheEngineHoldNoThread() throws Exception {
+        server.start();
+
+        try (final CloseableHttpClient client = HttpClientBuilder.create().setMaxConnPerRoute(REQUESTS).build()) {
+            final List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                responses.add(CompletableFuture.supplyAsync(() -> balance(client), clients));
+            }
+
+            // Every request reaches the engine while the others still wait for it
+            final List<CompletableFuture<Try<Money>>> reads = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                final CompletableFuture<Try<Money>> read = pending.poll(5, TimeUnit.SECONDS);
+                assertNotNull(read);
+                reads.add(read);
+            }
+
+            for (int i = 0; i < REQUESTS; i++) {
+                reads.get(i).complete(Try.success(Money.ofMinorUnits(100 + i)));
+            }
+
+            final List<String> bodies = new ArrayList<>();
+            for (final CompletableFuture<String> response : responses) {
+                bodies.add(response.get(5, TimeUnit.SECONDS));
+            }
+            bodies.sort(String::compareTo);
+
+            for (int i = 0; i < REQUESTS; i++) {
+                assertEquals("{\"amount\":1.0" + i + "}", bodies.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testImportCarriesOnOnceEachBatchCompletes() throws Exception {
+        server.start();
+
+        // More accounts than a batch holds
+        final int accounts = MoneyTransferHandler.DEFAULT_IMPORT_BATCH_SIZE + 10;
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < accounts; i++) {
+            body.append("import-").append(i).append(",1.00\n");
+        }
+
+        final HttpPost upload = new HttpPost(ENDPOINT + "/import");
+        upload.setEntity(new StringEntity(body.toString(), ContentType.create("text/csv")));
+
+        try (final CloseableHttpClient client = HttpClientBuilder.create().build();
+             final CloseableHttpResponse response = client.execute(upload)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals(
+                "{\"created\":" + accounts + ",\"skipped\":0,\"rejected\":0}",
+                EntityUtils.toString(response.getEntity())
+            );
+        }
+
+        assertEquals(Money.ofMinorUnits(100), dao.getBalance(new User("import-" + (accounts - 1))).get());
+    }
+
+    private static String balance(final CloseableHttpClient client) {
+        try (final CloseableHttpResponse response = client.execute(new HttpGet(ENDPOINT + "/balance/abc"))) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            return EntityUtils.toString(response.getEntity());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.lmdamato.moneytransfer.loadgen;
+
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+    private static final int PORT = 8082;
+
+    private RestServer server;
+
+    @Before
+    public void setup() {
+        server = RestServer.start(PORT, InMemoryMoneyTransferDao.getInstance());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testEveryScheduledRequestIsSentAndMeasured() throws InterruptedException {
+        final LoadConfig config = LoadConfig
+            .builder()
+            .rate(200)
+            .durationSeconds(1)
+            .warmupSeconds(0)
+            .accounts(20)
+            .connections(4)
+            .build();
+
+        final Map<Operation, RouteStats> results = new LoadGenerator(config, "http://localhost:" + PORT).run();
+
+        assertEquals(LoadConfig.parseMix(LoadConfig.DEFAULT_MIX).keySet(), results.keySet());
+
+        long requests = 0;
+        for (final RouteStats stats : results.values()) {
+            requests += stats.getResponseTimes().count();
+
+            assertEquals(0, stats.getErrors().sum());
+            assertTrue(stats.getResponseTimes().max() >= stats.getServiceTimes().percentile(50));
+        }
+        assertEquals(200, requests);
+    }
+
+    @Test
+    public void testOnlyOperationsWithPositiveWeightAreSent() throws InterruptedException {
+        final LoadConfig config = LoadConfig
+            .builder()
+            .rate(50)
+            .durationSeconds(1)
+            .warmupSeconds(0)
+            .accounts(2)
+            .connections(2)
+            .mix(LoadConfig.parseMix("transfer=1,balance=0"))
+            .build();
+
+        final Map<Operation, RouteStats> results = new LoadGenerator(config, "http://localhost:" + PORT).run();
+
+        assertEquals(1, results.size());
+        assertEquals(50, results.get(Operation.TRANSFER).getResponseTimes().count());
+        assertEquals(0, results.get(Operation.TRANSFER).getErrors().sum());
+    }
+}
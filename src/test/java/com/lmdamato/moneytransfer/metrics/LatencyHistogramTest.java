@@ -0,0 +1,69 @@
+package com.lmdamato.moneytransfer.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testSmallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.percentile(50));
+        assertEquals(99, histogram.percentile(99));
+        assertEquals(100, histogram.percentile(99.9));
+        assertEquals(100, histogram.max());
+    }
+
+    @Test
+    public void testLargeValuesAreWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertWithin(5_000_000, histogram.percentile(50));
+        assertWithin(9_900_000, histogram.percentile(99));
+        assertWithin(9_990_000, histogram.percentile(99.9));
+        assertEquals(10_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        long previous = -1;
+        for (int bucket = 0; LatencyHistogram.highestValueIn(bucket) != Long.MAX_VALUE; bucket++) {
+            final long highest = LatencyHistogram.highestValueIn(bucket);
+
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            previous = highest;
+        }
+
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testOutlierShowsOnlyInTheTail() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 999; i++) {
+            histogram.record(1_000);
+        }
+        histogram.record(1_000_000_000);
+
+        assertWithin(1_000, histogram.percentile(99.9));
+        assertEquals(1_000_000_000, histogram.max());
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(50));
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(actual + " not within 1/64 of " + expected, actual >= expected && actual <= expected + expected / 64);
+    }
+}
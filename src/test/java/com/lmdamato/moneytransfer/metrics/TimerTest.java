@@ -0,0 +1,42 @@
+package com.lmdamato.moneytransfer.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerTest {
+    @Test
+    public void testBucketsAreCumulativeAndInSeconds() {
+        final Timer timer = new Timer();
+        timer.record(0L);
+        timer.record(1_000L);
+        timer.record(3_000_000L);
+        timer.record(60_000_000_000L);
+
+        final StringBuilder out = new StringBuilder();
+        timer.writePrometheus(out, "t", "route=\"/r\"");
+        final String text = out.toString();
+
+        assertEquals(4, timer.count());
+        assertTrue(text.contains("t_bucket{route=\"/r\",le=\"0.000001\"} 2\n"));
+        assertTrue(text.contains("t_bucket{route=\"/r\",le=\"0.0025\"} 2\n"));
+        assertTrue(text.contains("t_bucket{route=\"/r\",le=\"0.005\"} 3\n"));
+        assertTrue(text.contains("t_bucket{route=\"/r\",le=\"10\"} 3\n"));
+        assertTrue(text.contains("t_bucket{route=\"/r\",le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("t_sum{route=\"/r\"} 60.003001\n"));
+        assertTrue(text.contains("t_count{route=\"/r\"} 4\n"));
+    }
+
+    @Test
+    public void testUnlabelledTimer() {
+        final Timer timer = new Timer();
+        timer.record(2_000L);
+
+        final StringBuilder out = new StringBuilder();
+        timer.writePrometheus(out, "t", "");
+
+        assertTrue(out.toString().contains("t_bucket{le=\"0.000005\"} 1\n"));
+        assertTrue(out.toString().contains("t_count 1\n"));
+    }
+}
@@ -1,7 +1,9 @@
 package com.lmdamato.moneytransfer.model;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 
 import static org.junit.Assert.assertEquals;
@@ -49,4 +51,34 @@ public class MoneyTest {
 
         m1.minus(m2);
     }
+
+    @Test
+    public void testMinorUnits() {
+        assertEquals(1234L, new Money(new BigDecimal("12.34")).getMinorUnits());
+        assertEquals(1235L, new Money(new BigDecimal("12.345")).getMinorUnits());
+        assertEquals(new Money(new BigDecimal("12.34")), Money.ofMinorUnits(1234L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOfMinorUnitsFailure_NegativeAmount() {
+        Money.ofMinorUnits(-1L);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testPlusFailure_Overflow() {
+        Money.ofMinorUnits(Long.MAX_VALUE).plus(Money.ofMinorUnits(1L));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testMoneyFailure_Overflow() {
+        new Money(new BigDecimal("1e20"));
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+
+        assertEquals("{\"amount\":1.23}", mapper.writeValueAsString(Money.ofMinorUnits(123L)));
+        assertEquals("{\"amount\":0.00}", mapper.writeValueAsString(Money.ZERO));
+    }
 }
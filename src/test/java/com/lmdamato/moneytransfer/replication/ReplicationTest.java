@@ -0,0 +1,251 @@
+package com.lmdamato.moneytransfer.replication;
+
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.server.RestServer;
+import com.lmdamato.moneytransfer.server.ServerConfig;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecord;
+import com.lmdamato.moneytransfer.storage.journal.JournalRecordType;
+import com.lmdamato.moneytransfer.util.RequestParser;
+import io.vavr.control.Option;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationTest {
+    private static final int LEADER_PORT = 8120;
+    private static final String LEADER = "http://localhost:" + LEADER_PORT;
+
+    private static final ServerConfig CONFIG = ServerConfig
+        .fromSystemProperties()
+        .toBuilder()
+        .host("localhost")
+        .binaryPort(Option.none())
+        .build();
+
+    private CloseableHttpClient client;
+
+    private ReplicationLeader leader;
+    private RestServer leaderServer;
+
+    private final List<ReplicationFollower> followers = new ArrayList<>();
+    private final List<RestServer> followerServers = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        client = HttpClientBuilder.create().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        followerServers.forEach(RestServer::stop);
+        followers.forEach(ReplicationFollower::close);
+        stopLeader();
+        client.close();
+    }
+
+    @Test
+    public void testFollowersReadTheClientsOwnWrites() throws IOException {
+        startLeader(1 << 10);
+        final String first = startFollower(2_000, 2_000);
+        final String second = startFollower(2_000, 2_000);
+
+        final String user = createUser("12.50");
+
+        for (int i = 0; i < 20; i++) {
+            final long token = seqOf(execute(new HttpPost(LEADER + "/deposit/" + user + "/1.00")), 204);
+
+            // Each follower waits, if need be, until it has applied the deposit
+            for (final String follower : new String[] {first, second}) {
+                final HttpGet read = new HttpGet(follower + "/balance/" + user);
+                read.setHeader(ReplicationProtocol.REPLICATION_SEQ.toString(), Long.toString(token));
+
+                try (final CloseableHttpResponse response = client.execute(read)) {
+                    assertEquals(200, response.getStatusLine().getStatusCode());
+                    assertTrue(seq(response) >= token);
+                    assertEquals(1350 + i * 100, balance(EntityUtils.toString(response.getEntity())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLateFollowerStartsFromACopyOfTheAccounts() throws IOException {
+        // Far fewer records than are written before the follower starts
+        startLeader(16);
+
+        final String payer = createUser("100.00");
+        final String payee = createUser("0");
+        for (int i = 0; i < 20; i++) {
+            createUser("1.00");
+        }
+
+        final String follower = startFollower(2_000, 2_000);
+
+        // An atomic batch keeps streaming after the copy, and is applied as a whole
+        final HttpPost batch = new HttpPost(LEADER + "/transfers/batch?atomic=true");
+        batch.setEntity(new StringEntity(
+            "[{\"from\":\"" + payer + "\",\"to\":\"" + payee + "\",\"amount\":30.00},"
+                + "{\"from\":\"" + payer + "\",\"to\":\"" + payee + "\",\"amount\":20.00}]",
+            ContentType.APPLICATION_JSON
+        ));
+        final long token = seqOf(execute(batch), 200);
+
+        assertEquals(5000, balance(follower, payer, token));
+        assertEquals(5000, balance(follower, payee, token));
+    }
+
+    @Test
+    public void testIdsAsLongAsUsersMayHaveAreStreamed() throws IOException {
+        // Four UTF-8 bytes per character, six in the modified UTF-8 of DataOutputStream.writeUTF
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() * 2 + 4 <= User.MAX_ID_BYTES) {
+            builder.appendCodePoint(0x1F4B0);
+        }
+        final String id = builder.toString();
+        assertTrue(User.isValidId(id));
+
+        final JournalRecord record = new JournalRecord(2L, JournalRecordType.DEPOSIT, id, null, 50L);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        ReplicationProtocol.writeAccount(out, id, 100L, 1L);
+        ReplicationProtocol.writeRecord(out, record);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(ReplicationProtocol.ACCOUNT, in.readByte());
+        assertEquals(id, ReplicationProtocol.readAccountId(in));
+        assertEquals(100L, in.readLong());
+        assertEquals(1L, in.readLong());
+        assertEquals(ReplicationProtocol.RECORD, in.readByte());
+        assertEquals(record, ReplicationProtocol.readRecord(in));
+    }
+
+    @Test
+    public void testFollowerTurnsReadsAwayWhenItCannotKeepUp() throws Exception {
+        startLeader(1 << 10);
+        final String follower = startFollower(500, 300);
+
+        final String user = createUser("1.00");
+        final long token = seqOf(execute(new HttpGet(LEADER + "/balance/" + user)), 200);
+        assertEquals(100, balance(follower, user, token));
+
+        // A token the leader has not reached yet
+        final HttpGet ahead = new HttpGet(follower + "/balance/" + user);
+        ahead.setHeader(ReplicationProtocol.REPLICATION_SEQ.toString(), Long.toString(token + 1_000));
+        assertEquals(503, status(ahead));
+
+        final HttpGet invalid = new HttpGet(follower + "/balance/" + user);
+        invalid.setHeader(ReplicationProtocol.REPLICATION_SEQ.toString(), "-1");
+        assertEquals(400, status(invalid));
+
+        // Without a token, reads are served until the follower has not heard from the leader for too long
+        assertEquals(200, status(new HttpGet(follower + "/balance/" + user)));
+        stopLeader();
+        Thread.sleep(1_000);
+        assertEquals(503, status(new HttpGet(follower + "/balance/" + user)));
+
+        // Writes are never served by a follower
+        assertEquals(404, status(new HttpPost(follower + "/deposit/" + user + "/1.00")));
+    }
+
+    private void startLeader(final int logCapacity) {
+        final InMemoryMoneyTransferDao dao = InMemoryMoneyTransferDao.leader(64, Option.none(), logCapacity);
+
+        leader = new ReplicationLeader(dao);
+        leaderServer = RestServer.start(CONFIG.toBuilder().port(LEADER_PORT).build(), leader.routes(), Option.some(dao));
+    }
+
+    private void stopLeader() {
+        if (leader != null) {
+            leader.close();
+            leaderServer.stop();
+            leader = null;
+        }
+    }
+
+    // Starts a follower of the leader on the next port, and returns its base URL
+    private String startFollower(final long maxStalenessMillis, final long maxWaitMillis) {
+        final int port = LEADER_PORT + 1 + followers.size();
+        final ReplicationFollower follower = new ReplicationFollower(
+            LEADER,
+            new InMemoryMoneyTransferDao(64),
+            maxStalenessMillis,
+            maxWaitMillis
+        );
+
+        followers.add(follower);
+        followerServers.add(RestServer.start(CONFIG.toBuilder().port(port).build(), follower.routes(), Option.none()));
+
+        return "http://localhost:" + port;
+    }
+
+    // Creates an account on the leader, funded with amount unless it is 0
+    private String createUser(final String amount) throws IOException {
+        final String user = UUID.randomUUID().toString();
+
+        seqOf(execute(new HttpPut(LEADER + "/create/" + user)), 201);
+        if (!"0".equals(amount)) {
+            seqOf(execute(new HttpPost(LEADER + "/deposit/" + user + "/" + amount)), 204);
+        }
+
+        return user;
+    }
+
+    private long balance(final String follower, final String user, final long token) throws IOException {
+        final HttpGet read = new HttpGet(follower + "/balance/" + user);
+        read.setHeader(ReplicationProtocol.REPLICATION_SEQ.toString(), Long.toString(token));
+
+        try (final CloseableHttpResponse response = client.execute(read)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            return balance(EntityUtils.toString(response.getEntity()));
+        }
+    }
+
+    private static long balance(final String body) {
+        return RequestParser.parseBalance(body.substring(body.indexOf(':') + 1, body.length() - 1));
+    }
+
+    private CloseableHttpResponse execute(final HttpUriRequest request) throws IOException {
+        return client.execute(request);
+    }
+
+    // Checks the status of the leader's response, and returns the token it carries
+    private static long seqOf(final CloseableHttpResponse response, final int expectedStatus) throws IOException {
+        try (final CloseableHttpResponse closing = response) {
+            assertEquals(expectedStatus, closing.getStatusLine().getStatusCode());
+            return seq(closing);
+        }
+    }
+
+    private static long seq(final CloseableHttpResponse response) {
+        return Long.parseLong(response.getFirstHeader(ReplicationProtocol.REPLICATION_SEQ.toString()).getValue());
+    }
+
+    private int status(final HttpUriRequest request) throws IOException {
+        try (final CloseableHttpResponse response = client.execute(request)) {
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.lmdamato.moneytransfer.server;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import io.vavr.control.Option;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchingHandlerTest {
+    private static final int PORT = 8081;
+    private static final String ENDPOINT = "http://localhost:" + PORT;
+
+    private final ExecutorService executor = ExecutionMode.WORKER_POOL.createExecutor(1).get();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean ranOnIoThread = true;
+
+    private final DispatchingHandler handler = new DispatchingHandler(exchange -> {
+        ranOnIoThread = exchange.isInIoThread();
+        entered.countDown();
+        release.await();
+        exchange.setStatusCode(StatusCodes.OK);
+    }, Option.of(executor), 1);
+
+    private final Undertow server = Undertow.builder().addHttpListener(PORT, "0.0.0.0", handler).build();
+
+    @After
+    public void dispose() {
+        release.countDown();
+        server.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRequestsBeyondTheQueueLimitAreRejectedWith503() throws Exception {
+        server.start();
+
+        try (final CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            final CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> status(client));
+
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            assertFalse(ranOnIoThread);
+            assertEquals(1, handler.pendingRequests());
+
+            // The only slot is taken, so the second request is turned away without waiting
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, status(client));
+
+            release.countDown();
+            assertEquals(HttpStatus.SC_OK, (int) first.get(5, TimeUnit.SECONDS));
+        }
+
+        awaitNoPendingRequests(handler);
+    }
+
+    @Test
+    public void testRequestsWaitingWithoutAThreadStayPendingUntilAnswered() throws Exception {
+        final CompletableFuture<HttpServerExchange> parked = new CompletableFuture<>();
+
+        // Returns at once, leaving the exchange to be answered later, as handlers waiting for the engine do
+        final DispatchingHandler async = new DispatchingHandler(
+            exchange -> exchange.dispatch(SameThreadExecutor.INSTANCE, () -> parked.complete(exchange)),
+            Option.of(executor),
+            1
+        );
+        final Undertow asyncServer = Undertow.builder().addHttpListener(PORT, "0.0.0.0", async).build();
+        asyncServer.start();
+
+        try (final CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            final CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> status(client));
+
+            final HttpServerExchange waiting = parked.get(5, TimeUnit.SECONDS);
+            assertEquals(1, async.pendingRequests());
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, status(client));
+
+            waiting.getIoThread().execute(() -> {
+                waiting.setStatusCode(StatusCodes.OK);
+                waiting.endExchange();
+            });
+            assertEquals(HttpStatus.SC_OK, (int) first.get(5, TimeUnit.SECONDS));
+
+            awaitNoPendingRequests(async);
+        } finally {
+            asyncServer.stop();
+        }
+    }
+
+    // The exchange completes once the response is written, which may be just after the client has read it
+    private static void awaitNoPendingRequests(final DispatchingHandler handler) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (handler.pendingRequests() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, handler.pendingRequests());
+    }
+
+    private static int status(final CloseableHttpClient client) {
+        try (final CloseableHttpResponse response = client.execute(new HttpGet(ENDPOINT + "/"))) {
+            return response.getStatusLine().getStatusCode();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
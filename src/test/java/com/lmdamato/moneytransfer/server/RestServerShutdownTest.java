@@ -0,0 +1,69 @@
+package com.lmdamato.moneytransfer.server;
+
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RestServerShutdownTest {
+    private static final int PORT = 8083;
+    private static final String ENDPOINT = "http://localhost:" + PORT;
+
+    @Test
+    public void testStoppingDrainsRequestsInFlightAndTurnsNewOnesAway() throws Exception {
+        final ServerConfig config = ServerConfig.fromSystemProperties().toBuilder().port(PORT).build();
+        final RestServer server = RestServer.start(config, InMemoryMoneyTransferDao.getInstance());
+        final String prefix = UUID.randomUUID().toString();
+
+        // An import whose body is still being sent when the server is asked to stop
+        final HttpURLConnection upload = (HttpURLConnection) new URL(ENDPOINT + "/import").openConnection();
+        upload.setRequestMethod("POST");
+        upload.setRequestProperty("Content-Type", "text/csv");
+        upload.setDoOutput(true);
+        upload.setChunkedStreamingMode(0);
+
+        final OutputStream body = upload.getOutputStream();
+        body.write((prefix + "-a,1.00\n").getBytes(StandardCharsets.UTF_8));
+        body.flush();
+        Thread.sleep(200);
+
+        final Thread stopping = new Thread(server::stop);
+        stopping.start();
+        Thread.sleep(200);
+
+        assertTrue(stopping.isAlive());
+        assertEquals(503, status(new URL(ENDPOINT + "/balance/" + prefix + "-a")));
+
+        body.write((prefix + "-b,2.00\n").getBytes(StandardCharsets.UTF_8));
+        body.close();
+
+        assertEquals(200, upload.getResponseCode());
+        try (final InputStream in = upload.getInputStream(); final Scanner scanner = new Scanner(in, "UTF-8")) {
+            assertEquals("{\"created\":2,\"skipped\":0,\"rejected\":0}", scanner.nextLine());
+        }
+
+        stopping.join(10_000);
+        assertFalse(stopping.isAlive());
+    }
+
+    private static int status(final URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
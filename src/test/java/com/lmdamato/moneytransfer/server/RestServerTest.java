@@ -2,10 +2,11 @@ package com.lmdamato.moneytransfer.server;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lmdamato.moneytransfer.handler.MoneyTransferHandler;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.server.HttpHandler;
-import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.ResponseCodeHandler;
 import io.vavr.control.Option;
 import lombok.NonNull;
 import org.apache.http.HttpStatus;
@@ -14,6 +15,8 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.junit.After;
@@ -26,6 +29,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.UUID;
 
@@ -33,13 +37,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class RestServerTest {
-    private static final HttpHandler ROOT = new RoutingHandler()
-        .put("/create/{userId}", MoneyTransferHandler::createUserHandler)
-        .get("/balance/{userId}", MoneyTransferHandler::getBalanceHandler)
-        .post("/deposit/{userId}/{amount}", MoneyTransferHandler::depositHandler)
-        .post("/withdraw/{userId}/{amount}", MoneyTransferHandler::withdrawHandler)
-        .post("/transfer/{from}/{to}/{amount}", MoneyTransferHandler::transferHandler)
-        .setFallbackHandler(ResponseCodeHandler.HANDLE_404);
+    private static final HttpHandler ROOT = DispatchingHandler.fromSystemProperties(
+        RestServer.routes(new MoneyTransferHandler(InMemoryMoneyTransferDao.getInstance()))
+    );
 
     private static final int PORT = 8080;
     private static final String ENDPOINT = "http://localhost:" + PORT;
@@ -55,6 +55,7 @@ public class RestServerTest {
         server = Undertow
             .builder()
             .addHttpListener(PORT, "0.0.0.0", ROOT)
+            .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
             .build();
 
         server.start();
@@ -96,6 +97,23 @@ public class RestServerTest {
         }
     }
 
+    @Test
+    public void givenAnIdLongerThanTheLimit_WhenAUserIsCreated_then400IsReturned() throws IOException {
+        // Given
+        final String id = new String(new char[User.MAX_ID_BYTES + 1]).replace('\0', 'x');
+
+        // When
+        try (final CloseableHttpResponse httpResponse = client.execute(new HttpPut(ENDPOINT + "/create/" + id))) {
+            // Then
+            assertEquals(HttpStatus.SC_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+        }
+
+        // Accounts are still created afterwards
+        final String other = UUID.randomUUID().toString();
+        createUser(other);
+        checkBalance(other, 0.0);
+    }
+
     @Test
     public void givenAUserExists_WhenBalanceIsRetrieved_thenTheRequestSucceeds() throws IOException {
         // Given
@@ -108,6 +126,23 @@ public class RestServerTest {
         checkBalance(id, 0.0);
     }
 
+    @Test
+    public void givenAUserWithFunds_WhenBalanceIsRetrieved_thenACompactBodyWithItsLengthIsReturned() throws IOException {
+        // Given
+        final String id = UUID.randomUUID().toString();
+        createUser(id);
+        deposit(id, "1.20");
+
+        // When
+        final HttpUriRequest getBalanceRequest = new HttpGet(ENDPOINT + "/balance/" + id);
+
+        try (final CloseableHttpResponse response = client.execute(getBalanceRequest)) {
+            // Then
+            assertEquals("15", response.getFirstHeader("Content-Length").getValue());
+            assertEquals("{\"amount\":1.20}", inputStreamToString(response.getEntity().getContent()));
+        }
+    }
+
     @Test
     public void givenAUserDoesNotExist_WhenBalanceIsRetrieved_then404IsReturned() throws IOException {
         // Given
@@ -171,6 +206,25 @@ public class RestServerTest {
         }
     }
 
+    @Test
+    public void givenAUserExists_WhenAnAmountWithMoreThanTwoDecimalsOrAnExponentIsDeposited_then400IsReturned() throws IOException {
+        // Given
+        final String id = UUID.randomUUID().toString();
+        createUser(id);
+
+        // When
+        for (final String amount : new String[] {"12.345", "1e3"}) {
+            final HttpUriRequest depositRequest = new HttpPost(ENDPOINT + "/deposit/" + id + "/" + amount);
+
+            try (final CloseableHttpResponse response = client.execute(depositRequest)) {
+                // Then
+                assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_BAD_REQUEST);
+            }
+        }
+
+        checkBalance(id, 0.0);
+    }
+
     @Test
     public void givenAUserWithEnoughFundsExists_WhenValueIsWithdrawn_then204IsReturned() throws IOException {
         // Given
@@ -250,6 +304,56 @@ public class RestServerTest {
         checkBalance(id2, 2.35);
     }
 
+    @Test
+    public void givenAnIdempotencyKey_WhenARequestIsRetried_thenItIsNotAppliedAgain() throws IOException {
+        // Given
+        final String id1 = UUID.randomUUID().toString();
+        final String id2 = UUID.randomUUID().toString();
+        final String key = UUID.randomUUID().toString();
+
+        createUser(id1);
+        createUser(id2);
+        deposit(id1, "3.00");
+
+        final HttpPost transferRequest = new HttpPost(ENDPOINT + "/transfer/" + id1 + "/" + id2 + "/2.00");
+        transferRequest.setHeader("Idempotency-Key", key);
+
+        try (final CloseableHttpResponse response = client.execute(transferRequest)) {
+            assertEquals(HttpStatus.SC_NO_CONTENT, response.getStatusLine().getStatusCode());
+            assertEquals(null, response.getFirstHeader("Idempotent-Replayed"));
+        }
+
+        // When
+        try (final CloseableHttpResponse response = client.execute(transferRequest)) {
+            // Then
+            assertEquals(HttpStatus.SC_NO_CONTENT, response.getStatusLine().getStatusCode());
+            assertEquals("true", response.getFirstHeader("Idempotent-Replayed").getValue());
+        }
+
+        checkBalance(id1, 1.00);
+        checkBalance(id2, 2.00);
+
+        // A failure is replayed too, and the key cannot be reused for another request
+        final HttpPost withdrawRequest = new HttpPost(ENDPOINT + "/withdraw/" + id1 + "/5.00");
+        withdrawRequest.setHeader("Idempotency-Key", key + "-withdraw");
+
+        client.execute(withdrawRequest).close();
+        deposit(id1, "10.00");
+
+        try (final CloseableHttpResponse response = client.execute(withdrawRequest)) {
+            assertEquals(HttpStatus.SC_FORBIDDEN, response.getStatusLine().getStatusCode());
+            assertEquals("\"Insufficient funds\"", inputStreamToString(response.getEntity().getContent()));
+        }
+
+        final HttpPost otherRequest = new HttpPost(ENDPOINT + "/deposit/" + id1 + "/5.00");
+        otherRequest.setHeader("Idempotency-Key", key);
+        try (final CloseableHttpResponse response = client.execute(otherRequest)) {
+            assertEquals(HttpStatus.SC_UNPROCESSABLE_ENTITY, response.getStatusLine().getStatusCode());
+        }
+
+        checkBalance(id1, 11.00);
+    }
+
     @Test
     public void givenOnlyOneUserExists_WhenValueIsTransferred_then404IsReturned() throws IOException {
         // Given
@@ -332,6 +436,261 @@ public class RestServerTest {
         }
     }
 
+    @Test
+    public void givenABatchWithAFailingLeg_WhenItIsAppliedAtomically_then409IsReturnedAndNothingIsApplied() throws IOException {
+        // Given
+        final String id1 = UUID.randomUUID().toString();
+        final String id2 = UUID.randomUUID().toString();
+
+        createUser(id1);
+        createUser(id2);
+        deposit(id1, "12.34");
+
+        // When
+        final HttpPost batchRequest = batchRequest("?atomic=true",
+            "[{\"from\":\"" + id1 + "\",\"to\":\"" + id2 + "\",\"amount\":2.35},"
+                + "{\"from\":\"" + id2 + "\",\"to\":\"" + id1 + "\",\"amount\":\"5.00\"}]"
+        );
+
+        try (final CloseableHttpResponse response = client.execute(batchRequest)) {
+            // Then
+            assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_CONFLICT);
+            assertEquals("[409,403]", inputStreamToString(response.getEntity().getContent()));
+        }
+
+        checkBalance(id1, 12.34);
+        checkBalance(id2, 0.0);
+    }
+
+    @Test
+    public void givenABatchWithAFailingLeg_WhenItIsAppliedBestEffort_then200IsReturnedWithEveryLegStatus() throws IOException {
+        // Given
+        final String id1 = UUID.randomUUID().toString();
+        final String id2 = UUID.randomUUID().toString();
+
+        createUser(id1);
+        createUser(id2);
+        deposit(id1, "12.34");
+
+        // When
+        final HttpPost batchRequest = batchRequest("",
+            "[{\"from\":\"" + id1 + "\",\"to\":\"" + id2 + "\",\"amount\":2.35},"
+                + "{\"from\":\"" + id2 + "\",\"to\":\"" + id1 + "\",\"amount\":5.00},"
+                + "{\"from\":\"" + id2 + "\",\"to\":\"nobody\",\"amount\":1}]"
+        );
+
+        try (final CloseableHttpResponse response = client.execute(batchRequest)) {
+            // Then
+            assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
+            assertEquals("[204,403,404]", inputStreamToString(response.getEntity().getContent()));
+        }
+
+        checkBalance(id1, 9.99);
+        checkBalance(id2, 2.35);
+    }
+
+    @Test
+    public void givenManyUsers_WhenAccountsAreExported_thenEveryAccountIsStreamedAsNdjson() throws IOException {
+        // Given enough accounts to take several chunks
+        final String prefix = UUID.randomUUID().toString();
+        for (int i = 0; i < 1_000; i++) {
+            InMemoryMoneyTransferDao.getInstance().createUser(new User(prefix + "-" + i));
+        }
+        deposit(prefix + "-7", "1.50");
+
+        for (final String query : new String[] {"", "?consistent=true"}) {
+            // When
+            final HttpGet request = new HttpGet(ENDPOINT + "/export/accounts" + query);
+
+            try (final CloseableHttpResponse response = client.execute(request)) {
+                // Then
+                assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+                assertEquals("application/x-ndjson", response.getFirstHeader("Content-Type").getValue());
+                assertEquals("chunked", response.getFirstHeader("Transfer-Encoding").getValue());
+
+                final String[] lines = inputStreamToString(response.getEntity().getContent()).split("\n");
+                final long exported = Arrays.stream(lines).filter(line -> line.contains(prefix)).count();
+
+                assertEquals(1_000, exported);
+                assertTrue(Arrays.asList(lines).contains("{\"userId\":\"" + prefix + "-7\",\"balance\":1.50}"));
+            }
+        }
+    }
+
+    @Test
+    public void givenACsvAndAnNdjsonUpload_WhenTheyAreImported_thenTheCountsAreReturned() throws IOException {
+        // Given
+        final String prefix = UUID.randomUUID().toString();
+        createUser(prefix + "-existing");
+
+        final HttpPost csv = new HttpPost(ENDPOINT + "/import");
+        csv.setEntity(new StringEntity(
+            "userId,openingBalance\n" + prefix + "-a,1.50\n" + prefix + "-existing,3\n" + prefix + "-b,-1\n",
+            ContentType.create("text/csv")
+        ));
+
+        final HttpPost ndjson = new HttpPost(ENDPOINT + "/import");
+        ndjson.setEntity(new StringEntity(
+            "{\"userId\":\"" + prefix + "-c\",\"balance\":0}\n",
+            ContentType.create("application/x-ndjson")
+        ));
+
+        // When
+        try (final CloseableHttpResponse response = client.execute(csv)) {
+            // Then
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+            assertEquals(
+                "{\"created\":1,\"skipped\":1,\"rejected\":1}",
+                inputStreamToString(response.getEntity().getContent())
+            );
+        }
+
+        try (final CloseableHttpResponse response = client.execute(ndjson)) {
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+            assertEquals(
+                "{\"created\":1,\"skipped\":0,\"rejected\":0}",
+                inputStreamToString(response.getEntity().getContent())
+            );
+        }
+
+        checkBalance(prefix + "-a", 1.50);
+        checkBalance(prefix + "-existing", 0.00);
+        checkBalance(prefix + "-c", 0.00);
+
+        final HttpPost unsupported = new HttpPost(ENDPOINT + "/import");
+        unsupported.setEntity(new StringEntity("a,1", ContentType.TEXT_PLAIN));
+
+        try (final CloseableHttpResponse response = client.execute(unsupported)) {
+            assertEquals(HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE, response.getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void givenSomeUsers_WhenTheirBalancesAreRequestedAtOnce_thenTheyAreReturnedInOrder() throws IOException {
+        // Given
+        final String id1 = UUID.randomUUID().toString();
+        final String id2 = UUID.randomUUID().toString();
+
+        createUser(id1);
+        createUser(id2);
+        deposit(id2, "12.34");
+
+        // When
+        for (final String query : new String[] {"", "?consistent=true"}) {
+            final HttpPost request = new HttpPost(ENDPOINT + "/balances" + query);
+            request.setEntity(new StringEntity(
+                "[\"" + id2 + "\",\"nobody\",\"" + id1 + "\"]",
+                ContentType.APPLICATION_JSON
+            ));
+
+            try (final CloseableHttpResponse response = client.execute(request)) {
+                // Then
+                assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+                assertEquals("[12.34,null,0.00]", inputStreamToString(response.getEntity().getContent()));
+            }
+        }
+
+        final HttpPost malformed = new HttpPost(ENDPOINT + "/balances");
+        malformed.setEntity(new StringEntity("[\"" + id1 + "\",1]", ContentType.APPLICATION_JSON));
+
+        try (final CloseableHttpResponse response = client.execute(malformed)) {
+            assertEquals(HttpStatus.SC_BAD_REQUEST, response.getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void givenAMalformedBatch_WhenItIsSubmitted_then400IsReturned() throws IOException {
+        final HttpPost batchRequest = batchRequest("", "[{\"from\":\"abc\",\"amount\":1}]");
+
+        try (final CloseableHttpResponse response = client.execute(batchRequest)) {
+            assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+
+    @Test
+    public void givenAUserWithHistory_WhenItIsPaged_thenEachPageLinksToTheNext() throws IOException {
+        // Given
+        final String id1 = UUID.randomUUID().toString();
+        final String id2 = UUID.randomUUID().toString();
+
+        createUser(id1);
+        createUser(id2);
+        deposit(id1, "10.00");
+        deposit(id1, "0.50");
+        client.execute(new HttpPost(ENDPOINT + "/transfer/" + id1 + "/" + id2 + "/2.5")).close();
+
+        // When
+        try (final CloseableHttpResponse response = history(id1, "?limit=2")) {
+            // Then
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+
+            final String body = inputStreamToString(response.getEntity().getContent());
+            assertTrue(body.startsWith(
+                "{\"entries\":[{\"seq\":1,\"type\":\"deposit\",\"amount\":10.00,\"balance\":10.00,"
+            ));
+            assertTrue(body.endsWith("],\"next\":2}"));
+        }
+
+        try (final CloseableHttpResponse response = history(id1, "?after=2")) {
+            final String body = inputStreamToString(response.getEntity().getContent());
+            assertTrue(body.startsWith("{\"entries\":[{\"seq\":3,\"type\":\"transfer_out\",\"amount\":2.50,"
+                + "\"balance\":8.00,\"counterparty\":\"" + id2 + "\","));
+            assertTrue(body.endsWith("}]}"));
+        }
+    }
+
+    @Test
+    public void givenAnInvalidCursorOrAnUnknownUser_WhenHistoryIsRequested_then400Or404IsReturned() throws IOException {
+        final String id = UUID.randomUUID().toString();
+
+        try (final CloseableHttpResponse response = history(id, "")) {
+            assertEquals(HttpStatus.SC_NOT_FOUND, response.getStatusLine().getStatusCode());
+        }
+
+        createUser(id);
+
+        for (final String query : new String[] {"?after=-1", "?after=x", "?limit=0", "?limit="}) {
+            try (final CloseableHttpResponse response = history(id, query)) {
+                assertEquals(HttpStatus.SC_BAD_REQUEST, response.getStatusLine().getStatusCode());
+            }
+        }
+    }
+
+    @Test
+    public void givenRequestsWereServed_WhenMetricsAreScraped_thenCountsAndTimingsAreExported() throws IOException {
+        // Given
+        final String id = UUID.randomUUID().toString();
+        createUser(id);
+        deposit(id, "1.00");
+        checkBalance(id, 1.00);
+
+        // When
+        try (final CloseableHttpResponse response = client.execute(new HttpGet(ENDPOINT + "/metrics"))) {
+            // Then
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+            assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain; version=0.0.4"));
+
+            final String body = inputStreamToString(response.getEntity().getContent());
+            assertTrue(body.contains("moneytransfer_requests_total{method=\"PUT\",route=\"/create/{userId}\",status=\"201\"} "));
+            assertTrue(body.contains(
+                "moneytransfer_request_duration_seconds_count{method=\"POST\",route=\"/deposit/{userId}/{amount}\"} "
+            ));
+            assertTrue(body.contains(
+                "moneytransfer_response_serialization_seconds_count{method=\"GET\",route=\"/balance/{userId}\"} "
+            ));
+            assertTrue(body.contains("moneytransfer_lock_wait_seconds_bucket{le=\"+Inf\"} "));
+            assertTrue(body.contains("# TYPE moneytransfer_lock_hold_seconds histogram"));
+            assertTrue(body.contains("# TYPE moneytransfer_journal_flush_seconds histogram"));
+        }
+    }
+
+    private HttpPost batchRequest(@NonNull final String query, @NonNull final String body) {
+        final HttpPost request = new HttpPost(ENDPOINT + "/transfers/batch" + query);
+        request.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+
+        return request;
+    }
+
     @SuppressWarnings("unchecked")
     private Option<Double> getAmountFromJsonString(@NonNull final String jsonString) throws IOException {
         final Map<String, Double> map = mapper.readValue(jsonString, Map.class);
@@ -352,6 +711,13 @@ public class RestServerTest {
         return out.toString();
     }
 
+    private CloseableHttpResponse history(
+        @NonNull final String userId,
+        @NonNull final String query
+    ) throws IOException {
+        return client.execute(new HttpGet(ENDPOINT + "/history/" + userId + query));
+    }
+
     private void createUser(@NonNull final String userId) throws IOException {
         final HttpUriRequest createUserRequest = new HttpPut(ENDPOINT + "/create/" + userId);
 
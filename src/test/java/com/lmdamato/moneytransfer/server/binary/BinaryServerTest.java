@@ -0,0 +1,101 @@
+package com.lmdamato.moneytransfer.server.binary;
+
+import com.lmdamato.moneytransfer.storage.InMemoryMoneyTransferDao;
+import com.lmdamato.moneytransfer.storage.MoneyTransferDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinaryServerTest {
+    private BinaryServer server;
+
+    @Before
+    public void setup() throws IOException {
+        final MoneyTransferDao dao = InMemoryMoneyTransferDao.getInstance();
+        server = BinaryServer.start("localhost", 0, 2, dao);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        server.stop(10_000);
+    }
+
+    @Test
+    public void testPipelinedRequestsAreAnsweredByCorrelationId() throws IOException {
+        final String a = UUID.randomUUID().toString();
+        final String b = UUID.randomUUID().toString();
+
+        try (final BinaryClient client = BinaryClient.connect("localhost", server.getPort())) {
+            // Creations complete on another thread, so the rest waits for them
+            final long createA = client.create(a);
+            final long createB = client.create(b);
+            final Map<Long, BinaryClient.Response> created = receive(client, 2);
+
+            assertEquals(BinaryProtocol.OK, created.get(createA).getStatus());
+            assertEquals(BinaryProtocol.OK, created.get(createB).getStatus());
+
+            final long deposit = client.deposit(a, 1_000);
+            final long transfer = client.transfer(a, b, 250);
+            final long overdraw = client.withdraw(b, 251);
+            final long balanceA = client.balance(a);
+            final long balanceB = client.balance(b);
+            final long missing = client.balance(UUID.randomUUID().toString());
+            final long zero = client.deposit(a, 0);
+            final long again = client.create(a);
+            final Map<Long, BinaryClient.Response> responses = receive(client, 8);
+
+            assertEquals(BinaryProtocol.OK, responses.get(deposit).getStatus());
+            assertEquals(BinaryProtocol.OK, responses.get(transfer).getStatus());
+            assertEquals(BinaryProtocol.INSUFFICIENT_FUNDS, responses.get(overdraw).getStatus());
+            assertEquals(750, responses.get(balanceA).getBalance());
+            assertEquals(250, responses.get(balanceB).getBalance());
+            assertEquals(BinaryProtocol.USER_NOT_FOUND, responses.get(missing).getStatus());
+            assertEquals(BinaryProtocol.BAD_REQUEST, responses.get(zero).getStatus());
+            assertEquals(BinaryProtocol.USER_ALREADY_EXISTS, responses.get(again).getStatus());
+        }
+    }
+
+    @Test
+    public void testUnknownOpcodesAreRejectedAndInvalidFramesCloseTheConnection() throws IOException {
+        try (final Socket socket = new Socket("localhost", server.getPort())) {
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeInt(9);
+            out.writeLong(42L);
+            out.writeByte(99);
+            out.flush();
+
+            assertEquals(BinaryProtocol.RESPONSE_BYTES - BinaryProtocol.LENGTH_BYTES, in.readInt());
+            assertEquals(42L, in.readLong());
+            assertEquals(BinaryProtocol.BAD_REQUEST, in.readByte());
+
+            out.writeInt(BinaryProtocol.MAX_FRAME_BYTES);
+            out.flush();
+
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static Map<Long, BinaryClient.Response> receive(final BinaryClient client, final int count)
+        throws IOException {
+        final Map<Long, BinaryClient.Response> responses = new HashMap<>();
+
+        for (int i = 0; i < count; i++) {
+            final BinaryClient.Response response = client.receive();
+            responses.put(response.getCorrelationId(), response);
+        }
+
+        return responses;
+    }
+}
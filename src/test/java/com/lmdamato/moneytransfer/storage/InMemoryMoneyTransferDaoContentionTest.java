@@ -0,0 +1,167 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class InMemoryMoneyTransferDaoContentionTest {
+    private static final Money INITIAL_BALANCE = new Money(new BigDecimal("1000.00"));
+    private static final Money AMOUNT = new Money(new BigDecimal("0.01"));
+    private static final long RUN_MILLIS = 500;
+
+    @Test
+    public void testOpposingTransfersDoNotDeadlock() throws InterruptedException {
+        final InMemoryMoneyTransferDao dao = stripedDao();
+        final User a = new User("deadlock-a");
+        final User b = new User("deadlock-b");
+
+        dao.createUser(a);
+        dao.createUser(b);
+        dao.deposit(a, INITIAL_BALANCE);
+        dao.deposit(b, INITIAL_BALANCE);
+
+        final CountDownLatch done = new CountDownLatch(2);
+        final Thread t1 = new Thread(() -> {
+            for (int i = 0; i < 50_000; i++) {
+                dao.transfer(a, b, AMOUNT);
+            }
+            done.countDown();
+        });
+        final Thread t2 = new Thread(() -> {
+            for (int i = 0; i < 50_000; i++) {
+                dao.transfer(b, a, AMOUNT);
+            }
+            done.countDown();
+        });
+
+        t1.start();
+        t2.start();
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(INITIAL_BALANCE.plus(INITIAL_BALANCE), dao.getBalance(a).get().plus(dao.getBalance(b).get()));
+    }
+
+    @Test
+    public void testReadViewsSeeAConstantTotalWhileTransfersRun() throws InterruptedException {
+        final InMemoryMoneyTransferDao dao = stripedDao();
+        final List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            final User user = new User("view-total-" + i);
+            dao.createUser(user);
+            dao.deposit(user, INITIAL_BALANCE);
+            users.add(user);
+        }
+
+        final Money total = new Money(INITIAL_BALANCE.getAmount().multiply(BigDecimal.valueOf(users.size())));
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Thread> writers = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final Thread writer = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    final User from = users.get(random.nextInt(users.size()));
+                    dao.transfer(from, users.get(random.nextInt(users.size())), AMOUNT);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        try {
+            final long deadline = System.currentTimeMillis() + RUN_MILLIS;
+            while (System.currentTimeMillis() < deadline) {
+                try (final ReadView view = dao.openReadView().get()) {
+                    Money seen = Money.ZERO;
+                    for (final User user : users) {
+                        seen = seen.plus(view.getBalance(user).get());
+                    }
+
+                    assertEquals(total, seen);
+                }
+            }
+        } finally {
+            running.set(false);
+            for (final Thread writer : writers) {
+                writer.join();
+            }
+        }
+    }
+
+    @Test
+    public void testThroughputGrowsWithThreadsOnDisjointPairs() throws InterruptedException {
+        final int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        assumeTrue("Scaling can only be observed on more than one core", threads > 1);
+
+        final double single = throughput(stripedDao(), 1);
+        final double striped = throughput(stripedDao(), threads);
+
+        assertTrue(striped > single);
+    }
+
+    // Each thread moves money back and forth between its own pair of accounts
+    private static double throughput(
+        final InMemoryMoneyTransferDao dao,
+        final int threads
+    ) throws InterruptedException {
+        final List<Thread> workers = new ArrayList<>();
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long id = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            final User a = new User("pair-" + id + "-" + t + "-a");
+            final User b = new User("pair-" + id + "-" + t + "-b");
+
+            dao.createUser(a);
+            dao.createUser(b);
+            dao.deposit(a, INITIAL_BALANCE);
+
+            workers.add(new Thread(() -> {
+                long ops = 0;
+
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+                while (System.nanoTime() < deadline) {
+                    dao.transfer(a, b, AMOUNT);
+                    dao.transfer(b, a, AMOUNT);
+                    ops += 2;
+                }
+
+                operations.addAndGet(ops);
+            }));
+        }
+
+        workers.forEach(Thread::start);
+        start.countDown();
+
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        return operations.get() * 1000.0 / RUN_MILLIS;
+    }
+
+    private static InMemoryMoneyTransferDao stripedDao() {
+        return new InMemoryMoneyTransferDao(InMemoryMoneyTransferDao.DEFAULT_LOCK_STRIPES);
+    }
+}
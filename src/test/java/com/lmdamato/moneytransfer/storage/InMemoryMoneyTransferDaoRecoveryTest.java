@@ -0,0 +1,225 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.exception.JournalFailedException;
+import com.lmdamato.moneytransfer.exception.TransferAlreadyReservedException;
+import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.journal.JournalConfig;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryMoneyTransferDaoRecoveryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBalancesSurviveRestart() {
+        final Option<JournalConfig> config = Option.of(JournalConfig.builder().dir(folder.getRoot().toPath()).build());
+        final User user1 = new User("abc");
+        final User user2 = new User("def");
+
+        final InMemoryMoneyTransferDao dao = new InMemoryMoneyTransferDao(16, config);
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, money("12.34"));
+        dao.withdraw(user1, money("0.34"));
+        dao.transfer(user1, user2, money("2.50"));
+        dao.withdraw(user2, money("100.00"));      // Fails, so it is not journaled
+
+        final InMemoryMoneyTransferDao restarted = new InMemoryMoneyTransferDao(16, config);
+
+        assertEquals(money("9.50"), restarted.getBalance(user1).get());
+        assertEquals(money("2.50"), restarted.getBalance(user2).get());
+        assertTrue(restarted.createUser(user1).getCause() instanceof UserAlreadyExistsException);
+    }
+
+    @Test
+    public void testAtomicBatchSurvivesRestart() {
+        final Option<JournalConfig> config = Option.of(JournalConfig.builder().dir(folder.getRoot().toPath()).build());
+        final User user1 = new User("abc");
+        final User user2 = new User("def");
+
+        final InMemoryMoneyTransferDao dao = new InMemoryMoneyTransferDao(16, config);
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, money("10.00"));
+        dao.transferBatch(Arrays.asList(
+            new TransferLeg(user1, user2, money("4.00")),
+            new TransferLeg(user2, user1, money("1.50")),
+            new TransferLeg(user1, user1, money("1.00"))
+        ), true);
+
+        final InMemoryMoneyTransferDao restarted = new InMemoryMoneyTransferDao(16, config);
+
+        assertEquals(money("7.50"), restarted.getBalance(user1).get());
+        assertEquals(money("2.50"), restarted.getBalance(user2).get());
+    }
+
+    @Test
+    public void testSnapshotTakenUnderLoadPlusJournalTailRestoresBalances() throws Exception {
+        final Option<JournalConfig> config = Option.of(
+            JournalConfig
+                .builder()
+                .dir(folder.getRoot().toPath())
+                .segmentBytes(4096)
+                .snapshotIntervalSeconds(0)
+                .build()
+        );
+
+        final InMemoryMoneyTransferDao dao = new InMemoryMoneyTransferDao(16, config);
+        final List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            final User user = new User("user-" + i);
+            dao.createUser(user);
+            dao.deposit(user, money("100.00"));
+            users.add(user);
+        }
+
+        // Snapshots are taken while transfers keep going
+        final Thread writer = new Thread(() -> {
+            final Random random = new Random(7);
+            for (int i = 0; i < 1_000; i++) {
+                dao.transfer(users.get(random.nextInt(users.size())), users.get(random.nextInt(users.size())), money("1.01"));
+            }
+        });
+
+        writer.start();
+        while (writer.isAlive()) {
+            dao.snapshot();
+        }
+        writer.join();
+
+        dao.snapshot();
+        dao.deposit(users.get(0), money("0.01"));
+
+        final InMemoryMoneyTransferDao restarted = new InMemoryMoneyTransferDao(16, config);
+        Money total = Money.ZERO;
+
+        for (final User user : users) {
+            assertEquals(dao.getBalance(user).get(), restarted.getBalance(user).get());
+            total = total.plus(restarted.getBalance(user).get());
+        }
+
+        assertEquals(money("5000.01"), total);
+    }
+
+    @Test
+    public void testTransfersBetweenNodesSurviveRestartAcrossASnapshot() throws Exception {
+        final Option<JournalConfig> config = Option.of(
+            JournalConfig.builder().dir(folder.getRoot().toPath()).snapshotIntervalSeconds(0).build()
+        );
+        final User payer = new User("abc");
+        final User payee = new User("def");
+        final String destination = "http://localhost:8081";
+
+        final InMemoryMoneyTransferDao dao = new InMemoryMoneyTransferDao(16, config);
+        dao.createUser(payer);
+        dao.createUser(payee);
+        dao.deposit(payer, money("10.00"));
+
+        // Held in the snapshot: a pending reservation, a released one and a credit
+        assertTrue(dao.reserve("held", payer, money("3.00"), destination).isSuccess());
+        assertTrue(dao.reserve("released", payer, money("2.00"), destination).isSuccess());
+        assertTrue(dao.release("released").isSuccess());
+        assertEquals(TransferLedger.Outcome.CREDITED, dao.credit("credited", payee, money("4.00")).get());
+        dao.snapshot();
+
+        // Replayed from the journal: an abort, and a credit already acknowledged by the payer's node
+        assertEquals(TransferLedger.Outcome.ABORTED, dao.abort("aborted").get());
+        assertEquals(TransferLedger.Outcome.CREDITED, dao.credit("acknowledged", payee, money("1.00")).get());
+        assertTrue(dao.acknowledge("acknowledged").isSuccess());
+
+        final InMemoryMoneyTransferDao restarted = new InMemoryMoneyTransferDao(16, config);
+
+        assertEquals(money("7.00"), restarted.getBalance(payer).get());
+        assertEquals(money("5.00"), restarted.getBalance(payee).get());
+
+        final List<TransferLedger.Reservation> reservations = restarted.reservations();
+        reservations.sort(Comparator.comparing(TransferLedger.Reservation::getTxId));
+        assertEquals(2, reservations.size());
+        assertEquals("held", reservations.get(0).getTxId());
+        assertEquals(300, reservations.get(0).getAmount());
+        assertEquals(destination, reservations.get(0).getDestination());
+        assertTrue(!reservations.get(0).isSettled() && reservations.get(1).isSettled());
+
+        // Decisions still stand, so a late abort cannot undo a credit, nor a late credit an abort
+        assertEquals(TransferLedger.Outcome.CREDITED, restarted.abort("credited").get());
+        assertEquals(TransferLedger.Outcome.ABORTED, restarted.credit("aborted", payee, money("1.00")).get());
+        assertTrue(restarted.reserve("held", payer, money("3.00"), destination).getCause()
+            instanceof TransferAlreadyReservedException);
+
+        // An acknowledged decision is forgotten
+        assertEquals(TransferLedger.Outcome.ABORTED, restarted.abort("acknowledged").get());
+        assertEquals(money("7.00"), restarted.getBalance(payer).get());
+        assertEquals(money("5.00"), restarted.getBalance(payee).get());
+    }
+
+    @Test
+    public void testWritesAreRefusedWithoutChangingBalancesOnceTheJournalFails() throws Exception {
+        // Every batch fills its segment, so the journal creates a new file after each one
+        final Option<JournalConfig> config = Option.of(
+            JournalConfig
+                .builder()
+                .dir(folder.getRoot().toPath())
+                .segmentBytes(1)
+                .snapshotIntervalSeconds(0)
+                .build()
+        );
+        final User user1 = new User("abc");
+        final User user2 = new User("def");
+
+        final InMemoryMoneyTransferDao dao = new InMemoryMoneyTransferDao(16, config);
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, money("10.00"));
+
+        // Creating the next segment now fails with an IOException; records already in the open one still succeed
+        try (final Stream<Path> files = Files.walk(folder.getRoot().toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+
+        Money expected = money("10.00");
+        Try<Void> deposit = dao.deposit(user1, money("1.00"));
+
+        for (int i = 0; i < 10 && deposit.isSuccess(); i++) {
+            expected = expected.plus(money("1.00"));
+            Thread.sleep(100);
+            deposit = dao.deposit(user1, money("1.00"));
+        }
+
+        assertTrue(deposit.getCause() instanceof JournalFailedException);
+        assertEquals(expected, dao.getBalance(user1).get());
+
+        assertTrue(dao.transfer(user1, user2, money("5.00")).getCause() instanceof JournalFailedException);
+        assertTrue(dao.withdraw(user1, money("1.00")).getCause() instanceof JournalFailedException);
+        assertTrue(dao.createUser(new User("ghi")).getCause() instanceof JournalFailedException);
+
+        assertEquals(expected, dao.getBalance(user1).get());
+        assertEquals(Money.ZERO, dao.getBalance(user2).get());
+        assertTrue(dao.getBalance(new User("ghi")).getCause() instanceof UserDoesNotExistException);
+    }
+
+    private static Money money(final String amount) {
+        return new Money(new BigDecimal(amount));
+    }
+}
@@ -1,20 +1,44 @@
 package com.lmdamato.moneytransfer.storage;
 
+import com.lmdamato.moneytransfer.exception.BatchAbortedException;
 import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
 import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
 import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
 import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
 import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class InMemoryMoneyTransferDaoTest {
-    private MoneyTransferDao dao = InMemoryMoneyTransferDao.getInstance();
+    private MoneyTransferDao dao;
+
+    @Before
+    public void setup() {
+        dao = createDao();
+    }
+
+    // Engines sharing this suite override both
+    protected MoneyTransferDao createDao() {
+        return InMemoryMoneyTransferDao.getInstance();
+    }
+
+    protected MoneyTransferDao createEmptyDao() {
+        return new InMemoryMoneyTransferDao(InMemoryMoneyTransferDao.DEFAULT_LOCK_STRIPES);
+    }
 
     @Test
     public void testCreateUserSuccess() {
@@ -184,4 +208,240 @@ public class InMemoryMoneyTransferDaoTest {
         assertTrue(t.isFailure());
         assertTrue(t.getCause() instanceof InsufficientFundsException);
     }
+
+    @Test
+    public void testAtomicBatchSuccess() {
+        final User user1 = new User("batch1");
+        final User user2 = new User("batch2");
+        final User user3 = new User("batch3");
+
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.createUser(user3);
+        dao.deposit(user1, new Money(new BigDecimal("10.00")));
+
+        // The second leg spends what the first one credited
+        final Try<List<Try<Void>>> b = dao.transferBatch(Arrays.asList(
+            new TransferLeg(user1, user2, new Money(new BigDecimal("7.00"))),
+            new TransferLeg(user2, user3, new Money(new BigDecimal("5.00")))
+        ), true);
+
+        assertTrue(b.isSuccess());
+        assertTrue(b.get().stream().allMatch(Try::isSuccess));
+
+        assertEquals(new Money(new BigDecimal("3.00")), dao.getBalance(user1).get());
+        assertEquals(new Money(new BigDecimal("2.00")), dao.getBalance(user2).get());
+        assertEquals(new Money(new BigDecimal("5.00")), dao.getBalance(user3).get());
+    }
+
+    @Test
+    public void testAtomicBatchFailure_NothingIsApplied() {
+        final User user1 = new User("batch4");
+        final User user2 = new User("batch5");
+
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, new Money(new BigDecimal("10.00")));
+
+        final Try<List<Try<Void>>> b = dao.transferBatch(Arrays.asList(
+            new TransferLeg(user1, user2, new Money(new BigDecimal("7.00"))),
+            new TransferLeg(user1, user2, new Money(new BigDecimal("7.00"))),
+            new TransferLeg(user2, new User("xxx"), new Money(new BigDecimal("1.00")))
+        ), true);
+
+        assertTrue(b.isSuccess());
+        assertTrue(b.get().get(0).getCause() instanceof BatchAbortedException);
+        assertTrue(b.get().get(1).getCause() instanceof InsufficientFundsException);
+        assertTrue(b.get().get(2).getCause() instanceof BatchAbortedException);
+
+        assertEquals(new Money(new BigDecimal("10.00")), dao.getBalance(user1).get());
+        assertEquals(Money.ZERO, dao.getBalance(user2).get());
+    }
+
+    @Test
+    public void testBestEffortBatch_EachLegIsAppliedOnItsOwn() {
+        final User user1 = new User("batch6");
+        final User user2 = new User("batch7");
+
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, new Money(new BigDecimal("10.00")));
+
+        final Try<List<Try<Void>>> b = dao.transferBatch(Arrays.asList(
+            new TransferLeg(user1, user2, new Money(new BigDecimal("7.00"))),
+            new TransferLeg(user1, user2, new Money(new BigDecimal("7.00"))),
+            new TransferLeg(user2, user1, new Money(new BigDecimal("1.00")))
+        ), false);
+
+        assertTrue(b.isSuccess());
+        assertTrue(b.get().get(0).isSuccess());
+        assertTrue(b.get().get(1).getCause() instanceof InsufficientFundsException);
+        assertTrue(b.get().get(2).isSuccess());
+
+        assertEquals(new Money(new BigDecimal("4.00")), dao.getBalance(user1).get());
+        assertEquals(new Money(new BigDecimal("6.00")), dao.getBalance(user2).get());
+    }
+
+    @Test
+    public void testHistoryRecordsEveryChangeInOrder() {
+        final User user1 = new User("history1");
+        final User user2 = new User("history2");
+
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, new Money(new BigDecimal("10.00")));
+        dao.transfer(user1, user2, new Money(new BigDecimal("3.00")));
+        dao.withdraw(user1, new Money(new BigDecimal("100.00")));
+        dao.withdraw(user1, new Money(new BigDecimal("2.00")));
+
+        final List<HistoryEntry> entries = dao.history(user1, 0, 10).get();
+
+        assertEquals(3, entries.size());
+        assertEquals(HistoryEntry.Type.DEPOSIT, entries.get(0).getType());
+        assertEquals(HistoryEntry.Type.TRANSFER_OUT, entries.get(1).getType());
+        assertEquals(Option.some(user2), entries.get(1).getCounterparty());
+        assertEquals(new Money(new BigDecimal("7.00")), entries.get(1).getBalance());
+        assertEquals(HistoryEntry.Type.WITHDRAW, entries.get(2).getType());
+        assertEquals(new Money(new BigDecimal("5.00")), entries.get(2).getBalance());
+
+        final List<HistoryEntry> received = dao.history(user2, 0, 10).get();
+        assertEquals(1, received.size());
+        assertEquals(HistoryEntry.Type.TRANSFER_IN, received.get(0).getType());
+        assertEquals(Option.some(user1), received.get(0).getCounterparty());
+
+        final List<HistoryEntry> page = dao.history(user1, 1, 1).get();
+        assertEquals(1, page.size());
+        assertEquals(2L, page.get(0).getSeq());
+
+        assertTrue(dao.history(new User("history3"), 0, 10).getCause() instanceof UserDoesNotExistException);
+    }
+
+    @Test
+    public void testReadViewSeesBalancesAsTheyWereWhenOpened() {
+        final User user1 = new User("view1");
+        final User user2 = new User("view2");
+        final User user3 = new User("view3");
+
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user1, new Money(new BigDecimal("10.00")));
+
+        try (final ReadView view = dao.openReadView().get()) {
+            dao.transfer(user1, user2, new Money(new BigDecimal("4.00")));
+            dao.transfer(user2, user1, new Money(new BigDecimal("1.00")));
+            dao.createUser(user3);
+
+            assertEquals(new Money(new BigDecimal("10.00")), view.getBalance(user1).get());
+            assertEquals(Money.ZERO, view.getBalance(user2).get());
+            assertTrue(view.getBalance(user3).getCause() instanceof UserDoesNotExistException);
+
+            try (final ReadView later = dao.openReadView().get()) {
+                dao.deposit(user3, new Money(new BigDecimal("2.00")));
+
+                assertEquals(new Money(new BigDecimal("7.00")), later.getBalance(user1).get());
+                assertEquals(new Money(new BigDecimal("3.00")), later.getBalance(user2).get());
+                assertEquals(Money.ZERO, later.getBalance(user3).get());
+            }
+
+            assertEquals(new Money(new BigDecimal("10.00")), view.getBalance(user1).get());
+        }
+
+        assertEquals(new Money(new BigDecimal("7.00")), dao.getBalance(user1).get());
+        assertEquals(new Money(new BigDecimal("2.00")), dao.getBalance(user3).get());
+    }
+
+    @Test
+    public void testGetBalancesInTheOrderAsked() {
+        final User user1 = new User("balances1");
+        final User user2 = new User("balances2");
+
+        dao.createUser(user1);
+        dao.createUser(user2);
+        dao.deposit(user2, new Money(new BigDecimal("1.50")));
+
+        final List<User> users = Arrays.asList(user2, new User("balances3"), user1);
+
+        for (final boolean consistent : new boolean[] {false, true}) {
+            final long[] balances = dao.getBalances(users, consistent).get();
+
+            assertEquals(3, balances.length);
+            assertEquals(150L, balances[0]);
+            assertEquals(MoneyTransferDao.NO_BALANCE, balances[1]);
+            assertEquals(0L, balances[2]);
+        }
+    }
+
+    @Test
+    public void testConsistentCursorSkipsAccountsCreatedAfterItWasOpened() {
+        final MoneyTransferDao dao = createEmptyDao();
+        final User user1 = new User("cursor1");
+        final User user2 = new User("cursor2");
+
+        dao.createUser(user1);
+        dao.deposit(user1, new Money(new BigDecimal("1.00")));
+
+        final Map<User, Long> live = new HashMap<>();
+        final Map<User, Long> consistent = new HashMap<>();
+
+        try (final AccountCursor liveCursor = dao.accounts(false).get();
+             final AccountCursor consistentCursor = dao.accounts(true).get()) {
+            dao.createUser(user2);
+            dao.withdraw(user1, new Money(new BigDecimal("0.25")));
+
+            while (liveCursor.next(1, live::put)) { }
+            while (consistentCursor.next(1, consistent::put)) { }
+        }
+
+        assertEquals(2, live.size());
+        assertEquals(Long.valueOf(75L), live.get(user1));
+        assertEquals(Collections.singletonMap(user1, 100L), consistent);
+    }
+
+    @Test
+    public void testConsistentCursorReadsAccountsChangedOnEitherSideOfIt() {
+        final MoneyTransferDao dao = createEmptyDao();
+        final User user1 = new User("cursor3");
+        final User user2 = new User("cursor4");
+        final User user3 = new User("cursor5");
+
+        for (final User user : new User[] {user1, user2, user3}) {
+            dao.createUser(user);
+            dao.deposit(user, new Money(new BigDecimal("1.00")));
+        }
+
+        final Map<User, Long> seen = new HashMap<>();
+
+        try (final AccountCursor cursor = dao.accounts(true).get()) {
+            assertTrue(cursor.next(1, seen::put));
+
+            // Between an account the cursor has passed and one it has yet to reach, twice
+            dao.transfer(user1, user3, new Money(new BigDecimal("0.50")));
+            dao.transfer(user3, user1, new Money(new BigDecimal("0.25")));
+
+            while (cursor.next(1, seen::put)) { }
+        }
+
+        assertEquals(3, seen.size());
+        assertEquals(Long.valueOf(100L), seen.get(user1));
+        assertEquals(Long.valueOf(100L), seen.get(user3));
+        assertEquals(new Money(new BigDecimal("1.25")), dao.getBalance(user3).get());
+    }
+
+    @Test
+    public void testCreateUsersSkipsExistingUsers() {
+        final User existing = new User("import1");
+        dao.createUser(existing);
+        dao.deposit(existing, new Money(new BigDecimal("1.00")));
+
+        final List<User> users = Arrays.asList(new User("import2"), existing, new User("import3"), new User("import2"));
+        final Try<Integer> created = dao.createUsers(users, new long[] {250L, 999L, 0L, 777L});
+
+        assertEquals(Integer.valueOf(2), created.get());
+        assertEquals(new Money(new BigDecimal("2.50")), dao.getBalance(new User("import2")).get());
+        assertEquals(Money.ZERO, dao.getBalance(new User("import3")).get());
+        assertEquals(new Money(new BigDecimal("1.00")), dao.getBalance(existing).get());
+        assertEquals(1, dao.history(new User("import2"), 0, 10).get().size());
+
+        assertTrue(dao.createUsers(users, new long[] {1L}).getCause() instanceof IllegalArgumentException);
+    }
 }
@@ -0,0 +1,187 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.model.HistoryEntry;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongBalanceStoreTest {
+    private final LongBalanceStore store = new LongBalanceStore();
+
+    @Test
+    public void testSlotsAreDenseAndStable() {
+        for (int i = 0; i < 200_000; i++) {
+            assertEquals(i, store.create(new User("user-" + i)));
+        }
+
+        assertEquals(200_000, store.size());
+
+        for (int i = 0; i < 200_000; i++) {
+            assertEquals(i, store.slotOf(new User("user-" + i)));
+            assertEquals(new User("user-" + i), store.userOf(i));
+        }
+
+        assertEquals(LongBalanceStore.MISSING, store.create(new User("user-7")));
+        assertEquals(LongBalanceStore.MISSING, store.slotOf(new User("user-200000")));
+        assertEquals(LongBalanceStore.MISSING, store.slotOf(new User("user-")));
+    }
+
+    @Test
+    public void testIdsAreComparedByTheirBytes() {
+        final int accented = store.create(new User("caf\u00e9"));
+        final int plain = store.create(new User("cafe"));
+        final int empty = store.create(new User(""));
+
+        assertNotEquals(accented, plain);
+        assertEquals(accented, store.slotOf(new User("caf\u00e9")));
+        assertEquals(plain, store.slotOf(new User("cafe")));
+        assertEquals(empty, store.slotOf(new User("")));
+        assertEquals(LongBalanceStore.MISSING, store.slotOf(new User("caf")));
+        assertEquals(new User("caf\u00e9"), store.userOf(accented));
+    }
+
+    @Test
+    public void testBalancesAreKeptPerSlot() {
+        final int a = store.create(new User("a"));
+        final int b = store.create(new User("b"));
+
+        store.set(a, 1234L);
+        store.setSeq(b, 99L);
+
+        assertEquals(1234L, store.get(a));
+        assertEquals(0L, store.get(b));
+        assertEquals(99L, store.getSeq(b));
+    }
+
+    @Test
+    public void testLookupsRunConcurrentlyWithCreation() throws InterruptedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                for (int i = offset; i < 100_000; i += 4) {
+                    final User user = new User("user-" + i);
+                    final int slot = store.create(user);
+
+                    // Whoever created an account finds it straight away
+                    if (slot == LongBalanceStore.MISSING || store.slotOf(user) != slot) {
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(failed.get());
+        assertEquals(100_000, store.size());
+    }
+
+    @Test
+    public void testEverySlotBelowTheSizeCanBeReadWhileAccountsAreCreated() throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        // Reads up to the size the way cursors and account copies do, over and over as slots are handed out
+        final Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                try {
+                    final int size = store.size();
+                    for (int slot = Math.max(0, size - 4); slot < size; slot++) {
+                        store.userOf(slot);
+                    }
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    return;
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 10 * 65_536 + 10; i++) {
+            store.create(new User("user-" + i));
+        }
+
+        done.set(true);
+        reader.join();
+
+        assertFalse(failed.get());
+    }
+
+    @Test
+    public void testHistoryIsPagedAcrossChunks() {
+        final int a = store.create(new User("a"));
+        final int b = store.create(new User("b"));
+
+        // Enough entries to fill every growing chunk and a few of the largest ones
+        for (int i = 1; i <= 20_000; i++) {
+            store.set(a, i);
+            store.appendHistory(a, HistoryEntry.Type.DEPOSIT, 1L, i % 2 == 0 ? b : LongBalanceStore.NO_COUNTERPARTY, i);
+        }
+
+        assertEquals(20_000L, store.historySize(a));
+        assertEquals(0L, store.historySize(b));
+
+        long seen = 0;
+        for (List<HistoryEntry> page; !(page = store.history(a, seen, 333, this::userOf)).isEmpty(); ) {
+            for (final HistoryEntry entry : page) {
+                seen++;
+                assertEquals(seen, entry.getSeq());
+                assertEquals(Money.ofMinorUnits(seen), entry.getBalance());
+                assertEquals(seen, entry.getTimestamp());
+                assertEquals(seen % 2 == 0 ? Option.some(new User("b")) : Option.none(), entry.getCounterparty());
+            }
+        }
+
+        assertEquals(20_000L, seen);
+        assertTrue(store.history(b, 0, 10, this::userOf).isEmpty());
+    }
+
+    @Test
+    public void testHistoryFitsInTheSmallestArenas() {
+        final HistoryLedger ledger = new HistoryLedger(0);
+        ledger.ensureCapacity(99);
+
+        for (int i = 1; i <= 5_000; i++) {
+            ledger.append(i % 100, HistoryEntry.Type.DEPOSIT, 1L, i, HistoryLedger.NO_COUNTERPARTY, i);
+        }
+
+        final List<HistoryEntry> entries = ledger.read(7, 0, 100, slot -> Option.none());
+        assertEquals(50, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(Money.ofMinorUnits(7 + 100 * i), entries.get(i).getBalance());
+        }
+    }
+
+    @Test
+    public void testChunksCoverEveryIndexOnce() {
+        long next = 0;
+
+        for (int chunk = 0; chunk < 20; chunk++) {
+            assertEquals(next, HistoryLedger.firstIndexOf(chunk));
+            assertEquals(chunk, HistoryLedger.chunkOf(next));
+            assertEquals(chunk, HistoryLedger.chunkOf(next + HistoryLedger.entriesIn(chunk) - 1));
+
+            next += HistoryLedger.entriesIn(chunk);
+        }
+    }
+
+    private Option<User> userOf(final long slot) {
+        return Option.of(store.userOf((int) slot));
+    }
+}
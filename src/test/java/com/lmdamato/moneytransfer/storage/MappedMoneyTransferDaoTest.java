@@ -0,0 +1,147 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.User;
+import com.lmdamato.moneytransfer.storage.journal.JournalConfig;
+import io.vavr.control.Option;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Runs the whole in-memory suite against an engine whose accounts live in a mapped file, one file per test
+public class MappedMoneyTransferDaoTest extends InMemoryMoneyTransferDaoTest {
+    private static final int CAPACITY = 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<MappedMoneyTransferDao> opened = new ArrayList<>();
+
+    @Override
+    protected MoneyTransferDao createDao() {
+        return createEmptyDao();
+    }
+
+    @Override
+    protected MoneyTransferDao createEmptyDao() {
+        try {
+            return open(folder.newFile().toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (final MappedMoneyTransferDao dao : opened) {
+            dao.close();
+        }
+    }
+
+    @Test
+    public void testAccountsSurviveReopeningTheFile() throws IOException {
+        final Path file = folder.newFile().toPath();
+        final User user1 = new User("mapped1");
+        final User user2 = new User("mapped2");
+
+        final MappedMoneyTransferDao first = open(file);
+        first.createUser(user1);
+        first.createUser(user2);
+        first.deposit(user1, new Money(new BigDecimal("10.00")));
+        first.transfer(user1, user2, new Money(new BigDecimal("2.50")));
+        first.close();
+
+        final MappedMoneyTransferDao second = open(file);
+
+        assertEquals(new Money(new BigDecimal("7.50")), second.getBalance(user1).get());
+        assertEquals(new Money(new BigDecimal("2.50")), second.getBalance(user2).get());
+        assertTrue(second.createUser(user1).getCause() instanceof UserAlreadyExistsException);
+
+        // New accounts go after the ones already in the file
+        final User user3 = new User("mapped3");
+        second.createUser(user3);
+        second.transfer(user2, user3, new Money(new BigDecimal("1.00")));
+
+        assertEquals(new Money(new BigDecimal("1.50")), second.getBalance(user2).get());
+        assertEquals(new Money(new BigDecimal("1.00")), second.getBalance(user3).get());
+    }
+
+    @Test
+    public void testJournalIsOnlyReplayedPastWhatTheFileHolds() throws IOException {
+        final Option<JournalConfig> journal = Option.of(
+            JournalConfig.builder().dir(folder.newFolder().toPath()).build()
+        );
+        final Path file = folder.newFile().toPath();
+        final User user = new User("mapped4");
+
+        final MappedMoneyTransferDao first = open(file, journal);
+        first.createUser(user);
+        first.deposit(user, new Money(new BigDecimal("10.00")));
+        first.withdraw(user, new Money(new BigDecimal("3.00")));
+        first.close();
+
+        assertEquals(new Money(new BigDecimal("7.00")), open(file, journal).getBalance(user).get());
+
+        // A new file is rebuilt from the journal alone
+        final MappedMoneyTransferDao rebuilt = open(folder.newFile().toPath(), journal);
+        assertEquals(new Money(new BigDecimal("7.00")), rebuilt.getBalance(user).get());
+    }
+
+    @Test
+    public void testChangesTheJournalLostAreRebuiltFromIt() throws IOException {
+        final Option<JournalConfig> journal = Option.of(
+            JournalConfig.builder().dir(folder.newFolder().toPath()).build()
+        );
+        final Path file = folder.newFile().toPath();
+        final User ahead = new User("mapped5");
+        final User halfWritten = new User("mapped6");
+        final User lost = new User("mapped7");
+
+        final MappedMoneyTransferDao first = open(file, journal);
+        first.createUser(ahead);
+        first.createUser(halfWritten);
+        first.deposit(ahead, new Money(new BigDecimal("10.00")));
+        first.deposit(halfWritten, new Money(new BigDecimal("5.00")));
+        first.close();
+
+        // As left by a process that died before its last records became durable, or halfway through writing them
+        try (final MappedAccountTable table = MappedAccountTable.open(file, CAPACITY)) {
+            table.set(table.find(ahead.getId()), 99_900L, 1_000L);
+            table.setBalance(table.find(halfWritten.getId()), 99_900L);
+            table.setSeq(table.find(halfWritten.getId()), AccountTable.WRITING);
+            table.insert(lost.getId(), slot -> { });
+        }
+
+        final MappedMoneyTransferDao second = open(file, journal);
+
+        assertEquals(new Money(new BigDecimal("10.00")), second.getBalance(ahead).get());
+        assertEquals(new Money(new BigDecimal("5.00")), second.getBalance(halfWritten).get());
+        assertEquals(0L, second.getBalance(lost).get().getMinorUnits());
+
+        // The account whose creation never reached the journal is journaled now
+        second.snapshot();
+        assertEquals(0L, open(folder.newFile().toPath(), journal).getBalance(lost).get().getMinorUnits());
+    }
+
+    private MappedMoneyTransferDao open(final Path file) throws IOException {
+        return open(file, Option.none());
+    }
+
+    private MappedMoneyTransferDao open(final Path file, final Option<JournalConfig> journal) throws IOException {
+        final MappedMoneyTransferDao dao = MappedMoneyTransferDao.open(file, CAPACITY, 16, journal);
+        opened.add(dao);
+
+        return dao;
+    }
+}
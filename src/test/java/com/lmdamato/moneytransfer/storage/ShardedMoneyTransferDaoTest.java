@@ -0,0 +1,230 @@
+package com.lmdamato.moneytransfer.storage;
+
+import com.lmdamato.moneytransfer.exception.InsufficientFundsException;
+import com.lmdamato.moneytransfer.exception.UserAlreadyExistsException;
+import com.lmdamato.moneytransfer.exception.UserDoesNotExistException;
+import com.lmdamato.moneytransfer.model.HistoryEntry;
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
+import com.lmdamato.moneytransfer.model.User;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedMoneyTransferDaoTest {
+    private final ShardedMoneyTransferDao dao = new ShardedMoneyTransferDao(4, 1024);
+
+    @After
+    public void dispose() throws InterruptedException {
+        dao.close();
+    }
+
+    @Test
+    public void testCreateUserFailure_UserAlreadyExists() {
+        final User user = new User("abc");
+
+        assertTrue(dao.createUser(user).isSuccess());
+
+        final Try<User> u = dao.createUser(user);
+        assertTrue(u.isFailure());
+        assertTrue(u.getCause() instanceof UserAlreadyExistsException);
+    }
+
+    @Test
+    public void testDepositAndWithdraw() {
+        final User user = new User("def");
+        dao.createUser(user);
+
+        assertTrue(dao.deposit(user, money("12.34")).isSuccess());
+        assertTrue(dao.withdraw(user, money("2.34")).isSuccess());
+        assertEquals(money("10.00"), dao.getBalance(user).get());
+
+        final Try<Void> w = dao.withdraw(user, money("10.01"));
+        assertTrue(w.isFailure());
+        assertTrue(w.getCause() instanceof InsufficientFundsException);
+    }
+
+    @Test
+    public void testBatchesAreAppliedLegByLeg() {
+        final List<User> users = createUsers(3);
+        dao.deposit(users.get(0), money("5.00"));
+
+        final List<TransferLeg> legs = Arrays.asList(
+            new TransferLeg(users.get(0), users.get(1), money("5.00")),
+            new TransferLeg(users.get(1), users.get(2), money("3.00")),
+            new TransferLeg(users.get(1), users.get(2), money("3.00"))
+        );
+
+        final Try<List<Try<Void>>> b = dao.transferBatch(legs, false);
+        assertTrue(b.get().get(1).isSuccess());
+        assertTrue(b.get().get(2).getCause() instanceof InsufficientFundsException);
+        assertEquals(money("3.00"), dao.getBalance(users.get(2)).get());
+
+        assertTrue(dao.transferBatch(legs, true).getCause() instanceof UnsupportedOperationException);
+    }
+
+    @Test
+    public void testTransferBetweenAllShards() {
+        final List<User> users = createUsers(16);
+        dao.deposit(users.get(0), money("16.00"));
+
+        for (int i = 1; i < users.size(); i++) {
+            assertTrue(dao.transfer(users.get(0), users.get(i), money("1.00")).isSuccess());
+        }
+
+        for (final User user : users) {
+            assertEquals(money("1.00"), dao.getBalance(user).get());
+        }
+    }
+
+    @Test
+    public void testTransferFailure_ReceivingUserDoesNotExist() {
+        final User from = new User("ghi");
+        dao.createUser(from);
+        dao.deposit(from, money("5.00"));
+
+        final Try<Void> t = dao.transfer(from, new User("xxx"), money("1.00"));
+
+        assertTrue(t.isFailure());
+        assertTrue(t.getCause() instanceof UserDoesNotExistException);
+        assertEquals(money("5.00"), dao.getBalance(from).get());
+    }
+
+    @Test
+    public void testGetBalancesAcrossShards() {
+        final List<User> users = createUsers(8);
+        dao.deposit(users.get(3), money("3.50"));
+        users.add(new User("nobody"));
+
+        final long[] balances = dao.getBalances(users, false).get();
+
+        assertEquals(9, balances.length);
+        assertEquals(350L, balances[3]);
+        assertEquals(0L, balances[7]);
+        assertEquals(MoneyTransferDao.NO_BALANCE, balances[8]);
+        assertTrue(dao.getBalances(users, true).getCause() instanceof UnsupportedOperationException);
+    }
+
+    @Test
+    public void testHistoryRecordsTransfersAcrossShards() {
+        final List<User> users = createUsers(8);
+        dao.deposit(users.get(0), money("8.00"));
+
+        for (int i = 1; i < users.size(); i++) {
+            dao.transfer(users.get(0), users.get(i), money("1.00"));
+        }
+        // Failed transfers leave no trace
+        dao.transfer(users.get(0), new User("xxx"), money("1.00"));
+        dao.transfer(users.get(0), users.get(1), money("5.00"));
+
+        final List<HistoryEntry> entries = dao.history(users.get(0), 0, 100).get();
+
+        assertEquals(8, entries.size());
+        assertEquals(HistoryEntry.Type.DEPOSIT, entries.get(0).getType());
+        for (int i = 1; i < users.size(); i++) {
+            assertEquals(HistoryEntry.Type.TRANSFER_OUT, entries.get(i).getType());
+            assertEquals(Option.some(users.get(i)), entries.get(i).getCounterparty());
+            assertEquals(money((8 - i) + ".00"), entries.get(i).getBalance());
+        }
+
+        for (int i = 1; i < users.size(); i++) {
+            final List<HistoryEntry> received = dao.history(users.get(i), 0, 100).get();
+            assertEquals(1, received.size());
+            assertEquals(HistoryEntry.Type.TRANSFER_IN, received.get(0).getType());
+            assertEquals(Option.some(users.get(0)), received.get(0).getCounterparty());
+        }
+    }
+
+    @Test
+    public void testConcurrentTransfersPreserveTotal() {
+        final List<User> users = createUsers(32);
+        for (final User user : users) {
+            dao.deposit(user, money("100.00"));
+        }
+
+        final Random random = new Random(42);
+        final List<CompletableFuture<Try<Void>>> results = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            results.add(dao.transferAsync(
+                users.get(random.nextInt(users.size())),
+                users.get(random.nextInt(users.size())),
+                money("3.17")
+            ));
+        }
+
+        results.forEach(CompletableFuture::join);
+
+        Money total = Money.ZERO;
+        for (final User user : users) {
+            total = total.plus(dao.getBalance(user).get());
+        }
+
+        assertEquals(money("3200.00"), total);
+    }
+
+    @Test
+    public void testCloseCompletesEveryCommandAndKeepsTheTotal() throws Exception {
+        final List<User> users = createUsers(32);
+        for (final User user : users) {
+            dao.deposit(user, money("100.00"));
+        }
+
+        // Transfers keep being published while the engine closes
+        final List<CompletableFuture<Try<Void>>> results = new ArrayList<>();
+        final Thread publisher = new Thread(() -> {
+            final Random random = new Random(42);
+            for (int i = 0; i < 50_000; i++) {
+                results.add(dao.transferAsync(
+                    users.get(random.nextInt(users.size())),
+                    users.get(random.nextInt(users.size())),
+                    money("3.17")
+                ));
+            }
+        });
+
+        publisher.start();
+        Thread.sleep(20);
+        dao.close();
+        publisher.join();
+
+        for (final CompletableFuture<Try<Void>> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+
+        Money total = Money.ZERO;
+        for (final User user : users) {
+            total = total.plus(dao.getBalance(user).get());
+        }
+
+        assertEquals(money("3200.00"), total);
+        assertTrue(dao.deposit(users.get(0), money("1.00")).getCause() instanceof IllegalStateException);
+    }
+
+    private List<User> createUsers(final int count) {
+        final List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final User user = new User("user-" + i);
+            dao.createUser(user);
+            users.add(user);
+        }
+
+        return users;
+    }
+
+    private static Money money(final String amount) {
+        return new Money(new BigDecimal(amount));
+    }
+}
@@ -0,0 +1,197 @@
+package com.lmdamato.moneytransfer.storage.journal;
+
+import com.lmdamato.moneytransfer.model.Money;
+import com.lmdamato.moneytransfer.model.TransferLeg;
+import com.lmdamato.moneytransfer.model.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileJournalTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendedRecordsAreReplayedInOrder() throws IOException {
+        final JournalConfig config = config(folder.getRoot().toPath(), 64);
+
+        try (final FileJournal journal = FileJournal.open(config, r -> { })) {
+            final List<CompletableFuture<Long>> durable = new ArrayList<>();
+
+            for (int i = 0; i < 1000; i++) {
+                final CompletableFuture<Long> f = new CompletableFuture<>();
+                assertEquals(i + 1, journal.append(JournalRecordType.TRANSFER, "from" + i, "to" + i, i, f));
+                durable.add(f);
+            }
+
+            for (int i = 0; i < durable.size(); i++) {
+                assertEquals(Long.valueOf(i + 1), durable.get(i).join());
+            }
+        }
+
+        final List<JournalRecord> replayed = new ArrayList<>();
+        try (final FileJournal journal = FileJournal.open(config, replayed::add)) {
+            // Sequence numbers continue after the replayed records
+            assertEquals(1001, journal.append(JournalRecordType.CREATE, "abc", null, 0, null));
+        }
+
+        assertEquals(1000, replayed.size());
+        for (int i = 0; i < replayed.size(); i++) {
+            final JournalRecord record = replayed.get(i);
+
+            assertEquals(i + 1, record.getSeq());
+            assertEquals(JournalRecordType.TRANSFER, record.getType());
+            assertEquals("from" + i, record.getUserId());
+            assertEquals("to" + i, record.getCounterpartyId());
+            assertEquals(i, record.getAmount());
+        }
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final JournalConfig config = config(dir, 1);
+
+        try (final FileJournal journal = FileJournal.open(config, r -> { })) {
+            final CompletableFuture<Long> durable = new CompletableFuture<>();
+            journal.append(JournalRecordType.CREATE, "abc", null, 0, null);
+            journal.append(JournalRecordType.DEPOSIT, "abc", null, 1234, durable);
+            durable.join();
+        }
+
+        // Simulate a crash in the middle of writing the last record
+        try (final FileChannel channel = FileChannel.open(FileJournal.segmentPath(dir, 1), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        final List<JournalRecord> replayed = new ArrayList<>();
+        try (final FileJournal journal = FileJournal.open(config, replayed::add)) {
+            final CompletableFuture<Long> durable = new CompletableFuture<>();
+            journal.append(JournalRecordType.DEPOSIT, "abc", null, 99, durable);
+            assertEquals(Long.valueOf(2), durable.join());
+        }
+
+        replayed.clear();
+        try (final FileJournal journal = FileJournal.open(config, replayed::add)) {
+            assertEquals(2, replayed.size());
+            assertEquals(JournalRecordType.CREATE, replayed.get(0).getType());
+            assertNull(replayed.get(0).getCounterpartyId());
+            assertEquals(99, replayed.get(1).getAmount());
+            assertTrue(journal.isEnabled());
+        }
+    }
+
+    @Test
+    public void testTornBatchIsDroppedAsAWhole() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final JournalConfig config = config(dir, 64);
+        final List<TransferLeg> legs = Arrays.asList(
+            new TransferLeg(new User("abc"), new User("def"), Money.ofMinorUnits(100)),
+            new TransferLeg(new User("def"), new User("ghi"), Money.ofMinorUnits(50))
+        );
+
+        try (final FileJournal journal = FileJournal.open(config, r -> { })) {
+            final CompletableFuture<Long> durable = new CompletableFuture<>();
+            journal.append(JournalRecordType.CREATE, "abc", null, 0, null);
+            assertEquals(2, journal.appendTransfers(legs, null));
+            assertEquals(5, journal.appendTransfers(legs, durable));
+            assertEquals(Long.valueOf(7), durable.join());
+        }
+
+        // Simulate a crash after the first leg of the second batch has been written
+        try (final FileChannel channel = FileChannel.open(FileJournal.segmentPath(dir, 1), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        final List<JournalRecord> replayed = new ArrayList<>();
+        try (final FileJournal journal = FileJournal.open(config, replayed::add)) {
+            assertEquals(4, journal.lastSeq());
+            assertEquals(5, journal.append(JournalRecordType.DEPOSIT, "abc", null, 1, null));
+        }
+
+        assertEquals(3, replayed.size());
+        assertEquals(JournalRecordType.TRANSFER, replayed.get(1).getType());
+        assertEquals("def", replayed.get(2).getUserId());
+        assertEquals(4, replayed.get(2).getSeq());
+
+        replayed.clear();
+        try (final FileJournal journal = FileJournal.open(config, replayed::add)) {
+            assertEquals(4, replayed.size());
+            assertEquals(JournalRecordType.DEPOSIT, replayed.get(3).getType());
+        }
+    }
+
+    @Test
+    public void testARecordTooLargeToEncodeFailsTheJournal() throws IOException {
+        final String id = new String(new char[JournalCodec.MAX_BODY_BYTES]).replace('\0', 'x');
+
+        try (final FileJournal journal = FileJournal.open(config(folder.getRoot().toPath(), 64), r -> { })) {
+            final CompletableFuture<Long> tooLarge = new CompletableFuture<>();
+            journal.append(JournalRecordType.CREATE, id, null, 0, tooLarge);
+            assertTrue(tooLarge.handle((seq, e) -> e instanceof IOException).join());
+
+            // Later records are failed by the committer, rather than left waiting for one that is gone
+            final CompletableFuture<Long> later = new CompletableFuture<>();
+            journal.append(JournalRecordType.CREATE, "abc", null, 0, later);
+            assertTrue(later.handle((seq, e) -> e instanceof IOException).join());
+            assertTrue(journal.isFailed());
+        }
+    }
+
+    private static JournalConfig config(final Path dir, final int maxBatchSize) {
+        return JournalConfig
+            .builder()
+            .dir(dir)
+            .maxBatchSize(maxBatchSize)
+            .maxBatchDelayMicros(50)
+            .ringCapacity(1024)
+            .build();
+    }
+
+    @Test
+    public void testSegmentsBeforeASequenceAreSkippedAndDeleted() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final JournalConfig config = JournalConfig
+            .builder()
+            .dir(dir)
+            .maxBatchSize(1)
+            .segmentBytes(256)
+            .ringCapacity(1024)
+            .build();
+
+        try (final FileJournal journal = FileJournal.open(config, r -> { })) {
+            for (int i = 0; i < 100; i++) {
+                final CompletableFuture<Long> durable = new CompletableFuture<>();
+                journal.append(JournalRecordType.DEPOSIT, "abc", null, i, durable);
+                durable.join();
+            }
+
+            journal.truncateUpTo(50);
+
+            assertTrue(!Files.exists(FileJournal.segmentPath(dir, 1)));
+        }
+
+        final List<JournalRecord> replayed = new ArrayList<>();
+        try (final FileJournal journal = FileJournal.open(config, 90, replayed::add)) {
+            assertEquals(100, journal.lastSeq());
+        }
+
+        assertEquals(10, replayed.size());
+        assertEquals(91, replayed.get(0).getSeq());
+        assertEquals(100, replayed.get(9).getSeq());
+    }
+}
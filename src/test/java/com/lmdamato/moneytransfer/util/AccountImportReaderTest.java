@@ -0,0 +1,58 @@
+package com.lmdamato.moneytransfer.util;
+
+import com.lmdamato.moneytransfer.model.User;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccountImportReaderTest {
+    @Test
+    public void testCsvIsReadInBatchesAndMalformedLinesAreRejected() throws IOException {
+        final AccountImportReader reader = reader(
+            AccountImportReader.Format.CSV,
+            "userId,openingBalance\na,1.23\n\"b,\"\"c\"\"\",0\nd\ne,-1\n\nf,12.345\ng,4\n"
+        );
+        final List<User> users = new ArrayList<>();
+        final long[] balances = new long[2];
+
+        assertEquals(2, reader.next(users, balances));
+        assertEquals(Arrays.asList(new User("a"), new User("b,\"c\"")), users);
+        assertEquals(123L, balances[0]);
+        assertEquals(0L, balances[1]);
+
+        assertEquals(1, reader.next(users, balances));
+        assertEquals(Arrays.asList(new User("g")), users);
+        assertEquals(400L, balances[0]);
+
+        assertEquals(0, reader.next(users, balances));
+        assertEquals(3, reader.rejected());
+    }
+
+    @Test
+    public void testNdjsonIsReadAsExported() throws IOException {
+        final AccountImportReader reader = reader(
+            AccountImportReader.Format.NDJSON,
+            "{\"userId\":\"a\",\"balance\":1.23}\n{\"userId\":\"b\",\"openingBalance\":\"5\"}\n"
+                + "{\"userId\":\"c\"}\n{\"userId\":\"d\",\"balance\":1}{}\nnot json\n"
+        );
+        final List<User> users = new ArrayList<>();
+        final long[] balances = new long[10];
+
+        assertEquals(2, reader.next(users, balances));
+        assertEquals(Arrays.asList(new User("a"), new User("b")), users);
+        assertEquals(123L, balances[0]);
+        assertEquals(500L, balances[1]);
+        assertEquals(3, reader.rejected());
+    }
+
+    private static AccountImportReader reader(final AccountImportReader.Format format, final String body) {
+        return new AccountImportReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), format);
+    }
+}
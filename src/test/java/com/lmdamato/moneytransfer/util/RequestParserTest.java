@@ -0,0 +1,41 @@
+package com.lmdamato.moneytransfer.util;
+
+import org.junit.Test;
+
+import static com.lmdamato.moneytransfer.util.RequestParser.INVALID_AMOUNT;
+import static com.lmdamato.moneytransfer.util.RequestParser.parseBalance;
+import static com.lmdamato.moneytransfer.util.RequestParser.parseMinorUnits;
+import static org.junit.Assert.assertEquals;
+
+public class RequestParserTest {
+    @Test
+    public void testParseMinorUnits() {
+        assertEquals(1234L, parseMinorUnits("12.34"));
+        assertEquals(1230L, parseMinorUnits("12.3"));
+        assertEquals(1200L, parseMinorUnits("12"));
+        assertEquals(5L, parseMinorUnits("0.05"));
+        assertEquals(1200L, parseMinorUnits("0012.00"));
+        assertEquals(Long.MAX_VALUE, parseMinorUnits("92233720368547758.07"));
+    }
+
+    @Test
+    public void testParseMinorUnitsRejectsInvalidAmounts() {
+        final String[] invalid = {
+            null, "", ".", "12.", ".5", "12.345", "12.340", "-1", "+1", "1e3", "1E3", "1,5", "abc", " 1", "1 ",
+            "0", "0.00", "92233720368547758.08", "99999999999999999999"
+        };
+
+        for (final String amount : invalid) {
+            assertEquals(amount, INVALID_AMOUNT, parseMinorUnits(amount));
+        }
+    }
+
+    @Test
+    public void testParseBalanceAcceptsZero() {
+        assertEquals(0L, parseBalance("0"));
+        assertEquals(0L, parseBalance("0.00"));
+        assertEquals(1234L, parseBalance("12.34"));
+        assertEquals(INVALID_AMOUNT, parseBalance("-1"));
+        assertEquals(INVALID_AMOUNT, parseBalance(""));
+    }
+}